@@ -0,0 +1,315 @@
+package bench;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Runs the engine's microbenchmarks. Works like a stripped down JMH in average time mode: every benchmark is warmed up
+ * for a number of iterations first, then measured for a number of iterations. An iteration calls run() in batches
+ * until its time is up and reports the average time per call. Allocations are measured per thread with the
+ * ThreadMXBean, so the garbage a hot path produces shows up next to its speed.
+ *
+ * Must be started from the project root, as some benchmarks load files from res/. Options:
+ *
+ *   -wi n      warmup iterations (default 5)
+ *   -i n       measurement iterations (default 10)
+ *   -w ms      time per warmup iteration (default 500)
+ *   -r ms      time per measurement iteration (default 500)
+ *   -f regex   only run benchmarks whose id contains a match
+ *   -o file    where to write the results (default bench/results/bench-<timestamp>.json)
+ *   -b file    an earlier result file to compare against
+ *
+ * Results are written in JMH's json format, so the usual tools for comparing and plotting JMH runs can read them.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import logics.ColliderHistoryBench;
+import logics.CollisionBench;
+import logics.PhysicsEntryBench;
+import logics.QuadTreeBench;
+import messaging.MessengerBench;
+import particles.ParticleCreatorBench;
+import rollback.RollbackBench;
+import snapshot.WorldSnapshotBench;
+import components.ComponentContainerBench;
+import glGraphics.ConstructBatcherBench;
+import glGraphics.ConstructBench;
+import glGraphics.DrawListBench;
+import glGraphics.LineStreamBench;
+
+public class BenchRunner {
+
+  private static class Result{
+    private Benchmark b;
+    private double[] nsPerOp;
+    private double allocPerOp;
+  }
+
+  private int warmupIterations = 5;
+  private int iterations = 10;
+  private long warmupTime = 500;
+  private long iterationTime = 500;
+  private Pattern filter;
+  private File output;
+  private File baseline;
+
+  private com.sun.management.ThreadMXBean threads;
+
+  public static void main(String[] args) throws Exception{
+    BenchRunner br = new BenchRunner(args);
+
+    LinkedList<Benchmark> benchmarks = new LinkedList<>();
+    QuadTreeBench.register(benchmarks);
+    CollisionBench.register(benchmarks);
+    PhysicsEntryBench.register(benchmarks);
+    ComponentContainerBench.register(benchmarks);
+    ParticleCreatorBench.register(benchmarks);
+    MessengerBench.register(benchmarks);
+    ConstructBench.register(benchmarks);
+    ConstructBatcherBench.register(benchmarks);
+    LineStreamBench.register(benchmarks);
+    DrawListBench.register(benchmarks);
+    WorldSnapshotBench.register(benchmarks);
+    RollbackBench.register(benchmarks);
+    ColliderHistoryBench.register(benchmarks);
+
+    br.runAll(benchmarks);
+  }
+
+  public BenchRunner(String[] args){
+    for(int i=0;i<args.length;i++){
+      if(i+1 >= args.length) throw new IllegalArgumentException("missing value for "+args[i]);
+      String value = args[++i];
+      switch(args[i-1]){
+      case "-wi": warmupIterations = Integer.parseInt(value); break;
+      case "-i":  iterations = Integer.parseInt(value); break;
+      case "-w":  warmupTime = Long.parseLong(value); break;
+      case "-r":  iterationTime = Long.parseLong(value); break;
+      case "-f":  filter = Pattern.compile(value); break;
+      case "-o":  output = new File(value); break;
+      case "-b":  baseline = new File(value); break;
+      default: throw new IllegalArgumentException("unknown option "+args[i-1]);
+      }
+    }
+    if(iterations < 1) throw new IllegalArgumentException("at least 1 measurement iteration needed");
+
+    if(output == null){
+      String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+      output = new File("bench/results/bench-"+stamp+".json");
+    }
+
+    threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  public void runAll(LinkedList<Benchmark> benchmarks) throws Exception{
+    ArrayList<Result> results = new ArrayList<>();
+    for(Benchmark b : benchmarks){
+      if(filter != null && !filter.matcher(b.getId()).find()) continue;
+      results.add(run(b));
+    }
+
+    write(results);
+    if(baseline != null) compare(results, read(baseline));
+  }
+
+  private Result run(Benchmark b) throws Exception{
+    System.out.println("# "+b.getId());
+    b.setup();
+
+    Result r = new Result();
+    r.b = b;
+    r.nsPerOp = new double[iterations];
+
+    try{
+      //grow the batch until a single one takes about a millisecond, so the timer calls don't dominate
+      long batch = 1;
+      while(time(b, batch) < 1000000 && batch < (1L << 30)){
+        batch *= 2;
+      }
+
+      for(int i=0;i<warmupIterations;i++){
+        double ns = iteration(b, batch, warmupTime, null);
+        System.out.println(String.format(Locale.ROOT, "  warmup %d: %.3f ns/op", i+1, ns));
+      }
+
+      long[] alloc = new long[2];
+      long totalOps = 0;
+      long totalAlloc = 0;
+      for(int i=0;i<iterations;i++){
+        r.nsPerOp[i] = iteration(b, batch, iterationTime, alloc);
+        totalOps += alloc[0];
+        totalAlloc += alloc[1];
+        System.out.println(String.format(Locale.ROOT, "  iteration %d: %.3f ns/op", i+1, r.nsPerOp[i]));
+      }
+      r.allocPerOp = totalAlloc/(double)totalOps;
+    }finally{
+      b.teardown();
+    }
+
+    System.out.println(String.format(Locale.ROOT, "  result: %.3f +- %.3f ns/op, %.1f B/op",
+        mean(r.nsPerOp), error(r.nsPerOp), r.allocPerOp));
+    return r;
+  }
+
+  private static long time(Benchmark b, long batch) throws Exception{
+    long start = System.nanoTime();
+    for(long i=0;i<batch;i++){
+      b.run();
+    }
+    return System.nanoTime() - start;
+  }
+
+  //runs batches for the given time, returns ns/op. If alloc is given, it receives the op count and allocated bytes
+  private double iteration(Benchmark b, long batch, long millis, long[] alloc) throws Exception{
+    long tid = Thread.currentThread().getId();
+    long end = System.nanoTime() + millis*1000000;
+    long ops = 0;
+    long ns = 0;
+    long bytes = threads.getThreadAllocatedBytes(tid);
+
+    while(System.nanoTime() < end){
+      ns += time(b, batch);
+      ops += batch;
+    }
+
+    if(alloc != null){
+      alloc[0] = ops;
+      alloc[1] = threads.getThreadAllocatedBytes(tid) - bytes;
+    }
+    return ns/(double)ops;
+  }
+
+  private static double mean(double[] d){
+    double sum = 0;
+    for(double v : d) sum += v;
+    return sum/d.length;
+  }
+
+  //half width of the 99.9% confidence interval, like JMH reports it. Uses the normal distribution's 3.29,
+  //which underestimates the error for very few iterations
+  private static double error(double[] d){
+    if(d.length < 2) return Double.NaN;
+    double m = mean(d);
+    double sum = 0;
+    for(double v : d) sum += (v-m)*(v-m);
+    return 3.29 * Math.sqrt(sum/(d.length-1)) / Math.sqrt(d.length);
+  }
+
+  private void write(ArrayList<Result> results) throws IOException{
+    if(output.getParentFile() != null) output.getParentFile().mkdirs();
+
+    try (BufferedWriter wr = new BufferedWriter(new FileWriter(output));){
+      wr.write("[");
+      wr.newLine();
+      for(int i=0;i<results.size();i++){
+        wr.write(toJson(results.get(i)));
+        if(i < results.size()-1) wr.write(",");
+        wr.newLine();
+      }
+      wr.write("]");
+      wr.newLine();
+    }
+    System.out.println("Results written to "+output.getPath());
+  }
+
+  //one object per line, so read() doesn't need a full json parser
+  private String toJson(Result r){
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"benchmark\":\"").append(r.b.getName()).append("\",\"mode\":\"avgt\"");
+    sb.append(",\"warmupIterations\":").append(warmupIterations);
+    sb.append(",\"warmupTime\":\"").append(warmupTime).append(" ms\"");
+    sb.append(",\"measurementIterations\":").append(iterations);
+    sb.append(",\"measurementTime\":\"").append(iterationTime).append(" ms\"");
+    if(r.b.getParamName() != null){
+      sb.append(",\"params\":{\"").append(r.b.getParamName()).append("\":\"").append(r.b.getParamValue()).append("\"}");
+    }
+    sb.append(",\"primaryMetric\":{");
+    sb.append("\"score\":").append(number(mean(r.nsPerOp)));
+    sb.append(",\"scoreError\":").append(number(error(r.nsPerOp)));
+    sb.append(",\"scoreUnit\":\"ns/op\"");
+    sb.append(",\"rawData\":[[");
+    for(int i=0;i<r.nsPerOp.length;i++){
+      if(i>0) sb.append(",");
+      sb.append(number(r.nsPerOp[i]));
+    }
+    sb.append("]]}");
+    sb.append(",\"secondaryMetrics\":{\"gc.alloc.rate.norm\":{");
+    sb.append("\"score\":").append(number(r.allocPerOp));
+    sb.append(",\"scoreError\":\"NaN\",\"scoreUnit\":\"B/op\"}}}");
+    return sb.toString();
+  }
+
+  private static String number(double d){
+    if(Double.isNaN(d) || Double.isInfinite(d)) return "\"NaN\"";
+    return String.format(Locale.ROOT, "%.3f", d);
+  }
+
+  private static final Pattern BENCHMARK = Pattern.compile("\"benchmark\":\"([^\"]*)\"");
+  private static final Pattern PARAMS = Pattern.compile("\"params\":\\{\"([^\"]*)\":\"([^\"]*)\"\\}");
+  private static final Pattern SCORE = Pattern.compile("\"score\":(\"?[-0-9.NaN]+\"?)");
+
+  //benchmark id -> {ns/op, B/op}
+  private static HashMap<String, double[]> read(File f) throws IOException{
+    HashMap<String, double[]> scores = new HashMap<>();
+
+    try (BufferedReader br = new BufferedReader(new FileReader(f));){
+      String line;
+      while((line = br.readLine()) != null){
+        Matcher bm = BENCHMARK.matcher(line);
+        if(!bm.find()) continue;
+
+        String id = bm.group(1);
+        Matcher pm = PARAMS.matcher(line);
+        if(pm.find()) id += "("+pm.group(1)+"="+pm.group(2)+")";
+
+        double[] s = new double[]{Double.NaN, Double.NaN};
+        Matcher sm = SCORE.matcher(line);
+        for(int i=0;i<s.length && sm.find();i++){
+          String v = sm.group(1).replace("\"", "");
+          s[i] = v.equals("NaN") ? Double.NaN : Double.parseDouble(v);
+        }
+        scores.put(id, s);
+      }
+    }
+    return scores;
+  }
+
+  private void compare(ArrayList<Result> results, HashMap<String, double[]> base){
+    System.out.println();
+    System.out.println("Compared to "+baseline.getPath()+":");
+
+    char[] pad = new char[60];
+    Arrays.fill(pad, ' ');
+    for(Result r : results){
+      String id = r.b.getId();
+      double[] old = base.get(id);
+      String name = id.length() < pad.length ? id + new String(pad, 0, pad.length-id.length()) : id;
+
+      if(old == null){
+        System.out.println(name+" new");
+        continue;
+      }
+
+      double now = mean(r.nsPerOp);
+      System.out.println(String.format(Locale.ROOT, "%s %10.3f -> %10.3f ns/op (%+.1f%%)   %8.1f -> %8.1f B/op",
+          name, old[0], now, (now-old[0])/old[0]*100, old[1], r.allocPerOp));
+    }
+  }
+}
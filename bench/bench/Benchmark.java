@@ -0,0 +1,64 @@
+package bench;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * A single microbenchmark, run by the BenchRunner. setup() is called once before the warmup, run() is the operation
+ * being measured and is called over and over again. Anything computed in run() should be handed to consume(), so the
+ * JIT can't optimize it away.
+ *
+ * Benchmarks are identified by their name ("Class.method", like JMH does it) and an optional parameter, e.g. the
+ * number of entities, so the same benchmark can be registered for several sizes.
+ *
+ */
+
+public abstract class Benchmark {
+
+  private static volatile Object sinkObj;
+  private static volatile long sinkLong;
+
+  private String name;
+  private String paramName;
+  private String paramValue;
+
+  public Benchmark(String name){
+    this(name, null, null);
+  }
+
+  public Benchmark(String name, String paramName, Object paramValue){
+    this.name = name;
+    this.paramName = paramName;
+    this.paramValue = paramValue == null ? null : paramValue.toString();
+  }
+
+  public void setup() throws Exception{}
+
+  public abstract void run() throws Exception;
+
+  public void teardown() throws Exception{}
+
+  protected static void consume(Object o){
+    sinkObj = o;
+  }
+
+  protected static void consume(long l){
+    sinkLong += l;
+  }
+
+  public String getName(){
+    return name;
+  }
+
+  public String getParamName(){
+    return paramName;
+  }
+
+  public String getParamValue(){
+    return paramValue;
+  }
+
+  public String getId(){
+    if(paramName == null) return name;
+    return name+"("+paramName+"="+paramValue+")";
+  }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Builds the objects benchmarks work with, without needing a window or gl context. PhysicsEntries are created with
+ * a known radius, so no Construct has to be looked up, and everything random is seeded for repeatable runs.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+
+import logics.PhysicsEntry;
+
+import org.lwjgl.util.vector.Vector2f;
+
+import util.Ref;
+import components.ComponentContainer;
+
+public class Fixtures {
+
+  public static final UUID SHAPE = UUID.randomUUID();
+
+  public static PhysicsEntry entry(Random r, float radius){
+    //layer -1 collides with everything, infinite hp keeps everyone alive
+    PhysicsEntry pe = new PhysicsEntry(SHAPE, -1, 100, Double.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, 0, radius);
+    pe.setPosition(new Vector2f(r.nextFloat()*Ref.xRes, r.nextFloat()*Ref.yRes));
+    pe.addMovement(new Vector2f((r.nextFloat()-0.5f)*10000, (r.nextFloat()-0.5f)*10000));
+    pe.rotate((r.nextFloat()-0.5f)*500);
+    return pe;
+  }
+
+  public static ComponentContainer container(Random r, float radius){
+    ComponentContainer cc = new ComponentContainer();
+    cc.registerComponent(entry(r, radius));
+    cc.linkComponents();
+    return cc;
+  }
+
+  public static ArrayList<PhysicsEntry> entries(long seed, int n, float minRadius, float maxRadius){
+    Random r = new Random(seed);
+    ArrayList<PhysicsEntry> list = new ArrayList<>(n);
+    for(int i=0;i<n;i++){
+      ComponentContainer cc = container(r, minRadius + r.nextFloat()*(maxRadius-minRadius));
+      list.add((PhysicsEntry)cc.getComponents("core").iterator().next());
+    }
+    return list;
+  }
+}
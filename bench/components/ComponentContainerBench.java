@@ -0,0 +1,47 @@
+package components;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Copying a container, which happens for every spawned entity and particle, and looking up components by tag.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Random;
+
+import bench.Benchmark;
+import bench.Fixtures;
+
+public class ComponentContainerBench {
+
+  public static void register(Collection<Benchmark> list){
+    list.add(new Benchmark("ComponentContainerBench.copy"){
+      private ComponentContainer pattern;
+
+      @Override
+      public void setup(){
+        pattern = Fixtures.container(new Random(42), 10);
+      }
+
+      @Override
+      public void run(){
+        consume(pattern.copy());
+      }
+    });
+
+    list.add(new Benchmark("ComponentContainerBench.getComponents"){
+      private ComponentContainer cc;
+
+      @Override
+      public void setup(){
+        cc = Fixtures.container(new Random(42), 10);
+      }
+
+      @Override
+      public void run(){
+        consume(cc.getComponents("graphics"));
+      }
+    });
+  }
+}
@@ -0,0 +1,71 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Batching a frame's instances by construct, the cpu side of instanced drawing: adding every instance, grouping
+ * them and clearing for the next frame. The draw calls this leaves, one per group instead of one per instance, are
+ * printed during setup.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.UUID;
+
+import util.Ref;
+import bench.Benchmark;
+
+public class ConstructBatcherBench {
+
+  private static final int[] INSTANCES = {300, 3000};
+  //asteroids come in a few shapes, particles and upgrades in some more
+  private static final int[] SHAPES = {3, 30};
+  private static final int STRIDE = 8;
+
+  public static void register(Collection<Benchmark> list){
+    for(final int n : INSTANCES){
+      for(final int shapes : SHAPES){
+        list.add(new Benchmark("ConstructBatcherBench.batch", "size", n+"x"+shapes){
+          private ConstructBatcher b;
+          private float[] instances;
+          private UUID[] constructs;
+
+          @Override
+          public void setup(){
+            b = new ConstructBatcher();
+            Random r = new Random(42);
+            UUID[] pool = new UUID[shapes];
+            for(int i=0;i<shapes;i++){
+              pool[i] = UUID.randomUUID();
+            }
+            instances = new float[n*STRIDE];
+            constructs = new UUID[n];
+            for(int i=0;i<n;i++){
+              constructs[i] = pool[r.nextInt(shapes)];
+              instances[i*STRIDE+0] = r.nextFloat()*Ref.xRes;
+              instances[i*STRIDE+1] = r.nextFloat()*Ref.yRes;
+              instances[i*STRIDE+2] = r.nextFloat()*6.28f;
+              instances[i*STRIDE+3] = 1+r.nextFloat();
+              for(int c=4;c<8;c++){
+                instances[i*STRIDE+c] = r.nextFloat();
+              }
+            }
+            run();
+            System.out.println("  "+n+" instances of "+shapes+" shapes: "+b.getGroupCount()+" draw calls instead of "+n);
+          }
+
+          @Override
+          public void run(){
+            b.clear();
+            for(int i=0;i<n;i++){
+              b.add(constructs[i], instances, i*STRIDE);
+            }
+            b.build();
+            consume(b.getData());
+          }
+        });
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Checks the grouping of a ConstructBatcher without a display:
+ *
+ *   java glGraphics.ConstructBatcherTest
+ *
+ * Several frames are batched in a row, with clear() between them and a construct dropped by forget() on the way.
+ * Each frame is compared to a plain grouping of the same instances: the groups in the order their first instance
+ * was added, getFirst() and getCount() covering each group's range of getData() back to back, and the instances of
+ * a group in the order they were added. Every instance gets its own x, which tells them apart in getData().
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import logics.RenderExtractor;
+
+public class ConstructBatcherTest {
+
+  private static int failures;
+  private static float nextX;
+
+  private static void check(boolean ok, String what){
+    if(ok) return;
+    failures++;
+    System.out.println("  failed: "+what);
+  }
+
+  //adds the constructs in order to b and checks the frame, then clears b for the next one
+  private static void frame(String name, ConstructBatcher b, UUID... order){
+    float[] instance = new float[RenderExtractor.STRIDE];
+    LinkedHashMap<UUID, List<Float>> expected = new LinkedHashMap<>();
+    for(UUID u : order){
+      instance[0] = nextX++;
+      instance[3] = 1;
+      b.add(u, instance, 0);
+      if(!expected.containsKey(u)) expected.put(u, new ArrayList<Float>());
+      expected.get(u).add(instance[0]);
+    }
+    b.build();
+
+    System.out.println(name+": "+order.length+" instances in "+expected.size()+" groups");
+    check(b.getInstanceCount() == order.length, name+" instance count "+b.getInstanceCount());
+    check(b.getGroupCount() == expected.size(), name+" group count "+b.getGroupCount());
+
+    float[] data = b.getData();
+    int g = 0;
+    int next = 0;
+    for(Map.Entry<UUID, List<Float>> e : expected.entrySet()){
+      if(g >= b.getGroupCount()) break;
+      check(e.getKey().equals(b.getConstruct(g)), name+" group "+g+" is not the "+g+". construct added");
+      check(b.getFirst(g) == next, name+" group "+g+" starts at "+b.getFirst(g)+", not "+next);
+      check(b.getCount(g) == e.getValue().size(), name+" group "+g+" has "+b.getCount(g)+" instances, not "+e.getValue().size());
+      for(int i=0;i<Math.min(b.getCount(g), e.getValue().size());i++){
+        float x = data[(b.getFirst(g)+i)*InstanceBatcher.FLOATS];
+        check(x == e.getValue().get(i), name+" instance "+i+" of group "+g+" is "+x+", not "+e.getValue().get(i));
+      }
+      next += e.getValue().size();
+      g++;
+    }
+
+    b.clear();
+    check(b.getInstanceCount() == 0 && b.getGroupCount() == 0, name+" not empty after clear()");
+  }
+
+  public static void main(String[] args){
+    UUID a = UUID.randomUUID();
+    UUID b = UUID.randomUUID();
+    UUID c = UUID.randomUUID();
+    ConstructBatcher batcher = new ConstructBatcher();
+
+    frame("interleaved", batcher, a, b, a, c, b, a);
+    //the groups of the last frame don't decide the order of this one
+    frame("reordered", batcher, c, a, c);
+    frame("empty", batcher);
+    batcher.forget(a);
+    frame("forgotten", batcher, b, a, a);
+    batcher.forget(b);
+    batcher.forget(c);
+    frame("all forgotten", batcher, a, c, b, c);
+
+    //more groups and instances than the arrays start with, so they grow during the frame
+    Random r = new Random(42);
+    UUID[] shapes = new UUID[40];
+    for(int i=0;i<shapes.length;i++){
+      shapes[i] = UUID.randomUUID();
+    }
+    for(int n : new int[]{5000, 300, 5000}){
+      UUID[] order = new UUID[n];
+      for(int i=0;i<n;i++){
+        order[i] = shapes[r.nextInt(shapes.length)];
+      }
+      frame("random "+n, batcher, order);
+    }
+
+    if(failures > 0){
+      System.out.println(failures+" checks failed");
+      System.exit(1);
+    }
+    System.out.println("All frames grouped as added");
+  }
+}
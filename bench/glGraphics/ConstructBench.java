@@ -0,0 +1,45 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Filling the vertex array of a Construct, the cpu side of every bake. Dynamic constructs do this each frame.
+ *
+ */
+
+import java.util.Collection;
+
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector4f;
+
+import bench.Benchmark;
+
+public class ConstructBench {
+
+  private static final int[] LINES = {16, 64, 256};
+
+  public static void register(Collection<Benchmark> list){
+    for(final int n : LINES){
+      list.add(new Benchmark("ConstructBench.bakeVertexBuffer", "lines", n){
+        private Construct c;
+
+        @Override
+        public void setup(){
+          c = new Construct();
+          Vector4f color = new Vector4f(1,1,1,1);
+          for(int i=0;i<n;i++){
+            double a = i*Math.PI*2/n;
+            double b = (i+1)*Math.PI*2/n;
+            c.addLine(new Line(new Vertex(new Vector2f((float)Math.cos(a), (float)Math.sin(a)), color),
+                               new Vertex(new Vector2f((float)Math.cos(b), (float)Math.sin(b)), color)));
+          }
+        }
+
+        @Override
+        public void run(){
+          consume(c.bakeVertexBuffer());
+        }
+      });
+    }
+  }
+}
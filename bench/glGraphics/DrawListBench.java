@@ -0,0 +1,85 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Sorting a frame's draw orders by their keys in a DrawList, always by radix sort in "radix", always by Arrays.sort()
+ * in "arraysSort", which is where Ref.DRAW_RADIX_MIN comes from. Both include adding the keys. The orders are a mix
+ * like the HUD and menus give, on two layers: the model files' line widths of 1, 2 and 5, a few dozen constructs and
+ * the GuiButtons' colors, in random order. The state changes before and after sorting are printed once per size.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Random;
+
+import bench.Benchmark;
+
+public class DrawListBench {
+
+  private static final int[] ORDERS = {256, 2048, 8192};
+  private static final float[] WIDTHS = {1, 2, 2, 5};
+  private static final float[][] COLORS = {{1, 1, 1, 1}, {0.6f, 0.1f, 1.1f, 1}, {1.6f, 1.1f, 2.1f, 1}, {0.8f, 0.3f, 1.3f, 1}};
+
+  private static long[] keys(int n){
+    Random r = new Random(42);
+    long[] keys = new long[n];
+    for(int i=0;i<n;i++){
+      float[] c = COLORS[r.nextInt(COLORS.length)];
+      int layer = r.nextInt(8) == 0 ? glGraphics.LAYER_OVERLAY : glGraphics.LAYER_HUD;
+      keys[i] = DrawList.key(layer, 1, WIDTHS[r.nextInt(WIDTHS.length)], r.nextInt(40), c[0], c[1], c[2], c[3], i);
+    }
+    return keys;
+  }
+
+  public static void register(Collection<Benchmark> list){
+    for(final int n : ORDERS){
+      list.add(new Benchmark("DrawListBench.radix", "orders", n){
+        private long[] keys;
+        private DrawList dl;
+
+        @Override
+        public void setup(){
+          keys = keys(n);
+          dl = new DrawList(0);
+          for(long k : keys){
+            dl.add(k);
+          }
+          dl.sort();
+          System.out.println("  "+n+" orders: "+dl.getChangesBefore()+" state changes submitted, "+dl.getChangesAfter()+" sorted");
+        }
+
+        @Override
+        public void run(){
+          dl.clear();
+          for(long k : keys){
+            dl.add(k);
+          }
+          dl.sort();
+          consume(dl.getIndex(0));
+        }
+      });
+
+      list.add(new Benchmark("DrawListBench.arraysSort", "orders", n){
+        private long[] keys;
+        private DrawList dl;
+
+        @Override
+        public void setup(){
+          keys = keys(n);
+          dl = new DrawList(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void run(){
+          dl.clear();
+          for(long k : keys){
+            dl.add(k);
+          }
+          dl.sort();
+          consume(dl.getIndex(0));
+        }
+      });
+    }
+  }
+}
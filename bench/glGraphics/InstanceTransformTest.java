@@ -0,0 +1,112 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Checks without a display that the packed instance transforms draw where the model matrices did:
+ *
+ *   java glGraphics.InstanceTransformTest [instances]
+ *
+ * Random instances are packed by a ConstructBatcher. Each one's TRANSFORM floats are applied to a few vertices the way
+ * lineInstanced.vsh does, and through glGraphics.setModel(), and compared to the matrix drawConstruct() used to build
+ * from translate, rotate and scale. Non-uniform scales, as the HUD uses them, are compared through setModel() only.
+ *
+ */
+
+import java.util.Random;
+import java.util.UUID;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+import logics.RenderExtractor;
+
+public class InstanceTransformTest {
+
+  //in pixels
+  private static final float EPSILON = 1e-3f;
+  private static final float[][] VERTICES = {{0, 0}, {1, 0}, {0, 1}, {-17.5f, 42}, {60, -60}};
+
+  private static float maxError;
+
+  //the model matrix as drawConstruct() built it from the construct's position, rotation and scale
+  private static Matrix4f matrix(float x, float y, float rotation, float scaleX, float scaleY){
+    Matrix4f m = new Matrix4f();
+    m.translate(new Vector2f(x, y));
+    Matrix4f.mul(m, new Matrix4f().rotate(-rotation, new Vector3f(0,0,1)), m);
+    Matrix4f.mul(m, new Matrix4f().scale(new Vector3f(scaleX, scaleY, 1)), m);
+    return m;
+  }
+
+  private static void compare(Matrix4f expected, float[] t, int k){
+    Matrix4f model = glGraphics.setModel(new Matrix4f(), t[k+0], t[k+1], t[k+2], t[k+3], t[k+4]);
+    for(float[] v : VERTICES){
+      Vector4f e = Matrix4f.transform(expected, new Vector4f(v[0], v[1], 0, 1), null);
+      Vector4f m = Matrix4f.transform(model, new Vector4f(v[0], v[1], 0, 1), null);
+
+      //lineInstanced.vsh
+      float s = (float)Math.sin(-t[k+2]);
+      float c = (float)Math.cos(-t[k+2]);
+      float qx = v[0]*t[k+3];
+      float qy = v[1]*t[k+4];
+      float px = c*qx - s*qy + t[k+0];
+      float py = s*qx + c*qy + t[k+1];
+
+      maxError = Math.max(maxError, Math.max(Math.abs(e.x-m.x), Math.abs(e.y-m.y)));
+      maxError = Math.max(maxError, Math.max(Math.abs(e.x-px), Math.abs(e.y-py)));
+    }
+  }
+
+  public static void main(String[] args){
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    Random r = new Random(42);
+
+    ConstructBatcher b = new ConstructBatcher();
+    UUID shape = UUID.randomUUID();
+    float[] instances = new float[n*RenderExtractor.STRIDE];
+    for(int i=0;i<n;i++){
+      int o = i*RenderExtractor.STRIDE;
+      instances[o+0] = r.nextFloat()*1280;
+      instances[o+1] = r.nextFloat()*720;
+      instances[o+2] = (r.nextFloat()-0.5f)*100;
+      instances[o+3] = 0.1f+r.nextFloat()*4;
+      for(int c=4;c<8;c++){
+        instances[o+c] = r.nextFloat()*2;
+      }
+      b.add(shape, instances, o);
+    }
+    b.build();
+
+    float[] data = b.getData();
+    int wrongColor = 0;
+    for(int i=0;i<n;i++){
+      int o = i*RenderExtractor.STRIDE;
+      int k = i*InstanceBatcher.FLOATS;
+      compare(matrix(instances[o+0], instances[o+1], instances[o+2], instances[o+3], instances[o+3]), data, k);
+      for(int c=0;c<4;c++){
+        if(data[k+InstanceBatcher.TRANSFORM+c] != instances[o+4+c]) wrongColor++;
+      }
+    }
+
+    //the HUD's status bars are only scaled along x
+    float[] t = new float[InstanceBatcher.TRANSFORM];
+    for(int i=0;i<n;i++){
+      t[0] = r.nextFloat()*1280;
+      t[1] = r.nextFloat()*720;
+      t[2] = (r.nextFloat()-0.5f)*100;
+      t[3] = r.nextFloat()*4;
+      t[4] = r.nextFloat()*4;
+      compare(matrix(t[0], t[1], t[2], t[3], t[4]), t, 0);
+    }
+
+    System.out.println(n+" instances, "+n+" non-uniform transforms: largest difference "+maxError+" px, "
+        +wrongColor+" wrong colorMod channels");
+    if(maxError > EPSILON || wrongColor > 0){
+      System.out.println("Packed transforms don't match the matrices");
+      System.exit(1);
+    }
+    System.out.println("Packed transforms match the matrices");
+  }
+}
@@ -0,0 +1,67 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * The cpu side of drawing loose lines, for a sparkline of the PerformanceOverlay's size. "append" streams its
+ * segments into a LineStream, "constructPerCall" does what drawLines() did before the LineStream: collect the points,
+ * build a one frame Construct from them and bake its vertices into a fresh direct buffer.
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector4f;
+
+import bench.Benchmark;
+
+public class LineStreamBench {
+
+  private static final int[] SEGMENTS = {128, 1024};
+  private static final Vector4f COLOR = new Vector4f(0.3f, 1f, 0.4f, 1f);
+
+  public static void register(Collection<Benchmark> list){
+    for(final int n : SEGMENTS){
+      list.add(new Benchmark("LineStreamBench.append", "segments", n){
+        private LineStream ls;
+
+        @Override
+        public void setup(){
+          ls = new LineStream();
+        }
+
+        @Override
+        public void run(){
+          ls.clear();
+          ls.startRun(1);
+          for(int i=0;i<n;i++){
+            ls.line(i, (i*7) % 60, i+1, ((i+1)*7) % 60, COLOR);
+          }
+          consume(ls.getVertexCount());
+        }
+      });
+
+      list.add(new Benchmark("LineStreamBench.constructPerCall", "segments", n){
+        @Override
+        public void run(){
+          ArrayList<Vector2f> ll = new ArrayList<>(n*2);
+          for(int i=0;i<n;i++){
+            ll.add(new Vector2f(i, (i*7) % 60));
+            ll.add(new Vector2f(i+1, ((i+1)*7) % 60));
+          }
+          Construct c = new Construct();
+          c.buildLines(ll, COLOR, true);
+          float[] verts = c.bakeVertexBuffer();
+          FloatBuffer buff = (ByteBuffer.allocateDirect(verts.length*(Float.SIZE/8)).order(ByteOrder.nativeOrder())).asFloatBuffer();
+          buff.put(verts);
+          consume(buff);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * The cost of lag compensation, at several entity counts. "record" keeps one tick in a ColliderHistory like every
+ * tick of a hosted game does, "rewindShot" walks a shot along its path through each tick of the last Ref.LAG_MAX ms,
+ * as PhysicsManager.rewind() does. It doesn't stop at the first hit, so every tick is queried: the most a single shot
+ * costs. The memory the full history holds is printed during setup.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.lwjgl.util.vector.Vector2f;
+
+import util.DenseList;
+import util.Ref;
+import bench.Benchmark;
+import bench.Fixtures;
+import components.CollisionComponent;
+
+public class ColliderHistoryBench {
+
+  private static final int[] SIZES = {1000, 10000};
+
+  public static void register(Collection<Benchmark> list){
+    for(final int n : SIZES){
+      list.add(new Benchmark("ColliderHistoryBench.record", "entities", n){
+        private ColliderHistory h;
+        private DenseList<CollisionComponent> colliders;
+        private long time;
+
+        @Override
+        public void setup(){
+          h = new ColliderHistory();
+          colliders = colliders(n);
+          for(int i=0;i<Ref.LAG_HISTORY;i++){
+            h.record(time += Ref.PHYS_T_STEP, colliders);
+          }
+          System.out.println("  history of "+n+" entities: "+h.getMemory()/1024+" KiB");
+        }
+
+        @Override
+        public void run(){
+          h.record(time += Ref.PHYS_T_STEP, colliders);
+        }
+      });
+
+      list.add(new Benchmark("ColliderHistoryBench.rewindShot", "entities", n){
+        private ColliderHistory h;
+        private ArrayList<PhysicsEntry> shots;
+        private long time;
+        private int next;
+
+        @Override
+        public void setup(){
+          h = new ColliderHistory();
+          DenseList<CollisionComponent> colliders = colliders(n);
+          for(int i=0;i<Ref.LAG_HISTORY;i++){
+            h.record(time += Ref.PHYS_T_STEP, colliders);
+          }
+          shots = Fixtures.entries(7, 256, 3, 3);
+        }
+
+        @Override
+        public void run(){
+          next = (next+1) % shots.size();
+          PhysicsEntry pe = shots.get(next);
+          Vector2f pos = pe.getPosition();
+          Vector2f v = pe.getV_Impulse();
+          long view = time-Ref.LAG_MAX;
+          int hits = 0;
+          for(long t=view;t<time;t+=Ref.PHYS_T_STEP){
+            float s = (t-view)/1000f;
+            float x = (pos.x+v.x*s+Ref.xRes) % Ref.xRes;
+            float y = (pos.y+v.y*s+Ref.yRes) % Ref.yRes;
+            if(h.query(t, x, y, pe.getRadius(), pe.getLayer(), pe) != null) hits++;
+          }
+          consume(hits);
+        }
+      });
+    }
+  }
+
+  private static DenseList<CollisionComponent> colliders(int n){
+    DenseList<CollisionComponent> colliders = new DenseList<>(n);
+    for(PhysicsEntry pe : Fixtures.entries(42, n, 5, 20)){
+      colliders.add(pe);
+    }
+    return colliders;
+  }
+}
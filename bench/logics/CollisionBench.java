@@ -0,0 +1,54 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * One collision pass of the PhysicsManager: rebuilding the QuadTree, the narrowphase tests and resolving the contacts.
+ * The entities are introduced through ENTITY_MGR messages, exactly like in the game, but the Worker is never started,
+ * so the pass runs on the benchmark thread. Everyone has infinite hp, so the population stays the same.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Random;
+
+import messaging.Message;
+import messaging.Message.ENT;
+import messaging.Message.ENT_Param;
+import messaging.Message.M_TYPE;
+import bench.Benchmark;
+import bench.Fixtures;
+
+public class CollisionBench {
+
+  private static final int[] SIZES = {64, 512, 2048};
+
+  public static void register(Collection<Benchmark> list){
+    for(final int n : SIZES){
+      list.add(new Benchmark("CollisionBench.updateCollisions", "entities", n){
+        private PhysicsManager phm;
+        private long now;
+
+        @Override
+        public void setup(){
+          phm = new PhysicsManager();
+          Random r = new Random(42);
+          for(int i=0;i<n;i++){
+            Message m = Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(Fixtures.container(r, 5+r.nextFloat()*15), ENT.ADD));
+            phm.handleMessage(m);
+            m.release();
+          }
+          phm.drainMessages();
+          phm.updateLists();
+          now = 0;
+        }
+
+        @Override
+        public void run(){
+          //every component is checked only once per tick, so the tick has to advance
+          phm.updateCollisions(++now);
+        }
+      });
+    }
+  }
+}
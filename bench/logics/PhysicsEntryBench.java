@@ -0,0 +1,60 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * The per entity work of a tick and a frame: integrating a PhysicsEntry, publishing its snapshot, and writing its
+ * render instance. Cycles through 1024 entries, so the numbers aren't those of a single, always cached object.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import bench.Benchmark;
+import bench.Fixtures;
+
+public class PhysicsEntryBench {
+
+  private static final int ENTRIES = 1024;
+
+  public static void register(Collection<Benchmark> list){
+    list.add(new Benchmark("PhysicsEntryBench.update"){
+      private ArrayList<PhysicsEntry> entries;
+      private int next;
+
+      @Override
+      public void setup(){
+        entries = Fixtures.entries(42, ENTRIES, 5, 20);
+      }
+
+      @Override
+      public void run(){
+        next = (next+1) & (ENTRIES-1);
+        entries.get(next).update(0.016f);
+      }
+    });
+
+    list.add(new Benchmark("PhysicsEntryBench.publishAndWrite"){
+      private ArrayList<PhysicsEntry> entries;
+      private float[] instance = new float[RenderExtractor.STRIDE];
+      private int next;
+      private long now;
+
+      @Override
+      public void setup(){
+        entries = Fixtures.entries(42, ENTRIES, 5, 20);
+      }
+
+      @Override
+      public void run(){
+        next = (next+1) & (ENTRIES-1);
+        PhysicsEntry pe = entries.get(next);
+        now += 16;
+        pe.publish(now);
+        pe.writeInstance(now+8, instance, 0);
+        consume(instance);
+      }
+    });
+  }
+}
@@ -0,0 +1,70 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Rebuilding the QuadTree and querying it, at several entity counts. "insert" clears and refills the tree like
+ * every physics tick does, "getCandidates" is a single broadphase query against a filled tree.
+ *
+ */
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import util.Ref;
+import bench.Benchmark;
+import bench.Fixtures;
+
+public class QuadTreeBench {
+
+  private static final int[] SIZES = {64, 512, 2048};
+
+  public static void register(Collection<Benchmark> list){
+    for(final int n : SIZES){
+      list.add(new Benchmark("QuadTreeBench.insert", "entities", n){
+        private QuadTree qt;
+        private ArrayList<PhysicsEntry> entries;
+
+        @Override
+        public void setup(){
+          qt = tree();
+          entries = Fixtures.entries(42, n, 5, 20);
+        }
+
+        @Override
+        public void run(){
+          qt.clear();
+          for(int i=0;i<entries.size();i++){
+            qt.insert(entries.get(i));
+          }
+        }
+      });
+
+      list.add(new Benchmark("QuadTreeBench.getCandidates", "entities", n){
+        private QuadTree qt;
+        private ArrayList<PhysicsEntry> entries;
+        private int next;
+
+        @Override
+        public void setup(){
+          qt = tree();
+          entries = Fixtures.entries(42, n, 5, 20);
+          for(PhysicsEntry pe : entries){
+            qt.insert(pe);
+          }
+        }
+
+        @Override
+        public void run(){
+          next = (next+1) % entries.size();
+          consume(qt.getCandidates(entries.get(next).getSquareBounds()));
+        }
+      });
+    }
+  }
+
+  private static QuadTree tree(){
+    return new QuadTree(new Rectangle2D.Double(0, 0, Ref.xRes, Ref.yRes), Ref.maxDepth, Ref.maxItems, 0);
+  }
+}
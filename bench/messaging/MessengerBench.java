@@ -0,0 +1,58 @@
+package messaging;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Sending pooled messages through the Messenger and dispatching them to a subscriber, in bursts like a frame sends
+ * them. One op is a whole burst: obtaining, posting, draining, firing and releasing every message.
+ *
+ */
+
+import java.util.Collection;
+
+import messaging.Message.ENT;
+import messaging.Message.ENT_Param;
+import messaging.Message.M_TYPE;
+import bench.Benchmark;
+import components.ComponentContainer;
+
+public class MessengerBench {
+
+  private static final int[] BURSTS = {1, 64};
+
+  public static void register(Collection<Benchmark> list){
+    for(final int n : BURSTS){
+      list.add(new Benchmark("MessengerBench.sendAndUpdate", "messages", n){
+        private Handler h;
+        private ComponentContainer cc;
+        private long received;
+
+        @Override
+        public void setup(){
+          cc = new ComponentContainer();
+          h = new Handler(){
+            @Override
+            public void handleMessage(Message m) {
+              if(m.getParam(ENT_Param.class).cc == cc) received++;
+            }
+          };
+          Messenger.subscribe(h, M_TYPE.ENTITY_MGR);
+        }
+
+        @Override
+        public void run(){
+          for(int i=0;i<n;i++){
+            Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(cc, ENT.ADD)));
+          }
+          Messenger.update();
+          consume(received);
+        }
+
+        @Override
+        public void teardown(){
+          Messenger.unsubscribe(h);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package net;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Loads a GameServer with bots over loopback, to see how many players a server core carries:
+ *
+ *   java net.NetLoadTest [bots] [seconds]
+ *
+ * Must be started from the project root. The server runs on its own thread and reports its tick cost and the
+ * bandwidth of every client as usual. The bots join, hold random buttons for a while, acknowledge and decode every
+ * snapshot like a GameClient does, and report what arrived at their end.
+ *
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Locale;
+import java.util.Random;
+
+import glGraphics.AppWindow;
+import glGraphics.glGraphics;
+import states.Game;
+import util.Ref;
+import util.SimpleLogger;
+
+public class NetLoadTest {
+
+  private static final int PORT = Ref.NET_PORT+1;
+
+  private static class Bot{
+    private DatagramChannel channel;
+    private StateReceiver receiver = new StateReceiver();
+    private ByteBuffer in = ByteBuffer.allocateDirect(NetProtocol.MAX_PACKET);
+    private ByteBuffer out = ByteBuffer.allocateDirect(64);
+    private Random rand;
+    private boolean joined;
+    private int seq;
+    private byte buttons;
+    private long bytes;
+    private long decodeNs;
+
+    private Bot(int i) throws IOException{
+      rand = new Random(i);
+      channel = DatagramChannel.open();
+      channel.configureBlocking(false);
+      channel.connect(new InetSocketAddress("localhost", PORT));
+    }
+
+    private void tick() throws IOException{
+      while(true){
+        in.clear();
+        int n = channel.read(in);
+        if(n <= 0) break;
+        in.flip();
+        byte type = in.get();
+        if(type == NetProtocol.WELCOME){
+          joined = true;
+        }else if(type == NetProtocol.STATE){
+          bytes += n;
+          in.getInt();
+          in.getInt();
+          long start = System.nanoTime();
+          receiver.receive(in);
+          decodeNs += System.nanoTime()-start;
+        }
+      }
+
+      out.clear();
+      if(!joined){
+        if(seq++ % 25 == 0) NetProtocol.putHello(out);
+      }else{
+        if(rand.nextInt(50) == 0) buttons = (byte)rand.nextInt(32);
+        NetProtocol.putInput(out, ++seq, buttons, receiver.getLatestTime());
+      }
+      out.flip();
+      if(out.hasRemaining()) channel.write(out);
+    }
+  }
+
+  public static void main(String[] args) throws Exception{
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    AppWindow.glx = new glGraphics();
+    Game game = new Game(false);
+    game.host();
+    game.activate();
+    final GameServer server = new GameServer(game, PORT);
+    Thread t = new Thread(){
+      @Override
+      public void run() {
+        server.run();
+      }
+    };
+    t.start();
+
+    Bot[] bots = new Bot[count];
+    for(int i=0;i<count;i++){
+      bots[i] = new Bot(i);
+    }
+
+    long end = System.currentTimeMillis()+seconds*1000L;
+    while(System.currentTimeMillis() < end){
+      for(Bot b : bots){
+        b.tick();
+      }
+      Thread.sleep(Ref.PHYS_T_STEP);
+    }
+
+    server.stop();
+    t.join();
+    server.close();
+    game.deactivate();
+
+    long bytes = 0, decode = 0;
+    int snapshots = 0, dropped = 0;
+    for(Bot b : bots){
+      bytes += b.bytes;
+      decode += b.decodeNs;
+      snapshots += b.receiver.getReceived();
+      dropped += b.receiver.getDropped();
+      b.channel.close();
+    }
+    System.out.println(String.format(Locale.ROOT,
+        "%d bots: %.1f kB/s each, %d snapshots decoded (%d dropped), %.3fms per decode",
+        count, bytes/1024d/seconds/count, snapshots, dropped, snapshots == 0 ? 0 : decode/1000000d/snapshots));
+    SimpleLogger.shutdown();
+    System.exit(0);
+  }
+}
@@ -0,0 +1,181 @@
+package net;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Streams a synthetic world to hundreds of spectators over loopback, to see what each of them costs a
+ * SpectatorServer:
+ *
+ *   java net.SpectatorLoadTest [spectators] [entities] [seconds]
+ *
+ * The world is made of bench.Fixtures entries, moved and captured every Ref.NET_SEND_TICKS ticks. A tenth of the
+ * spectators read only a few kB every 100ms and have to skip to keyframes, the others read everything. A few of
+ * those decode the whole chain of frames, each against the one before, to check that no frame went missing.
+ *
+ */
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import logics.PhysicsEntry;
+import snapshot.SnapshotCodec;
+import snapshot.WorldSnapshot;
+import util.Ref;
+import util.SimpleLogger;
+import bench.Fixtures;
+
+public class SpectatorLoadTest {
+
+  private static final int PORT = Ref.NET_PORT+2;
+  private static final int DECODING = 4;
+
+  private static class Spectator{
+    private SocketChannel channel;
+    private ByteBuffer in = ByteBuffer.allocate(1 << 20);
+    private boolean slow;
+    private boolean decoding;
+    private boolean started;
+    private long nextRead;
+    private WorldSnapshot last;
+    private long bytes;
+    private int frames;
+    private int keyframes;
+    private int broken;
+
+    private Spectator(boolean slow, boolean decoding) throws Exception{
+      this.slow = slow;
+      this.decoding = decoding;
+      channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT));
+      channel.configureBlocking(false);
+    }
+
+    private void read(long now) throws Exception{
+      if(slow){
+        if(now < nextRead) return;
+        nextRead = now+100;
+        in.limit(Math.min(in.capacity(), in.position()+4096));
+      }
+      while(true){
+        int n = channel.read(in);
+        if(n <= 0) break;
+        bytes += n;
+        if(slow) break;
+      }
+      in.limit(in.capacity());
+
+      in.flip();
+      if(!started && in.remaining() >= 4){
+        if(in.getInt() != SpectatorServer.MAGIC) broken++;
+        started = true;
+      }
+      while(in.remaining() >= 4 && in.remaining() >= 4+in.getInt(in.position())){
+        int len = in.getInt();
+        int end = in.position()+len;
+        frame(in.duplicate());
+        in.position(end);
+      }
+      in.compact();
+      if(!in.hasRemaining()){
+        ByteBuffer b = ByteBuffer.allocate(in.capacity()*2);
+        in.flip();
+        b.put(in);
+        in = b;
+      }
+    }
+
+    private void frame(ByteBuffer src){
+      frames++;
+      long base = SnapshotCodec.getBaseTime(src);
+      if(base < 0) keyframes++;
+      if(!decoding) return;
+
+      if(base >= 0 && (last == null || last.getTime() != base)){
+        broken++;
+        last = null;
+        return;
+      }
+      last = SnapshotCodec.decode(src, base < 0 ? null : last);
+    }
+  }
+
+  private static WorldSnapshot capture(ArrayList<PhysicsEntry> world, long now){
+    WorldSnapshot s = new WorldSnapshot(now, world.size());
+    for(PhysicsEntry pe : world){
+      s.add(pe.getComponentContainer(), pe);
+    }
+    s.finish();
+    return s;
+  }
+
+  public static void main(String[] args) throws Exception{
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int entities = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    long interval = Ref.NET_SEND_TICKS*Ref.PHYS_T_STEP;
+
+    ArrayList<PhysicsEntry> world = Fixtures.entries(42, entities, 2, 40);
+    for(PhysicsEntry pe : world){
+      pe.getComponentContainer().setPattern("bench");
+    }
+
+    SpectatorServer server = new SpectatorServer(PORT);
+    Spectator[] spectators = new Spectator[count];
+    for(int i=0;i<count;i++){
+      spectators[i] = new Spectator(i % 10 == 9, i < DECODING);
+    }
+
+    long start = System.currentTimeMillis();
+    long end = start+seconds*1000L;
+    long next = start;
+    long time = 0;
+    int published = 0;
+    while(System.currentTimeMillis() < end){
+      long now = System.currentTimeMillis();
+      if(now >= next){
+        for(PhysicsEntry pe : world){
+          pe.update(interval/1000f);
+        }
+        time += interval;
+        server.publish(capture(world, time));
+        published++;
+        next += interval;
+      }
+      for(Spectator s : spectators){
+        s.read(now);
+      }
+      Thread.sleep(1);
+    }
+
+    server.close();
+
+    long fast = 0, slow = 0;
+    int fastCount = 0, frames = 0, slowFrames = 0, keyframes = 0, broken = 0, decoded = 0;
+    for(Spectator s : spectators){
+      if(s.slow){
+        slow += s.bytes;
+        slowFrames += s.frames;
+        keyframes += s.keyframes;
+      }else{
+        fast += s.bytes;
+        frames += s.frames;
+        fastCount++;
+      }
+      if(s.decoding) decoded += s.frames;
+      broken += s.broken;
+      s.channel.close();
+    }
+    int slowCount = count-fastCount;
+    System.out.println(String.format(Locale.ROOT,
+        "%d frames published. %d spectators read %.1f kB/s and %.1f frames each, %d slow ones %.1f kB/s and %.1f "
+        + "frames, %.1f of them keyframes. %d frames decoded, %d broken",
+        published, fastCount, fast/1024d/seconds/fastCount, frames/(double)fastCount, slowCount,
+        slowCount == 0 ? 0 : slow/1024d/seconds/slowCount, slowCount == 0 ? 0 : slowFrames/(double)slowCount,
+        slowCount == 0 ? 0 : keyframes/(double)slowCount, decoded, broken));
+    SimpleLogger.shutdown();
+    System.exit(0);
+  }
+}
@@ -0,0 +1,60 @@
+package particles;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Particle generation for one tick, with a number of running exhaust systems. The systems' timers are never advanced,
+ * so they keep emitting for the whole run.
+ *
+ */
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Random;
+
+import logics.TimerWheel;
+
+import org.lwjgl.util.vector.Vector2f;
+
+import util.Ref;
+import bench.Benchmark;
+import bench.Fixtures;
+
+public class ParticleCreatorBench {
+
+  private static final int[] SYSTEMS = {1, 16};
+
+  public static void register(Collection<Benchmark> list){
+    for(final int n : SYSTEMS){
+      list.add(new Benchmark("ParticleCreatorBench.generate", "systems", n){
+        private ParticleCreator pcr;
+        private long now;
+
+        @Override
+        public void setup(){
+          //adoptSystem() stamps the systems with the current time
+          now = System.currentTimeMillis();
+          pcr = new ParticleCreator(new TimerWheel(Ref.PHYS_T_STEP, now));
+
+          LinkedList<ParticleSettings> effect = ParticleCreator.loadEffect("exhaust", Fixtures.container(new Random(42), 2));
+          if(effect == null) throw new IllegalStateException("res/fx/exhaust.pcl not found, run from the project root");
+
+          for(int i=0;i<n;i++){
+            for(ParticleSettings ps : effect){
+              ParticleSettings copy = ps.copy();
+              copy.settings.put("position", new Vector2f(100+i*50, 300));
+              copy.settings.put("momentum", new Vector2f(0,0));
+              pcr.adoptSystem(copy);
+            }
+          }
+        }
+
+        @Override
+        public void run(){
+          now += Ref.PHYS_T_STEP;
+          consume(pcr.generate(now));
+        }
+      });
+    }
+  }
+}
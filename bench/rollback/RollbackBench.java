@@ -0,0 +1,68 @@
+package rollback;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * What a rollback costs in a VersusArena: saving the state of a tick, and the worst case of loading a state and
+ * simulating the full window of RollbackSession.WINDOW ticks again, which has to fit into one tick of Ref.PHYS_T_STEP.
+ *
+ */
+
+import java.util.Collection;
+
+import bench.Benchmark;
+import util.Ref;
+
+public class RollbackBench {
+
+  private static final int[] ROCKS = {40, 400};
+
+  //both ships turning and firing all the time
+  private static final byte[] BUTTONS = {(byte)0x15, (byte)0x19};
+
+  private static VersusArena arena(int rocks){
+    VersusArena a = new VersusArena(rocks, 42, RollbackSession.SLOTS);
+    for(int i=0;i<100;i++){
+      a.step(BUTTONS);
+    }
+    return a;
+  }
+
+  public static void register(Collection<Benchmark> list){
+    for(final int rocks : ROCKS){
+      list.add(new Benchmark("RollbackBench.save", "rocks", rocks){
+        private VersusArena a;
+
+        @Override
+        public void setup(){
+          a = arena(rocks);
+        }
+
+        @Override
+        public void run(){
+          consume(a.save(0));
+        }
+      });
+
+      list.add(new Benchmark("RollbackBench.rollbackWindow", "rocks", rocks){
+        private VersusArena a;
+
+        @Override
+        public void setup(){
+          a = arena(rocks);
+          a.save(0);
+        }
+
+        @Override
+        public void run(){
+          a.load(0);
+          for(int i=0;i<RollbackSession.WINDOW;i++){
+            a.save(1+i);
+            a.step(BUTTONS);
+          }
+          consume(a.getTick());
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package rollback;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Plays a versus match between two RollbackPeer processes over loopback, with latency and loss injected, and checks
+ * that both end up with the same world:
+ *
+ *   java rollback.RollbackLoopbackTest [latency ms] [loss] [ticks] [rocks]
+ *
+ * The latency is added to the packets of both sides, so the round trip is twice as long. The output of both peers is
+ * passed through, and the checksums they print of the same final tick are compared at the end.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import util.Ref;
+
+public class RollbackLoopbackTest {
+
+  private static final int PORT = Ref.NET_PORT+3;
+  private static final Pattern CHECKSUM = Pattern.compile("checksum of tick (\\d+): (\\p{XDigit}+)");
+
+  private static class Output extends Thread{
+    private Process process;
+    private int player;
+    private String checksum;
+
+    private Output(Process p, int pl){
+      process = p;
+      player = pl;
+    }
+
+    @Override
+    public void run(){
+      try(BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()))){
+        String line;
+        while((line = br.readLine()) != null){
+          System.out.println("["+player+"] "+line);
+          Matcher m = CHECKSUM.matcher(line);
+          if(m.find()) checksum = m.group(1)+":"+m.group(2);
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception{
+    String latency = args.length > 0 ? args[0] : "50";
+    String loss = args.length > 1 ? args[1] : "0.05";
+    String ticks = args.length > 2 ? args[2] : "3000";
+    String rocks = args.length > 3 ? args[3] : "40";
+
+    String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+    String cp = System.getProperty("java.class.path");
+    Output[] outputs = new Output[2];
+    for(int p=0;p<2;p++){
+      ProcessBuilder pb = new ProcessBuilder(java, "-cp", cp, "rollback.RollbackPeer", Integer.toString(p),
+          Integer.toString(PORT+p), Integer.toString(PORT+1-p), ticks, latency, loss, rocks);
+      pb.redirectErrorStream(true);
+      outputs[p] = new Output(pb.start(), p);
+      outputs[p].start();
+    }
+
+    for(Output o : outputs){
+      o.process.waitFor();
+      o.join();
+    }
+
+    if(outputs[0].checksum == null || outputs[1].checksum == null){
+      System.out.println("A peer didn't finish");
+      System.exit(1);
+    }else if(!outputs[0].checksum.equals(outputs[1].checksum)){
+      System.out.println("Desync: "+outputs[0].checksum+" against "+outputs[1].checksum);
+      System.exit(1);
+    }
+    System.out.println("Peers in sync at tick "+outputs[0].checksum);
+  }
+}
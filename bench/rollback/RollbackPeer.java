@@ -0,0 +1,319 @@
+package rollback;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Connects the RollbackSessions of two peers over UDP. Every tick, each side sends one packet:
+ *
+ *   int MAGIC, int tick, int frame advantage     where the sender is, for the time sync (see RollbackSession)
+ *   int ack                                      newest tick of the receiver's input the sender has
+ *   int first, byte count, count bytes           the sender's buttons from tick first on, all the receiver lacks
+ *   int final tick, long checksum                the newest state the sender knows for sure, to catch desyncs
+ *
+ * The input is sent again until it is acknowledged, so lost packets only delay it. For testing, latency and loss
+ * can be injected into the packets sent, they are held back or dropped before they reach the socket.
+ *
+ * A headless versus match in a VersusArena between two bots, one per process (see RollbackLoopbackTest):
+ *
+ *   java rollback.RollbackPeer player localPort remotePort [ticks] [latency ms] [loss] [rocks]
+ *
+ * Every Ref.NET_REPORT ms, the rollbacks and the time spent resimulating are reported, and exported as metrics.
+ * At the end, the checksum of a final tick near the end is printed, for comparing with the other process.
+ *
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Random;
+
+import metrics.Metric;
+import metrics.MetricsRegistry;
+import util.LatencyHistogram;
+import util.Ref;
+import util.SimpleLogger;
+
+public class RollbackPeer {
+
+  public static final int MAGIC = 0x41535242;
+
+  //buttons sent in one packet at most, more than can be unacknowledged without the sender waiting
+  private static final int MAX_INPUTS = 64;
+  //ticks between adjusting to the other peer's pace
+  private static final int SYNC_TICKS = 60;
+
+  private static class Delayed{
+    private long due;
+    private ByteBuffer data;
+  }
+
+  private RollbackSession session;
+  private int remote;
+  private DatagramChannel channel;
+  private ByteBuffer in;
+  private ByteBuffer out;
+  //newest tick of the local input the remote peer has
+  private int acked;
+
+  private long latency;
+  private double loss;
+  private Random rand;
+  private ArrayDeque<Delayed> outgoing;
+
+  private long sentBytes;
+  private long receivedBytes;
+  private Collection<Metric> metrics;
+
+  //published for the metrics, which are read from another thread
+  private volatile int frame;
+  private volatile long rollbacks;
+  private volatile int depth;
+  private volatile long resimCost;
+  private volatile long resimTicks;
+  private volatile long stalls;
+  private volatile long desyncs;
+
+  public RollbackPeer(RollbackSession s, int localPort, InetSocketAddress remoteAddress) throws IOException{
+    session = s;
+    remote = 1-s.getLocalPlayer();
+    acked = -1;
+    channel = DatagramChannel.open();
+    channel.bind(new InetSocketAddress(localPort));
+    channel.connect(remoteAddress);
+    channel.configureBlocking(false);
+    in = ByteBuffer.allocateDirect(1024);
+    out = ByteBuffer.allocateDirect(1024);
+    outgoing = new ArrayDeque<>();
+    rand = new Random();
+    metrics = registerMetrics();
+  }
+
+  //held back or dropped before sending, for testing
+  public void setLatency(long ms, double l){
+    latency = ms;
+    loss = l;
+  }
+
+  public void receive(){
+    while(true){
+      in.clear();
+      try {
+        if(channel.read(in) <= 0) break;
+      } catch (IOException e) {
+        //the other peer isn't there yet, or gone
+        break;
+      }
+      in.flip();
+      receivedBytes += in.remaining();
+      if(in.remaining() < 4 || in.getInt() != MAGIC) continue;
+
+      int f = in.getInt();
+      int advantage = in.getInt();
+      acked = Math.max(acked, in.getInt());
+      int first = in.getInt();
+      int count = in.get() & 0xFF;
+      for(int i=0;i<count;i++){
+        session.addRemoteInput(remote, first+i, in.get());
+      }
+      int checkFrame = in.getInt();
+      long checksum = in.getLong();
+
+      session.setRemoteFrame(remote, f, advantage);
+      if(checkFrame >= 0) session.checkRemote(checkFrame, checksum);
+    }
+  }
+
+  public void send(long wall){
+    int first = acked+1;
+    int count = Math.min(session.getConfirmed(session.getLocalPlayer())-acked, MAX_INPUTS);
+    int checkFrame = session.getFinalFrame();
+
+    out.clear();
+    out.putInt(MAGIC);
+    out.putInt(session.getFrame());
+    out.putInt(session.getFrameAdvantage());
+    out.putInt(session.getConfirmed(remote));
+    out.putInt(first);
+    out.put((byte)Math.max(count, 0));
+    for(int i=0;i<count;i++){
+      out.put(session.getInput(session.getLocalPlayer(), first+i));
+    }
+    out.putInt(checkFrame);
+    out.putLong(checkFrame < 0 ? 0 : session.getChecksum(checkFrame));
+    out.flip();
+
+    if(loss > 0 && rand.nextDouble() < loss) return;
+    Delayed d = new Delayed();
+    d.due = wall+latency;
+    d.data = ByteBuffer.allocate(out.remaining());
+    d.data.put(out);
+    d.data.flip();
+    outgoing.add(d);
+    flush(wall);
+  }
+
+  public void flush(long wall){
+    while(!outgoing.isEmpty() && outgoing.peekFirst().due <= wall){
+      ByteBuffer b = outgoing.pollFirst().data;
+      sentBytes += b.remaining();
+      try {
+        channel.write(b);
+      } catch (IOException e) {
+        SimpleLogger.log(1, RollbackPeer.class, "flush", "Sending failed: {}", e.getMessage());
+      }
+    }
+  }
+
+  //copies the session's numbers for the metrics
+  public void publish(){
+    frame = session.getFrame();
+    rollbacks = session.getRollbacks();
+    depth = session.getLastDepth();
+    resimCost = session.getLastCost();
+    resimTicks = session.getResimTicks();
+    stalls = session.getStalls();
+    desyncs = session.getDesyncs();
+  }
+
+  public long getSentBytes(){
+    return sentBytes;
+  }
+
+  public long getReceivedBytes(){
+    return receivedBytes;
+  }
+
+  public void close(){
+    MetricsRegistry.unregister(metrics);
+    try {
+      channel.close();
+    } catch (IOException e) {
+      SimpleLogger.log(1, RollbackPeer.class, "close", "Closing failed: {}", e.getMessage());
+    }
+  }
+
+  private Collection<Metric> registerMetrics(){
+    ArrayList<Metric> ml = new ArrayList<>();
+    ml.add(Metric.gauge("asteroids_rollback_tick", "Next tick the rollback session simulates", new Metric.Source(){
+      @Override
+      public double read() { return frame; }
+    }));
+    ml.add(Metric.gauge("asteroids_rollback_depth", "Ticks simulated again by the last rollback", new Metric.Source(){
+      @Override
+      public double read() { return depth; }
+    }));
+    ml.add(Metric.gauge("asteroids_rollback_resim_ms", "Time the last rollback took to resimulate", new Metric.Source(){
+      @Override
+      public double read() { return resimCost/1000000d; }
+    }));
+    ml.add(Metric.counter("asteroids_rollback_total", "Rollbacks after a wrong prediction", new Metric.Source(){
+      @Override
+      public double read() { return rollbacks; }
+    }));
+    ml.add(Metric.counter("asteroids_rollback_resim_ticks_total", "Ticks simulated again", new Metric.Source(){
+      @Override
+      public double read() { return resimTicks; }
+    }));
+    ml.add(Metric.counter("asteroids_rollback_stalls_total", "Ticks waited for remote input", new Metric.Source(){
+      @Override
+      public double read() { return stalls; }
+    }));
+    ml.add(Metric.counter("asteroids_rollback_desyncs_total", "Final states differing between the peers", new Metric.Source(){
+      @Override
+      public double read() { return desyncs; }
+    }));
+    MetricsRegistry.register(ml);
+    return ml;
+  }
+
+  private static String report(RollbackSession s){
+    LatencyHistogram cost = s.getResimCost();
+    long n = s.getRollbacks();
+    return String.format(Locale.ROOT,
+        "tick %d: %d rollbacks, %.2f ticks deep on average, resimulating p50 %.3fms p99 %.3fms max %.3fms, "
+        + "%d stalls, %d desyncs",
+        s.getFrame(), n, n == 0 ? 0 : s.getResimTicks()/(double)n, cost.getPercentile(0.5)/1000000d,
+        cost.getPercentile(0.99)/1000000d, cost.getMax()/1000000d, s.getStalls(), s.getDesyncs());
+  }
+
+  public static void main(String[] args) throws Exception{
+    if(args.length < 3){
+      System.out.println("usage: RollbackPeer player localPort remotePort [ticks] [latency ms] [loss] [rocks]");
+      return;
+    }
+    int player = Integer.parseInt(args[0]);
+    int localPort = Integer.parseInt(args[1]);
+    int remotePort = Integer.parseInt(args[2]);
+    int ticks = args.length > 3 ? Integer.parseInt(args[3]) : 3000;
+    long latency = args.length > 4 ? Long.parseLong(args[4]) : 0;
+    double loss = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+    int rocks = args.length > 6 ? Integer.parseInt(args[6]) : 40;
+
+    VersusArena arena = new VersusArena(rocks, 42, RollbackSession.SLOTS);
+    RollbackSession session = new RollbackSession(arena, VersusArena.PLAYERS, player);
+    RollbackPeer peer = new RollbackPeer(session, localPort, new InetSocketAddress("localhost", remotePort));
+    peer.setLatency(latency, loss);
+    MetricsRegistry.export();
+
+    //the bot holds random buttons for a while, the other one can't predict when they change
+    Random bot = new Random(player);
+    byte buttons = 0;
+    int wait = 0;
+    long next = System.currentTimeMillis();
+    long lastReport = next;
+    long done = -1;
+
+    while(true){
+      long wall = System.currentTimeMillis();
+      peer.receive();
+
+      if(wall >= next){
+        next += Ref.PHYS_T_STEP;
+        if(session.getFrame() < ticks){
+          if(wait > 0){
+            wait--;
+          }else if(session.canAdvance()){
+            if(bot.nextInt(40) == 0) buttons = (byte)bot.nextInt(32);
+            session.addLocalInput(buttons);
+            session.advance();
+            if(session.getFrame() % SYNC_TICKS == 0) wait = Math.min(session.getWait(), RollbackSession.WINDOW/2);
+          }
+        }else if(done < 0){
+          done = wall;
+        }
+        peer.send(wall);
+        peer.publish();
+      }
+      peer.flush(wall);
+
+      if(wall-lastReport >= Ref.NET_REPORT){
+        System.out.println(report(session));
+        lastReport = wall;
+      }
+      //once done, the other side gets a while to get the last input
+      if(done >= 0 && wall-done > 1000+2*latency) break;
+      Thread.sleep(1);
+    }
+
+    System.out.println(report(session));
+    StringBuilder sb = new StringBuilder("depths");
+    for(int d=1;d<=RollbackSession.WINDOW;d++){
+      sb.append(' ').append(d).append(':').append(session.getDepthCount(d));
+    }
+    System.out.println(sb);
+    int check = ticks-2*RollbackSession.SLOTS;
+    System.out.println(String.format(Locale.ROOT, "player %d, frags %d:%d, %.1f kB/s sent, checksum of tick %d: %016x",
+        player, arena.getFrags(0), arena.getFrags(1), peer.getSentBytes()/1024d/(ticks*Ref.PHYS_T_STEP/1000d), check,
+        session.getChecksum(check)));
+
+    peer.close();
+    MetricsRegistry.shutdown();
+    SimpleLogger.shutdown();
+    System.exit(0);
+  }
+}
@@ -0,0 +1,327 @@
+package rollback;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * A prototype of rollback netcode in the style of GGPO, for a Simulation shared by a few peers. Every peer simulates every tick as
+ * soon as its own input is there, without waiting for the others: input that hasn't arrived yet is predicted as the
+ * buttons last known of that player. When the real input arrives and differs from what was predicted, the state from
+ * before that tick is loaded again, and the ticks since are simulated once more with what is known now.
+ *
+ * The state is saved before each tick, into SLOTS slots of the simulation. Remote input is predicted for at most
+ * WINDOW ticks, after that canAdvance() is false until more of it arrives, so a rollback never goes further back
+ * than the slots reach. Local input is applied DELAY ticks late, which hides that much latency without any rollback
+ * at all.
+ *
+ * Once the input of every player is known up to a tick, the state after it can't change anymore. The checksums of
+ * those final states are kept, a peer reports its own (see RollbackPeer) and any difference is counted as a desync.
+ *
+ * The peer that is ahead should wait for the others now and then, else it is the one rolling back all the time:
+ * getWait() gives the ticks to wait, from the frame advantage each side sees over the other.
+ *
+ * How deep each rollback went, and the time spent loading and simulating again, is recorded. Not thread safe, a
+ * session belongs to the thread running the simulation.
+ *
+ * The only Simulation so far is the VersusArena, the Game can't be played this way yet: that needs a save and load
+ * of the whole PhysicsManager world, which is only rebuilt from a WorldSnapshot by adding every entity again.
+ *
+ */
+
+import java.util.Arrays;
+
+import util.LatencyHistogram;
+import util.SimpleLogger;
+
+public class RollbackSession {
+
+  //the remote input is predicted for at most WINDOW ticks before the session waits for it
+  public static final int WINDOW = 8;
+  //the local input is applied DELAY ticks after it was taken
+  public static final int DELAY = 1;
+  //enough to go back to the first predicted tick of a full window, while the tick after it is saved already
+  public static final int SLOTS = WINDOW+2;
+  //ticks of input kept per player, no peer can run further ahead than the window and the delay
+  private static final int INPUTS = 64;
+  //checksums of final ticks kept, to compare with those a peer reports
+  private static final int CHECKS = 256;
+
+  private Simulation sim;
+  private int players;
+  private int local;
+
+  //buttons per player and tick, known ones and those the simulation ran with
+  private byte[][] inputs;
+  private byte[][] used;
+  //the newest tick with known input, per player
+  private int[] confirmed;
+  private byte[] buttons;
+
+  //the next tick to simulate
+  private int frame;
+  //the first tick simulated with a wrong prediction, Integer.MAX_VALUE if none
+  private int firstWrong;
+  private int[] slotFrames;
+  private long[] slotChecks;
+
+  private int finalFrame;
+  private int[] finalFrames;
+  private long[] finals;
+  private int pendingFrame;
+  private long pendingCheck;
+
+  private int[] remoteFrames;
+  private int[] remoteAdvantages;
+
+  private LatencyHistogram resimCost;
+  private int[] depths;
+  private int lastDepth;
+  private long lastCost;
+  private long rollbacks;
+  private long resimTicks;
+  private long stalls;
+  private long desyncs;
+
+  public RollbackSession(Simulation s, int n, int l){
+    if(l < 0 || l >= n) throw new IllegalArgumentException("Local player "+l+" out of "+n);
+    sim = s;
+    players = n;
+    local = l;
+
+    inputs = new byte[n][INPUTS];
+    used = new byte[n][INPUTS];
+    confirmed = new int[n];
+    //nobody has input for the ticks before the delay, they are known to be empty
+    Arrays.fill(confirmed, DELAY-1);
+    buttons = new byte[n];
+
+    firstWrong = Integer.MAX_VALUE;
+    slotFrames = new int[SLOTS];
+    Arrays.fill(slotFrames, -1);
+    slotChecks = new long[SLOTS];
+
+    finalFrame = -1;
+    finalFrames = new int[CHECKS];
+    Arrays.fill(finalFrames, -1);
+    finals = new long[CHECKS];
+    pendingFrame = -1;
+
+    remoteFrames = new int[n];
+    remoteAdvantages = new int[n];
+
+    resimCost = new LatencyHistogram();
+    depths = new int[WINDOW+1];
+  }
+
+  //the buttons held now, applied DELAY ticks later. Once per tick, before advance()
+  public void addLocalInput(byte b){
+    int f = frame+DELAY;
+    if(confirmed[local] >= f) return;
+    inputs[local][f % INPUTS] = b;
+    confirmed[local] = f;
+  }
+
+  //input of a remote player, in order. Returns false for ticks already known or out of order
+  public boolean addRemoteInput(int p, int f, byte b){
+    if(p == local) throw new IllegalArgumentException("Player "+p+" is the local one");
+    if(f != confirmed[p]+1) return false;
+    if(f-frame >= INPUTS-WINDOW-DELAY){
+      throw new IllegalArgumentException("Input of tick "+f+" is too far ahead of tick "+frame);
+    }
+
+    if(f < frame && used[p][f % INPUTS] != b) firstWrong = Math.min(firstWrong, f);
+    inputs[p][f % INPUTS] = b;
+    confirmed[p] = f;
+    return true;
+  }
+
+  public boolean canAdvance(){
+    for(int p=0;p<players;p++){
+      if(frame-confirmed[p] > WINDOW){
+        stalls++;
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //rolls back if a prediction turned out wrong, then simulates the next tick
+  public void advance(){
+    if(confirmed[local] < frame) throw new IllegalStateException("No local input for tick "+frame);
+    if(!canAdvance()) throw new IllegalStateException("Remote input of tick "+(frame-WINDOW)+" missing");
+
+    if(firstWrong < frame) rollback();
+    firstWrong = Integer.MAX_VALUE;
+    simulate(frame++, true);
+    finish();
+  }
+
+  private void rollback(){
+    long start = System.nanoTime();
+    int slot = firstWrong % SLOTS;
+    if(slotFrames[slot] != firstWrong) throw new IllegalStateException("State of tick "+firstWrong+" is gone");
+
+    sim.load(slot);
+    //the loaded state is saved already
+    simulate(firstWrong, false);
+    for(int f=firstWrong+1;f<frame;f++){
+      simulate(f, true);
+    }
+
+    lastDepth = frame-firstWrong;
+    depths[lastDepth]++;
+    rollbacks++;
+    resimTicks += lastDepth;
+    lastCost = System.nanoTime()-start;
+    resimCost.record(lastCost);
+  }
+
+  private void simulate(int f, boolean save){
+    if(save){
+      int slot = f % SLOTS;
+      slotChecks[slot] = sim.save(slot);
+      slotFrames[slot] = f;
+    }
+
+    for(int p=0;p<players;p++){
+      int c = confirmed[p];
+      byte b;
+      if(f <= c) b = inputs[p][f % INPUTS];
+      else b = c < 0 ? 0 : inputs[p][c % INPUTS];
+      used[p][f % INPUTS] = b;
+      buttons[p] = b;
+    }
+    sim.step(buttons);
+  }
+
+  //keeps the checksums of the ticks that became final
+  private void finish(){
+    int last = Math.min(getMinConfirmed()+1, frame-1);
+    while(finalFrame < last){
+      int f = finalFrame+1;
+      int slot = f % SLOTS;
+      if(slotFrames[slot] != f) throw new IllegalStateException("State of tick "+f+" is gone before it was final");
+      finalFrames[f % CHECKS] = f;
+      finals[f % CHECKS] = slotChecks[slot];
+      finalFrame = f;
+    }
+
+    if(pendingFrame >= 0 && pendingFrame <= finalFrame){
+      compare(pendingFrame, pendingCheck);
+      pendingFrame = -1;
+    }
+  }
+
+  private int getMinConfirmed(){
+    int min = Integer.MAX_VALUE;
+    for(int c : confirmed){
+      min = Math.min(min, c);
+    }
+    return min;
+  }
+
+  //checksum of a final tick as a peer has it, compared now or as soon as the tick is final here as well
+  public void checkRemote(int f, long checksum){
+    if(f <= finalFrame) compare(f, checksum);
+    else{
+      pendingFrame = f;
+      pendingCheck = checksum;
+    }
+  }
+
+  private void compare(int f, long checksum){
+    //too old to tell
+    if(finalFrames[f % CHECKS] != f) return;
+    if(finals[f % CHECKS] != checksum){
+      desyncs++;
+      SimpleLogger.log(-1, RollbackSession.class, "compare", "Desync at tick {}: {}", f,
+          String.format("%016x, remote %016x", finals[f % CHECKS], checksum));
+    }
+  }
+
+  //what the remote peer reports: its next tick, and how far it sees itself ahead of this one
+  public void setRemoteFrame(int p, int f, int advantage){
+    remoteFrames[p] = f;
+    remoteAdvantages[p] = advantage;
+  }
+
+  //how far this peer sees itself ahead of the remote ones
+  public int getFrameAdvantage(){
+    int adv = Integer.MIN_VALUE;
+    for(int p=0;p<players;p++){
+      if(p != local) adv = Math.max(adv, frame-remoteFrames[p]);
+    }
+    return adv;
+  }
+
+  //ticks to skip, so the peers meet in the middle. Both sides see the latency in their advantage, it cancels out
+  public int getWait(){
+    int wait = 0;
+    for(int p=0;p<players;p++){
+      if(p != local) wait = Math.max(wait, (frame-remoteFrames[p]-remoteAdvantages[p])/2);
+    }
+    return wait;
+  }
+
+  public int getFrame(){
+    return frame;
+  }
+
+  public int getLocalPlayer(){
+    return local;
+  }
+
+  public int getConfirmed(int p){
+    return confirmed[p];
+  }
+
+  public byte getInput(int p, int f){
+    if(f > confirmed[p] || confirmed[p]-f >= INPUTS) throw new IllegalArgumentException("Input of tick "+f+" isn't known");
+    return inputs[p][f % INPUTS];
+  }
+
+  //the newest tick whose state is final
+  public int getFinalFrame(){
+    return finalFrame;
+  }
+
+  //checksum of the state before a final tick, if it is still kept
+  public long getChecksum(int f){
+    if(f < 0 || f > finalFrame || finalFrames[f % CHECKS] != f) throw new IllegalArgumentException("No checksum of tick "+f);
+    return finals[f % CHECKS];
+  }
+
+  //how many rollbacks went back d ticks
+  public int getDepthCount(int d){
+    return depths[d];
+  }
+
+  public int getLastDepth(){
+    return lastDepth;
+  }
+
+  //time the last rollback took, in ns
+  public long getLastCost(){
+    return lastCost;
+  }
+
+  public long getRollbacks(){
+    return rollbacks;
+  }
+
+  public long getResimTicks(){
+    return resimTicks;
+  }
+
+  //time of each rollback, from loading the state to the last tick simulated again
+  public LatencyHistogram getResimCost(){
+    return resimCost;
+  }
+
+  public long getStalls(){
+    return stalls;
+  }
+
+  public long getDesyncs(){
+    return desyncs;
+  }
+}
@@ -0,0 +1,19 @@
+package rollback;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * A deterministic simulation a RollbackSession can rewind: the same state and the same buttons have to lead to the
+ * same state again, on every peer. The states are kept in a fixed number of slots, allocated up front, so saving
+ * every tick doesn't produce any garbage.
+ *
+ */
+
+public interface Simulation {
+
+  //stores the current state in the slot and returns its checksum
+  public long save(int slot);
+  public void load(int slot);
+  //one tick, with the buttons of every player (see net.NetProtocol)
+  public void step(byte[] buttons);
+}
@@ -0,0 +1,356 @@
+package rollback;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Two ships shooting at each other between drifting rocks, the world a RollbackSession rewinds. It is made of the
+ * same PhysicsEntries and Engines as the Game's, moved, wrapped and pushed apart like the PhysicsManager does it,
+ * but nothing is ever created or destroyed: every ship has a fixed pool of bullets, and a ship shot down respawns
+ * in place. So the whole state is the fields of a known set of entities, and saving it is copying them into the
+ * preallocated arrays of a slot, without any messages, timers or garbage involved.
+ *
+ * A bullet hitting the other ship does BULLET_DMG damage, the ship is back at its spawn point once its hp are gone,
+ * and the shooter scores a frag. Bullets hitting a rock push it and are gone. Collisions are found by sweep and
+ * prune along x, over the entities sorted by their left edge. The order is sorted from the last tick's, but as ties
+ * are broken by index, it is the same after a load as without one.
+ *
+ * Runs without any window, shapes are given by their radius. It stands in for the Game's world, to measure what a
+ * rollback costs and to test the RollbackSession against, and isn't part of the game itself.
+ *
+ */
+
+import java.util.Random;
+import java.util.UUID;
+
+import logics.Engine;
+import logics.PhysicsEntry;
+import logics.PhysicsManager;
+import messaging.Message.CCMD;
+import net.NetProtocol;
+
+import org.lwjgl.util.vector.Vector2f;
+
+import util.Ref;
+import components.ComponentContainer;
+
+public class VersusArena implements Simulation{
+
+  public static final int PLAYERS = 2;
+
+  private static final UUID SHAPE = UUID.randomUUID();
+  private static final float DT = Ref.PHYS_T_STEP/1000f;
+  private static final int FIRE = NetProtocol.bit(CCMD.FIRE);
+
+  //like the Game's first stage ship
+  private static final float SHIP_HP = 30;
+  private static final float SHIP_RADIUS = 16;
+  private static final int FIRE_TICKS = 10;
+  private static final int BULLETS = 8;
+  private static final int BULLET_LIFE = 50;
+  private static final float BULLET_DMG = 10;
+  private static final float BULLET_SPEED = 500;
+
+  //floats saved per entity: position, rotation, velocity, spin, hp
+  private static final int STRIDE = 7;
+
+  //ships first, then the bullets of each ship, then the rocks
+  private PhysicsEntry[] cores;
+  private Engine[] engines;
+  private float[] radius;
+  //ticks a bullet has left, 0 while it is in its pool. -1 for ships and rocks, which are always there
+  private int[] life;
+  private int[] cooldown;
+  private int[] frags;
+  private int tick;
+
+  private float[][] floats;
+  private int[][] ints;
+  private int engineState;
+
+  //sweep and prune
+  private int[] order;
+  private float[] px;
+  private float[] py;
+  private float[] minX;
+
+  public VersusArena(int rocks, long seed, int slots){
+    int n = PLAYERS+PLAYERS*BULLETS+rocks;
+    cores = new PhysicsEntry[n];
+    engines = new Engine[PLAYERS];
+    radius = new float[n];
+    life = new int[n];
+    cooldown = new int[PLAYERS];
+    frags = new int[PLAYERS];
+
+    for(int s=0;s<PLAYERS;s++){
+      ComponentContainer cc = new ComponentContainer();
+      PhysicsEntry pe = new PhysicsEntry(SHAPE, 0, 1f, Double.POSITIVE_INFINITY, SHIP_HP, 0, SHIP_RADIUS);
+      Engine e = new Engine(150f, 100f, 3f, 0.6f, 0.9f, SHAPE);
+      cc.registerComponent(pe);
+      cc.registerComponent(e);
+      cc.linkComponents();
+      cores[s] = pe;
+      engines[s] = e;
+      radius[s] = SHIP_RADIUS;
+      life[s] = -1;
+      spawn(s);
+    }
+
+    for(int i=PLAYERS;i<PLAYERS+PLAYERS*BULLETS;i++){
+      PhysicsEntry pe = new PhysicsEntry(SHAPE, 0, 0.001f, Double.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, BULLET_DMG, 3);
+      pe.setV_Friction(-50f);
+      pe.vectorRotation = true;
+      cores[i] = pe;
+      radius[i] = 3;
+    }
+
+    Random r = new Random(seed);
+    for(int i=PLAYERS+PLAYERS*BULLETS;i<n;i++){
+      float rad = 15+r.nextFloat()*30;
+      PhysicsEntry pe = new PhysicsEntry(SHAPE, -1, rad*rad, Double.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, 0, rad);
+      pe.setPosition(new Vector2f(r.nextFloat()*Ref.xRes, r.nextFloat()*Ref.yRes));
+      pe.setV_Impulse(new Vector2f((r.nextFloat()-0.5f)*100, (r.nextFloat()-0.5f)*100));
+      pe.setR_Impulse((r.nextFloat()-0.5f)*2);
+      cores[i] = pe;
+      radius[i] = rad;
+      life[i] = -1;
+    }
+
+    engineState = engines[0].getStateSize();
+    floats = new float[slots][n*STRIDE+PLAYERS*engineState];
+    ints = new int[slots][1+n+2*PLAYERS];
+
+    order = new int[n];
+    for(int i=0;i<n;i++){
+      order[i] = i;
+    }
+    px = new float[n];
+    py = new float[n];
+    minX = new float[n];
+  }
+
+  private void spawn(int s){
+    PhysicsEntry pe = cores[s];
+    pe.setPosition(new Vector2f(Ref.xRes*(s == 0 ? 0.25f : 0.75f), Ref.yRes/2));
+    pe.setRotation(s == 0 ? 0 : (float)Math.PI);
+    pe.setV_Impulse(new Vector2f(0, 0));
+    pe.setR_Impulse(0);
+    pe.setLife(SHIP_HP);
+  }
+
+  @Override
+  public void step(byte[] buttons){
+    tick++;
+
+    for(int s=0;s<PLAYERS;s++){
+      engines[s].movement(NetProtocol.movement(buttons[s]));
+      engines[s].rotation(NetProtocol.rotation(buttons[s]));
+      engines[s].update(DT);
+
+      if(cooldown[s] > 0) cooldown[s]--;
+      if((buttons[s] & FIRE) != 0 && cooldown[s] == 0){
+        fire(s);
+        cooldown[s] = FIRE_TICKS;
+      }
+    }
+
+    for(int i=0;i<cores.length;i++){
+      if(life[i] == 0) continue;
+      if(life[i] > 0 && --life[i] == 0) continue;
+
+      PhysicsEntry pe = cores[i];
+      pe.update(DT);
+      Vector2f pos = pe.getPosition();
+      pe.setPosition(new Vector2f((pos.x+Ref.xRes) % Ref.xRes, (pos.y+Ref.yRes) % Ref.yRes));
+    }
+
+    collide();
+  }
+
+  //takes the first free bullet of the ship, if there is one
+  private void fire(int s){
+    for(int i=PLAYERS+s*BULLETS;i<PLAYERS+(s+1)*BULLETS;i++){
+      if(life[i] != 0) continue;
+
+      PhysicsEntry ship = cores[s];
+      PhysicsEntry b = cores[i];
+      Vector2f pos = Vector2f.add(ship.getPosition(), PhysicsEntry.rotate(new Vector2f(SHIP_RADIUS, 0), ship.getRotation()), null);
+      Vector2f v = PhysicsEntry.rotate(new Vector2f(BULLET_SPEED, 0), ship.getRotation());
+      Vector2f inherited = ship.getV_Impulse();
+      inherited.scale(1-ship.getV_Friction());
+      Vector2f.add(v, inherited, v);
+
+      b.setPosition(pos);
+      b.setV_Impulse(v);
+      b.setRotation(ship.getRotation());
+      life[i] = BULLET_LIFE;
+      return;
+    }
+  }
+
+  private void collide(){
+    for(int i=0;i<cores.length;i++){
+      if(life[i] == 0){
+        minX[i] = Float.POSITIVE_INFINITY;
+        continue;
+      }
+      Vector2f pos = cores[i].getPosition();
+      px[i] = pos.x;
+      py[i] = pos.y;
+      minX[i] = pos.x-radius[i];
+    }
+
+    //insertion sort, almost nothing moves since the last tick
+    for(int a=1;a<order.length;a++){
+      int i = order[a];
+      int b = a-1;
+      while(b >= 0 && before(i, order[b])){
+        order[b+1] = order[b];
+        b--;
+      }
+      order[b+1] = i;
+    }
+
+    for(int a=0;a<order.length;a++){
+      int i = order[a];
+      if(minX[i] == Float.POSITIVE_INFINITY) break;
+      if(life[i] == 0) continue;
+      float maxX = px[i]+radius[i];
+
+      for(int b=a+1;b<order.length;b++){
+        int j = order[b];
+        if(minX[j] > maxX) break;
+        if(life[j] == 0) continue;
+
+        float dx = px[j]-px[i];
+        float dy = py[j]-py[i];
+        float r = radius[i]+radius[j];
+        if(dx*dx+dy*dy < r*r) resolve(i, j);
+        if(life[i] == 0) break;
+      }
+    }
+  }
+
+  private boolean before(int i, int j){
+    return minX[i] < minX[j] || (minX[i] == minX[j] && i < j);
+  }
+
+  private boolean isBullet(int i){
+    return i >= PLAYERS && i < PLAYERS+PLAYERS*BULLETS;
+  }
+
+  private void resolve(int i, int j){
+    if(isBullet(j) && !isBullet(i)){
+      int t = i;
+      i = j;
+      j = t;
+    }
+
+    if(isBullet(i)){
+      if(isBullet(j)) return;
+      int owner = (i-PLAYERS)/BULLETS;
+      if(j < PLAYERS){
+        //own bullets pass through
+        if(j == owner) return;
+        cores[j].applyDmg(BULLET_DMG);
+        if(cores[j].getLife() <= 0){
+          frags[owner]++;
+          spawn(j);
+        }
+      }else{
+        PhysicsManager.applyCollisionForce(cores[i], cores[j]);
+      }
+      life[i] = 0;
+      return;
+    }
+
+    PhysicsManager.applyCollisionForce(cores[i], cores[j]);
+  }
+
+  @Override
+  public long save(int slot){
+    float[] f = floats[slot];
+    int[] n = ints[slot];
+    int k = 0;
+    for(PhysicsEntry pe : cores){
+      Vector2f pos = pe.getPosition();
+      Vector2f v = pe.getV_Impulse();
+      f[k++] = pos.x;
+      f[k++] = pos.y;
+      f[k++] = pe.getRotation();
+      f[k++] = v.x;
+      f[k++] = v.y;
+      f[k++] = pe.getR_Impulse();
+      f[k++] = pe.getLife();
+    }
+    for(Engine e : engines){
+      e.writeState(f, k);
+      k += engineState;
+    }
+
+    k = 0;
+    n[k++] = tick;
+    for(int l : life){
+      n[k++] = l;
+    }
+    for(int s=0;s<PLAYERS;s++){
+      n[k++] = cooldown[s];
+      n[k++] = frags[s];
+    }
+
+    //FNV-1a over everything saved
+    long h = 0xcbf29ce484222325L;
+    for(float x : f){
+      h = (h ^ Float.floatToRawIntBits(x)) * 0x100000001b3L;
+    }
+    for(int x : n){
+      h = (h ^ x) * 0x100000001b3L;
+    }
+    return h;
+  }
+
+  @Override
+  public void load(int slot){
+    float[] f = floats[slot];
+    int[] n = ints[slot];
+    int k = 0;
+    for(PhysicsEntry pe : cores){
+      pe.setPosition(new Vector2f(f[k], f[k+1]));
+      pe.setRotation(f[k+2]);
+      pe.setV_Impulse(new Vector2f(f[k+3], f[k+4]));
+      pe.setR_Impulse(f[k+5]);
+      pe.setLife(f[k+6]);
+      k += STRIDE;
+    }
+    for(Engine e : engines){
+      e.readState(f, k);
+      k += engineState;
+    }
+
+    k = 0;
+    tick = n[k++];
+    for(int i=0;i<life.length;i++){
+      life[i] = n[k++];
+    }
+    for(int s=0;s<PLAYERS;s++){
+      cooldown[s] = n[k++];
+      frags[s] = n[k++];
+    }
+  }
+
+  public int getTick(){
+    return tick;
+  }
+
+  public int getFrags(int s){
+    return frags[s];
+  }
+
+  public PhysicsEntry getShip(int s){
+    return cores[s];
+  }
+
+  public int getEntityCount(){
+    return cores.length;
+  }
+}
@@ -0,0 +1,95 @@
+package snapshot;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Writes snapshots over the same files again and again, like quick-saves and checkpoints, reading them back in
+ * between, and checks what is read:
+ *
+ *   java snapshot.SnapshotFileTest [rounds]
+ *
+ * Each round writes a full snapshot and a delta against it, both under the names of the round before, and reads the
+ * delta, which reads the full one along. Snapshots read back have to encode to the same bytes as the ones written. On Windows, replacing a file fails while it is still open or mapped, so this
+ * is where a leaked channel or mapping shows up.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import logics.PhysicsEntry;
+import bench.Fixtures;
+
+public class SnapshotFileTest {
+
+  private static WorldSnapshot capture(ArrayList<PhysicsEntry> world, long now){
+    WorldSnapshot s = new WorldSnapshot(now, world.size());
+    for(PhysicsEntry pe : world){
+      s.add(pe.getComponentContainer(), pe);
+    }
+    s.finish();
+    return s;
+  }
+
+  //the same if they encode to the same bytes in full
+  private static boolean same(WorldSnapshot a, WorldSnapshot b){
+    return encode(a).equals(encode(b));
+  }
+
+  private static ByteBuffer encode(WorldSnapshot s){
+    ByteBuffer b = ByteBuffer.allocate(1 << 20);
+    SnapshotCodec.encode(s, null, b);
+    b.flip();
+    return b;
+  }
+
+  public static void main(String[] args) throws IOException{
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    File dir = Files.createTempDirectory("snapshots").toFile();
+    File full = new File(dir, "checkpoint.snap");
+    File delta = new File(dir, "quicksave.snap");
+
+    ArrayList<PhysicsEntry> world = Fixtures.entries(42, 2000, 2, 40);
+    for(PhysicsEntry pe : world){
+      pe.getComponentContainer().setPattern("test");
+    }
+
+    SnapshotFile sf = new SnapshotFile();
+    int wrong = 0;
+    long now = 1000;
+    try {
+      for(int r=0;r<rounds;r++){
+        WorldSnapshot base = capture(world, now);
+        sf.write(full, base);
+        for(PhysicsEntry pe : world){
+          pe.update(0.01f);
+        }
+        now += 10;
+        WorldSnapshot s = capture(world, now);
+        sf.write(delta, s, base, full);
+
+        if(!same(base, SnapshotFile.read(full))) wrong++;
+        if(!same(s, SnapshotFile.read(delta))) wrong++;
+      }
+    } finally {
+      String[] left = dir.list();
+      for(String n : left){
+        if(n.endsWith(".tmp")){
+          System.out.println("Temporary file left behind: "+n);
+          wrong++;
+        }
+        new File(dir, n).delete();
+      }
+      dir.delete();
+    }
+
+    if(wrong > 0){
+      System.out.println(wrong+" of "+rounds*2+" files read back wrong");
+      System.exit(1);
+    }
+    System.out.println(rounds+" rounds of full and delta snapshots written over the same files and read back");
+  }
+}
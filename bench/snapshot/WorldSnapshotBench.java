@@ -0,0 +1,144 @@
+package snapshot;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Saving and restoring a world of 10k entities: capturing it on the physics thread, encoding it in full and as delta
+ * against the tick before, decoding, and the round trip through a file.
+ *
+ */
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import logics.PhysicsEntry;
+import bench.Benchmark;
+import bench.Fixtures;
+
+public class WorldSnapshotBench {
+
+  private static final int ENTITIES = 10000;
+
+  private static WorldSnapshot capture(ArrayList<PhysicsEntry> world, long now){
+    WorldSnapshot s = new WorldSnapshot(now, world.size());
+    for(PhysicsEntry pe : world){
+      s.add(pe.getComponentContainer(), pe);
+    }
+    s.finish();
+    return s;
+  }
+
+  //two snapshots of the same world, one tick apart
+  private static WorldSnapshot[] ticks(){
+    ArrayList<PhysicsEntry> world = Fixtures.entries(42, ENTITIES, 2, 40);
+    for(PhysicsEntry pe : world){
+      pe.getComponentContainer().setPattern("bench");
+    }
+    WorldSnapshot first = capture(world, 1000);
+    for(PhysicsEntry pe : world){
+      pe.update(0.01f);
+    }
+    return new WorldSnapshot[]{first, capture(world, 1010)};
+  }
+
+  public static void register(Collection<Benchmark> list){
+    list.add(new Benchmark("WorldSnapshotBench.capture", "entities", ENTITIES){
+      private ArrayList<PhysicsEntry> world;
+
+      @Override
+      public void setup(){
+        world = Fixtures.entries(42, ENTITIES, 2, 40);
+        for(PhysicsEntry pe : world){
+          pe.getComponentContainer().setPattern("bench");
+        }
+      }
+
+      @Override
+      public void run(){
+        consume(capture(world, 1000));
+      }
+    });
+
+    list.add(new Benchmark("WorldSnapshotBench.encodeFull", "entities", ENTITIES){
+      private WorldSnapshot s;
+      private ByteBuffer buffer;
+
+      @Override
+      public void setup(){
+        s = ticks()[1];
+        buffer = ByteBuffer.allocateDirect(1 << 22);
+      }
+
+      @Override
+      public void run(){
+        buffer.clear();
+        SnapshotCodec.encode(s, null, buffer);
+        consume(buffer.position());
+      }
+    });
+
+    list.add(new Benchmark("WorldSnapshotBench.encodeDelta", "entities", ENTITIES){
+      private WorldSnapshot[] s;
+      private ByteBuffer buffer;
+
+      @Override
+      public void setup(){
+        s = ticks();
+        buffer = ByteBuffer.allocateDirect(1 << 22);
+      }
+
+      @Override
+      public void run(){
+        buffer.clear();
+        SnapshotCodec.encode(s[1], s[0], buffer);
+        consume(buffer.position());
+      }
+    });
+
+    list.add(new Benchmark("WorldSnapshotBench.decodeDelta", "entities", ENTITIES){
+      private WorldSnapshot base;
+      private ByteBuffer buffer;
+
+      @Override
+      public void setup(){
+        WorldSnapshot[] s = ticks();
+        base = s[0];
+        buffer = ByteBuffer.allocateDirect(1 << 22);
+        SnapshotCodec.encode(s[1], s[0], buffer);
+        buffer.flip();
+      }
+
+      @Override
+      public void run(){
+        buffer.rewind();
+        consume(SnapshotCodec.decode(buffer, base));
+      }
+    });
+
+    list.add(new Benchmark("WorldSnapshotBench.fileRoundTrip", "entities", ENTITIES){
+      private WorldSnapshot s;
+      private SnapshotFile sf;
+      private File f;
+
+      @Override
+      public void setup() throws Exception{
+        s = ticks()[1];
+        sf = new SnapshotFile();
+        f = File.createTempFile("snapshot", ".snap");
+      }
+
+      @Override
+      public void run() throws Exception{
+        sf.write(f, s);
+        consume(SnapshotFile.read(f));
+      }
+
+      @Override
+      public void teardown(){
+        f.delete();
+      }
+    });
+  }
+}
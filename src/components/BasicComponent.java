@@ -9,14 +9,31 @@ package components;
  */
 
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class BasicComponent implements Component{
   
+  private static AtomicInteger ids = new AtomicInteger();
+  
   protected ComponentContainer parent;
   protected TreeSet<String> tags;
+  private int id;
   
   public BasicComponent(){
     tags = new TreeSet<>();
+    id = ids.incrementAndGet();
+  }
+  
+  //components are kept in HashSets, which would be iterated in a different order each run with identity hash codes.
+  //Numbered in order of creation instead, a lockstep simulation creating the same components iterates the same way
+  @Override
+  public int hashCode(){
+    return id;
+  }
+  
+  //called before a simulation is started, so its components are numbered the same as in the recorded one
+  public static void resetIds(){
+    ids.set(0);
   }
   
   @Override
@@ -31,6 +48,11 @@ public abstract class BasicComponent implements Component{
     return ts;
   }
   
+  //without copying the tags like getTags() does
+  public boolean hasTag(String t){
+    return tags.contains(t);
+  }
+  
   @Override
     public void addTag(String t){
     tags.add(t);
@@ -16,8 +16,15 @@ package components;
  * Before unregistering, the announceUnregister() method is called, as to give components the time, to access other components while
  * it is guaranteed, that they are still there.
  * 
+ * A container gets a generational handle from the EntityRegistry the first time it is asked for one. The handle is
+ * kept after it has been freed, so that it is recognized as stale instead of a new one being handed out.
+ * 
+ * Containers used as patterns can be given a name, which is passed on to every copy. World snapshots only store
+ * that name, and rebuild the container from the pattern when restoring.
+ * 
  */
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Set;
@@ -27,9 +34,29 @@ public class ComponentContainer {
   public enum Logic {AND, OR, XOR}
   
   LinkedList<Component> components;
+  private int handle;
+  private String pattern;
 
   public ComponentContainer(){
     components = new LinkedList<>();
+    handle = EntityRegistry.NONE;
+  }
+  
+  public void setPattern(String name){
+    pattern = name;
+  }
+  
+  public String getPattern(){
+    return pattern;
+  }
+  
+  public synchronized int getHandle(){
+    if(handle == EntityRegistry.NONE) handle = EntityRegistry.register(this);
+    return handle;
+  }
+  
+  public synchronized void releaseHandle(){
+    if(handle != EntityRegistry.NONE) EntityRegistry.unregister(handle);
   }
   
   public HashSet<Component> getComponents(String tag){
@@ -60,6 +87,17 @@ public class ComponentContainer {
     return ll;
   }
   
+  //like getComponents(tag), but in the order the components were registered
+  public ArrayList<Component> getComponentsOrdered(String tag){
+    ArrayList<Component> ll = new ArrayList<>();
+    for(Component co : components){
+      //spares copying the tags of every component
+      boolean has = co instanceof BasicComponent ? ((BasicComponent)co).hasTag(tag) : co.getTags().contains(tag);
+      if(has) ll.add(co);
+    }
+    return ll;
+  }
+  
   public void registerComponent(Component c){
     components.add(c);
   }
@@ -89,6 +127,7 @@ public class ComponentContainer {
   
   public ComponentContainer copy(){
     ComponentContainer copy = new ComponentContainer();
+    copy.pattern = pattern;
     for(Component c : components){
       copy.registerComponent(c.copy(false));
     }
@@ -0,0 +1,105 @@
+package components;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Records additions and removals of ComponentContainers while a tick is running, so that they can be applied in one
+ * pass at the tick boundary with playback(). Entities are recorded by their generational handle (see EntityRegistry),
+ * the buffer itself consists of two growing int arrays and does not allocate per command.
+ *
+ * An entity is queued for removal only once per batch, remove() tells whether it was newly queued. This replaces
+ * searching a list of pending removals. Entities already gone (their handle is stale) are ignored, as are additions
+ * of entities that are removed within the same batch.
+ *
+ * When a removal is played back, the handle of the entity is freed. The buffer is not synchronized, it belongs to the
+ * thread running the ticks.
+ *
+ */
+
+public class EntityCommandBuffer {
+
+  public interface Playback{
+    public void removed(ComponentContainer cc);
+    public void added(ComponentContainer cc);
+  }
+
+  private int[] adds;
+  private int addCount;
+  private int[] removes;
+  private int removeCount;
+
+  //per slot index, the batch in which the entity was queued for removal
+  private int[] marks;
+  private int batch;
+
+  public EntityCommandBuffer(){
+    adds = new int[256];
+    removes = new int[256];
+    marks = new int[1024];
+    addCount = 0;
+    removeCount = 0;
+    batch = 1;
+  }
+
+  public void add(ComponentContainer cc){
+    if(addCount == adds.length) adds = grow(adds);
+    adds[addCount++] = cc.getHandle();
+  }
+
+  public boolean remove(ComponentContainer cc){
+    int h = cc.getHandle();
+    if(!EntityRegistry.isAlive(h)) return false;
+
+    int idx = EntityRegistry.index(h);
+    if(idx >= marks.length){
+      int[] grown = new int[Math.max(marks.length*2, idx+1)];
+      System.arraycopy(marks, 0, grown, 0, marks.length);
+      marks = grown;
+    }
+    if(marks[idx] == batch) return false;
+
+    marks[idx] = batch;
+    if(removeCount == removes.length) removes = grow(removes);
+    removes[removeCount++] = h;
+    return true;
+  }
+
+  public boolean isRemoving(ComponentContainer cc){
+    int h = cc.getHandle();
+    int idx = EntityRegistry.index(h);
+    return EntityRegistry.isAlive(h) && idx < marks.length && marks[idx] == batch;
+  }
+
+  public void playback(Playback p){
+    for(int i=0;i<removeCount;i++){
+      ComponentContainer cc = EntityRegistry.get(removes[i]);
+      if(cc == null) continue;
+      p.removed(cc);
+      EntityRegistry.unregister(removes[i]);
+    }
+
+    for(int i=0;i<addCount;i++){
+      //entities removed in this batch are already unregistered and skipped here
+      ComponentContainer cc = EntityRegistry.get(adds[i]);
+      if(cc != null) p.added(cc);
+    }
+
+    clear();
+  }
+
+  public void clear(){
+    addCount = 0;
+    removeCount = 0;
+    batch++;
+  }
+
+  public int getPendingCount(){
+    return addCount + removeCount;
+  }
+
+  private static int[] grow(int[] a){
+    int[] grown = new int[a.length*2];
+    System.arraycopy(a, 0, grown, 0, a.length);
+    return grown;
+  }
+}
@@ -0,0 +1,105 @@
+package components;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Hands out generational integer handles for ComponentContainers. The lower bits of a handle are the index of a
+ * slot, the upper bits are the generation of that slot. Whenever a handle is freed, the generation of its slot is
+ * increased, so any handle still lying around afterwards is recognized as stale instead of silently pointing at
+ * whichever entity got the slot next.
+ *
+ * Freed slots are reused in FIFO order, and only once at least MIN_FREE of them are waiting. This way a slot
+ * stays unused for a while after its entity died, and it takes a long time for the generation to wrap around.
+ *
+ * Handles are requested from the game thread as well as from the physics Worker, so all methods are synchronized.
+ *
+ */
+
+public class EntityRegistry {
+
+  public static final int NONE = -1;
+
+  private static final int INDEX_BITS = 20;
+  private static final int INDEX_MASK = (1 << INDEX_BITS)-1;
+  private static final int GEN_MASK = (1 << (31-INDEX_BITS))-1;
+  private static final int MIN_FREE = 1024;
+
+  private static ComponentContainer[] slots = new ComponentContainer[1024];
+  private static int[] generations = new int[1024];
+  private static int used = 0;
+
+  //FIFO of free slot indices
+  private static int[] free = new int[1024];
+  private static int freeHead = 0;
+  private static int freeCount = 0;
+
+  public static synchronized int register(ComponentContainer cc){
+    int idx;
+    if(freeCount > MIN_FREE){
+      idx = free[freeHead];
+      freeHead = (freeHead+1) % free.length;
+      freeCount--;
+    }else{
+      if(used > INDEX_MASK) throw new IllegalStateException("Out of entity handles ("+used+" in use)");
+      if(used == slots.length) grow();
+      idx = used++;
+    }
+
+    slots[idx] = cc;
+    return (generations[idx] << INDEX_BITS) | idx;
+  }
+
+  public static synchronized boolean unregister(int handle){
+    if(!isAlive(handle)) return false;
+
+    int idx = index(handle);
+    slots[idx] = null;
+    generations[idx] = (generations[idx]+1) & GEN_MASK;
+
+    if(freeCount == free.length){
+      int[] grown = new int[free.length*2];
+      for(int i=0;i<freeCount;i++){
+        grown[i] = free[(freeHead+i) % free.length];
+      }
+      free = grown;
+      freeHead = 0;
+    }
+    free[(freeHead+freeCount) % free.length] = idx;
+    freeCount++;
+    return true;
+  }
+
+  public static synchronized ComponentContainer get(int handle){
+    if(!isAlive(handle)) return null;
+    return slots[index(handle)];
+  }
+
+  public static synchronized boolean isAlive(int handle){
+    if(handle < 0) return false;
+    int idx = index(handle);
+    return idx < used && slots[idx] != null && generations[idx] == generation(handle);
+  }
+
+  public static synchronized int getCount(){
+    return used - freeCount;
+  }
+
+  public static int index(int handle){
+    return handle & INDEX_MASK;
+  }
+
+  public static int generation(int handle){
+    return (handle >>> INDEX_BITS) & GEN_MASK;
+  }
+
+  private static void grow(){
+    int n = slots.length*2;
+    ComponentContainer[] s = new ComponentContainer[n];
+    System.arraycopy(slots, 0, s, 0, slots.length);
+    slots = s;
+
+    int[] g = new int[n];
+    System.arraycopy(generations, 0, g, 0, generations.length);
+    generations = g;
+  }
+}
@@ -19,6 +19,13 @@ public interface GraphicsComponent extends Component{
   public Vector2f getPosition();
   public Vector3f getScale();
   public float getRotation();
+  
+  //position and rotation meant for drawing, interpolated between the last physics ticks
+  public Vector2f getRenderPosition(long now);
+  public float getRenderRotation(long now);
+  
+  //writes x, y, rotation, scale and the rgba colorMod of this instance into dst, starting at off
+  public void writeInstance(long now, float[] dst, int off);
 
   public Vector4f getColorMod();
 }
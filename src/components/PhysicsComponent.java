@@ -20,6 +20,9 @@ public interface PhysicsComponent extends UpdateComponent{
   public float getRotation();
   public Vector2f getPosition();
   
+  //store the current state as render snapshot, called by the PhysicsManager at the end of each tick
+  public void publish(long tick);
+  
   public void setMass(float m);
   public void setV_Friction(float f);
   public void setR_Friction(float f);
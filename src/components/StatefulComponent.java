@@ -0,0 +1,16 @@
+package components;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ * 
+ * information required for any component, that keeps state of its own which has to survive a world snapshot
+ * (cooldowns, heat, ...). The state is written as a fixed number of floats
+ * 
+ */
+
+public interface StatefulComponent extends Component{
+
+  public int getStateSize();
+  public void writeState(float[] dst, int off);
+  public void readState(float[] src, int off);
+}
@@ -30,10 +30,22 @@ package glGraphics;
  * 
  * 
  * 
+ * The draw calls are recorded on the game thread (see [2]) into a command buffer of the glGraphics, and handed over
+ * with submit(). The main thread, which created the window and so has to keep it and the input, executes the
+ * submitted frames while the game thread already records the next one. The post-processing reads its glow quality
+ * from the frame it processes, not from the options, which the game thread may change in between.
+ * 
+ * The cpu time of each stage and pass is recorded by the RenderProfiler, F4 writes the recent frames to a csv file.
+ * Those numbers, and the ones of the other engine parts, are also published by the MetricsRegistry (see there).
+ * Every frame is committed as a FrameEvent for the flight recorder, res/jfr/asteroids.jfc enables it and the others.
+ * 
  * [2]Updating:
  * Each frame the InputHandler (for listening for input), the FSM and the Messenger are updated, to process another batch of data
- * The FSM manages to update the correct state, e.g. Menu or Game. The ingame physics, however, are not updated by this main loop
+ * The FSM manages to update the correct state, e.g. Menu or Game. The ingame physics, however, are not updated by this game loop
  * (see PhysicsManager for additional info)
+ * The FSM and the Messenger are updated on the game thread, so the handlers run there. The InputHandler is polled on
+ * the main thread and only sends messages, which is thread safe. With -Dasteroids.singleThreaded=true, both loops
+ * take turns on the main thread instead.
  */
 
 import states.FSM;
@@ -44,6 +56,7 @@ import states.QuitScreen;
 import states.SplashScreen;
 import states.State;
 import util.Ref;
+import util.SimClock;
 import util.SimpleLogger;
 
 import java.util.HashMap;
@@ -51,10 +64,14 @@ import java.util.HashMap;
 import logics.InputHandler;
 import messaging.Handler;
 import messaging.Message;
+import messaging.Message.RW_IPT_Param;
 import messaging.Message.STATE;
 import messaging.Messenger;
+import metrics.Metric;
+import metrics.MetricsRegistry;
 
 import org.lwjgl.LWJGLException;
+import org.lwjgl.input.Keyboard;
 import org.lwjgl.opengl.ContextAttribs;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.DisplayMode;
@@ -84,15 +101,27 @@ public class AppWindow implements Handler{
   
   //Render Stuff
   private HashMap<String, ShaderWrapper> shaders;
+  //uniforms of the post passes, set several times a frame
+  private Uniform blurQuality;
+  private Uniform blurDir;
+  private Uniform blurStrength;
+  private Uniform combineOriginal;
+  private Uniform combineGlare;
   public static glGraphics glx;
   private FrameBufferManager fbm;
   private InputHandler ip;
   
   private boolean ready;
-  private boolean closeRequest;
+  //set by the handlers on the game thread
+  private volatile boolean closeRequest;
+  private volatile boolean exportRequest;
+  
+  private Thread gameThread;
+  private volatile boolean running;
   
   private long stamp;
   private long frames;
+  private volatile int fps;
   //##########
   
   //Game Logic Stuff
@@ -121,6 +150,7 @@ public class AppWindow implements Handler{
   
   private void setupJAVA(){
     Messenger.subscribe(this, Message.M_TYPE.CHANGE_STATE);
+    Messenger.subscribe(this, Message.M_TYPE.RAW_INPT);
     
     State menu,game,splashScreen, quitScreen, gameOver;
     
@@ -145,6 +175,14 @@ public class AppWindow implements Handler{
     mainFSM.registerTransition(game, STATE.GAME_OVER, gameOver);
     mainFSM.registerTransition(gameOver, STATE.MENU, menu);
     mainFSM.registerTransition(quitScreen, STATE.MENU, menu);
+    //scenarios skip the menu
+    if(Ref.SCENARIO != null) mainFSM.registerTransition(splashScreen, STATE.GAME, game);
+    
+    Messenger.registerMetrics();
+    glx.registerMetrics();
+    GLStateCache.registerMetrics();
+    registerMetrics();
+    MetricsRegistry.export();
     
     mainFSM.activate();
 
@@ -174,6 +212,7 @@ public class AppWindow implements Handler{
     
     String lineVsh    = "res/shader/line/line.vsh";
     String lineFsh    = "res/shader/line/line.fsh";
+    String lineInstVsh= "res/shader/line/lineInstanced.vsh";
     String sa_quadVsh = "res/shader/shared/sa_quad.vsh";
     String comb       = "res/shader/glare/combine.fsh";
     String fxaaFsh    = "res/shader/fxaa/fxaa.fsh";
@@ -181,12 +220,14 @@ public class AppWindow implements Handler{
     String vb         = "res/shader/glare/vectorBlur.fsh";
 
     shaders.put("line" , new ShaderWrapper(lineVsh,    lineFsh));
+    shaders.put("lineInstanced", new ShaderWrapper(lineInstVsh, lineFsh));
     shaders.put("vectorBlur", new ShaderWrapper(sa_quadVsh, vb));
     shaders.put("combine", new ShaderWrapper(sa_quadVsh, comb));
     shaders.put("fxaa" , new ShaderWrapper(sa_quadVsh, fxaaFsh));
     shaders.put("blank", new ShaderWrapper(sa_quadVsh, blankFsh));
     
     Construct.shader = shaders.get("line");
+    Construct.instancedShader = shaders.get("lineInstanced");
     
     setupUniforms();
   }
@@ -198,6 +239,8 @@ public class AppWindow implements Handler{
     ShaderWrapper vb = shaders.get("vectorBlur");
     
     line.storeUniform("brightness", new Vector4f(1,1,1,1));
+    //the colorMod of instances is applied by the vertex shader
+    shaders.get("lineInstanced").storeUniform("brightness", new Vector4f(1,1,1,1));
 
     fxaa.storeUniform("fboTex",         Ref.fboTargetSlot[1]);
     fxaa.storeUniform("texcoordOffset",  new Vector2f(1f/Ref.xRes, 1f/Ref.yRes));
@@ -213,29 +256,97 @@ public class AppWindow implements Handler{
     vb.storeUniform("quality",   Ref.glowQuality);
     vb.storeUniform("strength",  Ref.glowStrength);
     vb.storeUniform("dir", new Vector2f(Ref.glowRadius, 0));
+    
+    blurQuality = vb.getUniform("quality");
+    blurDir = vb.getUniform("dir");
+    blurStrength = vb.getUniform("strength");
+    combineOriginal = comb.getUniform("original");
+    combineGlare = comb.getUniform("glare");
   }
   
   private void run(){
+    running = true;
+    if(!Ref.SINGLE_THREADED){
+      gameThread = new Thread(new Runnable(){
+        @Override
+        public void run() {
+          while(running && update());
+        }
+      }, "game");
+      gameThread.start();
+    }
+    
     while(!Display.isCloseRequested() && !closeRequest){
-      update();
+      if(Ref.SINGLE_THREADED) update();
+      else if(!gameThread.isAlive()) break;
+      
+      if(!glx.acquireFrame(Ref.RENDER_WAIT)){
+        //keep the window responsive while the game thread is busy, e.g. loading
+        Display.processMessages();
+        ip.update();
+        continue;
+      }
+      
+      FrameEvent event = new FrameEvent();
+      event.begin();
+      RenderProfiler.beginFrame();
+      updateFPSCounter();
       render();
+      RenderProfiler.start(RenderProfiler.STAGE.PRESENT);
       Display.update();
+      RenderProfiler.stop(RenderProfiler.STAGE.PRESENT);
+      long latency = System.nanoTime() - glx.getSubmitted();
+      RenderProfiler.setLatency(latency);
+      RenderProfiler.endFrame();
+      //the window has just processed its messages
+      ip.update();
+      if(exportRequest){
+        exportRequest = false;
+        RenderProfiler.exportCSV();
+      }
+      
+      event.end();
+      if(event.shouldCommit()){
+        event.draws = RenderProfiler.getDraws();
+        event.uniforms = RenderProfiler.getUniforms();
+        event.uploads = RenderProfiler.getUploads();
+        event.uploadBytes = RenderProfiler.getUploadBytes();
+        event.skipped = RenderProfiler.getSkipped();
+        event.changesSubmitted = RenderProfiler.getStateChangesSubmitted();
+        event.changesSorted = RenderProfiler.getStateChangesSorted();
+        event.latency = latency;
+        event.commit();
+      }
       Display.sync(Ref.maxFPS);
     }
     
+    running = false;
+    if(gameThread != null){
+      //it may wait for a free command buffer
+      gameThread.interrupt();
+      try {
+        gameThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
     cleanUp();
   }
   
-  private void update(){
-    updateFPSCounter();
-    ip.update();
+  //records a frame, false if interrupted while waiting for a command buffer
+  private boolean update(){
+    if(!glx.beginFrame()) return false;
     mainFSM.update();
-    Messenger.update();
+    //in lockstep, the Game delivers the messages at the start of each tick, so they arrive in the same tick when replayed
+    if(!SimClock.isSimulated()) Messenger.update();
+    glx.submit();
+    return true;
   }
   
   private void updateFPSCounter(){
     if(System.currentTimeMillis() - stamp > 1000){
       Display.setTitle("Asteroids  ||  FPS: "+frames);
+      fps = (int)frames;
       frames = 0;
       stamp = System.currentTimeMillis();
     }
@@ -247,61 +358,112 @@ public class AppWindow implements Handler{
     fbm.setSourceRender(shaders.get("line"));
     //finalize draws all glx orders
     fbm.finalizeSource();
-    if(Ref.glowQuality > 0){
-      shaders.get("vectorBlur").storeUniform("quality", Ref.glowQuality);
+    int glowQuality = glx.getGlowQuality();
+    if(glowQuality > 0){
+      blurQuality.set(glowQuality);
       //get narrow blur on target2
       //H = 0 -> 1
       //V = 1 -> 2
-      shaders.get("vectorBlur").storeUniform("dir", new Vector2f(Ref.glowRadius, 0));
-      shaders.get("vectorBlur").storeUniform("strength", Ref.glowStrength*0.55f);
-      fbm.doCustomPostPro(0, 1, shaders.get("vectorBlur"));
-      shaders.get("vectorBlur").storeUniform("dir", new Vector2f(0, Ref.glowRadius));
-      fbm.doCustomPostPro(1, 2, shaders.get("vectorBlur"));
+      blurDir.set(Ref.glowRadius, 0);
+      blurStrength.set(Ref.glowStrength*0.55f);
+      postPass("narrowBlurH", 0, 1, shaders.get("vectorBlur"));
+      blurDir.set(0, Ref.glowRadius);
+      postPass("narrowBlurV", 1, 2, shaders.get("vectorBlur"));
   
       //apply sum on target 1
       //C = 0 + 2 -> 1
-      shaders.get("combine").storeUniform("original", Ref.fboTargetSlot[0]);
-      shaders.get("combine").storeUniform("glare", Ref.fboTargetSlot[2]);
-      fbm.doCustomPostPro(2, 1, shaders.get("combine"));
+      combineOriginal.set(Ref.fboTargetSlot[0]);
+      combineGlare.set(Ref.fboTargetSlot[2]);
+      postPass("narrowCombine", 2, 1, shaders.get("combine"));
       
       //get broad blur on target2
       //H = 1 -> 0
       //V = 0 -> 2
-      shaders.get("vectorBlur").storeUniform("dir", new Vector2f(Ref.glowRadius*8, 0));
-      shaders.get("vectorBlur").storeUniform("strength", Ref.glowStrength/2.7f);
-      fbm.doCustomPostPro(1, 0, shaders.get("vectorBlur"));
-      shaders.get("vectorBlur").storeUniform("dir", new Vector2f(0, Ref.glowRadius*8));
-      fbm.doCustomPostPro(0, 2, shaders.get("vectorBlur"));
+      blurDir.set(Ref.glowRadius*8, 0);
+      blurStrength.set(Ref.glowStrength/2.7f);
+      postPass("broadBlurH", 1, 0, shaders.get("vectorBlur"));
+      blurDir.set(0, Ref.glowRadius*8);
+      postPass("broadBlurV", 0, 2, shaders.get("vectorBlur"));
   
       //apply sum on target 0
       //C = 1 + 2 -> 0
-      shaders.get("combine").storeUniform("original", Ref.fboTargetSlot[1]);
-      shaders.get("combine").storeUniform("glare", Ref.fboTargetSlot[2]);
-      fbm.doCustomPostPro(2, 0, shaders.get("combine"));
+      combineOriginal.set(Ref.fboTargetSlot[1]);
+      combineGlare.set(Ref.fboTargetSlot[2]);
+      postPass("broadCombine", 2, 0, shaders.get("combine"));
       
       //get horizontal lensFlare on target 1
-      shaders.get("vectorBlur").storeUniform("dir", new Vector2f(Ref.glowRadius*8, 0));
-      shaders.get("vectorBlur").storeUniform("strength", Ref.glowStrength/10f);
-      fbm.doCustomPostPro(0, 1, shaders.get("vectorBlur"));
+      blurDir.set(Ref.glowRadius*8, 0);
+      blurStrength.set(Ref.glowStrength/10f);
+      postPass("flareH", 0, 1, shaders.get("vectorBlur"));
       
       //apply sum on target 2
-      shaders.get("combine").storeUniform("original", Ref.fboTargetSlot[0]);
-      shaders.get("combine").storeUniform("glare", Ref.fboTargetSlot[1]);
-      fbm.doCustomPostPro(1, 2, shaders.get("combine"));
-      fbm.doCustomPostPro(2, 1, shaders.get("blank"));
+      combineOriginal.set(Ref.fboTargetSlot[0]);
+      combineGlare.set(Ref.fboTargetSlot[1]);
+      postPass("flareCombine", 1, 2, shaders.get("combine"));
+      postPass("copy", 2, 1, shaders.get("blank"));
       //fxaa from last written target(2)
-      fbm.finalizeImage(shaders.get("fxaa"));
+      finalPass("fxaa");
     }else{
-      fbm.finalizeImage(shaders.get("blank"));
+      finalPass("blank");
     }
 
   }
   
+  private void postPass(String label, int source, int dest, ShaderWrapper sw){
+    RenderProfiler.startPass(label);
+    fbm.doCustomPostPro(source, dest, sw);
+    RenderProfiler.stopPass();
+  }
+  
+  private void finalPass(String shader){
+    RenderProfiler.startPass(shader);
+    fbm.finalizeImage(shaders.get(shader));
+    RenderProfiler.stopPass();
+  }
+  
+  private void registerMetrics(){
+    MetricsRegistry.register(Metric.gauge("asteroids_render_fps", "Frames rendered in the last second", new Metric.Source(){
+      @Override
+      public double read() { return fps; }
+    }));
+    MetricsRegistry.register(Metric.gauge("asteroids_render_frame_ms", "Cpu time of the last frame", new Metric.Source(){
+      @Override
+      public double read() { return RenderProfiler.getFrameCost(); }
+    }));
+    MetricsRegistry.register(Metric.gauge("asteroids_render_draw_calls", "Draw calls of the last frame", new Metric.Source(){
+      @Override
+      public double read() { return RenderProfiler.getDraws(); }
+    }));
+    MetricsRegistry.register(Metric.gauge("asteroids_render_uniform_uploads", "Uniforms stored in the last frame", new Metric.Source(){
+      @Override
+      public double read() { return RenderProfiler.getUniforms(); }
+    }));
+    MetricsRegistry.register(Metric.gauge("asteroids_render_buffer_uploads", "Buffers uploaded in the last frame", new Metric.Source(){
+      @Override
+      public double read() { return RenderProfiler.getUploads(); }
+    }));
+    MetricsRegistry.register(Metric.gauge("asteroids_render_skipped_calls", "State changes and uniforms skipped in the last frame", new Metric.Source(){
+      @Override
+      public double read() { return RenderProfiler.getSkipped(); }
+    }));
+    MetricsRegistry.register(Metric.gauge("asteroids_render_state_changes_submitted", "State changes of the last frame, in the order drawn to", new Metric.Source(){
+      @Override
+      public double read() { return RenderProfiler.getStateChangesSubmitted(); }
+    }));
+    MetricsRegistry.register(Metric.gauge("asteroids_render_state_changes_sorted", "State changes of the last frame, in the sorted order", new Metric.Source(){
+      @Override
+      public double read() { return RenderProfiler.getStateChangesSorted(); }
+    }));
+    MetricsRegistry.register(Metric.gauge("asteroids_render_pipeline_latency_ms", "Time from submitting the last frame to presenting it", new Metric.Source(){
+      @Override
+      public double read() { return RenderProfiler.getLatency(); }
+    }));
+  }
+  
   private void cleanUp(){
+    MetricsRegistry.shutdown();
     mainFSM.deactivate();
     
-    glx.waitForRelease();
-    
     glx.deconstructAll();
     fbm.releaseAll();
     for(ShaderWrapper sw : shaders.values()){
@@ -312,6 +474,12 @@ public class AppWindow implements Handler{
 
   @Override
   public void handleMessage(Message m) {
-    if((Message.STATE)m.getParam() == STATE.CLOSE_GAME) closeRequest = true;
+    if(m.getMsgType() == Message.M_TYPE.CHANGE_STATE){
+      if(m.getParam(STATE.class) == STATE.CLOSE_GAME) closeRequest = true;
+    }else{
+      //F4 dumps the recent frames' render profile, on the render thread that records it
+      RW_IPT_Param p = m.getParam(RW_IPT_Param.class);
+      if(p.key == Keyboard.getKeyIndex("F4") && p.pressed) exportRequest = true;
+    }
   }
 }
\ No newline at end of file
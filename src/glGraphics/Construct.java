@@ -5,8 +5,8 @@ package glGraphics;
  * @author David-Peter Desch, Dominik Lisowski
  * 
  * Constructs store all necessary data to make a successfull and complete draw call of a particular shape.
- * Ideally they are registered for re-use on the cpu & gpu, reducing overhead. However, they are also used
- * for one-frame-only objects, getting deleted at the end of the frame's draw calls.
+ * They are registered for re-use on the cpu & gpu, reducing overhead. Loose lines don't need a Construct,
+ * they are streamed to the gpu by the LineStream.
  * 
  * Mainly, Constructs possess a set of lines, describing their shape (lines don't have to be connected)
  * Each Line consists of 2 Vertices. Each vertex has a position and a color. As a working HDR environment
@@ -17,12 +17,18 @@ package glGraphics;
  * by inverting the rotation alone, however, it would be impossible in a precalculated matrix. Each Construct
  * finally has a ColorMod. This color gets multiplied by the color of each vertex. With this, each instance
  * of the same Construct can have different colors, as opposed to storing one Construct for each color variation.
+ * 
+ * A registered Construct can also be drawn instanced, many times with a single draw call (see drawInstanced()).
+ * For this it has a second VertexArrayObject, on the same vertex and element buffers, which additionally reads
+ * the position, rotation, scale and colorMod of each instance from the instance buffer of the glGraphics.
  */
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL33.*;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -44,9 +50,6 @@ public class Construct {
   //actual set of drawn lines
   private LinkedList<Line> lineSet;
   
-  //gets drawn in a GL_DYNAMIC_DRAW VAO and isn't registered in the glx
-  public boolean dynamic;
-  
   //used to determine, if an object can be distarted, because it hasn't been drawn for an amount of time (see Ref.java)
   private long lastRendered;
   
@@ -54,24 +57,28 @@ public class Construct {
   public Vector3f scale;
   public float rotation;
   public float lineW;
+  //handed out by the glGraphics, groups equal constructs in its sort keys (see DrawList)
+  int drawId;
   
   //needed references of openGL calls, -1 if not yet generated
   private int vaPointer;
   private int vbPointer;
   private int ebPointer;
   private int ebLength;
-  
-  //same as above, but used for all unregistered Constructs
-  private static int vaGeneric = -1;
-  private static int vbGeneric = -1;
-  private static int ebGeneric = -1;
-  private static int ebG_Length= -1;
+  private int vaInstanced;
   
   //glsl in variable positions and shaderProgram idx
   private static int shPosAttrib = -1;
   private static int shColAttrib = -1;
+  private static int inPosAttrib = -1;
+  private static int inColAttrib = -1;
+  private static int inOffsetAttrib = -1;
+  private static int inRotScaleAttrib = -1;
+  private static int inModAttrib = -1;
   
   public static ShaderWrapper shader;
+  //line shader taking the transform and colorMod per instance, null if instancing isn't supported
+  public static ShaderWrapper instancedShader;
   
   public Construct(Collection<Line> cl){
     this();
@@ -80,41 +87,39 @@ public class Construct {
   
   public Construct(){
     lastRendered = System.currentTimeMillis();
-    dynamic = false;
     lineSet  =new LinkedList<>();
     vaPointer = -1;
     vbPointer = -1;
     ebPointer = -1;
     ebLength = -1;
+    vaInstanced = -1;
     
+    position = new Vector2f(0,0);
+    scale = new Vector3f(1,1,1);
+    rotation = 0;
+    lineW = Ref.lineW;
+  }
+  
+  private static void lookupAttribs(){
+    //only needed once something is sent to the gpu, so Constructs can be built without a gl context
     if(shPosAttrib == -1){
       if(shader == null) throw new IllegalStateException("global standardShader hasn't been set yet");
       //construct draw calls only function under the standard line shader (not default ogl shader!)
       shPosAttrib = glGetAttribLocation(shader.getShaderID(), "position");
       shColAttrib = glGetAttribLocation(shader.getShaderID(), "color");
     }
-    
-    position = new Vector2f(0,0);
-    scale = new Vector3f(1,1,1);
-    rotation = 0;
-    lineW = Ref.lineW;
   }
   
-  private void allocateDynamicVAO(){
-    //This VAO is dynamically filled with all objects that aren't registered
-    vaGeneric = glGenVertexArrays();
-    glBindVertexArray(vaGeneric);
-    
-    vbGeneric = glGenBuffers();
-    glBindBuffer(GL_ARRAY_BUFFER, vbGeneric);
-    
-    ebGeneric = glGenBuffers();
-    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebGeneric);
-    
-    glVertexAttribPointer(shPosAttrib, 2, GL_FLOAT, false, 6*(Float.SIZE/8), 0L);
-    glEnableVertexAttribArray(shPosAttrib);
-    glVertexAttribPointer(shColAttrib, 4, GL_FLOAT, false, 6*(Float.SIZE/8), 2*(Float.SIZE/8));
-    glEnableVertexAttribArray(shColAttrib);
+  private static void lookupInstancedAttribs(){
+    if(inPosAttrib == -1){
+      if(instancedShader == null) throw new IllegalStateException("instancedShader hasn't been set yet");
+      int id = instancedShader.getShaderID();
+      inPosAttrib = glGetAttribLocation(id, "position");
+      inColAttrib = glGetAttribLocation(id, "color");
+      inOffsetAttrib = glGetAttribLocation(id, "offset");
+      inRotScaleAttrib = glGetAttribLocation(id, "rotScale");
+      inModAttrib = glGetAttribLocation(id, "colorMod");
+    }
   }
   
   public void addLine(Line l){
@@ -168,17 +173,33 @@ public class Construct {
   
   public void draw(long ts){
     //glLineWidth(0.3f);
-    if(dynamic){
-      bakeDynamic();
-      glUseProgram(shader.getShaderID());
-      glBindVertexArray(vaGeneric);
-      glDrawElements(GL_LINES, ebG_Length, GL_UNSIGNED_INT, 0);
-    }else{
-      if(vaPointer == -1) throw new IllegalStateException("No valid VertexArrayObject assigned.");
-      glUseProgram(shader.getShaderID());
-      glBindVertexArray(vaPointer);
-      glDrawElements(GL_LINES, ebLength, GL_UNSIGNED_INT, 0);
-    }
+    if(vaPointer == -1) throw new IllegalStateException("No valid VertexArrayObject assigned.");
+    GLStateCache.useProgram(shader.getShaderID());
+    GLStateCache.bindVertexArray(vaPointer);
+    glDrawElements(GL_LINES, ebLength, GL_UNSIGNED_INT, 0);
+    RenderProfiler.countDraw();
+    lastRendered = ts;
+  }
+  
+  /**
+   * Draws count instances, whose data starts at instance first of the given instance buffer (InstanceBatcher.FLOATS
+   * floats each). The construct has to be baked already, and the view uniform of the instancedShader set.
+   */
+  public void drawInstanced(int instanceBuffer, int first, int count, long ts){
+    if(vaPointer == -1) throw new IllegalStateException("No valid VertexArrayObject assigned.");
+    if(vaInstanced == -1) bakeInstanced(instanceBuffer);
+    
+    GLStateCache.useProgram(instancedShader.getShaderID());
+    GLStateCache.bindVertexArray(vaInstanced);
+    GLStateCache.bindArrayBuffer(instanceBuffer);
+    //where the instances start is part of the attribute pointers
+    int stride = InstanceBatcher.FLOATS*(Float.SIZE/8);
+    long base = (long)first*stride;
+    glVertexAttribPointer(inOffsetAttrib,   2, GL_FLOAT, false, stride, base);
+    glVertexAttribPointer(inRotScaleAttrib, 3, GL_FLOAT, false, stride, base+2*(Float.SIZE/8));
+    glVertexAttribPointer(inModAttrib,      4, GL_FLOAT, false, stride, base+InstanceBatcher.TRANSFORM*(Float.SIZE/8));
+    glDrawElementsInstanced(GL_LINES, ebLength, GL_UNSIGNED_INT, 0, count);
+    RenderProfiler.countDraw();
     lastRendered = ts;
   }
   
@@ -186,15 +207,43 @@ public class Construct {
     bakeFixed();
   }
   
+  private void bakeInstanced(int instanceBuffer){
+    lookupInstancedAttribs();
+    
+    vaInstanced = glGenVertexArrays();
+    GLStateCache.bindVertexArray(vaInstanced);
+    
+    //the vertices are shared with the VertexArrayObject of plain draws
+    GLStateCache.bindArrayBuffer(vbPointer);
+    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebPointer);
+    glVertexAttribPointer(inPosAttrib, 2, GL_FLOAT, false, 6*(Float.SIZE/8), 0L);
+    glEnableVertexAttribArray(inPosAttrib);
+    glVertexAttribPointer(inColAttrib, 4, GL_FLOAT, false, 6*(Float.SIZE/8), 2*(Float.SIZE/8));
+    glEnableVertexAttribArray(inColAttrib);
+    
+    //one step per instance. The pointers themselves are set by each draw
+    GLStateCache.bindArrayBuffer(instanceBuffer);
+    glEnableVertexAttribArray(inOffsetAttrib);
+    glVertexAttribDivisor(inOffsetAttrib, 1);
+    glEnableVertexAttribArray(inRotScaleAttrib);
+    glVertexAttribDivisor(inRotScaleAttrib, 1);
+    glEnableVertexAttribArray(inModAttrib);
+    glVertexAttribDivisor(inModAttrib, 1);
+    
+    int err = glGetError();
+    if(err != 0) SimpleLogger.log(GLU.gluErrorString(err) + "("+err+")", -1, Construct.class, "bakeInstanced");
+  }
+  
   private void bakeFixed(){
     if(lineSet.isEmpty()) throw new IllegalStateException("Construct does not contain any lines at all.");
-    glUseProgram(shader.getShaderID());
+    lookupAttribs();
+    GLStateCache.useProgram(shader.getShaderID());
     
     vaPointer = glGenVertexArrays();
-    glBindVertexArray(vaPointer);
+    GLStateCache.bindVertexArray(vaPointer);
     
     vbPointer = glGenBuffers();
-    glBindBuffer(GL_ARRAY_BUFFER, vbPointer);
+    GLStateCache.bindArrayBuffer(vbPointer);
     
     //fill the vertexBuffer and the elementBuffer
     float[] verts = bakeVertexBuffer();
@@ -203,6 +252,7 @@ public class Construct {
     buff.put(verts);
     buff.flip();
     glBufferData(GL_ARRAY_BUFFER, buff, GL_STATIC_DRAW);
+    RenderProfiler.countUpload(verts.length*(Float.SIZE/8));
     
     ebPointer = glGenBuffers();
     glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebPointer);
@@ -214,6 +264,7 @@ public class Construct {
     buffi.put(elems);
     buffi.flip();
     glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffi, GL_STATIC_DRAW);
+    RenderProfiler.countUpload(elems.length*(Integer.SIZE/8));
     
     //define attribPositions in each vertexArray
     glVertexAttribPointer(shPosAttrib, 2, GL_FLOAT, false, 6*(Float.SIZE/8), 0L);
@@ -225,33 +276,7 @@ public class Construct {
     if(err != 0) SimpleLogger.log(GLU.gluErrorString(err) + "("+err+")", -1, Construct.class, "bakeFixed");
   }
   
-  private void bakeDynamic(){
-    if(lineSet.isEmpty()) throw new IllegalStateException("Construct does not contain any lines at all.");
-    if(vaGeneric == -1) allocateDynamicVAO();
-    
-    glBindVertexArray(vaGeneric);
-    glUseProgram(shader.getShaderID());
-    glBindBuffer(GL_ARRAY_BUFFER, vbGeneric);
-    
-    float[] verts = bakeVertexBuffer();
-    
-    FloatBuffer buff = (ByteBuffer.allocateDirect(verts.length*(Float.SIZE/8)).order(ByteOrder.nativeOrder())).asFloatBuffer();
-    buff.put(verts);
-    buff.flip();
-    glBufferData(GL_ARRAY_BUFFER, buff, GL_DYNAMIC_DRAW);
-    
-    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebGeneric);
-    
-    int[] elems = bakeElementBuffer();
-    ebG_Length = elems.length;
-    
-    IntBuffer buffi = (ByteBuffer.allocateDirect(elems.length*(Float.SIZE/8)).order(ByteOrder.nativeOrder())).asIntBuffer();
-    buffi.put(elems);
-    buffi.flip();
-    glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffi, GL_DYNAMIC_DRAW);
-  }
-  
-  private float[] bakeVertexBuffer(){
+  float[] bakeVertexBuffer(){
     //per Line: 2 Vertices  2 pos float & 4 col float
     float[] array = new float[lineSet.size()*2*(2+4)];
     int idx=0;
@@ -292,11 +317,16 @@ public class Construct {
   }
   
   public void releaseVBO(){
-    if(!dynamic){
+    if(vaPointer != -1){
       SimpleLogger.log("deleting construct", 10, Construct.class, "releaseVBO");
       glDeleteBuffers(vbPointer);
       glDeleteBuffers(ebPointer);
       glDeleteVertexArrays(vaPointer);
+      if(vaInstanced != -1) glDeleteVertexArrays(vaInstanced);
+      vaPointer = -1;
+      vaInstanced = -1;
+      //deleting what is bound unbinds it behind the cache's back
+      GLStateCache.invalidate();
     }
   }
   
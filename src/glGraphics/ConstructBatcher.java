@@ -0,0 +1,175 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * The InstanceBatcher of the glGraphics. add() packs an instance right away and stages it in submission order,
+ * build() then sorts the staged instances into their groups by counting sort: the groups are counted while adding,
+ * so placing every instance at its group's next free index is a single pass.
+ *
+ * A construct keeps its Group across frames, so after the first frame nothing is allocated, apart from growing the
+ * arrays when there are more instances than ever before. Groups are only dropped by forget().
+ *
+ */
+
+import java.util.HashMap;
+import java.util.UUID;
+
+public class ConstructBatcher implements InstanceBatcher{
+
+  private static class Group{
+    private UUID construct;
+    //frame the group was last used in, and its index in that frame
+    private int frame = -1;
+    private int index;
+  }
+
+  private HashMap<UUID, Group> known;
+  private int frame;
+
+  //this frame's groups, by index
+  private Group[] groups;
+  private int[] first;
+  private int[] count;
+  private int groupCount;
+
+  //instances in submission order, and the group of each
+  private float[] staged;
+  private int[] groupOf;
+  private int instances;
+
+  private float[] data;
+
+  public ConstructBatcher(){
+    known = new HashMap<>();
+    groups = new Group[16];
+    first = new int[16];
+    count = new int[16];
+    staged = new float[1024*FLOATS];
+    groupOf = new int[1024];
+    data = new float[1024*FLOATS];
+  }
+
+  @Override
+  public void add(UUID construct, float[] instance, int off){
+    Group g = known.get(construct);
+    if(g == null){
+      g = new Group();
+      g.construct = construct;
+      known.put(construct, g);
+    }
+    if(g.frame != frame){
+      g.frame = frame;
+      g.index = groupCount;
+      if(groupCount == groups.length) growGroups();
+      groups[groupCount] = g;
+      count[groupCount] = 0;
+      groupCount++;
+    }
+    count[g.index]++;
+
+    if(instances == groupOf.length) growInstances();
+    groupOf[instances] = g.index;
+
+    //the transform is built by the vertex shader, a uniform scale goes into both axes
+    int k = instances*FLOATS;
+    staged[k+0] = instance[off+0];
+    staged[k+1] = instance[off+1];
+    staged[k+2] = instance[off+2];
+    staged[k+3] = instance[off+3];
+    staged[k+4] = instance[off+3];
+    staged[k+5] = instance[off+4];
+    staged[k+6] = instance[off+5];
+    staged[k+7] = instance[off+6];
+    staged[k+8] = instance[off+7];
+    instances++;
+  }
+
+  private void growGroups(){
+    int size = groups.length*2;
+    Group[] g = new Group[size];
+    System.arraycopy(groups, 0, g, 0, groupCount);
+    groups = g;
+    int[] f = new int[size];
+    System.arraycopy(first, 0, f, 0, groupCount);
+    first = f;
+    int[] c = new int[size];
+    System.arraycopy(count, 0, c, 0, groupCount);
+    count = c;
+  }
+
+  private void growInstances(){
+    int size = groupOf.length*2;
+    int[] go = new int[size];
+    System.arraycopy(groupOf, 0, go, 0, instances);
+    groupOf = go;
+    float[] st = new float[size*FLOATS];
+    System.arraycopy(staged, 0, st, 0, instances*FLOATS);
+    staged = st;
+    data = new float[size*FLOATS];
+  }
+
+  @Override
+  public void build(){
+    int next = 0;
+    for(int g=0;g<groupCount;g++){
+      first[g] = next;
+      next += count[g];
+    }
+
+    //first[g] is moved on while placing, back where it was afterwards
+    for(int i=0;i<instances;i++){
+      int g = groupOf[i];
+      System.arraycopy(staged, i*FLOATS, data, first[g]*FLOATS, FLOATS);
+      first[g]++;
+    }
+    for(int g=0;g<groupCount;g++){
+      first[g] -= count[g];
+    }
+  }
+
+  @Override
+  public void clear(){
+    for(int g=0;g<groupCount;g++){
+      groups[g] = null;
+    }
+    groupCount = 0;
+    instances = 0;
+    frame++;
+  }
+
+  @Override
+  public void forget(UUID construct){
+    known.remove(construct);
+  }
+
+  @Override
+  public int getInstanceCount(){
+    return instances;
+  }
+
+  @Override
+  public int getGroupCount(){
+    return groupCount;
+  }
+
+  @Override
+  public UUID getConstruct(int group){
+    return groups[group].construct;
+  }
+
+  @Override
+  public int getFirst(int group){
+    return first[group];
+  }
+
+  @Override
+  public int getCount(int group){
+    return count[group];
+  }
+
+  @Override
+  public float[] getData(){
+    return data;
+  }
+}
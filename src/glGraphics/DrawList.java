@@ -0,0 +1,194 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * The draw orders of a frame as 64 bit sort keys, sorted before the glGraphics executes them, so orders sharing a
+ * state follow each other and the GLStateCache and the Uniforms can skip setting it again. From the highest bits
+ * down, a key holds:
+ *
+ *   layer      4 bits   drawn strictly in order, e.g. the HUD after the world
+ *   shader     4 bits   program and kind of vertex array
+ *   line width 8 bits   in 1/16 pixels
+ *   construct 12 bits   Construct.drawId
+ *   colorMod  16 bits   4 bits per channel over [0, 2), the colors used are up to 1.6
+ *   index     20 bits   of the order in the caller's list
+ *
+ * Width, construct and color only decide what is drawn next to each other: two orders ending up with the same
+ * bits are still drawn with their own state, so rounding never changes the picture. Orders with the same state keep
+ * the order they were added in, as the sort is stable.
+ *
+ * From Ref.DRAW_RADIX_MIN orders on, the keys are sorted by least significant digit radix sort, a byte per pass,
+ * starting above the lower 16 bits of the index. The bytes are all counted in one go, and a pass over a byte all keys
+ * share leaves the order as it is, so it is skipped. Below, the passes cost more than Arrays.sort() does, which sorts
+ * into the same order: the keys are unique through their index, and the layer's top bit is never set, so they
+ * compare the same signed. Nothing here touches openGL, so it can be benchmarked without a display.
+ *
+ * While sorting, the state changes between neighbouring orders are counted before and after, a change being every
+ * field of shader, line width, construct and color differing from the order before.
+ *
+ */
+
+import java.util.Arrays;
+
+import org.lwjgl.util.vector.Vector4f;
+
+import util.Ref;
+
+public class DrawList {
+
+  public static final int LAYERS = 8;
+  public static final int SHADERS = 16;
+  public static final int MAX_ORDERS = 1 << 20;
+
+  private static final int INDEX_BITS = 20;
+  private static final int COLOR_SHIFT = INDEX_BITS;
+  private static final int CONSTRUCT_SHIFT = COLOR_SHIFT+16;
+  private static final int WIDTH_SHIFT = CONSTRUCT_SHIFT+12;
+  private static final int SHADER_SHIFT = WIDTH_SHIFT+8;
+  private static final int LAYER_SHIFT = SHADER_SHIFT+4;
+  //the two lowest bytes are only index, the stable sort keeps the order of adding anyway
+  private static final int FIRST_SHIFT = 16;
+  private static final int BYTES = (64-FIRST_SHIFT)/8;
+
+  private long[] keys;
+  private long[] sorted;
+  private int size;
+  //a histogram per sorted byte, all counted in one go
+  private int[] count = new int[BYTES*256];
+
+  private int radixMin;
+
+  private int changesBefore;
+  private int changesAfter;
+
+  public DrawList(){
+    this(Ref.DRAW_RADIX_MIN);
+  }
+
+  //radix sorts from radixMin orders on
+  DrawList(int radixMin){
+    this.radixMin = radixMin;
+    keys = new long[256];
+    sorted = new long[256];
+  }
+
+  public static long key(int layer, int shader, float lineW, int construct, float r, float g, float b, float a, int index){
+    if(layer < 0 || layer >= LAYERS) throw new IllegalArgumentException("No such layer: "+layer);
+    if(shader < 0 || shader >= SHADERS) throw new IllegalArgumentException("No such shader slot: "+shader);
+    if(index < 0 || index >= MAX_ORDERS) throw new IllegalArgumentException("Too many draw orders: "+index);
+
+    long color = channel(r) << 12 | channel(g) << 8 | channel(b) << 4 | channel(a);
+    return (long)layer << LAYER_SHIFT
+         | (long)shader << SHADER_SHIFT
+         | Math.min(Math.max(Math.round(lineW*16), 0), 255L) << WIDTH_SHIFT
+         | (construct & 0xFFFL) << CONSTRUCT_SHIFT
+         | color << COLOR_SHIFT
+         | index;
+  }
+
+  public static long key(int layer, int shader, float lineW, int construct, Vector4f color, int index){
+    return key(layer, shader, lineW, construct, color.x, color.y, color.z, color.w, index);
+  }
+
+  private static long channel(float c){
+    return Math.min(Math.max((int)(c*8), 0), 15);
+  }
+
+  public void add(long key){
+    if(size == keys.length){
+      keys = Arrays.copyOf(keys, size*2);
+      sorted = new long[size*2];
+    }
+    keys[size++] = key;
+  }
+
+  public void sort(){
+    changesBefore = changes();
+    if(size >= radixMin && size > 0) radix();
+    else Arrays.sort(keys, 0, size);
+    changesAfter = changes();
+  }
+
+  private void radix(){
+    long[] from = keys;
+    long[] to = sorted;
+    Arrays.fill(count, 0);
+    for(int i=0;i<size;i++){
+      long k = from[i] >>> FIRST_SHIFT;
+      for(int b=0;b<BYTES;b++){
+        count[b*256+(int)(k & 0xFF)]++;
+        k >>>= 8;
+      }
+    }
+
+    for(int b=0;b<BYTES;b++){
+      int shift = FIRST_SHIFT+b*8;
+      int base = b*256;
+      //every key in one bucket, this byte doesn't change the order
+      if(count[base+(int)(from[0] >>> shift & 0xFF)] == size) continue;
+
+      //counts to the first index of each bucket
+      int next = 0;
+      for(int d=base;d<base+256;d++){
+        int c = count[d];
+        count[d] = next;
+        next += c;
+      }
+      for(int i=0;i<size;i++){
+        to[count[base+(int)(from[i] >>> shift & 0xFF)]++] = from[i];
+      }
+      long[] t = from;
+      from = to;
+      to = t;
+    }
+    keys = from;
+    sorted = to;
+  }
+
+  //state changes walking the keys in their current order
+  private int changes(){
+    int c = 0;
+    for(int i=1;i<size;i++){
+      long d = keys[i] ^ keys[i-1];
+      if((d >>> SHADER_SHIFT & 0xF) != 0) c++;
+      if((d >>> WIDTH_SHIFT & 0xFF) != 0) c++;
+      if((d >>> CONSTRUCT_SHIFT & 0xFFF) != 0) c++;
+      if((d >>> COLOR_SHIFT & 0xFFFF) != 0) c++;
+    }
+    return c;
+  }
+
+  public void clear(){
+    size = 0;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  //index of the i-th order, as given to key()
+  public int getIndex(int i){
+    return (int)(keys[i] & (MAX_ORDERS-1));
+  }
+
+  public int getLayer(int i){
+    return (int)(keys[i] >>> LAYER_SHIFT);
+  }
+
+  public int getShader(int i){
+    return (int)(keys[i] >>> SHADER_SHIFT & 0xF);
+  }
+
+  public long getKey(int i){
+    return keys[i];
+  }
+
+  public int getChangesBefore(){
+    return changesBefore;
+  }
+
+  public int getChangesAfter(){
+    return changesAfter;
+  }
+}
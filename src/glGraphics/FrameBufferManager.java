@@ -77,16 +77,17 @@ public class FrameBufferManager {
     }
     
     public void execute(){
-      glBindVertexArray(vaScreen);
+      GLStateCache.bindVertexArray(vaScreen);
       glDrawElements(GL_TRIANGLES, quadElems.length, GL_UNSIGNED_INT, 0);
+      RenderProfiler.countDraw();
     }
     
     private void setupVAO(){
       vaScreen = glGenVertexArrays();
-      glBindVertexArray(vaScreen);
+      GLStateCache.bindVertexArray(vaScreen);
       
       vbScreen = glGenBuffers();
-      glBindBuffer(GL_ARRAY_BUFFER, vbScreen);
+      GLStateCache.bindArrayBuffer(vbScreen);
       
       FloatBuffer buff = (ByteBuffer.allocateDirect(screenVerts.length*(Float.SIZE/8)).order(ByteOrder.nativeOrder())).asFloatBuffer();
       buff.put(screenVerts);
@@ -103,8 +104,8 @@ public class FrameBufferManager {
     }
     
     private void setupAttribLocs(int sa_quadID){
-      glBindVertexArray(vaScreen);
-      glBindBuffer(GL_ARRAY_BUFFER,vbScreen);
+      GLStateCache.bindVertexArray(vaScreen);
+      GLStateCache.bindArrayBuffer(vbScreen);
       
       int scr_PosAttrib = glGetAttribLocation(sa_quadID, "position");
       glVertexAttribPointer(scr_PosAttrib, 2, GL_FLOAT, false, 4*(Float.SIZE/8), 0L);
@@ -125,6 +126,7 @@ public class FrameBufferManager {
       glDeleteBuffers(vbScreen);
       glDeleteBuffers(ebScreen);
       glDeleteVertexArrays(vaScreen);
+      GLStateCache.invalidate();
     }
     
     public final float[] screenVerts = {
@@ -80,11 +80,10 @@ public class FrameBufferWrapper {
   
   private void generateFBO(){
     fboID = glGenFramebuffers();
-    glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+    GLStateCache.bindFramebuffer(fboID);
     
     writeTexID = glGenTextures();
-    glActiveTexture(slotMap.get(writeSlot));
-    glBindTexture(GL11.GL_TEXTURE_2D, writeTexID);
+    GLStateCache.bindTexture(slotMap.get(writeSlot), writeTexID);
     
     //generate empty texture with allocated mipmaps
     glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL_RGBA16F, Ref.xRes, Ref.yRes, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer)null);
@@ -119,17 +118,15 @@ public class FrameBufferWrapper {
     
     //setup texture for reading
     if(readTexID != -1){
-      glActiveTexture(slotMap.get(readSlot));
-      glBindTexture(GL11.GL_TEXTURE_2D, readTexID);
+      GLStateCache.bindTexture(slotMap.get(readSlot), readTexID);
       glGenerateMipmap(GL11.GL_TEXTURE_2D);
       shader.storeUniform("fboTex", readSlot);
     }
     //setup texture for writing
-    glActiveTexture(slotMap.get(writeSlot));
-    glBindTexture(GL11.GL_TEXTURE_2D, writeTexID);
+    GLStateCache.bindTexture(slotMap.get(writeSlot), writeTexID);
     
-        glUseProgram(shader.getShaderID());
-    glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+    GLStateCache.useProgram(shader.getShaderID());
+    GLStateCache.bindFramebuffer(fboID);
     if(clear)glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
   }
   
@@ -144,6 +141,7 @@ public class FrameBufferWrapper {
   public void releaseFBO(){
     glDeleteTextures(writeTexID);
     glDeleteFramebuffers(fboID);
+    GLStateCache.invalidate();
   }
 
 }
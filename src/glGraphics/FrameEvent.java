@@ -0,0 +1,53 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Flight recorder event for one frame of the AppWindow, from executing its recorded orders to presenting the image,
+ * with the gl calls the RenderProfiler counted for it, and how long ago the game thread submitted it. Off unless
+ * enabled.
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("asteroids.Frame")
+@Label("Frame")
+@Category({"Asteroids", "Rendering"})
+@Description("One rendered frame, without the sync to the frame rate")
+@Enabled(false)
+@StackTrace(false)
+public class FrameEvent extends Event{
+
+  @Label("Draw Calls")
+  int draws;
+
+  @Label("Uniform Uploads")
+  int uniforms;
+
+  @Label("Buffer Uploads")
+  int uploads;
+
+  @Label("Uploaded") @DataAmount
+  long uploadBytes;
+
+  @Label("Skipped GL Calls")
+  int skipped;
+
+  @Label("State Changes Submitted")
+  int changesSubmitted;
+
+  @Label("State Changes Sorted")
+  int changesSorted;
+
+  @Label("Latency") @Description("From submitting the frame to presenting it") @Timespan
+  long latency;
+}
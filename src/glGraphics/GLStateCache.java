@@ -0,0 +1,203 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Remembers which program, vertex array, array buffer, framebuffer and textures are bound, and the line width, and
+ * only calls openGL when something actually changes. Every bind of the render code goes through here, so the cache
+ * is always right about what it issued. Code binding things behind its back, like the slick-util font, or deleting
+ * bound objects, whose names openGL hands out again, has to call invalidate() afterwards.
+ *
+ * Element array buffers aren't cached, their binding belongs to the bound vertex array.
+ *
+ * Like the RenderProfiler, the cache is static, as there is only one gl context and one render thread. Skipped
+ * calls are counted per kind, with the uniforms a Uniform didn't upload as it already had the value. The total of
+ * a frame goes to the RenderProfiler as well.
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
+
+import metrics.Metric;
+import metrics.MetricsRegistry;
+
+public class GLStateCache {
+
+  public enum KIND{
+    PROGRAM,
+    VERTEX_ARRAY,
+    BUFFER,
+    FRAMEBUFFER,
+    TEXTURE,
+    LINE_WIDTH,
+    UNIFORM
+  }
+
+  private static final KIND[] KINDS = KIND.values();
+  private static final int UNITS = 32;
+
+  private static int program;
+  private static int vertexArray;
+  private static int arrayBuffer;
+  private static int framebuffer;
+  private static int activeUnit;
+  private static int[] textures = new int[UNITS];
+  private static float lineWidth;
+
+  //totals since the start. Metrics read them from other threads, where they may lag behind a little
+  private static long[] issued = new long[KINDS.length];
+  private static long[] skipped = new long[KINDS.length];
+
+  static{
+    invalidate();
+  }
+
+  //forgets everything, the next call of each kind is issued for sure
+  public static void invalidate(){
+    program = -1;
+    vertexArray = -1;
+    arrayBuffer = -1;
+    framebuffer = -1;
+    activeUnit = -1;
+    for(int i=0;i<UNITS;i++){
+      textures[i] = -1;
+    }
+    lineWidth = -1;
+  }
+
+  //forgets the texture bindings only, for code binding textures itself
+  public static void invalidateTextures(){
+    for(int i=0;i<UNITS;i++){
+      textures[i] = -1;
+    }
+  }
+
+  public static void useProgram(int id){
+    if(program == id){
+      skip(KIND.PROGRAM);
+      return;
+    }
+    glUseProgram(id);
+    program = id;
+    issue(KIND.PROGRAM);
+  }
+
+  public static void bindVertexArray(int id){
+    if(vertexArray == id){
+      skip(KIND.VERTEX_ARRAY);
+      return;
+    }
+    glBindVertexArray(id);
+    vertexArray = id;
+    issue(KIND.VERTEX_ARRAY);
+  }
+
+  public static void bindArrayBuffer(int id){
+    if(arrayBuffer == id){
+      skip(KIND.BUFFER);
+      return;
+    }
+    glBindBuffer(GL_ARRAY_BUFFER, id);
+    arrayBuffer = id;
+    issue(KIND.BUFFER);
+  }
+
+  public static void bindFramebuffer(int id){
+    if(framebuffer == id){
+      skip(KIND.FRAMEBUFFER);
+      return;
+    }
+    glBindFramebuffer(GL_FRAMEBUFFER, id);
+    framebuffer = id;
+    issue(KIND.FRAMEBUFFER);
+  }
+
+  //binds the 2d texture to the texture unit, GL_TEXTURE0+i. The unit stays active
+  public static void bindTexture(int unit, int id){
+    int i = unit-GL_TEXTURE0;
+    if(activeUnit != unit){
+      glActiveTexture(unit);
+      activeUnit = unit;
+      issue(KIND.TEXTURE);
+    }
+    if(textures[i] == id){
+      skip(KIND.TEXTURE);
+      return;
+    }
+    glBindTexture(GL_TEXTURE_2D, id);
+    textures[i] = id;
+    issue(KIND.TEXTURE);
+  }
+
+  public static void activeTexture(int unit){
+    if(activeUnit == unit){
+      skip(KIND.TEXTURE);
+      return;
+    }
+    glActiveTexture(unit);
+    activeUnit = unit;
+    issue(KIND.TEXTURE);
+  }
+
+  public static void lineWidth(float w){
+    if(lineWidth == w){
+      skip(KIND.LINE_WIDTH);
+      return;
+    }
+    glLineWidth(w);
+    lineWidth = w;
+    issue(KIND.LINE_WIDTH);
+  }
+
+  static void issue(KIND k){
+    issued[k.ordinal()]++;
+  }
+
+  static void skip(KIND k){
+    skipped[k.ordinal()]++;
+    RenderProfiler.countSkipped();
+  }
+
+  public static long getIssued(KIND k){
+    return issued[k.ordinal()];
+  }
+
+  public static long getSkipped(KIND k){
+    return skipped[k.ordinal()];
+  }
+
+  //issued/skipped calls of each kind, e.g. "program 12/480"
+  public static String report(){
+    StringBuilder sb = new StringBuilder();
+    for(KIND k : KINDS){
+      if(sb.length() > 0) sb.append("  ");
+      sb.append(String.format(Locale.ROOT, "%s %d/%d", k.name().toLowerCase(Locale.ROOT), getIssued(k), getSkipped(k)));
+    }
+    return sb.toString();
+  }
+
+  public static Collection<Metric> registerMetrics(){
+    ArrayList<Metric> ml = new ArrayList<>();
+    for(final KIND k : KINDS){
+      String name = k.name().toLowerCase(Locale.ROOT);
+      ml.add(Metric.counter("asteroids_gl_"+name+"_issued_total", "Calls changing the "+name+" state", new Metric.Source(){
+        @Override
+        public double read() { return getIssued(k); }
+      }));
+      ml.add(Metric.counter("asteroids_gl_"+name+"_skipped_total", "Calls skipped, as the "+name+" state was set already", new Metric.Source(){
+        @Override
+        public double read() { return getSkipped(k); }
+      }));
+    }
+    MetricsRegistry.register(ml);
+    return ml;
+  }
+}
@@ -0,0 +1,40 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Collects the instances of a frame and groups them by their construct, so every construct is drawn with one
+ * instanced draw call, however many entities share it. This is a pure cpu step: the glGraphics uploads getData()
+ * into its instance buffer in one go and draws each group from its range, but nothing here touches openGL, so
+ * batching can be benchmarked without a display.
+ *
+ * Each instance in getData() is FLOATS floats: its TRANSFORM floats x, y, rotation, x scale and y scale, and the
+ * rgba colorMod. The vertex shader builds the model transform from them (see glGraphics.setModel() for the same on
+ * the cpu). Groups come in the order their first instance was added, the instances of a group in the order they were
+ * added.
+ *
+ */
+
+import java.util.UUID;
+
+public interface InstanceBatcher {
+
+  public static final int TRANSFORM = 5;
+  public static final int FLOATS = TRANSFORM+4;
+
+  //instance holds x, y, rotation, scale and rgba colorMod, see RenderExtractor
+  public void add(UUID construct, float[] instance, int off);
+  //groups everything added since the last clear(), before the getters are used
+  public void build();
+  public void clear();
+  //the construct won't be drawn anymore, anything kept for it can go
+  public void forget(UUID construct);
+
+  public int getInstanceCount();
+  public int getGroupCount();
+  public UUID getConstruct(int group);
+  //index of the group's first instance in getData()
+  public int getFirst(int group);
+  public int getCount(int group);
+  public float[] getData();
+}
@@ -0,0 +1,190 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Loose lines, drawn without a registered Construct (see glGraphics.drawLines()). Their vertices are appended to a
+ * direct buffer as they come, 6 floats each like a Construct's: position and color. Lines are always stored as
+ * pairs, so loops are unrolled while appending, and no element buffer is needed. Consecutive lines of the same
+ * width form a run, which is drawn with a single glDrawArrays.
+ *
+ * On the gpu, the lines of a frame go into a ring buffer of Ref.LINE_STREAM vertices: each frame maps the range
+ * after the last one unsynchronized, as the gpu never reads what was written since the ring was last started over,
+ * and copies the frame's vertices into it. Once a frame doesn't fit anymore, the buffer is orphaned and the ring
+ * starts over, so writing never waits for the gpu. A frame needing more than the whole ring grows it.
+ *
+ * Appending needs no gl context, only upload() and draw() do. Nothing is allocated per line, the staging buffer
+ * only grows when a frame has more lines than ever before.
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.util.vector.Vector4f;
+
+import util.Ref;
+
+public class LineStream {
+
+  public static final int FLOATS = 6;
+  private static final int BYTES = FLOATS*(Float.SIZE/8);
+
+  private ByteBuffer stagedBytes;
+  private FloatBuffer staged;
+  private int vertices;
+
+  //runs of lines of the same width, in the order they were started
+  private int[] runFirst;
+  private int[] runCount;
+  private float[] runWidth;
+  private int runs;
+
+  private int vaPointer = -1;
+  private int vbPointer = -1;
+  private int ringVertices;
+  private int ringPos;
+  //where this frame's vertices start in the ring
+  private int base;
+
+  public LineStream(){
+    stage(Ref.LINE_STREAM);
+    runFirst = new int[16];
+    runCount = new int[16];
+    runWidth = new float[16];
+    ringVertices = Ref.LINE_STREAM;
+  }
+
+  private void stage(int capacity){
+    ByteBuffer b = ByteBuffer.allocateDirect(capacity*BYTES).order(ByteOrder.nativeOrder());
+    if(stagedBytes != null){
+      stagedBytes.clear().limit(vertices*BYTES);
+      b.put(stagedBytes);
+      b.clear();
+    }
+    stagedBytes = b;
+    staged = b.asFloatBuffer();
+    staged.position(vertices*FLOATS);
+  }
+
+  //starts a new run, the lines following it are drawn with the given width
+  public void startRun(float lw){
+    if(runs == runFirst.length){
+      int size = runs*2;
+      int[] f = new int[size];
+      System.arraycopy(runFirst, 0, f, 0, runs);
+      runFirst = f;
+      int[] c = new int[size];
+      System.arraycopy(runCount, 0, c, 0, runs);
+      runCount = c;
+      float[] w = new float[size];
+      System.arraycopy(runWidth, 0, w, 0, runs);
+      runWidth = w;
+    }
+    runFirst[runs] = vertices;
+    runCount[runs] = 0;
+    runWidth[runs] = lw;
+    runs++;
+  }
+
+  //width of the run lines are added to, NaN if none was started
+  public float getWidth(){
+    return runs == 0 ? Float.NaN : runWidth[runs-1];
+  }
+
+  public void line(float x0, float y0, float x1, float y1, Vector4f color){
+    vertex(x0, y0, color);
+    vertex(x1, y1, color);
+  }
+
+  public void vertex(float x, float y, Vector4f color){
+    if(runs == 0) throw new IllegalStateException("No run started");
+    if(vertices*FLOATS == staged.capacity()) stage(vertices*2);
+    staged.put(x).put(y).put(color.x).put(color.y).put(color.z).put(color.w);
+    vertices++;
+    runCount[runs-1]++;
+  }
+
+  public int getVertexCount(){
+    return vertices;
+  }
+
+  public int getRunCount(){
+    return runs;
+  }
+
+  //sends this frame's vertices into the ring, before any run is drawn
+  public void upload(){
+    if(vertices == 0) return;
+    if(vaPointer == -1) allocate();
+    GLStateCache.bindArrayBuffer(vbPointer);
+
+    if(ringPos+vertices > ringVertices){
+      while(vertices > ringVertices) ringVertices *= 2;
+      //new storage, the gpu keeps the old one until it is done with it
+      glBufferData(GL_ARRAY_BUFFER, (long)ringVertices*BYTES, GL_STREAM_DRAW);
+      ringPos = 0;
+    }
+
+    int access = GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_RANGE_BIT | GL_MAP_UNSYNCHRONIZED_BIT;
+    ByteBuffer mapped = glMapBufferRange(GL_ARRAY_BUFFER, (long)ringPos*BYTES, (long)vertices*BYTES, access, null);
+    stagedBytes.clear().limit(vertices*BYTES);
+    mapped.put(stagedBytes);
+    glUnmapBuffer(GL_ARRAY_BUFFER);
+    RenderProfiler.countUpload(vertices*BYTES);
+
+    base = ringPos;
+    ringPos += vertices;
+  }
+
+  private void allocate(){
+    if(Construct.shader == null) throw new IllegalStateException("global standardShader hasn't been set yet");
+    int shPosAttrib = glGetAttribLocation(Construct.shader.getShaderID(), "position");
+    int shColAttrib = glGetAttribLocation(Construct.shader.getShaderID(), "color");
+
+    vaPointer = glGenVertexArrays();
+    GLStateCache.bindVertexArray(vaPointer);
+    vbPointer = glGenBuffers();
+    GLStateCache.bindArrayBuffer(vbPointer);
+    glBufferData(GL_ARRAY_BUFFER, (long)ringVertices*BYTES, GL_STREAM_DRAW);
+
+    glVertexAttribPointer(shPosAttrib, 2, GL_FLOAT, false, BYTES, 0L);
+    glEnableVertexAttribArray(shPosAttrib);
+    glVertexAttribPointer(shColAttrib, 4, GL_FLOAT, false, BYTES, 2*(Float.SIZE/8));
+    glEnableVertexAttribArray(shColAttrib);
+  }
+
+  //draws the run with the line shader, whose uniforms and the run's line width have to be set already
+  public void draw(int run){
+    GLStateCache.useProgram(Construct.shader.getShaderID());
+    GLStateCache.bindVertexArray(vaPointer);
+    glDrawArrays(GL_LINES, base+runFirst[run], runCount[run]);
+    RenderProfiler.countDraw();
+  }
+
+  public float getWidth(int run){
+    return runWidth[run];
+  }
+
+  public void clear(){
+    staged.clear();
+    vertices = 0;
+    runs = 0;
+  }
+
+  public void release(){
+    if(vaPointer == -1) return;
+    glDeleteBuffers(vbPointer);
+    glDeleteVertexArrays(vaPointer);
+    vaPointer = -1;
+    vbPointer = -1;
+    ringPos = 0;
+    GLStateCache.invalidate();
+  }
+}
@@ -0,0 +1,285 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Breaks the cpu time of a rendered frame down into its stages: extracting the instances in the Game, submitting
+ * them to the glGraphics, executing the collected orders, drawing text, cleaning up, every post-process pass and
+ * presenting the image. Next to the times, the draw calls, uniform uploads and buffer uploads of each frame are
+ * counted by the classes issuing them, and the calls the GLStateCache skipped, as they wouldn't have changed a thing.
+ * The state changes between neighbouring draws are counted twice: in the order the draws were given, and in the
+ * order the DrawList sorted them into, which is the one drawn.
+ *
+ * EXTRACT and SUBMIT run on the game thread while the frame is recorded: the glGraphics times them and adds them to
+ * the frame they were recorded for when it is executed. So they are not part of the total, which is the render
+ * thread's time. The latency is how long a frame took from being submitted to being presented, including the wait
+ * for its turn on the render thread.
+ *
+ * The times are cpu times: openGL works asynchronously, so they show how long it takes to issue the calls, not how
+ * long the gpu is busy with them. Waiting for the gpu usually shows up in PRESENT.
+ *
+ * Like the Messenger, the profiler is static, as there is only one render thread and the counting calls are spread
+ * over several classes. Everything but the getters must be called from the render thread. The last HISTORY frames
+ * are kept in a ring of preallocated records, exportCSV() writes them to a file.
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import util.SimpleLogger;
+
+public class RenderProfiler {
+
+  public enum STAGE{
+    EXTRACT,
+    SUBMIT,
+    EXECUTE,
+    TEXT,
+    CLEANUP,
+    PRESENT
+  }
+
+  public static final int HISTORY = 600;
+  public static final int MAX_PASSES = 16;
+
+  private static final STAGE[] STAGES = STAGE.values();
+
+  private static class Frame{
+    private long total;
+    private long[] stages = new long[STAGES.length];
+    private long[] passes = new long[MAX_PASSES];
+    private int draws;
+    private int uniforms;
+    private int uploads;
+    private long uploadBytes;
+    private int skipped;
+    private int changesSubmitted;
+    private int changesSorted;
+    private long latency;
+  }
+
+  private static Frame[] history = createHistory();
+  private static int historyPos = 0;
+  private static int recorded = 0;
+
+  private static Frame frame = new Frame();
+  
+  //the last frame's numbers, for readers on other threads
+  private static volatile long lastTotal;
+  private static volatile int lastDraws;
+  private static volatile int lastUniforms;
+  private static volatile int lastUploads;
+  private static volatile long lastUploadBytes;
+  private static volatile int lastSkipped;
+  private static volatile int lastChangesSubmitted;
+  private static volatile int lastChangesSorted;
+  private static volatile long lastLatency;
+  private static long frameStart = -1;
+  private static long[] stageStart = new long[STAGES.length];
+
+  //passes are numbered in the order their labels first show up
+  private static String[] passNames = new String[MAX_PASSES];
+  private static int passCount = 0;
+  private static int activePass = -1;
+  private static long passStart;
+
+  private static Frame[] createHistory(){
+    Frame[] h = new Frame[HISTORY];
+    for(int i=0;i<h.length;i++){
+      h[i] = new Frame();
+    }
+    return h;
+  }
+
+  public static void beginFrame(){
+    frameStart = System.nanoTime();
+  }
+
+  public static void endFrame(){
+    if(frameStart < 0) return;
+    frame.total = System.nanoTime() - frameStart;
+    lastTotal = frame.total;
+    lastDraws = frame.draws;
+    lastUniforms = frame.uniforms;
+    lastUploads = frame.uploads;
+    lastUploadBytes = frame.uploadBytes;
+    lastSkipped = frame.skipped;
+    lastChangesSubmitted = frame.changesSubmitted;
+    lastChangesSorted = frame.changesSorted;
+    lastLatency = frame.latency;
+
+    //swap the finished frame into the ring, and reuse the oldest record for the next one
+    Frame old = history[historyPos];
+    history[historyPos] = frame;
+    historyPos = (historyPos+1) % HISTORY;
+    recorded = Math.min(recorded+1, HISTORY);
+
+    frame = old;
+    frame.total = 0;
+    for(int i=0;i<frame.stages.length;i++) frame.stages[i] = 0;
+    for(int i=0;i<frame.passes.length;i++) frame.passes[i] = 0;
+    frame.draws = 0;
+    frame.uniforms = 0;
+    frame.uploads = 0;
+    frame.uploadBytes = 0;
+    frame.skipped = 0;
+    frame.changesSubmitted = 0;
+    frame.changesSorted = 0;
+    frame.latency = 0;
+    frameStart = -1;
+  }
+
+  public static void start(STAGE s){
+    stageStart[s.ordinal()] = System.nanoTime();
+  }
+
+  public static void stop(STAGE s){
+    frame.stages[s.ordinal()] += System.nanoTime() - stageStart[s.ordinal()];
+  }
+
+  //a stage timed elsewhere, e.g. on the game thread
+  public static void add(STAGE s, long ns){
+    frame.stages[s.ordinal()] += ns;
+  }
+
+  //ns from submitting the frame to presenting it
+  public static void setLatency(long ns){
+    frame.latency = ns;
+  }
+
+  public static void startPass(String label){
+    activePass = passIndex(label);
+    passStart = System.nanoTime();
+  }
+
+  public static void stopPass(){
+    if(activePass < 0) return;
+    frame.passes[activePass] += System.nanoTime() - passStart;
+    activePass = -1;
+  }
+
+  private static int passIndex(String label){
+    for(int i=0;i<passCount;i++){
+      if(passNames[i].equals(label)) return i;
+    }
+    if(passCount == MAX_PASSES) throw new IllegalStateException("More than "+MAX_PASSES+" post-process passes");
+    passNames[passCount] = label;
+    return passCount++;
+  }
+
+  public static void countDraw(){
+    frame.draws++;
+  }
+
+  public static void countUniform(){
+    frame.uniforms++;
+  }
+
+  public static void countUpload(long bytes){
+    frame.uploads++;
+    frame.uploadBytes += bytes;
+  }
+
+  public static void countSkipped(){
+    frame.skipped++;
+  }
+
+  public static void countStateChanges(int submitted, int sorted){
+    frame.changesSubmitted += submitted;
+    frame.changesSorted += sorted;
+  }
+
+  //counts of the last finished frame, these may be read from any thread
+  public static int getDraws(){
+    return lastDraws;
+  }
+
+  public static int getUniforms(){
+    return lastUniforms;
+  }
+
+  public static int getUploads(){
+    return lastUploads;
+  }
+
+  public static long getUploadBytes(){
+    return lastUploadBytes;
+  }
+
+  public static int getSkipped(){
+    return lastSkipped;
+  }
+
+  public static int getStateChangesSubmitted(){
+    return lastChangesSubmitted;
+  }
+
+  public static int getStateChangesSorted(){
+    return lastChangesSorted;
+  }
+
+  public static double getFrameCost(){
+    return lastTotal/1000000d;
+  }
+
+  //of the last frame, in ms
+  public static double getLatency(){
+    return lastLatency/1000000d;
+  }
+
+  //writes the recorded frames to log/render_<timestamp>.csv, oldest first, times in ms
+  public static File exportCSV(){
+    File dir = new File("log");
+    dir.mkdirs();
+    String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+    File f = new File(dir, "render_"+stamp+".csv");
+
+    try (BufferedWriter wr = new BufferedWriter(new FileWriter(f));){
+      StringBuilder sb = new StringBuilder("frame;total");
+      for(STAGE s : STAGES){
+        sb.append(';').append(s.name().toLowerCase(Locale.ROOT));
+      }
+      for(int i=0;i<passCount;i++){
+        sb.append(';').append(passNames[i]);
+      }
+      sb.append(";draws;uniforms;uploads;upload bytes;skipped;changes submitted;changes sorted;latency");
+      wr.write(sb.toString());
+      wr.newLine();
+
+      int start = (historyPos+HISTORY-recorded) % HISTORY;
+      for(int n=0;n<recorded;n++){
+        Frame fr = history[(start+n) % HISTORY];
+        sb.setLength(0);
+        sb.append(n).append(';').append(ms(fr.total));
+        for(long l : fr.stages){
+          sb.append(';').append(ms(l));
+        }
+        for(int i=0;i<passCount;i++){
+          sb.append(';').append(ms(fr.passes[i]));
+        }
+        sb.append(';').append(fr.draws).append(';').append(fr.uniforms);
+        sb.append(';').append(fr.uploads).append(';').append(fr.uploadBytes).append(';').append(fr.skipped);
+        sb.append(';').append(fr.changesSubmitted).append(';').append(fr.changesSorted);
+        sb.append(';').append(ms(fr.latency));
+        wr.write(sb.toString());
+        wr.newLine();
+      }
+    } catch (IOException e) {
+      SimpleLogger.log("Couldn't write render profile: "+e.getMessage(), -1, RenderProfiler.class, "exportCSV");
+      return null;
+    }
+
+    SimpleLogger.log("Render profile of "+recorded+" frames written to "+f.getPath(), 0, RenderProfiler.class, "exportCSV");
+    return f;
+  }
+
+  private static String ms(long ns){
+    return String.format(Locale.ROOT, "%.3f", ns/1000000d);
+  }
+}
@@ -12,12 +12,7 @@ package glGraphics;
 import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_STENCIL_BUFFER_BIT;
-import static org.lwjgl.opengl.GL11.glBindTexture;
 import static org.lwjgl.opengl.GL11.glClear;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
-import static org.lwjgl.opengl.GL20.glUseProgram;
-import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
-import static org.lwjgl.opengl.GL30.glBindFramebuffer;
 import static org.lwjgl.opengl.GL30.glGenerateMipmap;
 
 import org.lwjgl.opengl.GL11;
@@ -36,13 +31,12 @@ public class ScreenBufferWrapper extends FrameBufferWrapper {
   public void bind(boolean clear){
     if(!ready) throw new IllegalStateException("Framebuffer creation was unsuccessfull! Can't bind");
     
-    glActiveTexture(slotMap.get(readSlot));
-    glBindTexture(GL11.GL_TEXTURE_2D, readTexID);
+    GLStateCache.bindTexture(slotMap.get(readSlot), readTexID);
     glGenerateMipmap(GL11.GL_TEXTURE_2D);
     shader.storeUniform("fboTex", readSlot);
     
-        glUseProgram(shader.getShaderID());
-    glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    GLStateCache.useProgram(shader.getShaderID());
+    GLStateCache.bindFramebuffer(0);
     if(clear) glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
     
   }
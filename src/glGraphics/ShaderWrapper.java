@@ -29,6 +29,10 @@ package glGraphics;
  * ShaderWrapper, allowing a very easy method of setting those uniforms, aswell as getting
  * basic informations about them (name & type)
  * 
+ * Each uniform is resolved into a Uniform right away. Code setting a uniform often, like every frame or for every
+ * object drawn, should keep it from getUniform() and set it directly: storeUniform() has to look it up by name and
+ * switch over its type each time. Either way, a uniform is only uploaded when its value changed.
+ * 
  */
 
 import static org.lwjgl.opengl.GL11.*;
@@ -39,11 +43,7 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 import java.util.HashMap;
-import java.util.Map.Entry;
 
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector2f;
@@ -54,18 +54,13 @@ import util.SimpleLogger;
 
 public class ShaderWrapper {
   
-  private static FloatBuffer matrixBuffer; //avoid new buffer allocation for every single object drawn
-  
   private int shaderID = -1;
-  private HashMap<String, Integer> uniformType;
-  private HashMap<String, Integer> uniformHandle;
+  private HashMap<String, Uniform> uniforms;
   
   private String vertexShader;
   private String fragmentShader;
   
   public ShaderWrapper(String vs, String fs){
-    if(matrixBuffer == null) matrixBuffer = (ByteBuffer.allocateDirect(16*(Float.SIZE/8)).order(ByteOrder.nativeOrder())).asFloatBuffer();
-    
     try {
       vertexShader = readShaderFile(vs);
       fragmentShader = readShaderFile(fs);
@@ -80,8 +75,7 @@ public class ShaderWrapper {
   }
   
   private void detectUniforms(){
-    uniformType = new HashMap<>();
-    uniformHandle = new HashMap<>();
+    uniforms = new HashMap<>();
     
     String workplace = vertexShader+"\n"+fragmentShader;
     
@@ -91,7 +85,7 @@ public class ShaderWrapper {
     int wsIdx;
     boolean hit;
     
-    SimpleLogger.log("lineSet size="+lineSet.length, 10, ShaderWrapper.class, "detectUniforms");
+    SimpleLogger.log(10, ShaderWrapper.class, "detectUniforms", "lineSet size={}", lineSet.length);
     for(String s : lineSet){
       wordSet = s.split(" ");
       wsIdx = 0;
@@ -104,38 +98,42 @@ public class ShaderWrapper {
       if(hit){
         uniName = wordSet[wsIdx+2];
         uniName = uniName.substring(0, uniName.length()-1);//remove semicolon
-        uniformType.put(uniName, getVarIDX(wordSet[wsIdx+1]));
-        uniformHandle.put(uniName, glGetUniformLocation(shaderID, uniName));
+        uniforms.put(uniName, new Uniform(uniName, getVarIDX(wordSet[wsIdx+1]), shaderID, glGetUniformLocation(shaderID, uniName)));
       }
       
     }
-    SimpleLogger.log("Detected "+uniformType.size()+" uniforms.", 10, ShaderWrapper.class, "detectUniforms");
+    SimpleLogger.log(10, ShaderWrapper.class, "detectUniforms", "Detected {} uniforms.", uniforms.size());
     printUniforms(10);
   }
   
-  @SuppressWarnings("unchecked")
   public HashMap<String, Integer> getUniformNames(){
-    return (HashMap<String, Integer>)uniformType.clone();
+    HashMap<String, Integer> names = new HashMap<>();
+    for(Uniform u : uniforms.values()){
+      names.put(u.getName(), u.getType());
+    }
+    return names;
+  }
+  
+  public Uniform getUniform(String name){
+    Uniform u = uniforms.get(name);
+    if(u == null) throw new IllegalArgumentException("Shader has no uniform named "+name);
+    return u;
   }
   
   public void storeUniform(String name, Object value){
-    glUseProgram(shaderID);
-    
-    if(uniformType.containsKey(name)){
-      int type = uniformType.get(name);
-      int handle = uniformHandle.get(name);
-      
-      switch(type){
-      case 0: storeInteger(handle, (int)    value);  break;
-      case 1: storeFloat(  handle, (float)     value);  break;
-      case 2: storeVector( handle, (Vector2f)  value);  break;
-      case 3: storeVector( handle, (Vector3f)  value);  break;
-      case 4: storeVector( handle, (Vector4f)  value);  break;
-      case 5: storeMatrix( handle, (Matrix4f)  value);  break;
-      default:SimpleLogger.log("Unsupported type ("+type+")", -1, ShaderWrapper.class, "storeUniform");break;
+    Uniform u = uniforms.get(name);
+    if(u != null){
+      switch(u.getType()){
+      case 0: u.set((int)       value);  break;
+      case 1: u.set((float)     value);  break;
+      case 2: u.set((Vector2f)  value);  break;
+      case 3: u.set((Vector3f)  value);  break;
+      case 4: u.set((Vector4f)  value);  break;
+      case 5: u.set((Matrix4f)  value);  break;
+      default:SimpleLogger.log(-1, ShaderWrapper.class, "storeUniform", "Unsupported type ({})", u.getType());break;
       }
     }else if(!name.equals("fboTex")){
-      SimpleLogger.log("Warning: Shader has no uniform named "+name, 0, ShaderWrapper.class, "storeUniform");
+      SimpleLogger.log(0, ShaderWrapper.class, "storeUniform", "Warning: Shader has no uniform named {}", name);
     }else{
       SimpleLogger.log("Shader has no uniform named fboTex. (Probalby attempt from FrameBufferManager", 10, ShaderWrapper.class, "storeUniform");
     }
@@ -146,9 +144,9 @@ public class ShaderWrapper {
   }
   
   public void printUniforms(int logLevel){
-    if(SimpleLogger.level >= logLevel){
-      for(Entry<String, Integer> e : uniformType.entrySet()){
-        SimpleLogger.log(getVarName(e.getValue())+" "+e.getKey(), logLevel, ShaderWrapper.class, "printUniforms");
+    if(SimpleLogger.isEnabled(logLevel)){
+      for(Uniform u : uniforms.values()){
+        SimpleLogger.log(logLevel, ShaderWrapper.class, "printUniforms", "{} {}", getVarName(u.getType()), u.getName());
       }
     }
   }
@@ -177,32 +175,6 @@ public class ShaderWrapper {
     }
   }
   
-  private static void storeMatrix(int uniformHandle, Matrix4f mat){
-    mat.store(matrixBuffer);
-    matrixBuffer.flip();
-    glUniformMatrix4(uniformHandle, false, matrixBuffer);
-  }
-  
-  private static void storeInteger(int uniformHandle, int i){
-    glUniform1i(uniformHandle, i);
-  }
-  
-  private static void storeFloat(int uniformHandle, float f){
-    glUniform1f(uniformHandle, f);
-  }
-  
-  private static void storeVector(int uniformHandle, Vector2f vec){
-    glUniform2f(uniformHandle, vec.x, vec.y);
-  }
-  
-  private static void storeVector(int uniformHandle, Vector3f vec){
-    glUniform3f(uniformHandle, vec.x, vec.y, vec.z);
-  }
-  
-  private static void storeVector(int uniformHandle, Vector4f vec){
-    glUniform4f(uniformHandle, vec.x, vec.y, vec.z, vec.w);
-  }
-  
   private static String readShaderFile(String fn) throws IOException{
     try(BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(fn)));){
         StringBuilder sb = new StringBuilder();
@@ -255,5 +227,6 @@ public class ShaderWrapper {
   
   public void releaseShader(){
     glDeleteProgram(shaderID);
+    GLStateCache.invalidate();
   }
 }
@@ -15,8 +15,6 @@ package glGraphics;
  */
 
 import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
-import static org.lwjgl.opengl.GL20.glUseProgram;
 
 import java.awt.Font;
 import java.awt.FontFormatException;
@@ -39,10 +37,11 @@ public class TrueTypeFontWrapper {
     loaded = false;
 
     try {
-      glActiveTexture(GL_TEXTURE0);
+      GLStateCache.activeTexture(GL_TEXTURE0);
       Font awtFont = Font.createFont(Font.TRUETYPE_FONT, ResourceLoader.getResourceAsStream(fn));
       awtFont = awtFont.deriveFont(size);
       font = new TrueTypeFont(awtFont, true);
+      GLStateCache.invalidateTextures();
       loaded = true;
     } catch (FontFormatException e) {
       e.printStackTrace();
@@ -59,10 +58,13 @@ public class TrueTypeFontWrapper {
     GL11.glOrtho(0, Ref.xRes, Ref.yRes, 0, 1, -1);
     GL11.glMatrixMode(GL11.GL_MODELVIEW);
     
-    glUseProgram(0);
-    glActiveTexture(GL_TEXTURE0);
+    GLStateCache.useProgram(0);
+    GLStateCache.activeTexture(GL_TEXTURE0);
     font.drawString(x, y, text, new Color(color.x, color.y, color.z, color.w));
-    glUseProgram(activeShader.getShaderID());
+    //slick binds the glyph texture itself
+    GLStateCache.invalidateTextures();
+    RenderProfiler.countDraw();
+    GLStateCache.useProgram(activeShader.getShaderID());
   }
 
   public int getTextWidth(String t){
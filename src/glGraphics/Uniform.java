@@ -0,0 +1,149 @@
+package glGraphics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * A uniform of a shader program, looked up once by the ShaderWrapper, so setting it needs neither the name nor the
+ * type switch of ShaderWrapper.storeUniform(). The last value is kept, and only a different one is uploaded: the
+ * program is bound through the GLStateCache first, if it isn't already. Setting a value of the wrong type throws an
+ * IllegalArgumentException.
+ *
+ */
+
+import static org.lwjgl.opengl.GL20.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+public class Uniform {
+
+  //avoid new buffer allocation for every single object drawn
+  private static final FloatBuffer matrixBuffer = (ByteBuffer.allocateDirect(16*(Float.SIZE/8)).order(ByteOrder.nativeOrder())).asFloatBuffer();
+
+  private String name;
+  //see ShaderWrapper.getVarIDX()
+  private int type;
+  private int program;
+  private int handle;
+
+  private boolean set;
+  private float[] value;
+
+  Uniform(String name, int type, int program, int handle){
+    this.name = name;
+    this.type = type;
+    this.program = program;
+    this.handle = handle;
+    value = new float[type == 5 ? 16 : 4];
+  }
+
+  public String getName(){
+    return name;
+  }
+
+  public int getType(){
+    return type;
+  }
+
+  public void set(int i){
+    check(0);
+    if(same(i, 0, 0, 0)) return;
+    GLStateCache.useProgram(program);
+    glUniform1i(handle, i);
+    uploaded();
+  }
+
+  public void set(float f){
+    check(1);
+    if(same(f, 0, 0, 0)) return;
+    GLStateCache.useProgram(program);
+    glUniform1f(handle, f);
+    uploaded();
+  }
+
+  public void set(float x, float y){
+    check(2);
+    if(same(x, y, 0, 0)) return;
+    GLStateCache.useProgram(program);
+    glUniform2f(handle, x, y);
+    uploaded();
+  }
+
+  public void set(float x, float y, float z){
+    check(3);
+    if(same(x, y, z, 0)) return;
+    GLStateCache.useProgram(program);
+    glUniform3f(handle, x, y, z);
+    uploaded();
+  }
+
+  public void set(float x, float y, float z, float w){
+    check(4);
+    if(same(x, y, z, w)) return;
+    GLStateCache.useProgram(program);
+    glUniform4f(handle, x, y, z, w);
+    uploaded();
+  }
+
+  public void set(Vector2f v){
+    set(v.x, v.y);
+  }
+
+  public void set(Vector3f v){
+    set(v.x, v.y, v.z);
+  }
+
+  public void set(Vector4f v){
+    set(v.x, v.y, v.z, v.w);
+  }
+
+  public void set(Matrix4f m){
+    check(5);
+    if(set && m.m00 == value[0] && m.m01 == value[1] && m.m02 == value[2] && m.m03 == value[3]
+           && m.m10 == value[4] && m.m11 == value[5] && m.m12 == value[6] && m.m13 == value[7]
+           && m.m20 == value[8] && m.m21 == value[9] && m.m22 == value[10] && m.m23 == value[11]
+           && m.m30 == value[12] && m.m31 == value[13] && m.m32 == value[14] && m.m33 == value[15]){
+      GLStateCache.skip(GLStateCache.KIND.UNIFORM);
+      return;
+    }
+    //the same order Matrix4f.store() writes
+    m.store(matrixBuffer);
+    matrixBuffer.flip();
+    matrixBuffer.get(value);
+    matrixBuffer.flip();
+    set = true;
+
+    GLStateCache.useProgram(program);
+    glUniformMatrix4(handle, false, matrixBuffer);
+    uploaded();
+  }
+
+  private void check(int t){
+    if(type != t) throw new IllegalArgumentException("Uniform "+name+" is a "+ShaderWrapper.getVarName(type)+", not a "+ShaderWrapper.getVarName(t));
+  }
+
+  //compares with the last value and keeps the new one
+  private boolean same(float x, float y, float z, float w){
+    if(set && value[0] == x && value[1] == y && value[2] == z && value[3] == w){
+      GLStateCache.skip(GLStateCache.KIND.UNIFORM);
+      return true;
+    }
+    value[0] = x;
+    value[1] = y;
+    value[2] = z;
+    value[3] = w;
+    set = true;
+    return false;
+  }
+
+  private void uploaded(){
+    GLStateCache.issue(GLStateCache.KIND.UNIFORM);
+    RenderProfiler.countUniform();
+  }
+}
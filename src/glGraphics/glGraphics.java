@@ -19,16 +19,18 @@ package glGraphics;
  * Non-registered objects may also be drawn, but this is discouraged. Draw calls are already built around the
  * idea of predefined objects as opposed to loose, unrelated lines. Draw calls expect at least a collection of
  * points to draw a connected line between them. The possibility of drawing "freely" is there, however, predefined
- * objects are the most efficient way of sending draw calls to the gpu. Even draw calls for unregistered and "loose"
- * lines are converted into one-time-only objects, as to send them whole to the gpu, discarding unregistered objects
- * after the frame is drawn completely. Object data ready to be sent to the gpu are stored in so called Constructs.
+ * objects are the most efficient way of sending draw calls to the gpu. Unregistered and "loose" lines are appended to
+ * the LineStream, which sends all of a frame's loose lines to the gpu at once and draws consecutive lines of the same
+ * width with one draw call. Object data ready to be sent to the gpu are stored in so called Constructs.
  * They essentially represent an entity system for renderable objects, together with TrueTyoeFontWrappers.
  * 
- * Draw calls reference a registered object, or force the creation of a one-frame-only object, that gets stored in a
- * LinkedList, determinating the order or draw calls. Eventually, the execute() method is called. It is expected, that
- * the FrameBufferManager is in the correct drawState the execute() is called. The whole drawOrders list is traversed
- * and drawn into the offscreen texture. After drawing, any one-frame-only objects get deleted from the list of known
- * objects, and the workOrder list is cleared.
+ * Draw calls reference a registered object, or a run of loose lines, that gets stored in a list of work orders.
+ * Eventually, the execute() method is called. It is expected, that the FrameBufferManager is in the correct drawState
+ * the execute() is called. Every work order and instance group gets a sort key in a DrawList, and they are drawn
+ * into the offscreen texture sorted by layer, shader, line width, construct and colorMod, so the states they share
+ * are only set once. Layers are kept in order: instances are on LAYER_WORLD, anything else on the layer set with
+ * setLayer(), LAYER_HUD unless changed during the frame. Within a layer the order of submission isn't kept. After
+ * drawing, the loose lines and the workOrder list are cleared.
  * 
  * Any object, that isn't drawn for 10 seconds gets also deleted from the gpu. However, it stays in the list of registered
  * constructs. THis entry has to be deleted manually by any draw caller. When a registered object gets deleted, the corresponding
@@ -36,9 +38,21 @@ package glGraphics;
  * objects may get recreated in the course of multiple game sessions over a very
  * long period of time.
  * 
- * As the PhysicsManager, that runs on a different thread, may also need information stored in registered constructs, there are
- * synchronized waith methods, to unsure that any deleting may only occur if any object needing crucial information has released
- * the glGraphics object. However, this has to be done manually
+ * As the PhysicsManager, that runs on a different thread, may also need information stored in registered constructs (e.g. for
+ * the bounds of new PhysicsEntries), they are kept in a ConcurrentHashMap. Constructs still used by the physics may only be
+ * released after the PhysicsManager has been stopped, which waits for its Worker to finish
+ * 
+ * Instances given as flat floats (see RenderExtractor) don't become work orders: an InstanceBatcher groups them by
+ * construct, and execute() uploads all of them into one instance buffer and draws every group with a single instanced
+ * draw call, so the draw calls scale with the distinct shapes instead of the entities. Being on LAYER_WORLD, they
+ * are drawn before the work orders, which keeps the HUD on top. Without openGL 3.3, each instance of a group is drawn on its own.
+ * 
+ * The draw calls of a frame are recorded into a command buffer (a Frame) by the game thread, between beginFrame() and
+ * submit(), without touching openGL. The render thread takes the submitted frames in order with acquireFrame() and
+ * draws them with execute(), which also bakes constructs not yet on the gpu. Of the Ref.RENDER_FRAMES buffers, one is
+ * executed while the next is recorded, so the game thread waits for a free one when it gets ahead. A released
+ * construct goes with the next submitted frame, and is only deleted once that frame was drawn, after the frames
+ * that may still draw it. Without a display, a first frame is recorded right away and never executed.
  * 
  * glGraphics has also the ability to load constructs directly from files. This approach should be the default as to not clutter the code
  * with manual construct creation
@@ -48,31 +62,79 @@ package glGraphics;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Vector4f;
 
+import org.lwjgl.opengl.GLContext;
+
+import metrics.Metric;
+import metrics.MetricsRegistry;
 import util.Ref;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
 
 public class glGraphics {
+  
+  //layers are drawn in this order, see setLayer()
+  public static final int LAYER_WORLD = 0;
+  public static final int LAYER_HUD = 1;
+  public static final int LAYER_OVERLAY = 2;
+  
+  //shader slots of the sort keys, one per program and kind of vertex array
+  private static final int SLOT_GROUP = 0;
+  private static final int SLOT_CONSTRUCT = 1;
+  private static final int SLOT_LINES = 2;
+  
+  private static final Matrix4f IDENTITY = new Matrix4f();
+  private static final Vector4f WHITE = new Vector4f(1,1,1,1);
 
   private class ConstructEntry{
     private UUID pointer;
+    //null if the transform is given as x, y, rotation and scale, see setModel()
     private Matrix4f model;
+    private float x, y, rotation, scaleX, scaleY;
     private Vector4f colorMod;
+    private int layer;
+    //run of loose lines, -1 for a construct
+    private int run = -1;
     
-    public ConstructEntry(UUID uuid, Matrix4f m, Vector4f cm){
+    public ConstructEntry(UUID uuid, Matrix4f m, Vector4f cm, int l){
       pointer = uuid;
       model = new Matrix4f(m);
       colorMod = new Vector4f(cm);
+      layer = l;
+    }
+    
+    public ConstructEntry(UUID uuid, Construct c, Vector4f cm, int l){
+      pointer = uuid;
+      x = c.position.x;
+      y = c.position.y;
+      rotation = c.rotation;
+      scaleX = c.scale.x;
+      scaleY = c.scale.y;
+      colorMod = new Vector4f(cm);
+      layer = l;
+    }
+    
+    public ConstructEntry(int r, int l){
+      model = IDENTITY;
+      colorMod = WHITE;
+      run = r;
+      layer = l;
     }
   }
   
@@ -87,37 +149,94 @@ public class glGraphics {
       text = t;
     }
   }
+  
+  //everything a frame draws, recorded by the game thread and executed by the render thread
+  private class Frame{
+    //construct idx and separate matrix, indexed by the sort keys
+    private ArrayList<ConstructEntry> workOrders = new ArrayList<>();
+    private ArrayList<TextEntry> textOrders = new ArrayList<>();
+    private InstanceBatcher batcher = new ConstructBatcher();
+    private LineStream lines = new LineStream();
+    private int layer = LAYER_HUD;
+    //post-processing, from the options
+    private int glowQuality;
+    //released after the frame is drawn
+    private ArrayList<UUID> released = new ArrayList<>();
+    //stages timed on the game thread
+    private long[] stages = new long[RenderProfiler.STAGE.values().length];
+    private long submitted;
+  }
 
   private Matrix4f viewMat;
   
   //holds all registered constructs if not explicitly freed
-  private HashMap<UUID, Construct> assets;
-  //holds all assets that are currently on the gpu
-  private ArrayList<UUID> gpuLoaded;
-  private LinkedList<UUID> toRelease;
-  //linked list of construct idx and separate matrix
-  private LinkedList<ConstructEntry> workOrders;
-  private LinkedList<TextEntry> textOrders;
+  private ConcurrentHashMap<UUID, Construct> assets;
+  //holds all assets that are currently on the gpu, only used by the render thread
+  private HashSet<UUID> gpuLoaded;
+  //size of gpuLoaded, updated once per frame so other threads can read it
+  private volatile int gpuResident;
+  private int nextDrawId;
+  
+  //command buffers: the one being recorded, the one being executed, and the queues passing them between the threads
+  private Frame[] frames;
+  private Frame recording;
+  private Frame executing;
+  private ArrayBlockingQueue<Frame> free;
+  private ArrayBlockingQueue<Frame> ready;
+  //constructs released since the last submit()
+  private ArrayList<UUID> released;
+  private long[] stageStart;
+  //of the last executed frame, for the post-processing and the latency
+  private long executedSubmit;
+  private int executedGlow;
+  
+  private DrawList drawList;
   private TrueTypeFontWrapper font;
   private ShaderWrapper primaryShader;
-
-  private boolean wait;
+  //looked up once, they keep their last value and only upload a different one
+  private Uniform pvmUniform;
+  private Uniform brightnessUniform;
   
-  public glGraphics(ShaderWrapper sw){
-    wait = false;
-    
-    assets = new HashMap<>();
-    gpuLoaded = new ArrayList<>();
-    toRelease = new LinkedList<>();
+  private boolean instancing;
+  private int instanceBuffer = -1;
+  private FloatBuffer instanceData;
+  //model matrix built by setModel() while drawing, for work orders and instances drawn one by one
+  private Matrix4f instanceModel;
+  private Matrix4f instancePvm;
+
+  //without a display, e.g. for headless replays. Constructs can be registered and looked up, but nothing may be drawn
+  public glGraphics(){
+    assets = new ConcurrentHashMap<>();
+    gpuLoaded = new HashSet<>();
     
-    workOrders = new LinkedList<>();
-    textOrders = new LinkedList<>();
-    font = new TrueTypeFontWrapper("res/fonts/alienleague.ttf", 28f);
-    primaryShader = sw;
+    frames = new Frame[Ref.RENDER_FRAMES];
+    free = new ArrayBlockingQueue<>(frames.length);
+    ready = new ArrayBlockingQueue<>(frames.length);
+    for(int i=0;i<frames.length;i++){
+      frames[i] = new Frame();
+      free.add(frames[i]);
+    }
+    //the first frame is being recorded right away
+    recording = free.poll();
+    released = new ArrayList<>();
+    stageStart = new long[RenderProfiler.STAGE.values().length];
+    drawList = new DrawList();
+    instanceModel = new Matrix4f();
+    instancePvm = new Matrix4f();
     
     viewMat = new Matrix4f();
     viewMat.translate(new Vector2f(-1,1));
     viewMat.scale(new Vector3f(1f/(Ref.xRes/2), -1f/(Ref.yRes/2), 1));
+  }
+  
+  public glGraphics(ShaderWrapper sw){
+    this();
+    font = new TrueTypeFontWrapper("res/fonts/alienleague.ttf", 28f);
+    primaryShader = sw;
+    pvmUniform = sw.getUniform("pvm");
+    brightnessUniform = sw.getUniform("brightness");
+    instancing = Construct.instancedShader != null && GLContext.getCapabilities().OpenGL33;
+    if(instancing) Construct.instancedShader.getUniform("view").set(viewMat);
     
     glDisable(GL_DEPTH_TEST);
     glEnable(GL_LINE_SMOOTH);
@@ -125,6 +244,7 @@ public class glGraphics {
   
   public UUID registerConstruct(Construct c){
     UUID u = UUID.randomUUID();
+    c.drawId = nextDrawId++;
     assets.put(u, c);
     return u;
   }
@@ -194,13 +314,82 @@ public class glGraphics {
     return assets.get(u);
   }
   
+  //the construct is let go once the frames recorded so far are drawn
   public void releaseConstruct(UUID u){
-    toRelease.add(u);
+    //the batchers' groups are only used while adding, on the recording thread
+    for(Frame f : frames){
+      f.batcher.forget(u);
+    }
+    released.add(u);
   }
   
-  private void gpuUpload(UUID u){
-    assets.get(u).bake();
-    gpuLoaded.add(u);
+  //the construct, baked first if it isn't on the gpu yet. Render thread only
+  private Construct resident(UUID u){
+    Construct c = assets.get(u);
+    if(gpuLoaded.add(u)) c.bake();
+    return c;
+  }
+  
+  private Frame rec(){
+    if(recording == null) throw new IllegalStateException("No frame is being recorded, see beginFrame()");
+    return recording;
+  }
+  
+  /**
+   * Starts recording the next frame, once a command buffer is free: the render thread is still executing the one
+   * before, so the game thread can be at most Ref.RENDER_FRAMES-1 frames ahead. False if interrupted while waiting.
+   */
+  public boolean beginFrame(){
+    if(recording != null) return true;
+    try {
+      recording = free.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return true;
+  }
+  
+  //hands the recorded frame over to the render thread
+  public void submit(){
+    Frame f = rec();
+    f.glowQuality = Ref.glowQuality;
+    f.released.addAll(released);
+    released.clear();
+    f.submitted = System.nanoTime();
+    recording = null;
+    //never full, there are only as many frames as it holds
+    ready.add(f);
+  }
+  
+  //waits up to timeout ms for a submitted frame to execute, false if there is none yet. Render thread only
+  public boolean acquireFrame(long timeout){
+    if(executing != null) return true;
+    try {
+      executing = ready.poll(timeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return executing != null;
+  }
+  
+  //times a stage of recording, e.g. extracting the instances. They are added to the profile of the frame drawn
+  public void startStage(RenderProfiler.STAGE s){
+    stageStart[s.ordinal()] = System.nanoTime();
+  }
+  
+  public void stopStage(RenderProfiler.STAGE s){
+    rec().stages[s.ordinal()] += System.nanoTime() - stageStart[s.ordinal()];
+  }
+  
+  //System.nanoTime() the last executed frame was submitted at
+  public long getSubmitted(){
+    return executedSubmit;
+  }
+  
+  //glow quality the last executed frame was recorded with
+  public int getGlowQuality(){
+    return executedGlow;
   }
   
   public void drawConstruct(UUID u){
@@ -208,30 +397,48 @@ public class glGraphics {
   }
   
   public void drawConstruct(UUID idx, Vector4f colorMod){
-    //derives the matrix from the loc/rot/scale attributes of the construct
+    //keeps the loc/rot/scale attributes of the construct, the matrix is only built when drawing
     if(idx == null) throw new IllegalArgumentException("Error: idx is null!");
-    if(!assets.containsKey(idx)) throw new IllegalArgumentException("No construct with idx="+idx+" registered");
-    if(!gpuLoaded.contains(idx)) gpuUpload(idx);
-
-    Matrix4f m = new Matrix4f();
     Construct c = assets.get(idx);
+    if(c == null) throw new IllegalArgumentException("No construct with idx="+idx+" registered");
     
-    m.translate(c.position);
-    
+    Frame f = rec();
+    f.workOrders.add(new ConstructEntry(idx, c, colorMod, f.layer));
+  }
+  
+  /**
+   * The model matrix of a construct at x, y, rotated and scaled around its origin, into dest. The instanced line
+   * shader builds the same transform from an instance's TRANSFORM floats.
+   */
+  static Matrix4f setModel(Matrix4f dest, float x, float y, float rotation, float scaleX, float scaleY){
     // - rotation, because through the y-axis mirroring, the rotational direction changed
-    Matrix4f.mul(m, new Matrix4f().rotate(-c.rotation, new Vector3f(0,0,1)), m);
-    Matrix4f.mul(m, new Matrix4f().scale(c.scale), m);
+    float sin = (float)Math.sin(-rotation);
+    float cos = (float)Math.cos(-rotation);
+    dest.setIdentity();
+    dest.m00 = cos*scaleX;
+    dest.m01 = sin*scaleX;
+    dest.m10 = -sin*scaleY;
+    dest.m11 = cos*scaleY;
+    dest.m30 = x;
+    dest.m31 = y;
+    return dest;
+  }
+  
+  public void drawConstruct(UUID idx, float[] instance, int off){
+    //instance holds x, y, rotation, scale and rgba colorMod, see RenderExtractor
+    if(idx == null) throw new IllegalArgumentException("Error: idx is null!");
+    if(!assets.containsKey(idx)) throw new IllegalArgumentException("No construct with idx="+idx+" registered");
     
-    workOrders.add(new ConstructEntry(idx, m, colorMod));
+    rec().batcher.add(idx, instance, off);
   }
   
   @Deprecated
   public void drawConstruct(UUID idx, Matrix4f m, Vector4f colorMod){
     if(idx == null) throw new IllegalArgumentException("Error: idx is null!");
     if(!assets.containsKey(idx)) throw new IllegalArgumentException("No construct with idx="+idx+" registered");
-    if(!gpuLoaded.contains(idx)) gpuUpload(idx);
 
-    workOrders.add(new ConstructEntry(idx, m, colorMod));
+    Frame f = rec();
+    f.workOrders.add(new ConstructEntry(idx, m, colorMod, f.layer));
   }
   
   public void drawLines(Collection<Vector2f> cv, Vector4f color, boolean pairs){
@@ -243,81 +450,213 @@ public class glGraphics {
   }
   
   public void drawLines(Collection<Vector2f> cv, Vector4f color, float lw, boolean pairs){
-    Construct c = new Construct();
-    c.buildLines(cv, color, pairs);
-    c.lineW = lw;
-    c.dynamic = true;
-    UUID k = UUID.randomUUID();
-    assets.put(k, c);
-    
-    workOrders.add(new ConstructEntry(k, new Matrix4f(), new Vector4f(1,1,1,1)));
-    
+    //if not paired, a loop is formed, like Construct.buildLines() does
+    checkLines(cv.size(), pairs);
+    LineStream lines = startLines(lw);
+    Vector2f first = null;
+    Vector2f prev = null;
+    for(Vector2f v : cv){
+      if(pairs){
+        lines.vertex(v.x, v.y, color);
+      }else if(prev == null){
+        first = v;
+      }else{
+        lines.line(prev.x, prev.y, v.x, v.y, color);
+      }
+      prev = v;
+    }
+    if(!pairs) lines.line(prev.x, prev.y, first.x, first.y, color);
   }
   
   public void drawLines(Collection<Vertex> cv, float lw, boolean pairs){
-    Construct c = new Construct();
-    c.buildLines(cv, pairs);
-    c.lineW = lw;
-    c.dynamic = true;
-    UUID k = UUID.randomUUID();
-    assets.put(k, c);
-    
-    workOrders.add(new ConstructEntry(k, new Matrix4f(), new Vector4f(1,1,1,1)));
-
+    checkLines(cv.size(), pairs);
+    LineStream lines = startLines(lw);
+    Vertex first = null;
+    Vertex prev = null;
+    for(Vertex v : cv){
+      if(pairs){
+        lines.vertex(v.position.x, v.position.y, v.color);
+      }else if(prev == null){
+        first = v;
+      }else{
+        lines.vertex(prev.position.x, prev.position.y, prev.color);
+        lines.vertex(v.position.x, v.position.y, v.color);
+      }
+      prev = v;
+    }
+    if(!pairs){
+      lines.vertex(prev.position.x, prev.position.y, prev.color);
+      lines.vertex(first.position.x, first.position.y, first.color);
+    }
+  }
+  
+  //a single loose line, without collecting its points first
+  public void drawLine(float x0, float y0, float x1, float y1, Vector4f color, float lw){
+    startLines(lw).line(x0, y0, x1, y1, color);
+  }
+  
+  private static void checkLines(int vertices, boolean pairs){
+    if(pairs && vertices%2 == 1) throw new IllegalArgumentException("Uneven number of vertices, can't make pairs!");
+    if(!pairs && vertices < 2) throw new IllegalArgumentException("Need at least 2 Vertices! ("+vertices+" given)");
+  }
+  
+  //lines directly following other lines of the same width join their run, and are drawn with them
+  private LineStream startLines(float lw){
+    Frame f = rec();
+    ConstructEntry last = f.workOrders.isEmpty() ? null : f.workOrders.get(f.workOrders.size()-1);
+    if(last == null || last.run == -1 || last.layer != f.layer || f.lines.getWidth() != lw){
+      f.lines.startRun(lw);
+      f.workOrders.add(new ConstructEntry(f.lines.getRunCount()-1, f.layer));
+    }
+    return f.lines;
+  }
+  
+  /**
+   * Work orders given from now on are drawn on this layer, after everything on lower ones. Back to LAYER_HUD with
+   * every frame.
+   */
+  public void setLayer(int l){
+    if(l < 0 || l >= DrawList.LAYERS) throw new IllegalArgumentException("No such layer: "+l);
+    rec().layer = l;
+  }
+  
+  public int getLayer(){
+    return rec().layer;
   }
   
   public void drawText(float x, float y, String t, Vector4f color){
-    textOrders.add(new TextEntry(new Vector2f(x,y), color, t));
+    rec().textOrders.add(new TextEntry(new Vector2f(x,y), color, t));
   }
   
+  //draws the frame taken by acquireFrame(), and hands its command buffer back for recording
   public void execute(){
+    if(executing == null) throw new IllegalStateException("No frame acquired to execute");
+    Frame f = executing;
+    InstanceBatcher batcher = f.batcher;
+    LineStream lines = f.lines;
     Matrix4f pvm = new Matrix4f();
     
-    //check if lineWIdth or colorMod have to be set anew
+    //line width and colorMod are only set anew if they changed, by the GLStateCache and the Uniform
     //skipping uniform storage greatly increases performance
-    //doing this for modelMatrix seems unnecessary, as it is
-    //expected to be different for every single workOrder
-    float lw=0;
-    Vector4f cm = new Vector4f(0,0,0,0);    
     long now = System.currentTimeMillis();
+    
+    for(RenderProfiler.STAGE s : RenderProfiler.STAGE.values()){
+      RenderProfiler.add(s, f.stages[s.ordinal()]);
+    }
 
-    for(ConstructEntry ce : workOrders){
-      
-      Matrix4f.mul(viewMat, ce.model, pvm);
-      primaryShader.storeUniform("pvm", pvm);
-      
-      if(!cm.equals(ce.colorMod)){
-        primaryShader.storeUniform("brightness", ce.colorMod);
-        cm = ce.colorMod;
+    RenderProfiler.start(RenderProfiler.STAGE.EXECUTE);
+    lines.upload();
+    
+    drawList.clear();
+    if(batcher.getInstanceCount() > 0){
+      batcher.build();
+      if(instancing) uploadInstances(batcher);
+      for(int g=0;g<batcher.getGroupCount();g++){
+        Construct c = resident(batcher.getConstruct(g));
+        //the colorMod is per instance
+        drawList.add(DrawList.key(LAYER_WORLD, SLOT_GROUP, c.lineW, c.drawId, WHITE, g));
       }
-
-      if(lw != assets.get(ce.pointer).lineW){
-        lw = assets.get(ce.pointer).lineW;
-        glLineWidth(lw);
+    }
+    for(int i=0;i<f.workOrders.size();i++){
+      ConstructEntry ce = f.workOrders.get(i);
+      if(ce.run == -1){
+        Construct c = resident(ce.pointer);
+        drawList.add(DrawList.key(ce.layer, SLOT_CONSTRUCT, c.lineW, c.drawId, ce.colorMod, i));
+      }else{
+        drawList.add(DrawList.key(ce.layer, SLOT_LINES, lines.getWidth(ce.run), 0, ce.colorMod, i));
       }
+    }
+    drawList.sort();
+    RenderProfiler.countStateChanges(drawList.getChangesBefore(), drawList.getChangesAfter());
+    
+    for(int i=0;i<drawList.size();i++){
+      if(drawList.getShader(i) == SLOT_GROUP){
+        if(instancing) drawGroup(batcher, drawList.getIndex(i), now);
+        else drawOneByOne(batcher, drawList.getIndex(i), now);
+        continue;
+      }
+      
+      ConstructEntry ce = f.workOrders.get(drawList.getIndex(i));
+      Matrix4f model = ce.model;
+      if(model == null) model = setModel(instanceModel, ce.x, ce.y, ce.rotation, ce.scaleX, ce.scaleY);
+      Matrix4f.mul(viewMat, model, pvm);
+      pvmUniform.set(pvm);
+      brightnessUniform.set(ce.colorMod);
+      GLStateCache.lineWidth(ce.run != -1 ? lines.getWidth(ce.run) : assets.get(ce.pointer).lineW);
       
-      assets.get(ce.pointer).draw(now);
+      if(ce.run != -1) lines.draw(ce.run);
+      else assets.get(ce.pointer).draw(now);
     }
+    RenderProfiler.stop(RenderProfiler.STAGE.EXECUTE);
     
-    for(TextEntry te : textOrders){
+    RenderProfiler.start(RenderProfiler.STAGE.TEXT);
+    for(TextEntry te : f.textOrders){
       font.drawText(te.position.x, te.position.y, te.text, te.color, primaryShader);
     }
-    cleanUp(now);
+    RenderProfiler.stop(RenderProfiler.STAGE.TEXT);
+    
+    RenderProfiler.start(RenderProfiler.STAGE.CLEANUP);
+    cleanUp(f, now);
+    RenderProfiler.stop(RenderProfiler.STAGE.CLEANUP);
+    
+    executedSubmit = f.submitted;
+    executedGlow = f.glowQuality;
+    executing = null;
+    free.add(f);
   }
   
-  private void cleanUp(long now){
-    workOrders.clear();
-    textOrders.clear();
+  //all instances of the frame in one upload, each group is drawn from its range by drawGroup()
+  private void uploadInstances(InstanceBatcher batcher){
+    int floats = batcher.getInstanceCount()*InstanceBatcher.FLOATS;
+    if(instanceBuffer == -1) instanceBuffer = glGenBuffers();
+    if(instanceData == null || instanceData.capacity() < floats){
+      instanceData = (ByteBuffer.allocateDirect(Math.max(floats, 1024*InstanceBatcher.FLOATS)*(Float.SIZE/8))
+                               .order(ByteOrder.nativeOrder())).asFloatBuffer();
+    }
+    instanceData.clear();
+    instanceData.put(batcher.getData(), 0, floats);
+    instanceData.flip();
     
-    LinkedList<UUID> dynamics = new LinkedList<>();
-    LinkedList<UUID> olds = new LinkedList<>();
+    GLStateCache.bindArrayBuffer(instanceBuffer);
+    //orphans last frame's storage, instead of waiting for the gpu to be done with it
+    glBufferData(GL_ARRAY_BUFFER, instanceData, GL_STREAM_DRAW);
+    RenderProfiler.countUpload(floats*(Float.SIZE/8));
+  }
+  
+  //every instance of the group with one draw call
+  private void drawGroup(InstanceBatcher batcher, int g, long now){
+    Construct c = assets.get(batcher.getConstruct(g));
+    GLStateCache.lineWidth(c.lineW);
+    c.drawInstanced(instanceBuffer, batcher.getFirst(g), batcher.getCount(g), now);
+  }
+  
+  //the same, one draw call per instance
+  private void drawOneByOne(InstanceBatcher batcher, int g, long now){
+    float[] data = batcher.getData();
+    Construct c = assets.get(batcher.getConstruct(g));
+    GLStateCache.lineWidth(c.lineW);
     
-    for(UUID u : assets.keySet()){
-      if(assets.get(u).dynamic) dynamics.add(u);
+    for(int i=batcher.getFirst(g);i<batcher.getFirst(g)+batcher.getCount(g);i++){
+      int k = i*InstanceBatcher.FLOATS;
+      setModel(instanceModel, data[k+0], data[k+1], data[k+2], data[k+3], data[k+4]);
+      Matrix4f.mul(viewMat, instanceModel, instancePvm);
+      pvmUniform.set(instancePvm);
+      brightnessUniform.set(data[k+5], data[k+6], data[k+7], data[k+8]);
+      c.draw(now);
     }
-    for(UUID u : dynamics){
-      assets.remove(u);
+  }
+  
+  private void cleanUp(Frame f, long now){
+    f.workOrders.clear();
+    f.layer = LAYER_HUD;
+    f.batcher.clear();
+    f.textOrders.clear();
+    f.lines.clear();
+    for(int i=0;i<f.stages.length;i++){
+      f.stages[i] = 0;
     }
+    
+    LinkedList<UUID> olds = new LinkedList<>();
 
     for(UUID u : gpuLoaded){
       long gap = now - assets.get(u).getLastRendered();
@@ -329,15 +668,30 @@ public class glGraphics {
       gpuLoaded.remove(u);
     }
     
-    for(UUID u : toRelease){
+    for(UUID u : f.released){
       assets.get(u).releaseVBO();
       gpuLoaded.remove(u);
       assets.remove(u);
     }
-    toRelease.clear();
+    f.released.clear();
+    gpuResident = gpuLoaded.size();
   }
   
   
+  public Collection<Metric> registerMetrics(){
+    ArrayList<Metric> ml = new ArrayList<>();
+    ml.add(Metric.gauge("asteroids_gfx_assets", "Registered constructs", new Metric.Source(){
+      @Override
+      public double read() { return assets.size(); }
+    }));
+    ml.add(Metric.gauge("asteroids_gfx_gpu_constructs", "Constructs with buffers on the gpu", new Metric.Source(){
+      @Override
+      public double read() { return gpuResident; }
+    }));
+    MetricsRegistry.register(ml);
+    return ml;
+  }
+  
   public int getTextWidth(String t){
     return font.getTextWidth(t);
   }
@@ -347,33 +701,20 @@ public class glGraphics {
   }
   
   public void deconstructAll(){
+    if(instanceBuffer != -1) glDeleteBuffers(instanceBuffer);
+    instanceBuffer = -1;
+    GLStateCache.invalidate();
+    for(Frame f : frames){
+      f.lines.release();
+      for(UUID u : assets.keySet()){
+        f.batcher.forget(u);
+      }
+    }
     gpuLoaded.clear();
+    gpuResident = 0;
     for(Construct c : assets.values()){
       c.releaseVBO();
     }
     assets.clear();
   }
-  
-  public boolean isLocked(){
-    return wait;
-  }
-  
-  public synchronized void takeLock(){
-    wait = true;
-  }
-  
-  public synchronized void releaseLock(){
-    wait = false;
-    notifyAll();
-  }
-  
-  public synchronized void waitForRelease(){
-    if(wait)
-      try {
-        wait();
-      } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-  }
 }
@@ -95,8 +95,8 @@ public class GuiButton extends GuiElement{
   public void handleMessage(Message m) {
     if     (message != null &&
         m.getMsgType() == messaging.Message.M_TYPE.RAW_INPT &&
-        ((RW_IPT_Param)m.getParam()).key == Keyboard.getKeyIndex("RETURN") &&
-        ((RW_IPT_Param)m.getParam()).pressed == true){
+        m.getParam(RW_IPT_Param.class).key == Keyboard.getKeyIndex("RETURN") &&
+        m.getParam(RW_IPT_Param.class).pressed == true){
       messaging.Messenger.send(message);
     }  
   }
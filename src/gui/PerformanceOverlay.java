@@ -0,0 +1,186 @@
+package gui;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Shows where the time of a frame and a physics tick goes, toggled with F3. For every phase of the tick, p50, p99
+ * and the maximum of the last TickProfiler window are listed, followed by the frame time, measured between two
+ * update() calls, the entity counts of the last tick and the gl calls of the last frame. Two sparklines show the
+ * cost of the recent ticks and frames, with a line marking the physics time step and the frame budget, so single
+ * spikes stand out.
+ *
+ * The overlay only reads from the TickProfiler, and only copies its histograms when a new window was published.
+ *
+ */
+
+import glGraphics.AppWindow;
+import glGraphics.RenderProfiler;
+import glGraphics.glGraphics;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import logics.PhysicsManager;
+import logics.TickProfiler;
+import messaging.Message;
+import messaging.Message.RW_IPT_Param;
+
+import org.lwjgl.input.Keyboard;
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector4f;
+
+import util.LatencyHistogram;
+import util.Ref;
+
+public class PerformanceOverlay extends GuiElement{
+
+  private static final int GRAPH_W = 256;
+  private static final int GRAPH_H = 60;
+  private static final float LINE_H = 30;
+
+  private static final Vector4f TEXT = new Vector4f(0.6f, 0.1f, 1.1f, 1f);
+  private static final Vector4f TICK = new Vector4f(0.3f, 1f, 0.4f, 1f);
+  private static final Vector4f FRAME = new Vector4f(1f, 0.8f, 0.2f, 1f);
+  private static final Vector4f BUDGET = new Vector4f(1f, 0.2f, 0.2f, 0.6f);
+
+  private glGraphics glx = AppWindow.glx;
+  private PhysicsManager phm;
+  private boolean visible;
+
+  private TickProfiler.PHASE[] phases;
+  private LatencyHistogram[] phaseHist;
+  private LatencyHistogram tickHist;
+  private int version;
+  private float[] tickHistory;
+
+  //frames are measured here, in the same windows as the ticks
+  private LatencyHistogram frameCurrent;
+  private LatencyHistogram frameHist;
+  private float[] frameHistory;
+  private int framePos;
+  private long lastFrame;
+  private long frameWindowStart;
+
+  private String[] lines;
+
+  public PerformanceOverlay(PhysicsManager phm){
+    super();
+    this.phm = phm;
+    visible = false;
+    position = new Vector2f(20, 10);
+
+    phases = TickProfiler.getPhases();
+    phaseHist = new LatencyHistogram[phases.length];
+    for(int i=0;i<phases.length;i++){
+      phaseHist[i] = new LatencyHistogram();
+    }
+    tickHist = new LatencyHistogram();
+    tickHistory = new float[TickProfiler.HISTORY];
+    version = -1;
+
+    frameCurrent = new LatencyHistogram();
+    frameHist = new LatencyHistogram();
+    frameHistory = new float[TickProfiler.HISTORY];
+    framePos = 0;
+    lastFrame = -1;
+
+    lines = new String[0];
+  }
+
+  @Override
+  public void handleMessage(Message m) {
+    if(m.getMsgType() == Message.M_TYPE.RAW_INPT){
+      RW_IPT_Param p = m.getParam(RW_IPT_Param.class);
+      if(p.key == Keyboard.getKeyIndex("F3") && p.pressed) visible = !visible;
+    }
+  }
+
+  @Override
+  public void update() {
+    //frames are counted even while hidden, so the first window shown is complete
+    long t = System.nanoTime();
+    if(lastFrame >= 0){
+      long frame = t - lastFrame;
+      frameCurrent.record(frame);
+      frameHistory[framePos] = frame/1000000f;
+      framePos = (framePos+1) % frameHistory.length;
+    }else{
+      frameWindowStart = t;
+    }
+    lastFrame = t;
+
+    if(t - frameWindowStart >= TickProfiler.WINDOW*1000000){
+      frameCurrent.copyInto(frameHist);
+      frameCurrent.reset();
+      frameWindowStart = t;
+    }
+
+    if(!visible) return;
+
+    TickProfiler tp = phm.getProfiler();
+    if(tp.getVersion() != version){
+      version = tp.copyPublished(phaseHist, tickHist);
+      lines = buildLines(tp);
+    }
+    tp.copyHistory(tickHistory);
+  }
+
+  @Override
+  public void render() {
+    if(!visible) return;
+
+    float y = position.y;
+    for(String s : lines){
+      glx.drawText(position.x, y, s, TEXT);
+      y += LINE_H;
+    }
+
+    y += 10;
+    //over the HUD, whatever order the draws are sorted into
+    int layer = glx.getLayer();
+    glx.setLayer(glGraphics.LAYER_OVERLAY);
+    drawGraph(position.x, y, tickHistory, 0, Ref.PHYS_T_STEP, TICK);
+    drawGraph(position.x+GRAPH_W+20, y, frameHistory, framePos, 1000f/Ref.maxFPS, FRAME);
+    glx.setLayer(layer);
+  }
+
+  private String[] buildLines(TickProfiler tp){
+    ArrayList<String> ll = new ArrayList<>();
+    ll.add(String.format(Locale.ROOT, "%-12s %7s %7s %7s", "ms", "p50", "p99", "max"));
+    for(int i=0;i<phases.length;i++){
+      ll.add(row(phases[i].name().toLowerCase(Locale.ROOT), phaseHist[i]));
+    }
+    ll.add(row("tick", tickHist));
+    ll.add(row("frame", frameHist));
+    ll.add(String.format(Locale.ROOT, "TPS %d  entities %d  colliders %d", phm.getTPS(), tp.getEntities(), tp.getColliders()));
+    ll.add(String.format(Locale.ROOT, "pairs %d  particle systems %d", tp.getCandidatePairs(), tp.getParticleSystems()));
+    ll.add(String.format(Locale.ROOT, "draws %d  uniforms %d  uploads %d  skipped %d",
+        RenderProfiler.getDraws(), RenderProfiler.getUniforms(), RenderProfiler.getUploads(), RenderProfiler.getSkipped()));
+    ll.add(String.format(Locale.ROOT, "state changes %d sorted %d",
+        RenderProfiler.getStateChangesSubmitted(), RenderProfiler.getStateChangesSorted()));
+    ll.add(String.format(Locale.ROOT, "latency %.2f ms", RenderProfiler.getLatency()));
+    return ll.toArray(new String[ll.size()]);
+  }
+
+  private static String row(String name, LatencyHistogram h){
+    return String.format(Locale.ROOT, "%-12s %7.2f %7.2f %7.2f", name,
+        h.getPercentile(0.5)/1000000d, h.getPercentile(0.99)/1000000d, h.getMax()/1000000d);
+  }
+
+  //values in ms, starting at off as the oldest one. The graph is scaled to twice the budget
+  private void drawGraph(float x, float y, float[] values, int off, float budget, Vector4f color){
+    float scale = GRAPH_H/(budget*2f);
+    float step = GRAPH_W/(float)(values.length-1);
+    float base = y+GRAPH_H;
+
+    float prev = Math.min(values[off % values.length]*scale, GRAPH_H);
+    for(int i=1;i<values.length;i++){
+      float v = Math.min(values[(off+i) % values.length]*scale, GRAPH_H);
+      glx.drawLine(x+(i-1)*step, base-prev, x+i*step, base-v, color, 1);
+      prev = v;
+    }
+
+    glx.drawLine(x, base-budget*scale, x+GRAPH_W, base-budget*scale, BUDGET, 1);
+    glx.drawLine(x, base, x+GRAPH_W, base, BUDGET, 1);
+  }
+}
@@ -11,6 +11,8 @@ package logics;
  * 
  */
 
+import java.util.Random;
+
 import messaging.Message;
 import messaging.Message.ENT;
 import messaging.Message.M_TYPE;
@@ -22,6 +24,7 @@ import components.BasicComponent;
 import components.Component;
 import components.ComponentContainer;
 import components.TriggerComponent;
+import util.RandomStreams;
 
 public class AsteroidSpawner extends BasicComponent implements TriggerComponent{
 
@@ -31,6 +34,7 @@ public class AsteroidSpawner extends BasicComponent implements TriggerComponent{
   private float force;
   
   private long lastTriggered;
+  private Random rand;
 
   
   public AsteroidSpawner(ComponentContainer cc, int c, float r, float f){
@@ -38,6 +42,7 @@ public class AsteroidSpawner extends BasicComponent implements TriggerComponent{
     count = c;
     radius = r;
     force= f;
+    rand = RandomStreams.get("asteroidSpawner");
     
     tags.add("deathTrigger");
   }
@@ -57,7 +62,7 @@ public class AsteroidSpawner extends BasicComponent implements TriggerComponent{
       newCore = (PhysicsEntry)newInstance.getComponents("core").iterator().next();
       
       float dir = (float)i/(float)count*(float)Math.PI*2;
-      dir += Math.random()*Math.PI/2;
+      dir += rand.nextDouble()*Math.PI/2;
       
       Vector2f posOffset = PhysicsEntry.rotate(new Vector2f(radius, 0), dir);
       Vector2f newPosition = new Vector2f();
@@ -72,7 +77,7 @@ public class AsteroidSpawner extends BasicComponent implements TriggerComponent{
       newCore.addMovement(impulse);
       
       
-      Messenger.send(new Message(M_TYPE.ENTITY_MGR, new Message.ENT_Param(newInstance, ENT.ADD)));
+      Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, Message.ENT_Param.obtain(newInstance, ENT.ADD)));
     }
   }
 
@@ -0,0 +1,186 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * The colliders of the last Ref.LAG_HISTORY ticks, for lag compensation: a shot is tested against the world as the
+ * shooter saw it, which is some ticks behind on a client (see PhysicsManager.setLagCompensation()).
+ *
+ * Each tick is a frame of flat arrays: center, radius and layer of every collider, and the collider itself to apply
+ * a hit to in the present. The frames are reused round robin, their arrays only grow with the number of colliders,
+ * so the memory is bounded by LAG_HISTORY times the most colliders there were, about 30 bytes each.
+ *
+ * A frame's broadphase is a grid of Ref.LAG_CELL sized cells over the screen, built by counting sort: the entries
+ * are ordered by the cell their center falls into, and cellStart points at the first of each cell. Unlike the
+ * QuadTree, nothing is allocated per collider, and it is built in two passes. Big asteroids don't need to go into
+ * every cell they cover: a query looks at the cells within its radius plus the biggest radius of the frame.
+ *
+ */
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+import components.CollisionComponent;
+import util.DenseList;
+import util.Ref;
+
+public class ColliderHistory {
+
+  private static final int CELLS_X = (Ref.xRes+Ref.LAG_CELL-1)/Ref.LAG_CELL;
+  private static final int CELLS_Y = (Ref.yRes+Ref.LAG_CELL-1)/Ref.LAG_CELL;
+
+  private static class Frame{
+    private long time = -1;
+    private int count;
+    private float maxRadius;
+
+    //by cell, cellStart[c] to cellStart[c+1] are the entries of cell c
+    private float[] x = new float[0];
+    private float[] y = new float[0];
+    private float[] r = new float[0];
+    private int[] layer = new int[0];
+    private CollisionComponent[] colliders = new CollisionComponent[0];
+    private int[] cellStart = new int[CELLS_X*CELLS_Y+1];
+
+    //cell of each collider in list order, while building
+    private int[] cell = new int[0];
+
+    private void ensure(int n){
+      if(x.length >= n) return;
+      int cap = Math.max(64, Integer.highestOneBit(n-1) << 1);
+      x = new float[cap];
+      y = new float[cap];
+      r = new float[cap];
+      layer = new int[cap];
+      colliders = new CollisionComponent[cap];
+      cell = new int[cap];
+    }
+  }
+
+  private Frame[] frames;
+  private int next;
+  //centers and radii in list order, while building, so the bounds are only asked for once
+  private float[] bx = new float[0];
+  private float[] by = new float[0];
+  private float[] br = new float[0];
+
+  public ColliderHistory(){
+    frames = new Frame[Ref.LAG_HISTORY];
+    for(int i=0;i<frames.length;i++){
+      frames[i] = new Frame();
+    }
+  }
+
+  //keeps the colliders as they are at the end of the tick at time
+  public void record(long time, DenseList<CollisionComponent> list){
+    Frame f = frames[next];
+    next = (next+1) % frames.length;
+
+    int n = list.size();
+    f.ensure(n);
+    //the colliders of older ticks are let go, the arrays stay
+    Arrays.fill(f.colliders, n, Math.max(n, f.count), null);
+    f.time = time;
+    f.count = n;
+    f.maxRadius = 0;
+
+    if(bx.length < f.x.length){
+      bx = new float[f.x.length];
+      by = new float[f.x.length];
+      br = new float[f.x.length];
+    }
+    
+    int[] start = f.cellStart;
+    Arrays.fill(start, 0);
+    for(int i=0;i<n;i++){
+      Rectangle2D.Double b = list.get(i).getSquareBounds();
+      bx[i] = (float)(b.x+b.width/2);
+      by[i] = (float)(b.y+b.height/2);
+      br[i] = (float)b.width/2;
+      int c = cellOf(bx[i], by[i]);
+      f.cell[i] = c;
+      start[c+1]++;
+    }
+    for(int c=0;c<start.length-1;c++){
+      start[c+1] += start[c];
+    }
+
+    //start[c] is moved on while placing, back where it was afterwards
+    for(int i=0;i<n;i++){
+      CollisionComponent cc = list.get(i);
+      int j = start[f.cell[i]]++;
+      f.x[j] = bx[i];
+      f.y[j] = by[i];
+      f.r[j] = br[i];
+      f.layer[j] = cc.getLayer();
+      f.colliders[j] = cc;
+      f.maxRadius = Math.max(f.maxRadius, f.r[j]);
+    }
+    for(int c=start.length-1;c>0;c--){
+      start[c] = start[c-1];
+    }
+    start[0] = 0;
+  }
+
+  private static int cellOf(float x, float y){
+    int cx = Math.min(Math.max((int)(x/Ref.LAG_CELL), 0), CELLS_X-1);
+    int cy = Math.min(Math.max((int)(y/Ref.LAG_CELL), 0), CELLS_Y-1);
+    return cy*CELLS_X+cx;
+  }
+
+  //the newest frame not after time, null if there is none that old anymore
+  private Frame find(long time){
+    Frame best = null;
+    for(Frame f : frames){
+      if(f.time >= 0 && f.time <= time && (best == null || f.time > best.time)) best = f;
+    }
+    return best;
+  }
+
+  /**
+   * The first collider the circle overlapped at the given time, as the PhysicsManager tests it: on another layer,
+   * or one of them on layer -1. self is left out. Null if nothing was hit, or the time is too long ago.
+   */
+  public CollisionComponent query(long time, float x, float y, float radius, int l, CollisionComponent self){
+    Frame f = find(time);
+    if(f == null) return null;
+
+    float reach = radius+f.maxRadius;
+    int x0 = cellOf(x-reach, y-reach);
+    int x1 = cellOf(x+reach, y+reach);
+    int cx0 = x0 % CELLS_X, cy0 = x0 / CELLS_X;
+    int cx1 = x1 % CELLS_X, cy1 = x1 / CELLS_X;
+    float r2 = radius*radius;
+
+    for(int cy=cy0;cy<=cy1;cy++){
+      for(int c=cy*CELLS_X+cx0;c<=cy*CELLS_X+cx1;c++){
+        for(int j=f.cellStart[c];j<f.cellStart[c+1];j++){
+          if(f.colliders[j] == self) continue;
+          if(l == f.layer[j] && l != -1 && f.layer[j] != -1) continue;
+          float dx = f.x[j]-x;
+          float dy = f.y[j]-y;
+          if(r2+f.r[j]*f.r[j] > dx*dx+dy*dy) return f.colliders[j];
+        }
+      }
+    }
+    return null;
+  }
+
+  public long getOldest(){
+    long oldest = -1;
+    for(Frame f : frames){
+      if(f.time >= 0 && (oldest < 0 || f.time < oldest)) oldest = f.time;
+    }
+    return oldest;
+  }
+
+  //bytes held by the frames' arrays, not counting the colliders themselves
+  public long getMemory(){
+    long bytes = 0;
+    for(Frame f : frames){
+      //x, y, r, layer, cell and a reference
+      bytes += f.x.length*(5*4+8L) + f.cellStart.length*4L;
+    }
+    return bytes;
+  }
+}
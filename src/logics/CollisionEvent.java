@@ -0,0 +1,39 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Flight recorder event for the collision pass of one tick. Lasts for the whole pass, the resolution time is the
+ * part spent in the burst of resolveCollision() calls, including the triggers they fire. Off unless enabled.
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("asteroids.Collisions")
+@Label("Collisions")
+@Category({"Asteroids", "Physics"})
+@Description("Collision detection and resolution of one physics tick")
+@Enabled(false)
+@StackTrace(false)
+public class CollisionEvent extends Event{
+
+  @Label("Colliders")
+  int colliders;
+
+  @Label("Candidate Pairs")
+  int candidatePairs;
+
+  @Label("Collisions Resolved")
+  int resolved;
+
+  @Label("Resolution Time") @Timespan
+  long resolution;
+}
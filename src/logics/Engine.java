@@ -23,10 +23,12 @@ import components.ComponentContainer;
 import components.GraphicsComponent;
 import components.MotorComponent;
 import components.PhysicsComponent;
+import components.StatefulComponent;
 import components.TriggerComponent;
 import components.UpdateComponent;
+import util.SimClock;
 
-public class Engine extends BasicComponent implements MotorComponent, GraphicsComponent, UpdateComponent{
+public class Engine extends BasicComponent implements MotorComponent, GraphicsComponent, UpdateComponent, StatefulComponent{
   
   private float accStrength;
   private float decStrength;
@@ -65,6 +67,7 @@ public class Engine extends BasicComponent implements MotorComponent, GraphicsCo
     tags.add("motor");
     tags.add("graphics");
     tags.add("update");
+    tags.add("stateful");
   }
   
   @Override
@@ -90,7 +93,7 @@ public class Engine extends BasicComponent implements MotorComponent, GraphicsCo
           
           
           for(TriggerComponent tc : engineEffects){
-            tc.trigger(System.currentTimeMillis());
+            tc.trigger(SimClock.now());
           }
         }
         else {
@@ -133,6 +136,41 @@ public class Engine extends BasicComponent implements MotorComponent, GraphicsCo
   public float getRotation() {
     return core.getRotation();
   }
+  
+  @Override
+  public Vector2f getRenderPosition(long now) {
+    return ((GraphicsComponent)core).getRenderPosition(now);
+  }
+  
+  @Override
+  public float getRenderRotation(long now) {
+    return ((GraphicsComponent)core).getRenderRotation(now);
+  }
+  
+  @Override
+  public void writeInstance(long now, float[] dst, int off) {
+    ((GraphicsComponent)core).writeInstance(now, dst, off);
+    dst[off+4] = 1+heat*2;
+    dst[off+5] = 1+heat*1f;
+    dst[off+6] = 1+heat*1f;
+    dst[off+7] = 1;
+  }
+
+  //only the heat, the movement belongs to the player's input
+  @Override
+  public int getStateSize() {
+    return 1;
+  }
+  
+  @Override
+  public void writeState(float[] dst, int off) {
+    dst[off] = heat;
+  }
+  
+  @Override
+  public void readState(float[] src, int off) {
+    heat = src[off];
+  }
 
   @Override
   public void movement(int i) {
@@ -21,6 +21,8 @@ import messaging.Messenger;
 
 import org.lwjgl.input.Keyboard;
 
+import util.Ref;
+import util.SimClock;
 import util.SimpleLogger;
 
 public class InputHandler{
@@ -74,10 +76,12 @@ public class InputHandler{
     while(Keyboard.next()){
       int ke = Keyboard.getEventKey();
       boolean st = Keyboard.getEventKeyState();
-      SimpleLogger.log("Key "+ke+"("+Keyboard.getKeyName(ke) + ") was " + st + " pressed", 3, this.getClass(), "update");
+      if(SimpleLogger.isEnabled(3)) SimpleLogger.log(3, InputHandler.class, "update", "Key {}({}) was {} pressed", ke, Keyboard.getKeyName(ke), st);
       Messenger.send(new Message(M_TYPE.RAW_INPT, new Message.RW_IPT_Param(ke, st)));
       
-      if(inputMap.containsKey(ke)){
+      //a running replay brings its own commands, only leaving the game is still possible
+      boolean replaying = Ref.REPLAY != null && SimClock.isSimulated();
+      if(inputMap.containsKey(ke) && (!replaying || inputMap.get(ke) == CCMD.MENU)){
         Messenger.send(new Message(M_TYPE.CONTROL_CMD, new Message.CCMD_Param(inputMap.get(ke), 0, st)));
       }  
     }
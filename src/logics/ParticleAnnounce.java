@@ -66,7 +66,7 @@ public class ParticleAnnounce extends BasicComponent implements TriggerComponent
   public void trigger(long now){
     lastTrigger = now;
     for(ParticleSettings ps : settings){
-      Messenger.send(new Message(M_TYPE.PARTICLE_CRT, getPositioned_PS_Copy(ps)));
+      Messenger.send(Message.obtain(M_TYPE.PARTICLE_CRT, getPositioned_PS_Copy(ps)));
     }
   }
   
@@ -8,6 +8,11 @@ package logics;
  * component. This is the "core"-tagged component, upon so many other components rely. It is important, that only
  * 1 such component exists, as behavior of other components is undefined when more than 1 "core"-component exists
  * 
+ * The physics Worker is the only one to touch the live position and rotation. At the end of each tick it calls publish(),
+ * which stores the state of the last two ticks, guarded by a sequence counter (seqlock). The counter is odd while publish()
+ * is writing, so readers retry until they got a consistent copy. Rendering interpolates between the two ticks, one tick
+ * behind real time, without taking any lock.
+ * 
  */
 
 import glGraphics.AppWindow;
@@ -21,6 +26,7 @@ import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Vector4f;
 
 import util.Ref;
+import util.SimClock;
 import components.BasicComponent;
 import components.CollisionComponent;
 import components.Component;
@@ -52,18 +58,29 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
   
   public double lifeTime;
   private long birth;
+  //time of the world the shooter saw when this was fired, for lag compensation. 0 for none
+  private long viewTime;
   //pos change
   //scale change
   private boolean[] updateFlag;
-  private long lastUpdate;
   private long lastChecked;
   
   public boolean vectorRotation;
   
+  //render snapshot of the last two ticks, written by publish() only
+  private volatile int seq;
+  private volatile float prevX, prevY, prevRot;
+  private volatile float currX, currY, currRot;
+  private volatile long prevTime, currTime;
+  
   public PhysicsEntry(UUID u, int l, float m, double lt, float h, float d){
+    this(u, l, m, lt, h, d, calcRadius(u));
+  }
+  
+  //radius already known (e.g. when copying), so the construct doesn't need to be looked up
+  public PhysicsEntry(UUID u, int l, float m, double lt, float h, float d, float r){
     super();
-    birth = System.currentTimeMillis();
-    lastUpdate = birth;
+    birth = SimClock.now();
     
     colorMod = new Vector4f(1,1,1,1);
     
@@ -73,7 +90,8 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
     
     updateFlag = new boolean[]{true,true,true};
     shape = u;
-    calcBounds();
+    radius = r;
+    bounds = new Rectangle2D.Double(-radius, -radius, radius*2, radius*2);
     
     position = new Vector2f(0,0);
     scale = 1f;
@@ -98,7 +116,7 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
     tags.add("core");
   }
   
-  private void calcBounds(){
+  private static float calcRadius(UUID shape){
     Vector2f min = new Vector2f(0,0);
     Vector2f max = new Vector2f(0,0);
     
@@ -115,9 +133,7 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
     float xDiff = max.x + min.x;
     float yDiff = max.y - min.y;
     
-    radius = (float)Math.hypot(xDiff, yDiff);
-    
-    bounds = new Rectangle2D.Double(-radius, -radius, radius*2, radius*2);
+    return (float)Math.hypot(xDiff, yDiff);
   }
   
   @Override
@@ -147,8 +163,6 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
       rotation += rImpulse*dt;
     }
     
-    lastUpdate = System.currentTimeMillis();
-    
     updateFlag[0] = true;
     
   }
@@ -159,6 +173,15 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
     updateFlag[0]=true;
   }
   
+  //sets the velocity directly, unlike addMovement() which divides by the mass
+  public void setV_Impulse(Vector2f v){
+    vImpulse = new Vector2f(v);
+  }
+  
+  public void setR_Impulse(float r){
+    rImpulse = r;
+  }
+  
   @Override
     public void addMovement(Vector2f p){
     p.x /= mass;
@@ -190,12 +213,109 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
   
   @Override
     public Vector2f getPosition(){
-    float gap = (System.currentTimeMillis()-lastUpdate)/1000f;
+    return new Vector2f(position);
+  }
+  
+  @Override
+  public void publish(long tick){
+    float x = position.x;
+    float y = position.y;
+    float r = rotation;
+    
+    seq++;
+    if(currTime == 0){
+      //first snapshot, nothing to interpolate from yet
+      prevX = x; prevY = y; prevRot = r; prevTime = tick;
+    }else{
+      prevX = currX; prevY = currY; prevRot = currRot; prevTime = currTime;
+    }
+    currX = x; currY = y; currRot = r; currTime = tick;
+    seq++;
+  }
+  
+  @Override
+  public Vector2f getRenderPosition(long now){
+    float x0, y0, x1, y1;
+    long t0, t1;
+    int s;
+    do{
+      s = seq;
+      x0 = prevX; y0 = prevY; t0 = prevTime;
+      x1 = currX; y1 = currY; t1 = currTime;
+    }while((s & 1) != 0 || s != seq);
+    
+    //not simulated yet, so the Worker doesn't touch it either
+    if(t1 == 0) return new Vector2f(position);
+    
+    float a = getAlpha(now, t0, t1);
+    return new Vector2f(wrap(x0 + wrapDelta(x1-x0, Ref.xRes)*a, Ref.xRes),
+                        wrap(y0 + wrapDelta(y1-y0, Ref.yRes)*a, Ref.yRes));
+  }
+  
+  @Override
+  public float getRenderRotation(long now){
+    float r0, r1;
+    long t0, t1;
+    int s;
+    do{
+      s = seq;
+      r0 = prevRot; t0 = prevTime;
+      r1 = currRot; t1 = currTime;
+    }while((s & 1) != 0 || s != seq);
+    
+    if(t1 == 0) return rotation;
+    
+    //shortest way around
+    float d = (float)Math.IEEEremainder(r1-r0, Math.PI*2);
+    return r0 + d*getAlpha(now, t0, t1);
+  }
+  
+  @Override
+  public void writeInstance(long now, float[] dst, int off){
+    float x0, y0, r0, x1, y1, r1;
+    long t0, t1;
+    int s;
+    do{
+      s = seq;
+      x0 = prevX; y0 = prevY; r0 = prevRot; t0 = prevTime;
+      x1 = currX; y1 = currY; r1 = currRot; t1 = currTime;
+    }while((s & 1) != 0 || s != seq);
+    
+    if(t1 == 0){
+      dst[off+0] = position.x;
+      dst[off+1] = position.y;
+      dst[off+2] = rotation;
+    }else{
+      float a = getAlpha(now, t0, t1);
+      dst[off+0] = wrap(x0 + wrapDelta(x1-x0, Ref.xRes)*a, Ref.xRes);
+      dst[off+1] = wrap(y0 + wrapDelta(y1-y0, Ref.yRes)*a, Ref.yRes);
+      dst[off+2] = r0 + (float)Math.IEEEremainder(r1-r0, Math.PI*2)*a;
+    }
+    dst[off+3] = scale;
     
-    //extrapolation for display
-    Vector2f actPos = new Vector2f(position.x + vImpulse.x*gap,
-                     position.y + vImpulse.y*gap);
-    return new Vector2f(actPos);
+    float alpha = (float)(Math.max(0, Math.min(1, getRemainingLifeTime(now)/Ref.fadeTime)));
+    dst[off+4] = colorMod.x;
+    dst[off+5] = colorMod.y;
+    dst[off+6] = colorMod.z;
+    dst[off+7] = colorMod.w * alpha;
+  }
+  
+  private static float getAlpha(long now, long t0, long t1){
+    if(t1 <= t0) return 1;
+    //render one tick behind, so there is always a tick to interpolate towards
+    float a = (float)(now - Ref.PHYS_T_STEP - t0) / (t1 - t0);
+    return Math.max(0, Math.min(1, a));
+  }
+  
+  private static float wrapDelta(float d, float size){
+    //objects leaving the screen reappear on the other side, don't interpolate across the whole screen
+    if(d >  size/2) return d - size;
+    if(d < -size/2) return d + size;
+    return d;
+  }
+  
+  private static float wrap(float v, float size){
+    return (v+size) % size;
   }
   
   @Override
@@ -205,16 +325,7 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
   
   @Override
     public float getRotation(){
-    float gap = (System.currentTimeMillis()-lastUpdate)/1000f;
-    
-    //extrapolation for display
-
-    float actRot = rotation;
-    if(!vectorRotation){
-      actRot += rImpulse*gap;
-    }
-
-    return actRot;
+    return rotation;
   }
   
   private void updateBounds(){
@@ -304,12 +415,13 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
 
   @Override
   public UUID getConstructID() {
-    return UUID.fromString(shape.toString());
+    //UUIDs are immutable, no need to hand out a copy
+    return shape;
   }
 
   @Override
   public Component copy(boolean parentsInsert) {
-    PhysicsEntry copy = new PhysicsEntry(shape, layer, mass, lifeTime, hp, dmg);
+    PhysicsEntry copy = new PhysicsEntry(shape, layer, mass, lifeTime, hp, dmg, radius);
     
     copy.bounds = (Rectangle2D.Double)bounds.clone();
     copy.position = new Vector2f(position);
@@ -329,7 +441,6 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
     
     if(parentsInsert && parent != null){
       copy.lastChecked = lastChecked;
-      copy.lastUpdate = lastUpdate;
       copy.birth = birth;
       parent.registerComponent(copy);
       super.link(parent);
@@ -348,10 +459,31 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
   public void setColorMod(Vector4f cm){
     colorMod = new Vector4f(cm);
   }
+  
+  //the color without fading out at the end of the lifetime
+  public Vector4f getBaseColorMod(){
+    return new Vector4f(colorMod);
+  }
+  
+  public long getBirth(){
+    return birth;
+  }
+  
+  public long getViewTime(){
+    return viewTime;
+  }
+  
+  public void setViewTime(long t){
+    viewTime = t;
+  }
+  
+  public void setBirth(long b){
+    birth = b;
+  }
 
   @Override
   public Vector4f getColorMod() {
-    long now = System.currentTimeMillis();
+    long now = SimClock.now();
     
     float alpha = (float)(Math.max(0, Math.min(1, getRemainingLifeTime(now)/Ref.fadeTime)));
     
@@ -376,6 +508,10 @@ public class PhysicsEntry extends BasicComponent implements PhysicsComponent, Gr
     return dmg;
   }
 
+  public void setLife(float h){
+    hp = h;
+  }
+
   @Override
   public void applyDmg(float d) {
     if(hp != Float.POSITIVE_INFINITY) hp -= d;
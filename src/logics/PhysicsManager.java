@@ -7,10 +7,12 @@ package logics;
  * update rate are independant, typically allowing higher framerates while physics updates take longer
  * 
  * Whenever the addition/removal/update of ComponentContainers is messaged, their components get placed into different
- * lists, corresponding to certain tags.
+ * lists, corresponding to certain tags. Additions and removals of whole containers are recorded in an EntityCommandBuffer
+ * and applied in one pass at the beginning of the next tick. The lists are DenseLists, so even mass deaths only cost
+ * linear time.
  * 
- * "update"-tagged component get their update method called and get checked if their
- * lifetime is over.
+ * "update"-tagged component get their update method called. Components with a finite lifetime register a timer
+ * in the TimerWheel when they are added, so only those that are actually due get looked at each tick.
  * 
  * "physics"-tagged components get their position checked. If they run out of the screen, their coordinates are reverted back into
  * the screen ( % operator)
@@ -20,40 +22,59 @@ package logics;
  * may be able to collide with other objects, a QuadTree is used to speed up the collision-checking. Only circle-shaped collision shapes are supported
  * right now.
  * 
- * Messaging is done by a ConcurrentLinkedQueue object, as the multi-threaded approach makes it neccesary, that removal/addition of objects are done only
+ * Messaging is done by a Mailbox object, as the multi-threaded approach makes it neccesary, that removal/addition of objects are done only
  * by the Worker thread to ensure they are done at the right point in the updateCycle.
  * 
+ * When the SimClock is simulated, there is no Worker. The Game calls step() for each tick instead, so the physics run in
+ * lockstep with the game logic and the Messenger, and a recorded session plays out the same way again.
+ * 
+ * After requestSnapshot(), the next tick ends with copying the world into a WorldSnapshot, which is sent as a
+ * WORLD_SNAPSHOT message. Containers already queued for removal are left out. Containers sent for addition during
+ * that tick haven't arrived yet and are missing as well, that's at most one tick worth of bullets and particles.
+ * 
+ * Without particles (setParticles(false), e.g. on a server nobody watches), PARTICLE_CRTs aren't even subscribed to.
+ * 
+ * With lag compensation (setLagCompensation(true), on a hosted game), the colliders of every tick are kept in a
+ * ColliderHistory. A shot fired by a player who saw the world some ticks ago (see Weapon.setViewTime()) is tested
+ * against the world of each tick since then, along the way it would have flown, once it is added. The first collider
+ * hit is resolved in the present, if it is still there, and the shot is moved on to where it would be by now.
+ * 
  */
 
-import glGraphics.AppWindow;
-
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.lwjgl.util.vector.Vector2f;
 
 import particles.ParticleCreator;
 import particles.ParticleSettings;
+import snapshot.WorldSnapshot;
 import components.CollisionComponent;
 import components.Component;
 import components.ComponentContainer;
 import components.ComponentContainer.Logic;
+import components.EntityCommandBuffer;
 import components.PhysicsComponent;
 import components.TriggerComponent;
 import components.UpdateComponent;
 import messaging.Handler;
+import messaging.Mailbox;
 import messaging.Message;
 import messaging.Message.ENT;
 import messaging.Message.ENT_Param;
 import messaging.Message.M_TYPE;
 import messaging.Message.UPD_Param;
 import messaging.Messenger;
+import metrics.Metric;
+import metrics.MetricsRegistry;
+import util.DenseList;
 import util.Ref;
+import util.SimClock;
 import util.SimpleLogger;
 
 public class PhysicsManager implements Handler{
@@ -66,54 +87,108 @@ public class PhysicsManager implements Handler{
         updateCycle();
       }
 
-      physics.clear();
-      toAdd.clear();
-      toRemove.clear();
-      qt.clear();
-
+      clearAll();
       SimpleLogger.log("PhM Worker out of cycle", 1, this.getClass(), "run");
     }
   }
   
+  private void clearAll(){
+    physics.clear();
+    updates.clear();
+    collider.clear();
+    toAdd.clear();
+    toRemove.clear();
+    toStrip.clear();
+    commands.clear();
+    messages.clear();
+    qt.clear();
+    timers.clear();
+    expiries.clear();
+    if(rewinding != null) rewinding.clear();
+  }
+  
   private static HashSet<String> addTags;
   
   private QuadTree qt;
+  private TimerWheel timers;
+  private HashMap<Component, TimerWheel.Timer> expiries;
   private ParticleCreator pcr;
   private Worker mThread;
   
-  private ConcurrentLinkedQueue<Message> messages;
+  private Mailbox messages;
+  private Handler threadedHandler;
+  
+  private EntityCommandBuffer commands;
+  private EntityCommandBuffer.Playback playback;
   
-  private List<Component> toAdd;
-  private List<Component> toRemove;
-  private List<ComponentContainer> toStrip;
+  //single components, changed by ENTITY_UPD messages
+  private ArrayList<Component> toAdd;
+  private ArrayList<Component> toRemove;
+  private ArrayList<ComponentContainer> toStrip;
   
-  private List<UpdateComponent> updates;
-  private List<PhysicsComponent> physics;
-  private List<CollisionComponent> collider;
+  private DenseList<UpdateComponent> updates;
+  private DenseList<PhysicsComponent> physics;
+  private DenseList<CollisionComponent> collider;
   
-  private boolean doCycle;
+  private volatile boolean doCycle;
+  private volatile boolean snapshotRequested;
+  private boolean particles = true;
+  private ColliderHistory history;
+  private ArrayList<PhysicsEntry> rewinding;
+  private volatile long rewinds;
+  private volatile long rewindHits;
   private long lastUpdate;
   
   private float updateSum;
   private int updateCount;
-  private int tps;
+  private volatile int tps;
+  private volatile long tickCost;
+  private TickProfiler profiler;
+  private Collection<Metric> metrics;
+  private int candidatePairs;
   
   private long now;
   
   public PhysicsManager(){
     qt = new QuadTree(new Rectangle2D.Double(0, 0, 1280, 720), Ref.maxDepth, Ref.maxItems, 0);
-    pcr = new ParticleCreator();
+    timers = new TimerWheel(Ref.PHYS_T_STEP, SimClock.now());
+    expiries = new HashMap<>();
+    pcr = new ParticleCreator(timers);
     
-    physics = new ArrayList<>();
+    physics = new DenseList<>(1024);
+    updates = new DenseList<>(1024);
+    collider = new DenseList<>(1024);
     toAdd = new ArrayList<>();
     toRemove = new ArrayList<>();
-    updates = new ArrayList<>();
-    collider = new ArrayList<>();
     toStrip = new ArrayList<>();
-    messages = new ConcurrentLinkedQueue<>();
+    commands = new EntityCommandBuffer();
+    playback = new EntityCommandBuffer.Playback(){
+      @Override
+      public void removed(ComponentContainer cc) {
+        removeComponents(cc.getComponents(addTags, Logic.OR));
+      }
+      
+      @Override
+      public void added(ComponentContainer cc) {
+        addComponents(cc.getComponents(addTags, Logic.OR));
+        if(history == null) return;
+        for(Component c : cc.getComponents("core")){
+          if(c instanceof PhysicsEntry && ((PhysicsEntry)c).getViewTime() > 0) rewinding.add((PhysicsEntry)c);
+        }
+      }
+    };
+    messages = new Mailbox(4096);
+    threadedHandler = new Handler(){
+      @Override
+      public void handleMessage(Message m) {
+        handleMessageThreaded(m);
+        m.release();
+      }
+    };
     
     updateCount=0;
     updateSum = 0;
+    profiler = new TickProfiler();
     
     if(addTags == null){
       addTags = new HashSet<>();
@@ -128,12 +203,29 @@ public class PhysicsManager implements Handler{
     return (Set<String>)addTags.clone();
   }
   
+  //particles are purely cosmetic, but collide like everything else. Must be set before start()
+  public void setParticles(boolean p){
+    particles = p;
+  }
+  
+  //keeps the colliders of the last ticks, to test shots against the past. Must be set before start()
+  public void setLagCompensation(boolean l){
+    history = l ? new ColliderHistory() : null;
+    rewinding = new ArrayList<>();
+  }
+  
   public void start(){
+    metrics = registerMetrics();
     Messenger.subscribe(this, Message.M_TYPE.ENTITY_MGR);
-    Messenger.subscribe(this, Message.M_TYPE.PARTICLE_CRT);
+    if(particles) Messenger.subscribe(this, Message.M_TYPE.PARTICLE_CRT);
     Messenger.subscribe(this, Message.M_TYPE.ENTITY_UPD);
     
     doCycle = true;
+    //one step back, so the first tick has the usual dt
+    lastUpdate = SimClock.now() - Ref.PHYS_T_STEP;
+    
+    //in lockstep, the Game calls step() itself
+    if(SimClock.isSimulated()) return;
     mThread = new Worker();
     mThread.start();
   }
@@ -141,32 +233,82 @@ public class PhysicsManager implements Handler{
   public void stop(){
     doCycle=false;
     Messenger.unsubscribe(this);
+    if(metrics != null) MetricsRegistry.unregister(metrics);
+    
+    //once the Worker is done, nothing touches the entities or constructs anymore
+    if(mThread == null){
+      clearAll();
+    }else if(mThread != Thread.currentThread()){
+      try {
+        mThread.join();
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+  
+  //runs one tick at the SimClock's time, only without a Worker
+  public void step(){
+    if(mThread != null) throw new IllegalStateException("The physics already tick in their own thread");
+    if(!doCycle) throw new IllegalStateException("PhysicsManager not started");
+    updateCycle();
   }
   
   public void updateCycle(){
-    AppWindow.glx.takeLock();
-    
-    handleMessageThreaded();
+    long drain = System.nanoTime();
+    drainMessages();
+    drain = System.nanoTime()-drain;
     float dt = sleepToUpdate();
+    
+    long start = System.nanoTime();
+    profiler.begin();
+    profiler.add(TickProfiler.PHASE.MESSAGES, drain);
     updateLists();
+    profiler.mark(TickProfiler.PHASE.LISTS);
     updatePhysics(dt);
     updateParticles();
+    profiler.mark(TickProfiler.PHASE.PARTICLES);
     updateTPS(dt);
+    tickCost = System.nanoTime()-start;
+    
+    profiler.setCounts(physics.size(), collider.size(), candidatePairs, pcr.getSystemCount());
+    profiler.end(now);
     
-    AppWindow.glx.releaseLock();
+    if(snapshotRequested){
+      snapshotRequested = false;
+      Messenger.send(Message.obtain(M_TYPE.WORLD_SNAPSHOT, takeSnapshot()));
+    }
+  }
+  
+  //the next tick will end with sending a WORLD_SNAPSHOT
+  public void requestSnapshot(){
+    snapshotRequested = true;
+  }
+  
+  private WorldSnapshot takeSnapshot(){
+    WorldSnapshot s = new WorldSnapshot(now, physics.size());
+    for(int i=0;i<physics.size();i++){
+      PhysicsComponent pc = physics.get(i);
+      ComponentContainer cc = pc.getComponentContainer();
+      if(!(pc instanceof PhysicsEntry) || cc == null || commands.isRemoving(cc)) continue;
+      s.add(cc, (PhysicsEntry)pc);
+    }
+    s.finish();
+    pcr.saveSystems(s);
+    return s;
   }
   
   private float sleepToUpdate(){
-    now = System.currentTimeMillis();
+    now = SimClock.now();
     
     long sleepTime = Ref.PHYS_T_STEP - (now-lastUpdate);
-    if(sleepTime > 0){
+    if(sleepTime > 0 && !SimClock.isSimulated()){
       try {
         Thread.sleep(sleepTime);
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
-      now = System.currentTimeMillis();
+      now = SimClock.now();
       
     }
     
@@ -178,58 +320,153 @@ public class PhysicsManager implements Handler{
     return dt;
   }
   
-  private void updateLists(){
-    physics.removeAll(toRemove);
-    updates.removeAll(toRemove);
-    collider.removeAll(toRemove);
+  void drainMessages(){
+    messages.drain(threadedHandler);
+  }
+  
+  void updateLists(){
+    removeComponents(toRemove);
+    commands.playback(playback);
+    addComponents(toAdd);
     
-    for(ComponentContainer cc : toStrip){
-      cc.strip();
+    //only once all additions are through, as a hit may remove something
+    if(history != null){
+      for(int i=0;i<rewinding.size();i++){
+        rewind(rewinding.get(i));
+      }
+      rewinding.clear();
     }
     
+    //stripped only once the removal went through the Messenger, so the game still sees the components
+    for(int i=0;i<toStrip.size();i++){
+      toStrip.get(i).strip();
+    }
     
+    toRemove.clear();
+    toStrip.clear();
+    toAdd.clear();
+  }
+  
+  private void rewind(PhysicsEntry pe){
+    long view = Math.max(pe.getViewTime(), now-Ref.LAG_MAX);
+    pe.setViewTime(0);
+    if(view >= now) return;
+    rewinds++;
     
-    for(Component c : toAdd){
-      if(c.getTags().contains("update"))     updates.add((UpdateComponent)c);
+    Vector2f pos = pe.getPosition();
+    Vector2f v = pe.getV_Impulse();
+    float radius = pe.getRadius();
+    for(long t=view;t<now;t+=Ref.PHYS_T_STEP){
+      float s = (t-view)/1000f;
+      float x = (pos.x+v.x*s+Ref.xRes) % Ref.xRes;
+      float y = (pos.y+v.y*s+Ref.yRes) % Ref.yRes;
+      CollisionComponent hit = history.query(t, x, y, radius, pe.getLayer(), pe);
+      
+      if(hit != null && collider.contains(hit) && !commands.isRemoving(hit.getComponentContainer())){
+        rewindHits++;
+        resolveCollision(pe, hit);
+        break;
+      }
+    }
+    
+    //where the shot is for the shooter by now
+    float s = (now-view)/1000f;
+    pe.setPosition(new Vector2f((pos.x+v.x*s+Ref.xRes) % Ref.xRes, (pos.y+v.y*s+Ref.yRes) % Ref.yRes));
+  }
+  
+  private void removeComponents(Collection<Component> cl){
+    for(Component c : cl){
+      physics.remove(c);
+      updates.remove(c);
+      collider.remove(c);
+      
+      TimerWheel.Timer t = expiries.remove(c);
+      if(t != null) t.cancel();
+    }
+  }
+  
+  private void addComponents(Collection<Component> cl){
+    for(Component c : cl){
+      if(c.getTags().contains("update"))     addUpdate((UpdateComponent)c);
       if(c.getTags().contains("physics"))    physics.add((PhysicsComponent)c);
       if(c.getTags().contains("collisions")) collider.add((CollisionComponent)c);
     }
+  }
+  
+  private void addUpdate(final UpdateComponent uc){
+    updates.add(uc);
     
-    toRemove.clear();
-    toStrip.clear();
-    toAdd.clear();
+    double remaining = uc.getRemainingLifeTime(now);
+    if(remaining != Double.POSITIVE_INFINITY && !expiries.containsKey(uc)){
+      long when = now + (long)Math.ceil(remaining*1000);
+      expiries.put(uc, timers.schedule(when, new Runnable(){
+        @Override
+        public void run() {
+          expiries.remove(uc);
+          handleDeadComponent(uc);
+        }
+      }));
+    }
   }
   
   private void updatePhysics(float dt){
     Vector2f pos;
-    for(UpdateComponent uc : updates){
-      uc.update(dt);
-      if(uc.getRemainingLifeTime(now) <= 0) {
-        handleDeadComponent(uc);
-      }
+    for(int i=0;i<updates.size();i++){
+      updates.get(i).update(dt);
     }
+    //only fires for components whose lifetime is actually over
+    timers.advance(now);
+    profiler.mark(TickProfiler.PHASE.INTEGRATION);
     
-    for(PhysicsComponent e : physics){
+    PhysicsComponent e;
+    for(int i=0;i<physics.size();i++){
+      e = physics.get(i);
       //ensuring objects appear on the other side of the screen
       pos = e.getPosition();
       e.setPosition(new Vector2f((pos.x+Ref.xRes) % Ref.xRes,
                      (pos.y+Ref.yRes) % Ref.yRes));
     }
+    profiler.mark(TickProfiler.PHASE.WRAP);
     updateCollisions(now);
+    if(history != null){
+      long t = System.nanoTime();
+      history.record(now, collider);
+      profiler.add(TickProfiler.PHASE.BROADPHASE, System.nanoTime()-t);
+    }
+    profiler.skip();
+    
+    for(int i=0;i<physics.size();i++){
+      physics.get(i).publish(now);
+    }
+    profiler.mark(TickProfiler.PHASE.PUBLISH);
   }
   
-  private void updateCollisions(@SuppressWarnings("hiding") long now){
+  void updateCollisions(@SuppressWarnings("hiding") long now){
+    //broad- and narrowphase are interleaved, so the queries and resolutions are timed, and the rest is narrowphase
+    CollisionEvent event = new CollisionEvent();
+    event.begin();
+    long start = System.nanoTime();
+    long broad, resolve = 0, t;
+    int pairs = 0, resolved = 0;
+    
     //rebuild quadTree
     qt.clear();
-    for(CollisionComponent c : collider){
-      qt.insert(c);
+    for(int i=0;i<collider.size();i++){
+      qt.insert(collider.get(i));
     }
     
     LinkedList<CollisionComponent> ll;
     Vector2f distance = new Vector2f(0,0);
     
-    for(CollisionComponent candidate : collider){
+    CollisionComponent candidate;
+    broad = System.nanoTime()-start;
+    for(int i=0;i<collider.size();i++){
+      candidate = collider.get(i);
+      t = System.nanoTime();
       ll = qt.getCandidates(candidate.getSquareBounds());
+      broad += System.nanoTime()-t;
+      //the candidate itself is part of the list
+      pairs += ll.size()-1;
       
       for(CollisionComponent test : ll){
         //test only if different layers, or some is layer-1, as this collides with everything
@@ -243,13 +480,30 @@ public class PhysicsManager implements Handler{
           
           if(candidate.getRadius2()+test.getRadius2() > d2){
             //they are colliding, now:
+            t = System.nanoTime();
             resolveCollision(candidate, test);
+            resolve += System.nanoTime()-t;
+            resolved++;
           }
         }
       }
       //candidate has been checked against all possible objects, it is checked for this frame, skipping all other checks against it
       candidate.check(now);
     }
+    
+    candidatePairs = pairs;
+    profiler.add(TickProfiler.PHASE.BROADPHASE, broad);
+    profiler.add(TickProfiler.PHASE.RESOLUTION, resolve);
+    profiler.add(TickProfiler.PHASE.NARROWPHASE, System.nanoTime()-start-broad-resolve);
+    
+    event.end();
+    if(event.shouldCommit()){
+      event.colliders = collider.size();
+      event.candidatePairs = pairs;
+      event.resolved = resolved;
+      event.resolution = resolve;
+      event.commit();
+    }
   }
   
   private void resolveCollision(CollisionComponent cpA, CollisionComponent cpB){
@@ -303,14 +557,14 @@ public class PhysicsManager implements Handler{
     //could wait on message, but that might keep the obj alive 1 frame longer,
     //which can have issues (e.g. particle systems fire 2 times)
     
-    if(!toRemove.contains(c)){
-      toRemove.add(c);
-      Messenger.send(new Message(M_TYPE.ENTITY_MGR, new ENT_Param(c.getComponentContainer(), ENT.REMOVE)));
+    if(commands.remove(c.getComponentContainer())){
+      Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(c.getComponentContainer(), ENT.REMOVE)));
     }
 
   }
   
-  private void applyCollisionForce(PhysicsEntry peA, PhysicsEntry peB){
+  //also used by the rollback prototype in bench/rollback, which resolves its collisions itself
+  public static void applyCollisionForce(PhysicsEntry peA, PhysicsEntry peB){
     Vector2f distance = new Vector2f();
     Vector2f relVel = new Vector2f();
     
@@ -351,52 +605,45 @@ public class PhysicsManager implements Handler{
   private void updateParticles(){
     LinkedList<ComponentContainer> ccll = pcr.generate(now);
     for(ComponentContainer cc : ccll){
-      Messenger.send(new Message(M_TYPE.ENTITY_MGR, new ENT_Param(cc, ENT.ADD)));
+      Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(cc, ENT.ADD)));
     }
   }
   
   @Override
   public void handleMessage(Message m) {
-    messages.add(m);
+    //the message is handled later on by the Worker, so hold on to it
+    messages.post(m.retain());
   }
   
-  private void handleMessageThreaded(){
-    LinkedList<Message> mCopy = new LinkedList<>();
-    mCopy.addAll(messages);
-
-    for(Message m : mCopy){
-      switch(m.getMsgType()){
-      case ENTITY_MGR:
-        handleENT(m);
-        break;
-      case ENTITY_UPD:
-        handleUPD(m);
-        break;
-      case PARTICLE_CRT:
-        handlePCL(m);
-        break;
-      default: break;
-      }
+  private void handleMessageThreaded(Message m){
+    switch(m.getMsgType()){
+    case ENTITY_MGR:
+      handleENT(m);
+      break;
+    case ENTITY_UPD:
+      handleUPD(m);
+      break;
+    case PARTICLE_CRT:
+      handlePCL(m);
+      break;
+    default: break;
     }
-    messages.removeAll(mCopy);
-
   }
   
   private void handleENT(Message m){
-    ENT_Param ep = (ENT_Param)m.getParam();
+    ENT_Param ep = m.getParam(ENT_Param.class);
     
-    HashSet<Component> hs = ep.cc.getComponents(addTags, Logic.OR);
-
     switch(ep.mode){
     case ADD:
       HashSet<Component> bt = ep.cc.getComponents("birthTrigger");
       for(Component c : bt){
         ((TriggerComponent)c).trigger(now);
       }
-      toAdd.addAll(hs);
+      commands.add(ep.cc);
       break;
     case REMOVE:
-      toRemove.addAll(hs);
+      //containers that died during a tick are already queued
+      commands.remove(ep.cc);
       toStrip.add(ep.cc);
       break;
     }
@@ -405,11 +652,12 @@ public class PhysicsManager implements Handler{
   
 
   private void handlePCL(Message m){
-    pcr.addSystem((ParticleSettings)m.getParam());
+    //the settings are a private copy made by the sender, no need to copy them again
+    pcr.adoptSystem(m.getParam(ParticleSettings.class));
   }
   
   private void handleUPD(Message m){
-    UPD_Param up = (UPD_Param)m.getParam();
+    UPD_Param up = m.getParam(UPD_Param.class);
     toRemove.addAll(up.removed);
     toAdd.addAll(up.added);
   }
@@ -418,4 +666,97 @@ public class PhysicsManager implements Handler{
     return tps;
   }
   
+  //time the last tick took, without sleeping, in ms
+  public double getTickCost(){
+    return tickCost/1000000d;
+  }
+  
+  public TickProfiler getProfiler(){
+    return profiler;
+  }
+  
+  //FNV-1a over the state of every simulated component, in list order. Only meaningful between two step() calls,
+  //as nothing else may touch the components then
+  public long hashState(){
+    long h = 0xcbf29ce484222325L;
+    h = hash(h, physics.size());
+    for(int i=0;i<physics.size();i++){
+      PhysicsComponent pc = physics.get(i);
+      Vector2f pos = pc.getPosition();
+      Vector2f imp = pc.getV_Impulse();
+      h = hash(h, Float.floatToIntBits(pos.x));
+      h = hash(h, Float.floatToIntBits(pos.y));
+      h = hash(h, Float.floatToIntBits(pc.getRotation()));
+      h = hash(h, Float.floatToIntBits(imp.x));
+      h = hash(h, Float.floatToIntBits(imp.y));
+      h = hash(h, Float.floatToIntBits(pc.getR_Impulse()));
+    }
+    h = hash(h, collider.size());
+    for(int i=0;i<collider.size();i++){
+      h = hash(h, Float.floatToIntBits(collider.get(i).getLife()));
+    }
+    h = hash(h, updates.size());
+    return h;
+  }
+  
+  private static long hash(long h, int v){
+    for(int i=0;i<4;i++){
+      h ^= (v >>> (i*8)) & 0xFF;
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+  
+  private Collection<Metric> registerMetrics(){
+    ArrayList<Metric> ml = new ArrayList<>();
+    ml.add(Metric.gauge("asteroids_physics_tps", "Physics ticks per second", new Metric.Source(){
+      @Override
+      public double read() { return tps; }
+    }));
+    ml.add(Metric.gauge("asteroids_physics_tick_ms", "Cost of the last physics tick, without sleeping", new Metric.Source(){
+      @Override
+      public double read() { return getTickCost(); }
+    }));
+    ml.add(Metric.gauge("asteroids_physics_entities", "Components moved by the physics", new Metric.Source(){
+      @Override
+      public double read() { return profiler.getEntities(); }
+    }));
+    ml.add(Metric.gauge("asteroids_physics_colliders", "Components taking part in collisions", new Metric.Source(){
+      @Override
+      public double read() { return profiler.getColliders(); }
+    }));
+    ml.add(Metric.gauge("asteroids_physics_candidate_pairs", "Pairs tested in the last narrowphase", new Metric.Source(){
+      @Override
+      public double read() { return profiler.getCandidatePairs(); }
+    }));
+    ml.add(Metric.gauge("asteroids_physics_mailbox_depth", "Messages waiting for the physics Worker", new Metric.Source(){
+      @Override
+      public double read() { return messages.size(); }
+    }));
+    if(history != null){
+      ml.add(Metric.gauge("asteroids_lag_history_bytes", "Memory held by the collider history", new Metric.Source(){
+        @Override
+        public double read() { return history.getMemory(); }
+      }));
+      ml.add(Metric.counter("asteroids_lag_rewinds_total", "Shots tested against the past", new Metric.Source(){
+        @Override
+        public double read() { return rewinds; }
+      }));
+      ml.add(Metric.counter("asteroids_lag_hits_total", "Shots that hit something in the past", new Metric.Source(){
+        @Override
+        public double read() { return rewindHits; }
+      }));
+    }
+    ml.add(Metric.gauge("asteroids_particles_systems", "Running particle systems", new Metric.Source(){
+      @Override
+      public double read() { return pcr.getSystemCount(); }
+    }));
+    ml.add(Metric.counter("asteroids_particles_generated_total", "Particles generated", new Metric.Source(){
+      @Override
+      public double read() { return pcr.getGenerated(); }
+    }));
+    MetricsRegistry.register(ml);
+    return ml;
+  }
+  
 }
@@ -45,7 +45,7 @@ public class PlayerController extends BasicComponent implements Handler{
   
   @Override
   public void handleMessage(Message m) {
-    CCMD_Param cp = (CCMD_Param)m.getParam();
+    CCMD_Param cp = m.getParam(CCMD_Param.class);
     if(cp.receiver == playerNumber){
       handleComponents(cp);
     }
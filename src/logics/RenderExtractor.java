@@ -0,0 +1,113 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Keeps track of every "graphics"-tagged component in the game, so that drawing doesn't have to query all
+ * ComponentContainers for their tags each frame. The owner reports additions, removals and upgrades of containers
+ * (as received by ENTITY_MGR/ENTITY_UPD messages), the components are kept in a DenseList.
+ *
+ * Once per frame, extract() walks that list in one pass and fills a flat buffer with one instance per component:
+ * x, y, rotation, scale and the rgba colorMod, followed by the construct to draw it with. submit() then hands the
+ * instances over to glGraphics. This way the cost of a frame only depends on the number of visible instances.
+ *
+ */
+
+import glGraphics.glGraphics;
+
+import java.util.Collection;
+import java.util.UUID;
+
+import util.DenseList;
+import components.Component;
+import components.ComponentContainer;
+import components.GraphicsComponent;
+
+public class RenderExtractor {
+
+  public static final int STRIDE = 8;
+
+  private DenseList<GraphicsComponent> graphics;
+
+  private float[] instances;
+  private UUID[] constructs;
+  private int count;
+
+  public RenderExtractor(){
+    graphics = new DenseList<>(1024);
+    instances = new float[1024*STRIDE];
+    constructs = new UUID[1024];
+    count = 0;
+  }
+
+  public void add(ComponentContainer cc){
+    for(Component c : cc.getComponents("graphics")){
+      graphics.add((GraphicsComponent)c);
+    }
+  }
+
+  public void remove(ComponentContainer cc){
+    for(Component c : cc.getComponents("graphics")){
+      graphics.remove(c);
+    }
+  }
+
+  public void update(Collection<Component> removed, Collection<Component> added){
+    for(Component c : removed){
+      graphics.remove(c);
+    }
+    for(Component c : added){
+      if(c.getTags().contains("graphics")) graphics.add((GraphicsComponent)c);
+    }
+  }
+
+  public int extract(long now){
+    int n = graphics.size();
+    if(constructs.length < n){
+      int size = Math.max(n, constructs.length*2);
+      instances = new float[size*STRIDE];
+      constructs = new UUID[size];
+    }
+
+    GraphicsComponent gc;
+    for(int i=0;i<n;i++){
+      gc = graphics.get(i);
+      constructs[i] = gc.getConstructID();
+      gc.writeInstance(now, instances, i*STRIDE);
+    }
+
+    //don't keep constructs of instances gone since the last frame alive
+    for(int i=n;i<count;i++){
+      constructs[i] = null;
+    }
+
+    count = n;
+    return n;
+  }
+
+  public void submit(glGraphics glx){
+    for(int i=0;i<count;i++){
+      glx.drawConstruct(constructs[i], instances, i*STRIDE);
+    }
+  }
+
+  public int getCount(){
+    return count;
+  }
+
+  public float[] getInstances(){
+    return instances;
+  }
+
+  public UUID getConstruct(int i){
+    return constructs[i];
+  }
+
+  public void clear(){
+    graphics.clear();
+    for(int i=0;i<count;i++){
+      constructs[i] = null;
+    }
+    count = 0;
+  }
+}
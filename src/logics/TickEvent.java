@@ -0,0 +1,81 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Flight recorder event for one physics tick, committed by the TickProfiler. Lasts from the start of the tick to
+ * its end, and carries the time spent in each PHASE and the counts the tick worked with, so GC pauses and
+ * safepoints in a recording can be lined up with what the physics were doing. Off unless enabled, e.g. with
+ * res/jfr/asteroids.jfc.
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("asteroids.PhysicsTick")
+@Label("Physics Tick")
+@Category({"Asteroids", "Physics"})
+@Description("One update of the PhysicsManager")
+@Enabled(false)
+@StackTrace(false)
+public class TickEvent extends Event{
+
+  @Label("Messages") @Timespan
+  long messages;
+
+  @Label("Lists") @Timespan
+  long lists;
+
+  @Label("Integration") @Timespan
+  long integration;
+
+  @Label("Wrap") @Timespan
+  long wrap;
+
+  @Label("Broadphase") @Timespan
+  long broadphase;
+
+  @Label("Narrowphase") @Timespan
+  long narrowphase;
+
+  @Label("Resolution") @Timespan
+  long resolution;
+
+  @Label("Publish") @Timespan
+  long publish;
+
+  @Label("Particles") @Timespan
+  long particles;
+
+  @Label("Entities")
+  int entities;
+
+  @Label("Colliders")
+  int colliders;
+
+  @Label("Candidate Pairs")
+  int candidatePairs;
+
+  @Label("Particle Systems")
+  int particleSystems;
+
+  //ns per TickProfiler.PHASE, indexed by ordinal
+  void setPhases(long[] ns){
+    messages    = ns[TickProfiler.PHASE.MESSAGES.ordinal()];
+    lists       = ns[TickProfiler.PHASE.LISTS.ordinal()];
+    integration = ns[TickProfiler.PHASE.INTEGRATION.ordinal()];
+    wrap        = ns[TickProfiler.PHASE.WRAP.ordinal()];
+    broadphase  = ns[TickProfiler.PHASE.BROADPHASE.ordinal()];
+    narrowphase = ns[TickProfiler.PHASE.NARROWPHASE.ordinal()];
+    resolution  = ns[TickProfiler.PHASE.RESOLUTION.ordinal()];
+    publish     = ns[TickProfiler.PHASE.PUBLISH.ordinal()];
+    particles   = ns[TickProfiler.PHASE.PARTICLES.ordinal()];
+  }
+}
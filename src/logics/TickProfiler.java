@@ -0,0 +1,186 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Times the phases of each physics tick. The PhysicsManager's Worker calls begin() at the start of a tick, mark()
+ * after each phase, or add() for phases it times itself, and end() once the tick is done. Every phase is recorded
+ * in a LatencyHistogram, so a single slow tick isn't averaged away.
+ *
+ * The histograms are collected for one WINDOW, then published: copied into a second set, guarded by this object's
+ * monitor, and cleared. Readers like the PerformanceOverlay only ever touch the published set, so the Worker doesn't
+ * need to synchronize on every tick. The total cost of the last HISTORY ticks and the counters of the last tick
+ * are written without synchronization, as they are only used for display.
+ *
+ * Every tick is also committed as a TickEvent, for when the flight recorder is running with the event enabled.
+ *
+ */
+
+import java.util.Arrays;
+
+import util.LatencyHistogram;
+
+public class TickProfiler {
+
+  public enum PHASE{
+    MESSAGES,
+    LISTS,
+    INTEGRATION,
+    WRAP,
+    BROADPHASE,
+    NARROWPHASE,
+    RESOLUTION,
+    PUBLISH,
+    PARTICLES
+  }
+
+  public static final long WINDOW = 1000;
+  public static final int HISTORY = 256;
+
+  private static final PHASE[] PHASES = PHASE.values();
+
+  private LatencyHistogram[] current;
+  private LatencyHistogram currentTotal;
+  private LatencyHistogram[] published;
+  private LatencyHistogram publishedTotal;
+  private volatile int version;
+  private long windowStart;
+
+  private long[] tick;
+  private long mark;
+  private TickEvent event;
+
+  private float[] history;
+  private volatile int historyPos;
+
+  private volatile int entities;
+  private volatile int colliders;
+  private volatile int candidatePairs;
+  private volatile int particleSystems;
+
+  public TickProfiler(){
+    current = new LatencyHistogram[PHASES.length];
+    published = new LatencyHistogram[PHASES.length];
+    for(int i=0;i<PHASES.length;i++){
+      current[i] = new LatencyHistogram();
+      published[i] = new LatencyHistogram();
+    }
+    currentTotal = new LatencyHistogram();
+    publishedTotal = new LatencyHistogram();
+
+    tick = new long[PHASES.length];
+    history = new float[HISTORY];
+    windowStart = -1;
+  }
+
+  public void begin(){
+    Arrays.fill(tick, 0);
+    event = new TickEvent();
+    event.begin();
+    mark = System.nanoTime();
+  }
+
+  //the time since the last mark (or begin) is accounted to p
+  public void mark(PHASE p){
+    long t = System.nanoTime();
+    tick[p.ordinal()] += t-mark;
+    mark = t;
+  }
+
+  //for phases that are interleaved and timed by the caller. Call skip() afterwards, so the next mark() doesn't count it twice
+  public void add(PHASE p, long ns){
+    tick[p.ordinal()] += ns;
+  }
+
+  public void skip(){
+    mark = System.nanoTime();
+  }
+
+  public void end(long now){
+    long sum = 0;
+    for(int i=0;i<tick.length;i++){
+      current[i].record(tick[i]);
+      sum += tick[i];
+    }
+    currentTotal.record(sum);
+
+    event.end();
+    if(event.shouldCommit()){
+      event.setPhases(tick);
+      event.entities = entities;
+      event.colliders = colliders;
+      event.candidatePairs = candidatePairs;
+      event.particleSystems = particleSystems;
+      event.commit();
+    }
+
+    int pos = historyPos;
+    history[pos] = sum/1000000f;
+    historyPos = (pos+1) % HISTORY;
+
+    if(windowStart < 0) windowStart = now;
+    if(now - windowStart >= WINDOW){
+      publish();
+      windowStart = now;
+    }
+  }
+
+  private synchronized void publish(){
+    for(int i=0;i<current.length;i++){
+      current[i].copyInto(published[i]);
+      current[i].reset();
+    }
+    currentTotal.copyInto(publishedTotal);
+    currentTotal.reset();
+    version++;
+  }
+
+  //copies the last published window into the given histograms, one per PHASE. Returns the window's version,
+  //which only changes when a new window is published
+  public synchronized int copyPublished(LatencyHistogram[] phases, LatencyHistogram total){
+    for(int i=0;i<published.length;i++){
+      published[i].copyInto(phases[i]);
+    }
+    publishedTotal.copyInto(total);
+    return version;
+  }
+
+  public int getVersion(){
+    return version;
+  }
+
+  //copies the cost of the last HISTORY ticks in ms into dst, oldest first
+  public void copyHistory(float[] dst){
+    int pos = historyPos;
+    for(int i=0;i<HISTORY;i++){
+      dst[i] = history[(pos+i) % HISTORY];
+    }
+  }
+
+  public void setCounts(int ent, int col, int pairs, int ps){
+    entities = ent;
+    colliders = col;
+    candidatePairs = pairs;
+    particleSystems = ps;
+  }
+
+  public int getEntities(){
+    return entities;
+  }
+
+  public int getColliders(){
+    return colliders;
+  }
+
+  public int getCandidatePairs(){
+    return candidatePairs;
+  }
+
+  public int getParticleSystems(){
+    return particleSystems;
+  }
+
+  public static PHASE[] getPhases(){
+    return PHASES.clone();
+  }
+}
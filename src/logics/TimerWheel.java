@@ -0,0 +1,175 @@
+package logics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Hierarchical timing wheel, driven by whatever clock the owner feeds into advance(). Used for anything that has
+ * to happen at a certain point in time, like components running out of lifetime, particle systems that stop
+ * emitting or delayed actions. Instead of asking every object each tick whether its time is up, objects register
+ * a Timer once and only timers that are actually due get touched when the wheel advances.
+ *
+ * Time is measured in ticks of a configurable resolution (in ms). The wheel consists of 4 levels of 64 slots each.
+ * Level 0 holds timers due within the next 64 ticks, level 1 within the next 64*64 ticks and so on. Whenever the
+ * lower level wraps around, the matching slot of the next higher level is cascaded down. Timers further away than
+ * the whole wheel can represent are parked in the highest level and re-sorted whenever they are cascaded.
+ *
+ * Each slot is an intrusive doubly linked list, so scheduling and cancelling are O(1). Actions are executed on the
+ * thread that calls advance(). The wheel itself is not synchronized, it is expected to be owned by one thread only.
+ *
+ */
+
+public class TimerWheel {
+
+  public static class Timer {
+    private Runnable action;
+    private long expiry;
+    private int level;
+    private int slot;
+
+    private Timer prev;
+    private Timer next;
+    private TimerWheel wheel;
+
+    private Timer(Runnable r){
+      action = r;
+    }
+
+    public boolean isPending(){
+      return wheel != null;
+    }
+
+    public void cancel(){
+      if(wheel != null) wheel.unlink(this);
+    }
+  }
+
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int SLOT_MASK = SLOTS-1;
+  private static final int LEVELS = 4;
+
+  private Timer[][] wheel;
+  private long resolution;
+  private long currentTick;
+  private int pending;
+
+  public TimerWheel(long res, long now){
+    if(res <= 0) throw new IllegalArgumentException("Resolution must be at least 1ms ("+res+" given)");
+
+    wheel = new Timer[LEVELS][SLOTS];
+    resolution = res;
+    currentTick = now / res;
+    pending = 0;
+  }
+
+  public Timer schedule(long when, Runnable action){
+    Timer t = new Timer(action);
+    //round up, a timer must never fire before its time
+    t.expiry = (when + resolution - 1) / resolution;
+    insert(t, currentTick+1);
+    return t;
+  }
+
+  public Timer scheduleDelay(long now, long delay, Runnable action){
+    return schedule(now + delay, action);
+  }
+
+  public void advance(long now){
+    long target = now / resolution;
+
+    if(pending == 0){
+      //nothing to do, skip the whole gap at once
+      if(target > currentTick) currentTick = target;
+      return;
+    }
+
+    while(currentTick < target){
+      currentTick++;
+      cascade();
+
+      int slot = (int)(currentTick & SLOT_MASK);
+      Timer t = wheel[0][slot];
+      //pop one by one, as actions may cancel or schedule other timers
+      while(t != null){
+        unlink(t);
+        t.action.run();
+        t = wheel[0][slot];
+      }
+
+      if(pending == 0 && target > currentTick) currentTick = target;
+    }
+  }
+
+  public int getPendingCount(){
+    return pending;
+  }
+
+  public void clear(){
+    for(int l=0; l<LEVELS; l++){
+      for(int s=0; s<SLOTS; s++){
+        Timer t = wheel[l][s];
+        while(t != null){
+          Timer n = t.next;
+          t.prev = t.next = null;
+          t.wheel = null;
+          t = n;
+        }
+        wheel[l][s] = null;
+      }
+    }
+    pending = 0;
+  }
+
+  private void cascade(){
+    //whenever a level wraps around, the next level's current slot gets distributed downwards
+    for(int l=1; l<LEVELS; l++){
+      if(((currentTick >> ((l-1)*SLOT_BITS)) & SLOT_MASK) != 0) return;
+
+      int slot = (int)((currentTick >> (l*SLOT_BITS)) & SLOT_MASK);
+      Timer t = wheel[l][slot];
+      while(t != null){
+        unlink(t);
+        insert(t, currentTick);
+        t = wheel[l][slot];
+      }
+    }
+  }
+
+  private void insert(Timer t, long earliest){
+    //already due timers fire with the next processed tick
+    long expiry = Math.max(t.expiry, earliest);
+    long delta = expiry - currentTick;
+
+    int level = 0;
+    while(level < LEVELS-1 && delta >= (1L << ((level+1)*SLOT_BITS))) level++;
+
+    int slot;
+    if(delta >= (1L << (LEVELS*SLOT_BITS))){
+      //out of range, park it in the last slot of the highest level
+      slot = (int)(((currentTick >> (level*SLOT_BITS)) + SLOT_MASK) & SLOT_MASK);
+    }else{
+      slot = (int)((expiry >> (level*SLOT_BITS)) & SLOT_MASK);
+    }
+
+    Timer head = wheel[level][slot];
+    t.level = level;
+    t.slot = slot;
+    t.prev = null;
+    t.next = head;
+    if(head != null) head.prev = t;
+    wheel[level][slot] = t;
+
+    t.wheel = this;
+    pending++;
+  }
+
+  private void unlink(Timer t){
+    if(t.prev != null) t.prev.next = t.next;
+    else               wheel[t.level][t.slot] = t.next;
+    if(t.next != null) t.next.prev = t.prev;
+
+    t.prev = t.next = null;
+    t.wheel = null;
+    pending--;
+  }
+}
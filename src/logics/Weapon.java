@@ -31,9 +31,11 @@ import components.ComponentContainer;
 import components.GraphicsComponent;
 import components.PhysicsComponent;
 import components.SpawnComponent;
+import components.StatefulComponent;
 import components.UpdateComponent;
+import util.RandomStreams;
 
-public class Weapon extends BasicComponent implements GraphicsComponent, SpawnComponent, UpdateComponent{
+public class Weapon extends BasicComponent implements GraphicsComponent, SpawnComponent, UpdateComponent, StatefulComponent{
 
   private UUID constructID;
   private PhysicsComponent core;
@@ -43,6 +45,8 @@ public class Weapon extends BasicComponent implements GraphicsComponent, SpawnCo
   private Random r;
   
   private boolean fireing;
+  //time of the world the player sees, on a hosted game. 0 for the present
+  private long viewTime;
   private float rate;
   private float cd;
   private float spread;
@@ -57,7 +61,7 @@ public class Weapon extends BasicComponent implements GraphicsComponent, SpawnCo
     projectilePattern = pp.copy();
     rate=r;
     spread = sp;
-    this.r = new Random();
+    this.r = RandomStreams.get("weapon");
     
     heat=0;
     cd=0;
@@ -67,6 +71,7 @@ public class Weapon extends BasicComponent implements GraphicsComponent, SpawnCo
     tags.add("spawns");
     tags.add("weapon");
     tags.add("update");
+    tags.add("stateful");
   }
   
   @Override
@@ -107,8 +112,9 @@ public class Weapon extends BasicComponent implements GraphicsComponent, SpawnCo
     imp.scale(1-core.getV_Friction());
     imp.scale(bCore.getMass());
     bCore.addMovement(imp);
+    if(viewTime > 0 && bCore instanceof PhysicsEntry) ((PhysicsEntry)bCore).setViewTime(viewTime);
     
-    Messenger.send(new Message(Message.M_TYPE.ENTITY_MGR, new ENT_Param(bullet, ENT.ADD)));
+    Messenger.send(Message.obtain(Message.M_TYPE.ENTITY_MGR, ENT_Param.obtain(bullet, ENT.ADD)));
     
   }
 
@@ -132,6 +138,48 @@ public class Weapon extends BasicComponent implements GraphicsComponent, SpawnCo
   public float getRotation() {
     return core.getRotation();
   }
+  
+  @Override
+  public Vector2f getRenderPosition(long now) {
+    return ((GraphicsComponent)core).getRenderPosition(now);
+  }
+  
+  @Override
+  public float getRenderRotation(long now) {
+    return ((GraphicsComponent)core).getRenderRotation(now);
+  }
+  
+  @Override
+  public void writeInstance(long now, float[] dst, int off) {
+    ((GraphicsComponent)core).writeInstance(now, dst, off);
+    dst[off+4] = 1+heat*0.5f;
+    dst[off+5] = 1+heat*0.5f;
+    dst[off+6] = 1+heat*0.5f;
+    dst[off+7] = 1;
+  }
+
+  //cooldown and heat. Whether it is firing belongs to the player's input, not the world
+  @Override
+  public int getStateSize() {
+    return 2;
+  }
+  
+  @Override
+  public void writeState(float[] dst, int off) {
+    dst[off] = cd;
+    dst[off+1] = heat;
+  }
+  
+  @Override
+  public void readState(float[] src, int off) {
+    cd = src[off];
+    heat = src[off+1];
+  }
+
+  //shots fired from now on are tested against the world at time t, see PhysicsManager.setLagCompensation()
+  public void setViewTime(long t){
+    viewTime = t;
+  }
 
   @Override
   public void switchOn() {
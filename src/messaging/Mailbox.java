@@ -0,0 +1,86 @@
+package messaging;
+
+/**
+ *
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Incoming message queue of a single consumer thread. Any thread may post messages into it, only the owning
+ * thread drains it. Messages are kept in a lock-free RingBuffer, so posting neither blocks nor allocates.
+ *
+ * Should the ring ever be full, messages spill over into an unbounded overflow queue, so nothing gets lost.
+ * While the overflow queue holds messages, new messages are appended to it as well, keeping the delivery order
+ * intact (except for producers racing with the very moment the ring fills up).
+ *
+ * drain() only delivers messages that were present when it was called. Messages posted during delivery are
+ * delivered with the next call, the same as the Messenger always did it once per frame.
+ *
+ * Posting a message hands one reference over to the mailbox. It is passed on to the handler in drain(),
+ * while clear() releases the references of all dropped messages.
+ *
+ */
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.RingBuffer;
+import util.SimpleLogger;
+
+public class Mailbox {
+
+  private RingBuffer<Message> ring;
+  private ConcurrentLinkedQueue<Message> overflow;
+  private AtomicInteger overflowCount;
+
+  public Mailbox(int capacity){
+    ring = new RingBuffer<>(capacity);
+    overflow = new ConcurrentLinkedQueue<>();
+    overflowCount = new AtomicInteger(0);
+  }
+
+  public void post(Message m){
+    if(overflowCount.get() > 0 || !ring.offer(m)){
+      if(overflowCount.getAndIncrement() == 0){
+        SimpleLogger.log(0, Mailbox.class, "post", "Mailbox full ({}), spilling into overflow queue", ring.capacity());
+      }
+      overflow.add(m);
+    }
+  }
+
+  public int drain(Handler h){
+    int delivered = 0;
+
+    int n = ring.size();
+    for(int i=0;i<n;i++){
+      Message m = ring.poll();
+      if(m == null) break;
+      h.handleMessage(m);
+      delivered++;
+    }
+
+    n = overflowCount.get();
+    for(int i=0;i<n;i++){
+      Message m = overflow.poll();
+      if(m == null) break;
+      overflowCount.decrementAndGet();
+      h.handleMessage(m);
+      delivered++;
+    }
+
+    return delivered;
+  }
+
+  public int size(){
+    return ring.size() + overflowCount.get();
+  }
+
+  public void clear(){
+    Message m;
+    while((m = ring.poll()) != null){
+      m.release();
+    }
+    while((m = overflow.poll()) != null){
+      m.release();
+    }
+    overflowCount.set(0);
+  }
+}
@@ -1,7 +1,16 @@
 package messaging;
 
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import particles.ParticleSettings;
+import snapshot.WorldSnapshot;
+import util.Ref;
+import util.RingBuffer;
+import util.SimpleLogger;
 import components.Component;
 import components.ComponentContainer;
 
@@ -10,22 +19,46 @@ import components.ComponentContainer;
  * @author David-Peter Desh, Dominik Lisowski
  *
  * Messages consist of at least a type. This type then dictates the class
- * of which the parameter (if present) is. Each Handler has to make sure
- * as to know how to cast the parameter Object depending on the message type.
- * Some message Type have dedicated parameter classes, some don't, if it isn't
- * necessary.
+ * of which the parameter (if present) is. Some message Type have dedicated
+ * parameter classes, some don't, if it isn't necessary.
+ *
+ * Each M_TYPE knows the class of its parameter. It is checked when the message
+ * is created, so a wrongly typed parameter is reported by the sender instead of
+ * causing a ClassCastException in some handler. Handlers retrieve the parameter
+ * with getParam(Class), which returns it already typed.
+ *
+ * Frequently sent messages should be leased with obtain() instead of being created with new. Leased
+ * messages are reference counted: the sender hands its reference over with Messenger.send(), the
+ * Messenger releases it after every subscriber has been called. A subscriber keeping the message past
+ * handleMessage() has to retain() it and release() it when done. Once the count drops to 0, the message
+ * (and a pooled ENT_Param it carries) goes back into its pool. Messages created with new are not
+ * counted at all, so they can be kept and sent again, like the ones stored in GuiButtons.
+ *
+ * With Ref.DEBUG_POOLS enabled, every lease remembers where it happened. Messages still leased after
+ * some time are reported as leaks and using a message after its release throws an exception.
  *
  */
 
 public class Message {
   public enum M_TYPE{
-    CHANGE_STATE,
-    RAW_INPT,
-    CONTROL_CMD,
-    ENTITY_MGR,
-    ENTITY_UPD,
-    PARTICLE_CRT,
-    CONTROL_CHANGE
+    CHANGE_STATE(STATE.class),
+    RAW_INPT(RW_IPT_Param.class),
+    CONTROL_CMD(CCMD_Param.class),
+    ENTITY_MGR(ENT_Param.class),
+    ENTITY_UPD(UPD_Param.class),
+    PARTICLE_CRT(ParticleSettings.class),
+    CONTROL_CHANGE(CC.class),
+    WORLD_SNAPSHOT(WorldSnapshot.class);
+    
+    private final Class<?> paramType;
+    
+    private M_TYPE(Class<?> pt){
+      paramType = pt;
+    }
+    
+    public Class<?> getParamType(){
+      return paramType;
+    }
   }
   
   public enum STATE{
@@ -86,13 +119,44 @@ public class Message {
   }
   
   public static class ENT_Param{
+    private static RingBuffer<ENT_Param> pool = new RingBuffer<>(POOL_SIZE);
+    private static AtomicLong obtained = new AtomicLong();
+    private static AtomicLong created = new AtomicLong();
+    
     public ENT mode;
     public ComponentContainer cc;
+    private boolean pooled;
     
     public ENT_Param(ComponentContainer cc, ENT m){
       this.cc = cc;
       mode=m;
     }
+    
+    public static ENT_Param obtain(ComponentContainer cc, ENT m){
+      ENT_Param ep = pool.poll();
+      obtained.incrementAndGet();
+      if(ep == null){
+        created.incrementAndGet();
+        ep = new ENT_Param(cc, m);
+        ep.pooled = true;
+      }else{
+        ep.cc = cc;
+        ep.mode = m;
+      }
+      return ep;
+    }
+    
+    //share of obtain() calls served from the pool
+    public static double getPoolHitRate(){
+      return hitRate(obtained.get(), created.get());
+    }
+    
+    private void recycle(){
+      if(!pooled) return;
+      cc = null;
+      mode = null;
+      pool.offer(this);
+    }
   }
   
   public static class RW_IPT_Param{
@@ -117,8 +181,26 @@ public class Message {
     }
   }
 
+  private static final int POOL_SIZE = 4096;
+  private static RingBuffer<Message> pool = new RingBuffer<>(POOL_SIZE);
+  private static AtomicLong obtained = new AtomicLong();
+  private static AtomicLong created = new AtomicLong();
+  private static ConcurrentHashMap<Message, Lease> leases = new ConcurrentHashMap<>();
+  
+  private static class Lease extends Throwable{
+    private static final long serialVersionUID = 1L;
+    private long time;
+    
+    private Lease(M_TYPE m){
+      super("Message of type "+m+" leased here");
+      time = System.currentTimeMillis();
+    }
+  }
+
   private M_TYPE msgType;
   private Object params;
+  private boolean pooled;
+  private AtomicInteger refs;
   
   public Message(M_TYPE m){
     msgType=m;
@@ -126,7 +208,68 @@ public class Message {
   
   public Message(M_TYPE m, Object o){
     msgType = m;
-    params = o;
+    setParams(o);
+  }
+  
+  public static Message obtain(M_TYPE m, Object o){
+    Message msg = pool.poll();
+    obtained.incrementAndGet();
+    if(msg == null){
+      created.incrementAndGet();
+      msg = new Message(m);
+      msg.pooled = true;
+      msg.refs = new AtomicInteger(0);
+    }
+    msg.msgType = m;
+    msg.setParams(o);
+    msg.refs.set(1);
+    
+    if(Ref.DEBUG_POOLS) leases.put(msg, new Lease(m));
+    return msg;
+  }
+  
+  public Message retain(){
+    if(pooled && refs.getAndIncrement() <= 0){
+      throw new IllegalStateException("Message of type "+msgType+" retained after its release");
+    }
+    return this;
+  }
+  
+  public void release(){
+    if(!pooled) return;
+    
+    int r = refs.decrementAndGet();
+    if(r == 0){
+      if(params instanceof ENT_Param) ((ENT_Param)params).recycle();
+      params = null;
+      if(Ref.DEBUG_POOLS) leases.remove(this);
+      pool.offer(this);
+    }else if(r < 0){
+      throw new IllegalStateException("Message of type "+msgType+" released more often than retained");
+    }
+  }
+  
+  //share of obtain() calls served from the pool
+  public static double getPoolHitRate(){
+    return hitRate(obtained.get(), created.get());
+  }
+  
+  private static double hitRate(long leases, long misses){
+    if(leases == 0) return 1;
+    return (leases-misses)/(double)leases;
+  }
+  
+  public static int reportLeaks(long maxAge){
+    int count = 0;
+    long now = System.currentTimeMillis();
+    for(Entry<Message, Lease> e : leases.entrySet()){
+      Lease l = e.getValue();
+      if(now - l.time > maxAge){
+        SimpleLogger.log("Possible leak: "+l.getMessage()+" "+(now-l.time)+"ms ago, still referenced "+e.getKey().refs.get()+" time(s) at "+l.getStackTrace()[1], -1, Message.class, "reportLeaks");
+        count++;
+      }
+    }
+    return count;
   }
   
   public M_TYPE getMsgType(){
@@ -134,14 +277,30 @@ public class Message {
   }
   
   public Object getParam(){
+    checkAlive();
     return params;
   }
   
+  public <T> T getParam(Class<T> type){
+    checkAlive();
+    if(type != msgType.paramType) throw new IllegalArgumentException("Message of type "+msgType+" carries "+msgType.paramType.getSimpleName()+", not "+type.getSimpleName());
+    return type.cast(params);
+  }
+  
   public void setParams(Object o){
+    if(o != null && !msgType.paramType.isInstance(o)){
+      throw new IllegalArgumentException("Message of type "+msgType+" expects "+msgType.paramType.getSimpleName()+", got "+o.getClass().getSimpleName());
+    }
     params = o;
   }
   
   public Message copy(){
     return new Message(msgType, params);
   }
+  
+  private void checkAlive(){
+    if(Ref.DEBUG_POOLS && pooled && refs.get() <= 0){
+      throw new IllegalStateException("Message of type "+msgType+" used after its release");
+    }
+  }
 }
@@ -14,28 +14,64 @@ package messaging;
  * message will receive it.
  *
  * Delivering of messages happens once per frame, when the update() method is called from the
- * main loop in AppWindow. Special out-of-order delivery between frames can also be forced, but
- * should be used wisely
+ * game thread of the AppWindow, so the handlers run there (not on the main thread, which renders).
+ * Special out-of-order delivery between frames can also be forced, but should be used wisely
+ *
+ * As messages are sent from the game thread, the render thread's input polling, the physics Worker
+ * and delayed actions alike, sending is thread safe: messages are posted into a lock-free Mailbox,
+ * drained by the game thread only.
+ * The subscribers of each message type are kept in an array that is copied whenever a handler
+ * subscribes or unsubscribes, so delivering a message is a plain iteration over a snapshot,
+ * without any locking or allocation.
+ *
+ * Sending a message hands the sender's reference over to the Messenger. It is released once every
+ * subscriber has been called, see Message for details on leased messages.
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import metrics.Metric;
+import metrics.MetricsRegistry;
+import util.Ref;
 import util.SimpleLogger;
 
 public class Messenger {
 
-  private static HashMap<Message.M_TYPE,LinkedList<Handler>> handleMap = new HashMap<>();
-  private static LinkedList<Message> mQueue = new LinkedList<>();
+  private static final int QUEUE_SIZE = 16384;
+  private static final long LEAK_CHECK_INTERVAL = 5000;
+  private static final long LEAK_AGE = 2000;
 
+  private static AtomicReferenceArray<Handler[]> handlers = createHandlerArray();
+  private static Mailbox mQueue = new Mailbox(QUEUE_SIZE);
+  private static long lastLeakCheck = System.currentTimeMillis();
+  private static volatile long dispatched = 0;
+
+  private static Handler dispatcher = new Handler(){
+    @Override
+    public void handleMessage(Message m) {
+      fire(m);
+      m.release();
+    }
+  };
 
-  public static void subscribe(Handler h, Message.M_TYPE msgT){
-    if(!handleMap.containsKey(msgT)){
-      handleMap.put(msgT, new LinkedList<>());
+  private static AtomicReferenceArray<Handler[]> createHandlerArray(){
+    Message.M_TYPE[] types = Message.M_TYPE.values();
+    AtomicReferenceArray<Handler[]> arr = new AtomicReferenceArray<>(types.length);
+    for(int i=0;i<types.length;i++){
+      arr.set(i, new Handler[0]);
     }
-    handleMap.get(msgT).add(h);
+    return arr;
+  }
+
+  public static synchronized void subscribe(Handler h, Message.M_TYPE msgT){
+    Handler[] old = handlers.get(msgT.ordinal());
+    Handler[] neww = new Handler[old.length+1];
+    System.arraycopy(old, 0, neww, 0, old.length);
+    neww[old.length] = h;
+    handlers.set(msgT.ordinal(), neww);
   }
 
   public static void subscribe(Handler h, Collection<Message.M_TYPE> msgT){
@@ -44,41 +80,83 @@ public class Messenger {
     }
   }
 
-  public static void unsubscribe(Handler h, Message.M_TYPE msgT){
-    if(handleMap.containsKey(msgT)){
-      handleMap.get(msgT).remove(h);
+  public static synchronized void unsubscribe(Handler h, Message.M_TYPE msgT){
+    Handler[] old = handlers.get(msgT.ordinal());
+    int count = 0;
+    for(Handler o : old){
+      if(o != h) count++;
     }
+    if(count == old.length) return;
+
+    Handler[] neww = new Handler[count];
+    int idx = 0;
+    for(Handler o : old){
+      if(o != h) neww[idx++] = o;
+    }
+    handlers.set(msgT.ordinal(), neww);
   }
 
   public static void unsubscribe(Handler h){
-    SimpleLogger.log("Handler "+h+" unsubscribed completly", 0, Messenger.class, "unsubscribe");
-    for(Message.M_TYPE msgT : handleMap.keySet()){
-      handleMap.get(msgT).remove(h);
+    SimpleLogger.log(0, Messenger.class, "unsubscribe", "Handler {} unsubscribed completly", h);
+    for(Message.M_TYPE msgT : Message.M_TYPE.values()){
+      unsubscribe(h, msgT);
     }
   }
 
-  @SuppressWarnings("unchecked")
   public static void fire(Message m){
-    if(handleMap.containsKey(m.getMsgType())){
-      LinkedList<Handler> localCopy = (LinkedList<Handler>)handleMap.get(m.getMsgType()).clone();
+    Handler[] localCopy = handlers.get(m.getMsgType().ordinal());
+    if(localCopy.length > 0){
       for(Handler h : localCopy){
         h.handleMessage(m);
       }
     }else{
-      SimpleLogger.log("Note: Message of type "+m.getMsgType()+" is requested by no-one!", 1, Messenger.class, "fire");
+      SimpleLogger.log(1, Messenger.class, "fire", "Note: Message of type {} is requested by no-one!", m.getMsgType());
     }
   }
 
   public static void send(Message m){
-    mQueue.add(m);
+    mQueue.post(m);
   }
 
-  @SuppressWarnings("unchecked")
   public static void update(){
-    LinkedList<Message> workList = (LinkedList<Message>)mQueue.clone();
-    mQueue.clear();
-    for(Message m : workList){
-      fire(m);
+    dispatched += mQueue.drain(dispatcher);
+    
+    if(Ref.DEBUG_POOLS){
+      long now = System.currentTimeMillis();
+      if(now - lastLeakCheck > LEAK_CHECK_INTERVAL){
+        lastLeakCheck = now;
+        Message.reportLeaks(LEAK_AGE);
+      }
     }
   }
+
+  public static int getQueueSize(){
+    return mQueue.size();
+  }
+  
+  public static long getDispatched(){
+    return dispatched;
+  }
+  
+  public static Collection<Metric> registerMetrics(){
+    ArrayList<Metric> ml = new ArrayList<>();
+    ml.add(Metric.gauge("asteroids_messenger_queue_depth", "Messages waiting for the next update", new Metric.Source(){
+      @Override
+      public double read() { return getQueueSize(); }
+    }));
+    ml.add(Metric.counter("asteroids_messenger_dispatched_total", "Messages delivered to their subscribers", new Metric.Source(){
+      @Override
+      public double read() { return dispatched; }
+    }));
+    ml.add(Metric.gauge("asteroids_message_pool_hit_ratio", "Share of leased messages taken from the pool", new Metric.Source(){
+      @Override
+      public double read() { return Message.getPoolHitRate(); }
+    }));
+    ml.add(Metric.gauge("asteroids_ent_param_pool_hit_ratio", "Share of leased ENT_Params taken from the pool", new Metric.Source(){
+      @Override
+      public double read() { return Message.ENT_Param.getPoolHitRate(); }
+    }));
+    MetricsRegistry.register(ml);
+    return ml;
+  }
 }
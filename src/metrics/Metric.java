@@ -0,0 +1,67 @@
+package metrics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * A single named value, read whenever the metrics are collected. Metrics don't store anything themselves: the
+ * Source is asked for the current value, so the measured classes only need a getter that is safe to call from
+ * another thread (usually a volatile field or an atomic), and nothing is done while nobody is watching.
+ *
+ * Gauges go up and down (entity counts, queue depths), counters only ever grow (messages dispatched). Names must be
+ * valid Prometheus metric names, e.g. asteroids_physics_tps.
+ *
+ */
+
+import java.util.regex.Pattern;
+
+public class Metric {
+
+  public enum TYPE{
+    GAUGE,
+    COUNTER
+  }
+
+  public interface Source{
+    public double read();
+  }
+
+  private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+  private String name;
+  private String help;
+  private TYPE type;
+  private Source source;
+
+  public Metric(String name, String help, TYPE type, Source source){
+    if(!NAME.matcher(name).matches()) throw new IllegalArgumentException("Invalid metric name: "+name);
+    if(source == null) throw new IllegalArgumentException("Metric "+name+" needs a source");
+    this.name = name;
+    this.help = help;
+    this.type = type;
+    this.source = source;
+  }
+
+  public static Metric gauge(String name, String help, Source source){
+    return new Metric(name, help, TYPE.GAUGE, source);
+  }
+
+  public static Metric counter(String name, String help, Source source){
+    return new Metric(name, help, TYPE.COUNTER, source);
+  }
+
+  public String getName(){
+    return name;
+  }
+
+  public String getHelp(){
+    return help;
+  }
+
+  public TYPE getType(){
+    return type;
+  }
+
+  public double read(){
+    return source.read();
+  }
+}
@@ -0,0 +1,94 @@
+package metrics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Shows the MetricsRegistry in JMX tools like jconsole or VisualVM. Metrics come and go while the game runs, so
+ * this is a DynamicMBean: every metric is a read-only attribute of type double, and the attribute list is built
+ * from the registry each time it is asked for.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import util.SimpleLogger;
+
+public class MetricsMBean implements DynamicMBean{
+
+  public static final String NAME = "asteroids:type=Metrics";
+
+  public static void register(){
+    try {
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName on = new ObjectName(NAME);
+      if(!mbs.isRegistered(on)) mbs.registerMBean(new MetricsMBean(), on);
+    } catch (JMException e) {
+      SimpleLogger.log("Couldn't register metrics MBean: "+e.getMessage(), -1, MetricsMBean.class, "register");
+    }
+  }
+
+  public static void unregister(){
+    try {
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName on = new ObjectName(NAME);
+      if(mbs.isRegistered(on)) mbs.unregisterMBean(on);
+    } catch (JMException e) {
+      SimpleLogger.log("Couldn't unregister metrics MBean: "+e.getMessage(), -1, MetricsMBean.class, "unregister");
+    }
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Metric m = MetricsRegistry.get(attribute);
+    if(m == null) throw new AttributeNotFoundException("No metric named "+attribute);
+    return Double.valueOf(m.read());
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList al = new AttributeList();
+    for(String a : attributes){
+      Metric m = MetricsRegistry.get(a);
+      if(m != null) al.add(new Attribute(a, Double.valueOf(m.read())));
+    }
+    return al;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only");
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations");
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    ArrayList<MBeanAttributeInfo> ai = new ArrayList<>();
+    for(Metric m : MetricsRegistry.getMetrics()){
+      ai.add(new MBeanAttributeInfo(m.getName(), "double", m.getHelp()+" ("+m.getType().name().toLowerCase(Locale.ROOT)+")", true, false, false));
+    }
+    return new MBeanInfo(MetricsMBean.class.getName(), "Asteroids engine metrics",
+        ai.toArray(new MBeanAttributeInfo[ai.size()]), null, null, null);
+  }
+}
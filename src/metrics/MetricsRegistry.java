@@ -0,0 +1,110 @@
+package metrics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Collects the engine's metrics, so they can be watched from outside during long sessions. Classes register their
+ * metrics when they come to life and unregister them when they are done, e.g. the PhysicsManager on start() and
+ * stop(), so only metrics of running parts are listed.
+ *
+ * export() publishes the registry as the JMX MBean "asteroids:type=Metrics" and, if a port is given with
+ * -Dasteroids.metrics.port, as Prometheus text on http://localhost:port/metrics. Both read the metrics on request,
+ * from their own threads.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import util.Ref;
+import util.SimpleLogger;
+
+public class MetricsRegistry {
+
+  private static ConcurrentSkipListMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+  private static MetricsServer server;
+
+  public static void register(Metric m){
+    if(metrics.put(m.getName(), m) != null){
+      SimpleLogger.log("Metric "+m.getName()+" registered twice, replaced the old one", 0, MetricsRegistry.class, "register");
+    }
+  }
+
+  public static void register(Collection<Metric> ml){
+    for(Metric m : ml){
+      register(m);
+    }
+  }
+
+  //only removes the given metric, not one registered later under the same name
+  public static void unregister(Metric m){
+    metrics.remove(m.getName(), m);
+  }
+
+  public static void unregister(Collection<Metric> ml){
+    for(Metric m : ml){
+      unregister(m);
+    }
+  }
+
+  public static Metric get(String name){
+    return metrics.get(name);
+  }
+
+  public static Collection<Metric> getMetrics(){
+    return metrics.values();
+  }
+
+  public static void export(){
+    MetricsMBean.register();
+
+    if(Ref.METRICS_PORT > 0 && server == null){
+      try {
+        server = new MetricsServer(Ref.METRICS_PORT);
+        SimpleLogger.log("Metrics served on http://localhost:"+Ref.METRICS_PORT+"/metrics", 0, MetricsRegistry.class, "export");
+      } catch (IOException e) {
+        SimpleLogger.log("Couldn't start metrics endpoint on port "+Ref.METRICS_PORT+": "+e.getMessage(), -1, MetricsRegistry.class, "export");
+      }
+    }
+  }
+
+  public static void shutdown(){
+    if(server != null){
+      server.stop();
+      server = null;
+    }
+    MetricsMBean.unregister();
+  }
+
+  //Prometheus text exposition format 0.0.4
+  public static String toPrometheus(){
+    StringBuilder sb = new StringBuilder();
+    for(Metric m : metrics.values()){
+      double v;
+      try{
+        v = m.read();
+      }catch(RuntimeException e){
+        //a broken metric must not take the others down
+        SimpleLogger.log("Reading metric "+m.getName()+" failed: "+e, 0, MetricsRegistry.class, "toPrometheus");
+        continue;
+      }
+      sb.append("# HELP ").append(m.getName()).append(' ').append(escape(m.getHelp())).append('\n');
+      sb.append("# TYPE ").append(m.getName()).append(' ').append(m.getType().name().toLowerCase(Locale.ROOT)).append('\n');
+      sb.append(m.getName()).append(' ').append(format(v)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static String escape(String help){
+    return help.replace("\\", "\\\\").replace("\n", "\\n");
+  }
+
+  private static String format(double v){
+    if(Double.isNaN(v)) return "NaN";
+    if(Double.isInfinite(v)) return v > 0 ? "+Inf" : "-Inf";
+    if(v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long)v);
+    return Double.toString(v);
+  }
+}
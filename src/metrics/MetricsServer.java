@@ -0,0 +1,68 @@
+package metrics;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Serves the MetricsRegistry in Prometheus' text format on /metrics, using the http server that comes with the jdk.
+ * It only listens on the loopback interface, and runs on a single daemon thread, so a scraper can't slow the game
+ * down by more than one core and a forgotten server doesn't keep the application alive.
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class MetricsServer {
+
+  private HttpServer server;
+  private ExecutorService executor;
+
+  public MetricsServer(int port) throws IOException{
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/metrics", new HttpHandler(){
+      @Override
+      public void handle(HttpExchange ex) throws IOException {
+        try{
+          if(!ex.getRequestMethod().equals("GET")){
+            ex.sendResponseHeaders(405, -1);
+            return;
+          }
+          byte[] body = MetricsRegistry.toPrometheus().getBytes(StandardCharsets.UTF_8);
+          ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+          ex.sendResponseHeaders(200, body.length);
+          try (OutputStream os = ex.getResponseBody();){
+            os.write(body);
+          }
+        }finally{
+          ex.close();
+        }
+      }
+    });
+
+    executor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "MetricsServer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public void stop(){
+    server.stop(0);
+    executor.shutdown();
+  }
+}
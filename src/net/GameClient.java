@@ -0,0 +1,393 @@
+package net;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * The client side of an online game, used by the Game in place of the PhysicsManager. Every frame it reads the
+ * STATE packets that arrived, sends the buttons held once per tick, and turns the snapshots into containers for the
+ * Game to render, copied from the patterns named in them. Nothing is simulated here but the player's own ship.
+ *
+ * Everything else is interpolated: each entity publishes its state at the server time of the snapshot, and the
+ * Game renders one send interval behind the estimated server time, so there is always a snapshot ahead to move
+ * towards. The estimate is the offset between server and local clock seen on arrival, smoothed, which includes
+ * half the round trip.
+ *
+ * The own ship is predicted: each tick, its engine and physics run with the buttons held, as the server will do
+ * once the input arrives. When a snapshot comes in, the ship is put where the server had it, and the inputs the
+ * server hadn't applied yet are run again on top. Collisions and weapons are left to the server, so hits show up a
+ * round trip late, and particle effects aren't sent at all.
+ *
+ * Used from the game thread of the AppWindow only, never from the render thread.
+ *
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.lwjgl.util.vector.Vector2f;
+
+import snapshot.WorldSnapshot;
+import components.Component;
+import components.ComponentContainer;
+import components.MotorComponent;
+import components.UpdateComponent;
+import logics.PhysicsEntry;
+import logics.PlayerController;
+import messaging.Handler;
+import messaging.Message;
+import messaging.Message.CCMD_Param;
+import messaging.Message.ENT;
+import messaging.Message.ENT_Param;
+import messaging.Message.M_TYPE;
+import messaging.Messenger;
+import util.Ref;
+import util.SimpleLogger;
+
+public class GameClient implements Handler{
+
+  private static final long HELLO_INTERVAL = 250;
+  private static final long CONNECT_TIMEOUT = 5000;
+  //ticks of input kept for predicting the own ship again
+  private static final int INPUT_HISTORY = 128;
+  private static final long INTERVAL = Ref.NET_SEND_TICKS*Ref.PHYS_T_STEP;
+
+  private static class Entity{
+    private ComponentContainer cc;
+    private PhysicsEntry core;
+    private long seen;
+  }
+
+  private DatagramChannel channel;
+  private String server;
+  private int number;
+  private ByteBuffer in;
+  private ByteBuffer out;
+  private StateReceiver receiver;
+  private boolean closed;
+  private long lastHeard;
+
+  private Map<String, ComponentContainer> patterns;
+  private HashMap<Integer, Entity> entities;
+  private int stage;
+  private int score;
+
+  //server time = local time + offset
+  private long offset;
+  private boolean synced;
+
+  //the own ship, and the buttons of the last INPUT_HISTORY ticks
+  private int shipHandle;
+  private Entity ship;
+  private ArrayList<Component> motors;
+  private byte buttons;
+  private byte[] inputs;
+  private int seq;
+  private long accumulator;
+  private long lastUpdate;
+
+  private GameClient(String address) throws IOException{
+    int colon = address.lastIndexOf(':');
+    String host = colon < 0 ? address : address.substring(0, colon);
+    int port = Ref.NET_PORT;
+    if(colon >= 0){
+      try {
+        port = Integer.parseInt(address.substring(colon+1));
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid port in "+address);
+      }
+    }
+
+    server = address;
+    channel = DatagramChannel.open();
+    channel.configureBlocking(false);
+    channel.connect(new InetSocketAddress(host, port));
+
+    in = ByteBuffer.allocateDirect(NetProtocol.MAX_PACKET);
+    out = ByteBuffer.allocateDirect(64);
+    receiver = new StateReceiver();
+    inputs = new byte[INPUT_HISTORY];
+    shipHandle = -1;
+  }
+
+  //joins the server at host:port, waiting for its answer for a few seconds
+  public static GameClient connect(String address) throws IOException{
+    GameClient c = new GameClient(address);
+    try {
+      c.handshake();
+    } catch (IOException e) {
+      c.channel.close();
+      throw e;
+    }
+    return c;
+  }
+
+  private void handshake() throws IOException{
+    long start = System.currentTimeMillis();
+    long lastHello = 0;
+
+    while(System.currentTimeMillis()-start < CONNECT_TIMEOUT){
+      long now = System.currentTimeMillis();
+      if(now-lastHello >= HELLO_INTERVAL){
+        lastHello = now;
+        out.clear();
+        NetProtocol.putHello(out);
+        out.flip();
+        channel.write(out);
+      }
+
+      in.clear();
+      if(channel.read(in) > 0){
+        in.flip();
+        byte type = in.get();
+        if(type == NetProtocol.WELCOME){
+          number = in.getInt();
+          SimpleLogger.log(0, GameClient.class, "handshake", "Joined {} as player {}", server, number);
+          return;
+        }
+        if(type == NetProtocol.BYE) throw new IOException(server+" is full");
+      }
+
+      try {
+        Thread.sleep(Ref.PHYS_T_STEP);
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while joining "+server);
+      }
+    }
+    throw new IOException("No answer from "+server);
+  }
+
+  //called once the Game's patterns exist
+  public void start(Map<String, ComponentContainer> p){
+    patterns = p;
+    entities = new HashMap<>();
+    lastUpdate = System.currentTimeMillis();
+    lastHeard = lastUpdate;
+    Messenger.subscribe(this, M_TYPE.CONTROL_CMD);
+  }
+
+  @Override
+  public void handleMessage(Message m) {
+    //the local player's commands, as sent by the InputHandler
+    CCMD_Param cp = m.getParam(CCMD_Param.class);
+    if(cp.receiver != 0) return;
+    int bit = NetProtocol.bit(cp.cmd);
+    if(cp.pressed) buttons |= bit;
+    else buttons &= ~bit;
+  }
+
+  /**
+   * Applies the snapshots that arrived, sends the input of the ticks due and predicts the own ship through them.
+   * Returns the time to render at.
+   */
+  public long update(long wall){
+    receive(wall);
+
+    accumulator = Math.min(accumulator + wall - lastUpdate, Ref.PHYS_T_STEP*10);
+    lastUpdate = wall;
+    while(accumulator >= Ref.PHYS_T_STEP){
+      accumulator -= Ref.PHYS_T_STEP;
+      seq++;
+      inputs[seq % INPUT_HISTORY] = buttons;
+      sendInput();
+
+      if(ship != null){
+        predict(buttons);
+        //one tick ahead of the render time, so the ship is interpolated like the Worker's entities
+        ship.core.publish(wall - accumulator + offset - INTERVAL + Ref.PHYS_T_STEP);
+      }
+    }
+
+    if(!closed && wall-lastHeard > Ref.NET_TIMEOUT){
+      SimpleLogger.log(-1, GameClient.class, "update", "Lost the connection to {}", server);
+      leave();
+    }
+
+    //getAlpha() renders a tick behind the given time already
+    return wall + offset - INTERVAL + Ref.PHYS_T_STEP;
+  }
+
+  private void receive(long wall){
+    while(!closed){
+      in.clear();
+      try {
+        if(channel.read(in) <= 0) return;
+      } catch (IOException e) {
+        //e.g. the server isn't up (anymore), the timeout takes care of that
+        SimpleLogger.log(1, GameClient.class, "receive", "Receiving failed: {}", e.getMessage());
+        return;
+      }
+      in.flip();
+
+      try {
+        byte type = in.get();
+        if(type == NetProtocol.STATE){
+          int acked = in.getInt();
+          int handle = in.getInt();
+          WorldSnapshot s = receiver.receive(in);
+          lastHeard = wall;
+          if(s != null) apply(s, acked, handle, wall);
+        }else if(type == NetProtocol.BYE){
+          SimpleLogger.log(0, GameClient.class, "receive", "{} closed the game", server);
+          leave();
+        }
+      } catch (IllegalArgumentException | BufferUnderflowException e) {
+        SimpleLogger.log(-1, GameClient.class, "receive", "Broken packet from {}: {}", server, e.getMessage());
+      }
+    }
+  }
+
+  private void apply(WorldSnapshot s, int acked, int handle, long wall){
+    score = s.getScore();
+
+    long sample = s.getTime()-wall;
+    if(!synced) offset = sample;
+    else offset += (sample-offset)/8;
+    synced = true;
+
+    //the ships look different after an upgrade, they are built anew from the upgraded pattern
+    if(s.getUpgradeStage() != stage){
+      stage = s.getUpgradeStage();
+      Iterator<Entity> it = entities.values().iterator();
+      while(it.hasNext()){
+        Entity e = it.next();
+        if(e.cc.getComponents("player0").isEmpty()) continue;
+        remove(e);
+        it.remove();
+      }
+    }
+
+    if(handle != shipHandle){
+      shipHandle = handle;
+      ship = null;
+    }
+
+    for(int i=0;i<s.size();i++){
+      int h = s.getHandle(i);
+      Entity e = entities.get(h);
+      if(e == null){
+        e = create(s.getPattern(i), h == shipHandle);
+        if(e == null) continue;
+        entities.put(h, e);
+        s.apply(i, e.cc, 0);
+        Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(e.cc, ENT.ADD)));
+      }else{
+        s.apply(i, e.cc, 0);
+      }
+      e.seen = s.getTime();
+
+      if(h == shipHandle){
+        if(ship == null){
+          ship = e;
+          motors = new ArrayList<>(e.cc.getComponents("motor"));
+          e.core.publish(wall + offset - INTERVAL + Ref.PHYS_T_STEP);
+        }
+        //what the server hasn't seen yet is predicted again on top of its state
+        for(int k=Math.max(acked+1, seq-INPUT_HISTORY+1);k<=seq;k++){
+          predict(inputs[k % INPUT_HISTORY]);
+        }
+      }else{
+        e.core.publish(s.getTime());
+      }
+    }
+
+    Iterator<Entity> it = entities.values().iterator();
+    while(it.hasNext()){
+      Entity e = it.next();
+      if(e.seen == s.getTime()) continue;
+      if(e == ship) ship = null;
+      remove(e);
+      it.remove();
+    }
+  }
+
+  private Entity create(String pattern, boolean own){
+    if(pattern.equals("cc_player_ship") && stage > 0) pattern += stage;
+    ComponentContainer p = patterns.get(pattern);
+    if(p == null){
+      SimpleLogger.log(1, GameClient.class, "create", "Unknown pattern {}", pattern);
+      return null;
+    }
+
+    Entity e = new Entity();
+    e.cc = p.copy();
+    e.core = (PhysicsEntry)e.cc.getComponents("core").iterator().next();
+    //no controller reacts to the local input, the own ship is moved by predict()
+    for(Component c : e.cc.getComponents("player0")){
+      ((PlayerController)c).playerNumber = -1;
+    }
+    //only the own ship shows its health
+    if(!own){
+      for(Component c : e.cc.getComponents("status")){
+        e.cc.removeComponent(c);
+      }
+    }
+    return e;
+  }
+
+  private void remove(Entity e){
+    Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(e.cc, ENT.REMOVE)));
+  }
+
+  //one tick of the own ship, like the PhysicsManager runs it but without collisions
+  private void predict(byte b){
+    float dt = Ref.PHYS_T_STEP/1000f;
+    for(Component c : motors){
+      ((MotorComponent)c).movement(NetProtocol.movement(b));
+      ((MotorComponent)c).rotation(NetProtocol.rotation(b));
+      ((UpdateComponent)c).update(dt);
+    }
+    ship.core.update(dt);
+
+    Vector2f pos = ship.core.getPosition();
+    ship.core.setPosition(new Vector2f((pos.x+Ref.xRes) % Ref.xRes, (pos.y+Ref.yRes) % Ref.yRes));
+  }
+
+  private void sendInput(){
+    if(closed) return;
+    out.clear();
+    NetProtocol.putInput(out, seq, buttons, receiver.getLatestTime());
+    out.flip();
+    try {
+      channel.write(out);
+    } catch (IOException e) {
+      SimpleLogger.log(1, GameClient.class, "sendInput", "Sending failed: {}", e.getMessage());
+    }
+  }
+
+  private void leave(){
+    closed = true;
+    Messenger.send(new Message(M_TYPE.CHANGE_STATE, Message.STATE.GAME_OVER));
+  }
+
+  public int getScore(){
+    return score;
+  }
+
+  public int getPlayerNumber(){
+    return number;
+  }
+
+  //leaves the game, the Game strips the containers itself
+  public void close(){
+    Messenger.unsubscribe(this);
+    try {
+      if(!closed){
+        out.clear();
+        out.put(NetProtocol.BYE);
+        out.flip();
+        channel.write(out);
+      }
+      channel.close();
+    } catch (IOException e) {
+      SimpleLogger.log(1, GameClient.class, "close", "Leaving failed: {}", e.getMessage());
+    }
+    closed = true;
+  }
+}
@@ -0,0 +1,419 @@
+package net;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Hosts a game for several players over UDP, without a window:
+ *
+ *   java net.GameServer [port]
+ *
+ * Must be started from the project root, like the game. Players join with -Dasteroids.connect=host:port.
+ *
+ * The server is authoritative: the Game runs in lockstep on this thread, one tick every Ref.PHYS_T_STEP, with the
+ * rules and physics of a local game, and every player gets a ship of their own (see Game.host()). Before each tick,
+ * the packets that arrived are read: a HELLO joins a player, the INPUTs are turned into the CONTROL_CMDs for the
+ * player's ship, and the snapshot they acknowledge tells roughly which world the player sees, for the shots to be
+ * tested against (see PhysicsManager.setLagCompensation()). Every Ref.NET_SEND_TICKS ticks, the PhysicsManager
+ * takes a WorldSnapshot, which is sent to each client as delta against the last snapshot the client acknowledged,
+ * or in full if that one is too old. Particles aren't simulated at all: they are purely cosmetic, but collide like
+ * everything else, and would make up most of the tick and the bytes.
+ *
+ * The tick cost (reading packets, the tick, encoding and sending), the share of it spent on snapshots and the bytes
+ * sent to each client are reported every Ref.NET_REPORT ms, and exported as metrics.
+ *
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+
+import glGraphics.AppWindow;
+import glGraphics.glGraphics;
+import messaging.Handler;
+import messaging.Message;
+import messaging.Message.CCMD_Param;
+import messaging.Message.M_TYPE;
+import messaging.Messenger;
+import metrics.Metric;
+import metrics.MetricsRegistry;
+import snapshot.SnapshotCodec;
+import snapshot.WorldSnapshot;
+import states.Game;
+import util.LatencyHistogram;
+import util.Ref;
+import util.SimClock;
+import util.SimpleLogger;
+
+public class GameServer implements Handler{
+
+  private static class Peer{
+    private int number;
+    private SocketAddress address;
+    private long lastHeard;
+    private int seq = -1;
+    private byte buttons;
+    private long acked = -1;
+    //last input applied before the coming snapshot
+    private int snapshotSeq = -1;
+
+    //since the last report
+    private long bytes;
+    private int full;
+    private int delta;
+    private int tooBig;
+  }
+
+  private Game game;
+  private DatagramChannel channel;
+  private HashMap<SocketAddress, Peer> peers;
+  private ByteBuffer in;
+  private ByteBuffer out;
+  private volatile boolean running;
+
+  private WorldSnapshot[] history;
+  private int historyPos;
+
+  private LatencyHistogram tickCost;
+  private LatencyHistogram sendCost;
+  private volatile double lastTickCost;
+  private volatile int players;
+  private volatile long sent;
+  private volatile long received;
+  private Collection<Metric> metrics;
+
+  //game has to be activated and hosting already
+  public GameServer(Game game, int port) throws IOException{
+    this.game = game;
+    channel = DatagramChannel.open();
+    channel.bind(new InetSocketAddress(port));
+    channel.configureBlocking(false);
+
+    peers = new HashMap<>();
+    in = ByteBuffer.allocateDirect(NetProtocol.MAX_PACKET);
+    out = ByteBuffer.allocateDirect(NetProtocol.MAX_PACKET);
+    history = new WorldSnapshot[Ref.NET_HISTORY];
+
+    tickCost = new LatencyHistogram();
+    sendCost = new LatencyHistogram();
+    Messenger.subscribe(this, M_TYPE.WORLD_SNAPSHOT);
+    metrics = registerMetrics();
+  }
+
+  public static void main(String[] args) throws IOException{
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : Ref.NET_PORT;
+    AppWindow.glx = new glGraphics();
+
+    Game game = new Game(false);
+    game.host();
+    game.activate();
+    MetricsRegistry.export();
+
+    final GameServer server = new GameServer(game, port);
+    final Thread main = Thread.currentThread();
+    Runtime.getRuntime().addShutdownHook(new Thread(){
+      @Override
+      public void run() {
+        server.stop();
+        try {
+          main.join(1000);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+
+    System.out.println("Serving on port "+port);
+    server.run();
+    server.close();
+    game.deactivate();
+    MetricsRegistry.shutdown();
+    SimpleLogger.shutdown();
+  }
+
+  //ticks until stop() is called
+  public void run(){
+    running = true;
+    long next = System.nanoTime();
+    long lastReport = System.currentTimeMillis();
+
+    while(running){
+      long start = System.nanoTime();
+      long wall = System.currentTimeMillis();
+
+      receive(wall);
+      if(SimClock.getTick() % Ref.NET_SEND_TICKS == 0){
+        game.requestSnapshot();
+        for(Peer p : peers.values()){
+          p.snapshotSeq = p.seq;
+        }
+      }
+      game.tick();
+
+      long cost = System.nanoTime()-start;
+      tickCost.record(cost);
+      lastTickCost = cost/1000000d;
+
+      if(wall-lastReport >= Ref.NET_REPORT){
+        report(wall-lastReport);
+        lastReport = wall;
+      }
+
+      next += Ref.PHYS_T_STEP*1000000;
+      long sleep = next-System.nanoTime();
+      if(sleep > 0){
+        try {
+          Thread.sleep(sleep/1000000, (int)(sleep%1000000));
+        } catch (InterruptedException e) {
+          running = false;
+        }
+      }else if(-sleep > Ref.PHYS_T_STEP*1000000*10){
+        //too far behind, rather slow down than catching up in one burst
+        next = System.nanoTime();
+      }
+    }
+  }
+
+  public void stop(){
+    running = false;
+  }
+
+  //says goodbye to every client
+  public void close(){
+    for(Peer p : new ArrayList<>(peers.values())){
+      sendBye(p.address);
+      drop(p, "server closed");
+    }
+    Messenger.unsubscribe(this);
+    MetricsRegistry.unregister(metrics);
+    try {
+      channel.close();
+    } catch (IOException e) {
+      SimpleLogger.log(-1, GameServer.class, "close", "Closing failed: {}", e.getMessage());
+    }
+  }
+
+  private void receive(long wall){
+    while(true){
+      in.clear();
+      SocketAddress from;
+      try {
+        from = channel.receive(in);
+      } catch (IOException e) {
+        SimpleLogger.log(1, GameServer.class, "receive", "Receiving failed: {}", e.getMessage());
+        break;
+      }
+      if(from == null) break;
+      in.flip();
+      received += in.remaining();
+
+      try {
+        handlePacket(from, wall);
+      } catch (BufferUnderflowException e) {
+        SimpleLogger.log(1, GameServer.class, "receive", "Broken packet from {}", from);
+      }
+    }
+
+    Iterator<Peer> it = peers.values().iterator();
+    while(it.hasNext()){
+      Peer p = it.next();
+      if(wall-p.lastHeard > Ref.NET_TIMEOUT){
+        it.remove();
+        game.leave(p.number);
+        players = peers.size();
+        SimpleLogger.log(0, GameServer.class, "receive", "Player {} at {} timed out", p.number, p.address);
+      }
+    }
+  }
+
+  private void handlePacket(SocketAddress from, long wall){
+    byte type = in.get();
+    Peer p = peers.get(from);
+
+    if(type == NetProtocol.HELLO){
+      if(in.getInt() != NetProtocol.MAGIC) return;
+      if(p == null){
+        if(peers.size() >= Ref.NET_MAX_PLAYERS){
+          sendBye(from);
+          return;
+        }
+        p = new Peer();
+        p.number = game.join();
+        p.address = from;
+        peers.put(from, p);
+        players = peers.size();
+        SimpleLogger.log(0, GameServer.class, "handlePacket", "Player {} joined from {}", p.number, from);
+      }
+      p.lastHeard = wall;
+      //repeated, in case the first WELCOME got lost
+      sendWelcome(p);
+      return;
+    }
+
+    //not joined, or timed out already
+    if(p == null) return;
+    p.lastHeard = wall;
+
+    if(type == NetProtocol.INPUT){
+      int seq = in.getInt();
+      byte buttons = in.get();
+      long acked = in.getLong();
+      if(acked > p.acked){
+        p.acked = acked;
+        //the client renders an interval behind its estimate of the server time, taken as its newest snapshot here
+        game.setViewTime(p.number, acked-(Ref.NET_SEND_TICKS-1)*Ref.PHYS_T_STEP);
+      }
+      if(seq > p.seq){
+        p.seq = seq;
+        applyInput(p, buttons);
+      }
+    }else if(type == NetProtocol.BYE){
+      drop(p, "left");
+    }
+  }
+
+  //the buttons that changed become presses and releases for the player's ship
+  private void applyInput(Peer p, byte buttons){
+    int changed = (buttons ^ p.buttons) & 0xFF;
+    for(int i=0;i<NetProtocol.COMMANDS.length;i++){
+      int bit = 1 << i;
+      if((changed & bit) == 0) continue;
+      Messenger.send(new Message(M_TYPE.CONTROL_CMD, new CCMD_Param(NetProtocol.COMMANDS[i], p.number, (buttons & bit) != 0)));
+    }
+    p.buttons = buttons;
+  }
+
+  private void drop(Peer p, String reason){
+    peers.remove(p.address);
+    game.leave(p.number);
+    players = peers.size();
+    SimpleLogger.log(0, GameServer.class, "drop", "Player {} at {}: {}", p.number, p.address, reason);
+  }
+
+  @Override
+  public void handleMessage(Message m) {
+    //the Game subscribed first, the score is already set
+    WorldSnapshot s = m.getParam(WorldSnapshot.class);
+    history[historyPos] = s;
+    historyPos = (historyPos+1) % history.length;
+
+    long start = System.nanoTime();
+    for(Peer p : peers.values()){
+      sendState(p, s);
+    }
+    sendCost.record(System.nanoTime()-start);
+  }
+
+  private void sendState(Peer p, WorldSnapshot s){
+    WorldSnapshot base = find(p.acked);
+    out.clear();
+    out.put(NetProtocol.STATE);
+    out.putInt(p.snapshotSeq);
+    out.putInt(game.getShipHandle(p.number));
+    try {
+      SnapshotCodec.encode(s, base, out);
+    } catch (BufferOverflowException e) {
+      if(p.tooBig++ == 0){
+        SimpleLogger.log(-1, GameServer.class, "sendState", "Snapshot of {} entities doesn't fit into a packet", s.size());
+      }
+      return;
+    }
+    out.flip();
+
+    try {
+      int n = channel.send(out, p.address);
+      p.bytes += n;
+      sent += n;
+      if(base == null) p.full++;
+      else p.delta++;
+    } catch (IOException e) {
+      SimpleLogger.log(1, GameServer.class, "sendState", "Sending to {} failed: {}", p.address, e.getMessage());
+    }
+  }
+
+  private WorldSnapshot find(long time){
+    if(time < 0) return null;
+    for(WorldSnapshot s : history){
+      if(s != null && s.getTime() == time) return s;
+    }
+    return null;
+  }
+
+  private void sendWelcome(Peer p){
+    out.clear();
+    out.put(NetProtocol.WELCOME);
+    out.putInt(p.number);
+    out.flip();
+    send(out, p.address);
+  }
+
+  private void sendBye(SocketAddress to){
+    out.clear();
+    out.put(NetProtocol.BYE);
+    out.flip();
+    send(out, to);
+  }
+
+  private void send(ByteBuffer b, SocketAddress to){
+    try {
+      sent += channel.send(b, to);
+    } catch (IOException e) {
+      SimpleLogger.log(1, GameServer.class, "send", "Sending to {} failed: {}", to, e.getMessage());
+    }
+  }
+
+  private void report(long window){
+    String line = String.format(Locale.ROOT,
+        "%d players, tick p50 %.2fms p99 %.2fms max %.2fms of %dms, snapshots %.2fms per send (%.3fms per player)",
+        peers.size(), ms(tickCost.getPercentile(0.5)), ms(tickCost.getPercentile(0.99)), ms(tickCost.getMax()),
+        Ref.PHYS_T_STEP, sendCost.getMean()/1000000d, peers.isEmpty() ? 0 : sendCost.getMean()/1000000d/peers.size());
+    SimpleLogger.log(line, 0, GameServer.class, "report");
+
+    for(Peer p : peers.values()){
+      line = String.format(Locale.ROOT, "  player %d: %.1f kB/s, %d full, %d delta snapshots%s",
+          p.number, p.bytes*1000d/window/1024, p.full, p.delta, p.tooBig > 0 ? ", "+p.tooBig+" too big" : "");
+      SimpleLogger.log(line, 0, GameServer.class, "report");
+      p.bytes = 0;
+      p.full = 0;
+      p.delta = 0;
+      p.tooBig = 0;
+    }
+
+    tickCost.reset();
+    sendCost.reset();
+  }
+
+  private static double ms(long ns){
+    return ns/1000000d;
+  }
+
+  private Collection<Metric> registerMetrics(){
+    ArrayList<Metric> ml = new ArrayList<>();
+    ml.add(Metric.gauge("asteroids_net_players", "Players connected to the server", new Metric.Source(){
+      @Override
+      public double read() { return players; }
+    }));
+    ml.add(Metric.gauge("asteroids_net_tick_ms", "Cost of the last server tick, with receiving and sending", new Metric.Source(){
+      @Override
+      public double read() { return lastTickCost; }
+    }));
+    ml.add(Metric.counter("asteroids_net_sent_bytes_total", "UDP payload bytes sent to clients", new Metric.Source(){
+      @Override
+      public double read() { return sent; }
+    }));
+    ml.add(Metric.counter("asteroids_net_received_bytes_total", "UDP payload bytes received from clients", new Metric.Source(){
+      @Override
+      public double read() { return received; }
+    }));
+    MetricsRegistry.register(ml);
+    return ml;
+  }
+}
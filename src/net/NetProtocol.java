@@ -0,0 +1,70 @@
+package net;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * The packets between a GameServer and its clients, all sent over UDP. Each starts with its type:
+ *
+ *   HELLO    int MAGIC                           client asks to join, repeated until answered
+ *   WELCOME  int player number                   server accepted the client
+ *   INPUT    int seq, byte buttons, long ack     once per client tick: the buttons held, and the time of the
+ *                                                newest snapshot received, -1 for none yet
+ *   STATE    int seq, int ship handle, snapshot  the world as WorldSnapshot (see SnapshotCodec), as delta against
+ *                                                the acknowledged snapshot if the server still has it. seq is the
+ *                                                last input applied before the snapshot was taken, the handle that
+ *                                                of the client's ship, -1 while it waits for respawning
+ *   BYE      -                                   either side leaves, or the server is full
+ *
+ * Inputs are sent as the state of the buttons instead of presses and releases, so a lost packet is made up for by
+ * the next one. The server turns changes of the buttons back into CONTROL_CMDs.
+ *
+ */
+
+import java.nio.ByteBuffer;
+
+import messaging.Message.CCMD;
+
+public class NetProtocol {
+
+  public static final int MAGIC = 0x41534E54;
+
+  public static final byte HELLO = 0;
+  public static final byte WELCOME = 1;
+  public static final byte INPUT = 2;
+  public static final byte STATE = 3;
+  public static final byte BYE = 4;
+
+  //the biggest UDP payload. A full snapshot of a crowded world doesn't fit into one ethernet frame, IP splits it
+  public static final int MAX_PACKET = 65507;
+
+  //the buttons, bit i stands for COMMANDS[i]
+  static final CCMD[] COMMANDS = {CCMD.ACC, CCMD.DEC, CCMD.LEFT, CCMD.RIGHT, CCMD.FIRE};
+
+  //bit of the command in the buttons, 0 for commands that aren't sent
+  public static int bit(CCMD c){
+    for(int i=0;i<COMMANDS.length;i++){
+      if(COMMANDS[i] == c) return 1 << i;
+    }
+    return 0;
+  }
+
+  public static int movement(byte buttons){
+    return ((buttons & bit(CCMD.ACC)) != 0 ? 1 : 0) - ((buttons & bit(CCMD.DEC)) != 0 ? 1 : 0);
+  }
+
+  public static int rotation(byte buttons){
+    return ((buttons & bit(CCMD.LEFT)) != 0 ? 1 : 0) - ((buttons & bit(CCMD.RIGHT)) != 0 ? 1 : 0);
+  }
+
+  public static void putHello(ByteBuffer dst){
+    dst.put(HELLO);
+    dst.putInt(MAGIC);
+  }
+
+  public static void putInput(ByteBuffer dst, int seq, byte buttons, long ack){
+    dst.put(INPUT);
+    dst.putInt(seq);
+    dst.put(buttons);
+    dst.putLong(ack);
+  }
+}
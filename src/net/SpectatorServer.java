@@ -0,0 +1,370 @@
+package net;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Streams the running game to any number of viewers over TCP, with -Dasteroids.spectate.port=port. It listens on
+ * the loopback address only, unless Ref.SPECTATE_HOST names another. Viewers don't cost any simulation: the world is
+ * taken from the WorldSnapshots the PhysicsManager captures (see Game), and every frame is encoded only once, into a
+ * direct buffer that is then made read-only and shared by all viewers. Each viewer only holds duplicates of those
+ * buffers, with a position of its own, and several of them are written with one gathering write.
+ *
+ * The stream starts with an int MAGIC, followed by the frames, each as int length and a snapshot encoded with the
+ * SnapshotCodec. Every Ref.SPECTATE_KEYFRAME-th frame is full, the others are deltas against the frame before.
+ * Viewers joining start with the next full frame.
+ *
+ * Everything on the network runs on a thread of its own, around a Selector. The tick thread only hands the newest
+ * snapshot over and wakes the selector, so nothing a viewer does can stall it. A viewer too slow to keep up, with
+ * more than Ref.SPECTATE_BACKLOG bytes waiting, has its queued frames dropped (except one it is in the middle of)
+ * and skips to the next full frame.
+ *
+ * The cost of encoding a frame and of writing it to each viewer is reported every Ref.NET_REPORT ms, and exported
+ * as metrics.
+ *
+ */
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import messaging.Handler;
+import messaging.Message;
+import messaging.Message.M_TYPE;
+import messaging.Messenger;
+import metrics.Metric;
+import metrics.MetricsRegistry;
+import snapshot.SnapshotCodec;
+import snapshot.WorldSnapshot;
+import util.LatencyHistogram;
+import util.Ref;
+import util.SimpleLogger;
+
+public class SpectatorServer implements Handler{
+
+  public static final int MAGIC = 0x41535053;
+
+  //frames are sent at the rate of the multiplayer snapshots
+  private static final long INTERVAL = Ref.NET_SEND_TICKS*Ref.PHYS_T_STEP;
+  //buffers handed to one gathering write at most
+  private static final int GATHER = 16;
+
+  private static class Viewer{
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private ByteBuffer[] gather = new ByteBuffer[GATHER];
+    private long queued;
+    private boolean waitingForKey = true;
+  }
+
+  private class Broadcaster extends Thread{
+
+    private Broadcaster(){
+      super("Spectators");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run(){
+      long lastReport = System.currentTimeMillis();
+      while(running){
+        try {
+          selector.select(Ref.NET_REPORT);
+        } catch (IOException e) {
+          SimpleLogger.log(-1, SpectatorServer.class, "run", "Selecting failed: {}", e.getMessage());
+          break;
+        }
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while(it.hasNext()){
+          SelectionKey k = it.next();
+          it.remove();
+          if(!k.isValid()) continue;
+
+          if(k.isAcceptable()){
+            accept();
+          }else{
+            Viewer v = (Viewer)k.attachment();
+            if(k.isReadable()) discard(v);
+            if(k.isValid() && k.isWritable()) flush(v);
+          }
+        }
+
+        WorldSnapshot s = latest.getAndSet(null);
+        if(s != null) broadcast(s);
+
+        long now = System.currentTimeMillis();
+        if(now-lastReport >= Ref.NET_REPORT){
+          report();
+          lastReport = now;
+        }
+      }
+
+      for(Viewer v : new ArrayList<>(viewers)){
+        close(v);
+      }
+      try {
+        selector.close();
+        server.close();
+      } catch (IOException e) {
+        SimpleLogger.log(-1, SpectatorServer.class, "run", "Closing failed: {}", e.getMessage());
+      }
+    }
+  }
+
+  private ServerSocketChannel server;
+  private Selector selector;
+  private Broadcaster thread;
+  private volatile boolean running;
+
+  //handed over from the tick thread, a newer snapshot replaces one that wasn't picked up yet
+  private AtomicReference<WorldSnapshot> latest;
+  private long lastPublished;
+
+  //broadcaster thread only
+  private ArrayList<Viewer> viewers;
+  private WorldSnapshot base;
+  private int frames;
+  private ByteBuffer scratch;
+  private ByteBuffer drain;
+  private ByteBuffer hello;
+  private LatencyHistogram encodeCost;
+  private LatencyHistogram viewerCost;
+
+  private volatile int viewerCount;
+  private volatile int frameSize;
+  private volatile long sent;
+  private volatile long skips;
+  private long reportedSkips;
+  private Collection<Metric> metrics;
+
+  public SpectatorServer(int port) throws IOException{
+    server = ServerSocketChannel.open();
+    server.socket().setReuseAddress(true);
+    InetAddress address = Ref.SPECTATE_HOST == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(Ref.SPECTATE_HOST);
+    server.bind(new InetSocketAddress(address, port));
+    server.configureBlocking(false);
+    selector = Selector.open();
+    server.register(selector, SelectionKey.OP_ACCEPT);
+
+    latest = new AtomicReference<>();
+    lastPublished = -1;
+    viewers = new ArrayList<>();
+    scratch = ByteBuffer.allocateDirect(1 << 16);
+    drain = ByteBuffer.allocateDirect(256);
+    hello = ByteBuffer.allocateDirect(4);
+    hello.putInt(MAGIC);
+    hello.flip();
+    hello = hello.asReadOnlyBuffer();
+    encodeCost = new LatencyHistogram();
+    viewerCost = new LatencyHistogram();
+
+    running = true;
+    thread = new Broadcaster();
+    thread.start();
+    Messenger.subscribe(this, M_TYPE.WORLD_SNAPSHOT);
+    metrics = registerMetrics();
+    SimpleLogger.log(0, SpectatorServer.class, "SpectatorServer", "Streaming to spectators on {}", server.getLocalAddress());
+  }
+
+  @Override
+  public void handleMessage(Message m) {
+    WorldSnapshot s = m.getParam(WorldSnapshot.class);
+    //quick-saves and checkpoints come in between
+    if(lastPublished >= 0 && s.getTime()-lastPublished < INTERVAL) return;
+    lastPublished = s.getTime();
+    publish(s);
+  }
+
+  //may be called from any thread, the snapshot must not change anymore
+  public void publish(WorldSnapshot s){
+    latest.set(s);
+    selector.wakeup();
+  }
+
+  public void close(){
+    Messenger.unsubscribe(this);
+    MetricsRegistry.unregister(metrics);
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      SimpleLogger.log("Interrupted while waiting for the network thread", -1, SpectatorServer.class, "close");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void accept(){
+    try {
+      SocketChannel ch = server.accept();
+      if(ch == null) return;
+      ch.configureBlocking(false);
+      ch.socket().setTcpNoDelay(true);
+
+      Viewer v = new Viewer();
+      v.channel = ch;
+      v.key = ch.register(selector, SelectionKey.OP_READ, v);
+      viewers.add(v);
+      viewerCount = viewers.size();
+      enqueue(v, hello.duplicate());
+      flush(v);
+      SimpleLogger.log(0, SpectatorServer.class, "accept", "Spectator joined from {}", ch.getRemoteAddress());
+    } catch (IOException e) {
+      SimpleLogger.log(-1, SpectatorServer.class, "accept", "Accepting failed: {}", e.getMessage());
+    }
+  }
+
+  //viewers don't send anything, reading only tells when they are gone
+  private void discard(Viewer v){
+    try {
+      drain.clear();
+      if(v.channel.read(drain) < 0) close(v);
+    } catch (IOException e) {
+      close(v);
+    }
+  }
+
+  private void close(Viewer v){
+    viewers.remove(v);
+    viewerCount = viewers.size();
+    v.key.cancel();
+    try {
+      v.channel.close();
+    } catch (IOException e) {
+      SimpleLogger.log(1, SpectatorServer.class, "close", "Closing failed: {}", e.getMessage());
+    }
+  }
+
+  private void broadcast(WorldSnapshot s){
+    boolean key = base == null || frames % Ref.SPECTATE_KEYFRAME == 0;
+    long start = System.nanoTime();
+    ByteBuffer frame = encode(s, key ? null : base);
+    encodeCost.record(System.nanoTime()-start);
+    frameSize = frame.remaining();
+    base = s;
+    frames++;
+
+    for(int i=viewers.size()-1;i>=0;i--){
+      Viewer v = viewers.get(i);
+      if(v.queued > Ref.SPECTATE_BACKLOG) skip(v);
+      if(v.waitingForKey){
+        if(!key) continue;
+        v.waitingForKey = false;
+      }
+
+      long t = System.nanoTime();
+      enqueue(v, frame.duplicate());
+      flush(v);
+      viewerCost.record(System.nanoTime()-t);
+    }
+  }
+
+  //the frame as length and encoded snapshot, in a read-only buffer
+  private ByteBuffer encode(WorldSnapshot s, WorldSnapshot b){
+    while(true){
+      scratch.clear();
+      try {
+        scratch.putInt(0);
+        SnapshotCodec.encode(s, b, scratch);
+        break;
+      } catch (BufferOverflowException e) {
+        scratch = ByteBuffer.allocateDirect(scratch.capacity()*2);
+      }
+    }
+    scratch.putInt(0, scratch.position()-4);
+    scratch.flip();
+
+    ByteBuffer frame = ByteBuffer.allocateDirect(scratch.remaining());
+    frame.put(scratch);
+    frame.flip();
+    return frame.asReadOnlyBuffer();
+  }
+
+  private void enqueue(Viewer v, ByteBuffer b){
+    v.queue.add(b);
+    v.queued += b.remaining();
+  }
+
+  //drops the queued frames, but the one being written, as the rest of the stream would be cut off otherwise
+  private void skip(Viewer v){
+    ByteBuffer head = v.queue.peekFirst();
+    v.queue.clear();
+    v.queued = 0;
+    if(head != null && head.position() > 0) enqueue(v, head);
+    v.waitingForKey = true;
+    skips++;
+  }
+
+  private void flush(Viewer v){
+    int n = 0;
+    for(ByteBuffer b : v.queue){
+      if(n == GATHER) break;
+      v.gather[n++] = b;
+    }
+
+    try {
+      long written = v.channel.write(v.gather, 0, n);
+      v.queued -= written;
+      sent += written;
+    } catch (IOException e) {
+      close(v);
+      return;
+    } finally {
+      Arrays.fill(v.gather, 0, n, null);
+    }
+
+    while(!v.queue.isEmpty() && !v.queue.peekFirst().hasRemaining()){
+      v.queue.pollFirst();
+    }
+    int ops = v.queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+    if(v.key.interestOps() != ops) v.key.interestOps(ops);
+  }
+
+  private void report(){
+    if(encodeCost.getCount() == 0) return;
+    String line = String.format(Locale.ROOT,
+        "%d spectators, frames of %.1f kB encoded in %.3fms, %.3fms per spectator (p99 %.3fms), %d skipped to a keyframe",
+        viewers.size(), frameSize/1024d, encodeCost.getMean()/1000000d, viewerCost.getMean()/1000000d,
+        viewerCost.getPercentile(0.99)/1000000d, skips-reportedSkips);
+    SimpleLogger.log(line, 0, SpectatorServer.class, "report");
+    reportedSkips = skips;
+    encodeCost.reset();
+    viewerCost.reset();
+  }
+
+  private Collection<Metric> registerMetrics(){
+    ArrayList<Metric> ml = new ArrayList<>();
+    ml.add(Metric.gauge("asteroids_spectate_viewers", "Spectators connected", new Metric.Source(){
+      @Override
+      public double read() { return viewerCount; }
+    }));
+    ml.add(Metric.gauge("asteroids_spectate_frame_bytes", "Size of the last frame streamed", new Metric.Source(){
+      @Override
+      public double read() { return frameSize; }
+    }));
+    ml.add(Metric.counter("asteroids_spectate_sent_bytes_total", "Bytes streamed to spectators", new Metric.Source(){
+      @Override
+      public double read() { return sent; }
+    }));
+    ml.add(Metric.counter("asteroids_spectate_skips_total", "Times a spectator skipped to a keyframe", new Metric.Source(){
+      @Override
+      public double read() { return skips; }
+    }));
+    MetricsRegistry.register(ml);
+    return ml;
+  }
+}
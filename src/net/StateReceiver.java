@@ -0,0 +1,75 @@
+package net;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Decodes the snapshots of STATE packets on the client side. The last Ref.NET_HISTORY snapshots are kept as bases
+ * for the deltas to come, the server encodes against whichever of them the client acknowledged last. Snapshots
+ * arriving after a newer one, and deltas whose base is already gone, are dropped.
+ *
+ */
+
+import java.nio.ByteBuffer;
+
+import snapshot.SnapshotCodec;
+import snapshot.WorldSnapshot;
+import util.Ref;
+
+public class StateReceiver {
+
+  private WorldSnapshot[] history;
+  private int historyPos;
+  private WorldSnapshot latest;
+
+  private int received;
+  private int dropped;
+
+  public StateReceiver(){
+    history = new WorldSnapshot[Ref.NET_HISTORY];
+  }
+
+  //the snapshot in src, or null if it is dropped. Throws an IllegalArgumentException for a broken one
+  public WorldSnapshot receive(ByteBuffer src){
+    long baseTime = SnapshotCodec.getBaseTime(src);
+    WorldSnapshot base = null;
+    if(baseTime >= 0){
+      base = find(baseTime);
+      if(base == null){
+        dropped++;
+        return null;
+      }
+    }
+
+    WorldSnapshot s = SnapshotCodec.decode(src, base);
+    if(latest != null && s.getTime() <= latest.getTime()){
+      dropped++;
+      return null;
+    }
+
+    history[historyPos] = s;
+    historyPos = (historyPos+1) % history.length;
+    latest = s;
+    received++;
+    return s;
+  }
+
+  private WorldSnapshot find(long time){
+    for(WorldSnapshot s : history){
+      if(s != null && s.getTime() == time) return s;
+    }
+    return null;
+  }
+
+  //time of the newest snapshot, to acknowledge it. -1 before the first
+  public long getLatestTime(){
+    return latest == null ? -1 : latest.getTime();
+  }
+
+  public int getReceived(){
+    return received;
+  }
+
+  public int getDropped(){
+    return dropped;
+  }
+}
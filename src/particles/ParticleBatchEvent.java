@@ -0,0 +1,31 @@
+package particles;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Flight recorder event for a ParticleCreator.generate() call that produced particles. Off unless enabled.
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("asteroids.ParticleBatch")
+@Label("Particle Batch")
+@Category({"Asteroids", "Physics"})
+@Description("Particles spawned by the ParticleCreator in one tick")
+@Enabled(false)
+@StackTrace(false)
+public class ParticleBatchEvent extends Event{
+
+  @Label("Particles")
+  int particles;
+
+  @Label("Particle Systems")
+  int systems;
+}
@@ -13,48 +13,90 @@ package particles;
  * the settings instance, to spawn an amount of particles as PhysicsEntries, which get then
  * registered by the PhysicsManager via Messaging
  * 
+ * When a system is added, a timer for the end of its emitTime is registered in the TimerWheel of the
+ * PhysicsManager. Once it fires, the system gets flagged and is dropped after its last emission. Aborting a system
+ * cancels its timer.
+ * 
+ * Systems restored from a WorldSnapshot already have their times set, and keep them when adopted.
+ * 
  */
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Random;
 import java.util.UUID;
 
 import logics.PhysicsEntry;
+import logics.TimerWheel;
 
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector4f;
 
+import snapshot.WorldSnapshot;
+import util.RandomStreams;
 import components.ComponentContainer;
 
 public class ParticleCreator {
 
   private LinkedList<ParticleSettings> systems;
+  private TimerWheel timers;
+  //end of emitTime of each system, until it fires
+  private HashMap<ParticleSettings, TimerWheel.Timer> expiries;
+  private long seed;
+  
+  //written by the owning thread only, readable from anywhere for monitoring
+  private volatile int systemCount;
+  private volatile long generated;
   
-  public ParticleCreator(){
+  public ParticleCreator(TimerWheel tw){
     systems = new LinkedList<>();
+    timers = tw;
+    expiries = new HashMap<>();
+    seed = RandomStreams.nextSeed("particles");
   }
   
   public UUID addSystem(ParticleSettings ps){
     ParticleSettings ent = ps.copy();
     ent.touch();
-    systems.add(ent);
+    register(ent);
     return (UUID)ent.settings.get("pUnqID");
   }
   
+  //takes over the given settings instead of copying them, the caller must not use them afterwards
+  public UUID adoptSystem(ParticleSettings ps){
+    if(ps.timeStarted == 0) ps.touch();
+    register(ps);
+    return (UUID)ps.settings.get("pUnqID");
+  }
+  
   public LinkedList<UUID> addAllSystems(LinkedList<ParticleSettings> psl){
     LinkedList<UUID> ids = new LinkedList<>();
     for(ParticleSettings ps: psl){
       ParticleSettings ent = ps.copy();
       ent.touch();
-      systems.add(ent);
+      register(ent);
       ids.add((UUID)ent.settings.get("pUnqID"));
     }
     return ids;
   }
   
+  private void register(final ParticleSettings ent){
+    systems.add(ent);
+    systemCount = systems.size();
+    //the system still emits during the tick its timer fires, and is dropped afterwards
+    expiries.put(ent, timers.schedule(ent.timeStarted+(long)ent.settings.get("emitTime")+1, new Runnable(){
+      @Override
+      public void run() {
+        expiries.remove(ent);
+        ent.finished = true;
+      }
+    }));
+  }
+  
   public void abortSystems(LinkedList<UUID> ids){
     for(UUID id : ids){
       abortSystem(id);
@@ -67,17 +109,40 @@ public class ParticleCreator {
       UUID psid = (UUID)ps.settings.get("pUnqID");
       if(psid == id) toDelete = ps;
     }
+    if(toDelete == null) return;
     systems.remove(toDelete);
+    systemCount = systems.size();
+    
+    TimerWheel.Timer t = expiries.remove(toDelete);
+    if(t != null) t.cancel();
+  }
+  
+  public void saveSystems(WorldSnapshot s){
+    for(ParticleSettings ps : systems){
+      s.addSystem(ps);
+    }
+  }
+  
+  public int getSystemCount(){
+    return systemCount;
+  }
+  
+  //particles generated since creation
+  public long getGenerated(){
+    return generated;
   }
   
   public LinkedList<ComponentContainer> generate(long now){
+    ParticleBatchEvent event = new ParticleBatchEvent();
+    event.begin();
 
     Random r = new Random();
-    r.setSeed(now);
+    r.setSeed(seed ^ now);
     
     LinkedList<ComponentContainer> ret = new LinkedList<>();
-    LinkedList<ParticleSettings> empty = new LinkedList<>();
-    for(ParticleSettings pe : systems){
+    Iterator<ParticleSettings> iter = systems.iterator();
+    while(iter.hasNext()){
+      ParticleSettings pe = iter.next();
       long gap = now - pe.lastTouch;
       pe.lastTouch = now;
       
@@ -151,12 +216,18 @@ public class ParticleCreator {
         ret.add(cc);
       }
       
-      if(now > (pe.timeStarted+(long)pe.settings.get("emitTime"))) {
-        empty.add(pe);
-      }
+      if(pe.finished) iter.remove();
+    }
+    systemCount = systems.size();
+    generated += ret.size();
+    
+    event.end();
+    if(!ret.isEmpty() && event.shouldCommit()){
+      event.particles = ret.size();
+      event.systems = systems.size();
+      event.commit();
     }
     
-    systems.removeAll(empty);
     return ret;
   }
   
@@ -14,11 +14,15 @@ import java.util.HashMap;
 import java.util.Map.Entry;
 import java.util.UUID;
 
+import util.SimClock;
+
 public class ParticleSettings {
   
   
   public long timeStarted;
   public long lastTouch;
+  //set by the ParticleCreator's timer once emitTime is over
+  public boolean finished;
   
   public HashMap<String, Object>  settings;
   
@@ -31,7 +35,7 @@ public class ParticleSettings {
   }
   
   public void touch(){
-    timeStarted = System.currentTimeMillis();
+    timeStarted = SimClock.now();
     lastTouch = timeStarted;
   }
   
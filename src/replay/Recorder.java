@@ -0,0 +1,85 @@
+package replay;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Writes a Recording while a session is played. The header goes out when it is created, every command as it is
+ * delivered, and finish() ends the file with the final score and state hash. The Game owns the Recorder and calls it
+ * from its thread only.
+ *
+ * A failing disk shouldn't stop the game, so write errors are logged and end the recording instead.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import messaging.Message.CCMD_Param;
+import util.Ref;
+import util.SimpleLogger;
+
+public class Recorder {
+
+  private File file;
+  private DataOutputStream out;
+  private long lastTick;
+  private int count;
+
+  public Recorder(File f, long seed, long epoch, String scenario) throws IOException{
+    file = f;
+    if(f.getParentFile() != null) f.getParentFile().mkdirs();
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+    lastTick = 0;
+    count = 0;
+
+    out.writeInt(Recording.MAGIC);
+    out.writeByte(Recording.VERSION);
+    out.writeLong(seed);
+    out.writeLong(epoch);
+    out.writeShort((int)Ref.PHYS_T_STEP);
+    out.writeUTF(scenario == null ? "" : scenario);
+
+    SimpleLogger.log(0, Recorder.class, "Recorder", "Recording to {}, seed {}", f.getPath(), seed);
+  }
+
+  public void command(long tick, CCMD_Param cp){
+    if(out == null) return;
+    try {
+      Recording.writeVarLong(out, tick-lastTick);
+      out.writeByte(cp.cmd.ordinal() << 1 | (cp.pressed ? 1 : 0));
+      Recording.writeVarLong(out, cp.receiver);
+      lastTick = tick;
+      count++;
+    } catch (IOException e) {
+      failed(e);
+    }
+  }
+
+  public void finish(long tick, int score, long hash){
+    if(out == null) return;
+    try {
+      Recording.writeVarLong(out, tick-lastTick);
+      out.writeByte(Recording.END);
+      out.writeInt(score);
+      out.writeLong(hash);
+      out.close();
+      SimpleLogger.log(0, Recorder.class, "finish", "Recorded {} commands over {} ticks to {}", count, tick, file.getPath());
+    } catch (IOException e) {
+      failed(e);
+    }
+    out = null;
+  }
+
+  private void failed(IOException e){
+    SimpleLogger.log(-1, Recorder.class, "write", "Recording to {} failed: {}", file.getPath(), e.getMessage());
+    try {
+      out.close();
+    } catch (IOException ex) {
+      //already broken
+    }
+    out = null;
+  }
+}
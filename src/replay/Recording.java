@@ -0,0 +1,159 @@
+package replay;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * A recorded session, as written by the Recorder. Everything random in the game derives from the seed, and the
+ * simulated clock starts at the epoch, so the CONTROL_CMDs and the ticks they were delivered in are all that is
+ * needed to play the session again. The final score and state hash tell if the replay ended up in the same place.
+ *
+ * The file is binary and small, a few bytes per key press:
+ *
+ *   int     MAGIC
+ *   byte    VERSION
+ *   long    seed
+ *   long    epoch, the simulated time of tick 0
+ *   short   Ref.PHYS_T_STEP it was recorded with
+ *   utf     scenario name, empty if none
+ *   records, each starting with the ticks since the previous record as varint, followed by either
+ *     byte  CCMD ordinal << 1 | pressed, varint receiver     a command
+ *     byte  END, int score, long state hash                  the end of the session
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import messaging.Message.CCMD;
+import messaging.Message.CCMD_Param;
+import util.Ref;
+
+public class Recording {
+
+  static final int MAGIC = 0x41535452;
+  static final byte VERSION = 1;
+  static final int END = 0xFF;
+
+  private static final CCMD[] COMMANDS = CCMD.values();
+
+  private long seed;
+  private long epoch;
+  private String scenario;
+
+  private long[] ticks;
+  private CCMD_Param[] commands;
+
+  private long endTick;
+  private int score;
+  private long hash;
+
+  private Recording(){
+  }
+
+  public static Recording read(File f) throws IOException{
+    Recording r = new Recording();
+    ArrayList<Long> tl = new ArrayList<>();
+    ArrayList<CCMD_Param> cl = new ArrayList<>();
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));){
+      if(in.readInt() != MAGIC) throw new IOException(f.getPath()+" is no recording");
+      int version = in.readByte();
+      if(version != VERSION) throw new IOException(f.getPath()+" has version "+version+", expected "+VERSION);
+
+      r.seed = in.readLong();
+      r.epoch = in.readLong();
+      int step = in.readShort();
+      if(step != Ref.PHYS_T_STEP) throw new IOException(f.getPath()+" was recorded with a time step of "+step+"ms, not "+Ref.PHYS_T_STEP+"ms");
+      String s = in.readUTF();
+      r.scenario = s.isEmpty() ? null : s;
+
+      long tick = 0;
+      while(true){
+        tick += readVarLong(in);
+        int b = in.readUnsignedByte();
+        if(b == END){
+          r.endTick = tick;
+          r.score = in.readInt();
+          r.hash = in.readLong();
+          break;
+        }
+        if((b >> 1) >= COMMANDS.length) throw new IOException(f.getPath()+" is corrupt, unknown command "+(b >> 1));
+        tl.add(tick);
+        cl.add(new CCMD_Param(COMMANDS[b >> 1], (int)readVarLong(in), (b & 1) != 0));
+      }
+    } catch (EOFException e) {
+      throw new IOException(f.getPath()+" ends before the end of the session, was the game closed properly?");
+    }
+
+    r.ticks = new long[tl.size()];
+    for(int i=0;i<r.ticks.length;i++){
+      r.ticks[i] = tl.get(i);
+    }
+    r.commands = cl.toArray(new CCMD_Param[cl.size()]);
+    return r;
+  }
+
+  static void writeVarLong(DataOutput out, long v) throws IOException{
+    while((v & ~0x7FL) != 0){
+      out.writeByte((int)(v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte((int)v);
+  }
+
+  static long readVarLong(DataInput in) throws IOException{
+    long v = 0;
+    for(int shift=0;shift<64;shift+=7){
+      int b = in.readUnsignedByte();
+      v |= (long)(b & 0x7F) << shift;
+      if((b & 0x80) == 0) return v;
+    }
+    throw new IOException("varint too long");
+  }
+
+  public long getSeed(){
+    return seed;
+  }
+
+  public long getEpoch(){
+    return epoch;
+  }
+
+  public String getScenario(){
+    return scenario;
+  }
+
+  public int size(){
+    return commands.length;
+  }
+
+  //the tick the i-th command was delivered in
+  public long getTick(int i){
+    return ticks[i];
+  }
+
+  public CCMD_Param getCommand(int i){
+    CCMD_Param cp = commands[i];
+    return new CCMD_Param(cp.cmd, cp.receiver, cp.pressed);
+  }
+
+  //ticks done when the session ended
+  public long getEndTick(){
+    return endTick;
+  }
+
+  public int getScore(){
+    return score;
+  }
+
+  public long getHash(){
+    return hash;
+  }
+}
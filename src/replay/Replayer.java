@@ -0,0 +1,60 @@
+package replay;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Plays a Recording back without a window, as fast as the machine allows. The Game runs its ticks back to back,
+ * with the recorded commands delivered in their ticks, and nothing is rendered. At the end, the score and state
+ * hash are compared to the recorded ones. A bad session from the field turns into a repeatable benchmark this way:
+ *
+ *   java replay.Replayer <recording>
+ *
+ * Must be started from the project root, like the game. Exits with 1 if the replay diverged.
+ *
+ * To watch a recording instead, start the game with -Dasteroids.replay=<recording>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import glGraphics.AppWindow;
+import glGraphics.glGraphics;
+import states.Game;
+import util.Ref;
+import util.SimClock;
+import util.SimpleLogger;
+
+public class Replayer {
+
+  public static void main(String[] args) throws IOException{
+    if(args.length != 1) throw new IllegalArgumentException("usage: Replayer <recording>");
+
+    Recording rec = Recording.read(new File(args[0]));
+    AppWindow.glx = new glGraphics();
+
+    Game game = new Game(false);
+    game.replay(rec);
+
+    long start = System.nanoTime();
+    game.activate();
+    while(!game.isReplayDone()){
+      game.tick();
+    }
+    long ns = System.nanoTime() - start;
+
+    boolean ok = game.replayMatches();
+    long ticks = SimClock.getTick();
+    double simulated = ticks*Ref.PHYS_T_STEP/1000d;
+    game.deactivate();
+
+    System.out.println(String.format(Locale.ROOT, "%d ticks (%.1fs of play) replayed in %.1fs, %.1fx real time",
+        ticks, simulated, ns/1e9, simulated/(ns/1e9)));
+    System.out.println(String.format(Locale.ROOT, "score %d, hash %016x: %s",
+        rec.getScore(), rec.getHash(), ok ? "matches the recording" : "DIVERGED"));
+
+    SimpleLogger.shutdown();
+    System.exit(ok ? 0 : 1);
+  }
+}
@@ -0,0 +1,143 @@
+package scenario;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Description of a reproducible load test, loaded from a .scn file in res/scenarios. A scenario runs for a number of
+ * levels of fixed length. Each level raises the load by the configured ramp, so the report shows at which load the
+ * engine starts to struggle.
+ *
+ * The file starts with typed properties, the same way particle effects are stored:
+ *
+ *   String name=Asteroid storm
+ *   long seed=1337
+ *   int levels=8
+ *   long levelTime=5000
+ *   boolean player=false
+ *
+ * followed by any number of rules, one per line. Values not given fall back to the defaults in Rule:
+ *
+ *   spawn cc_asteroid_big count=4 ramp=4 speed=60 speedRand=30 spin=2
+ *   emit asteroidDeath pattern=cc_debris count=1 ramp=1 interval=500
+ *
+ * "spawn" keeps count+ramp*level copies of the given ccPattern alive, placed and launched at seeded random positions
+ * and directions. "emit" fires count+ramp*level copies of the given particle effect every interval ms. Empty lines and
+ * lines starting with # are ignored.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedList;
+
+public class Scenario {
+
+  public enum RULE{
+    SPAWN,
+    EMIT
+  }
+
+  public static class Rule{
+    public RULE type;
+    public String target;
+    public String pattern;
+
+    public int count = 1;
+    public int ramp = 0;
+    public float speed = 0;
+    public float speedRand = 0;
+    public float spin = 0;
+    public long interval = 1000;
+
+    public int getCount(int level){
+      return count + ramp*level;
+    }
+  }
+
+  public String name = "unnamed";
+  public long seed = 0;
+  public int levels = 1;
+  public long levelTime = 10000;
+  public boolean player = false;
+
+  public LinkedList<Rule> rules = new LinkedList<>();
+
+  public static Scenario load(String fn) throws IOException{
+    Scenario s = new Scenario();
+
+    try (BufferedReader br = new BufferedReader(new FileReader("res/scenarios/"+fn+".scn"));){
+      String line;
+      int lineNr = 0;
+
+      while((line = br.readLine()) != null){
+        lineNr++;
+        line = line.trim();
+        if(line.isEmpty() || line.startsWith("#")) continue;
+
+        try{
+          if(line.startsWith("spawn ") || line.startsWith("emit ")){
+            s.rules.add(readRule(line));
+          }else{
+            readProperty(s, line);
+          }
+        }catch(RuntimeException e){
+          throw new IllegalArgumentException(fn+".scn line "+lineNr+": "+e.getMessage()+" ("+line+")", e);
+        }
+      }
+    }
+
+    if(s.levels < 1) throw new IllegalArgumentException(fn+".scn: at least 1 level needed");
+    if(s.levelTime <= 0) throw new IllegalArgumentException(fn+".scn: levelTime must be positive");
+    return s;
+  }
+
+  private static void readProperty(Scenario s, String line){
+    String type = line.split(" ")[0];
+    String[] pair = line.substring(type.length()+1).split("=", 2);
+    String key = pair[0];
+    String value = pair[1];
+
+    if(type.equals("String") && key.equals("name")){
+      s.name = value;
+    }else if(type.equals("long") && key.equals("seed")){
+      s.seed = Long.parseLong(value);
+    }else if(type.equals("int") && key.equals("levels")){
+      s.levels = Integer.parseInt(value);
+    }else if(type.equals("long") && key.equals("levelTime")){
+      s.levelTime = Long.parseLong(value);
+    }else if(type.equals("boolean") && key.equals("player")){
+      s.player = Boolean.parseBoolean(value);
+    }else{
+      throw new IllegalArgumentException("unknown property "+type+" "+key);
+    }
+  }
+
+  private static Rule readRule(String line){
+    String[] tokens = line.split("\\s+");
+    if(tokens.length < 2) throw new IllegalArgumentException("rule without target");
+
+    Rule r = new Rule();
+    r.type = tokens[0].equals("spawn") ? RULE.SPAWN : RULE.EMIT;
+    r.target = tokens[1];
+
+    for(int i=2;i<tokens.length;i++){
+      String[] pair = tokens[i].split("=", 2);
+      if(pair.length != 2) throw new IllegalArgumentException("expected key=value, got "+tokens[i]);
+
+      switch(pair[0]){
+      case "count":     r.count = Integer.parseInt(pair[1]); break;
+      case "ramp":      r.ramp = Integer.parseInt(pair[1]); break;
+      case "speed":     r.speed = Float.parseFloat(pair[1]); break;
+      case "speedRand": r.speedRand = Float.parseFloat(pair[1]); break;
+      case "spin":      r.spin = Float.parseFloat(pair[1]); break;
+      case "interval":  r.interval = Long.parseLong(pair[1]); break;
+      case "pattern":   r.pattern = pair[1]; break;
+      default: throw new IllegalArgumentException("unknown rule key "+pair[0]);
+      }
+    }
+
+    if(r.type == RULE.EMIT && r.pattern == null) throw new IllegalArgumentException("emit rules need a pattern");
+    return r;
+  }
+}
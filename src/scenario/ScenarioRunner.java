@@ -0,0 +1,262 @@
+package scenario;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Plays a Scenario inside the Game state. All randomness comes from one Random seeded by the scenario, so the same
+ * file produces the same sequence of spawns. Entities are copies of the Game's ccPatterns and are introduced through
+ * the usual ENTITY_MGR messages, particle effects through PARTICLE_CRT messages, exactly like during normal play.
+ *
+ * Spawn rules keep a population alive: the Game reports removed containers, and each frame the missing ones are
+ * replaced. Short-lived objects like bullets therefore produce a constant stream of additions and removals.
+ *
+ * While a level runs, frame time (time between two updates) and the physics tick cost are sampled. When a level ends,
+ * its averages and maxima are logged, and once the last level is done, the whole report is written to log/.
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Random;
+
+import logics.PhysicsEntry;
+import logics.PhysicsManager;
+import messaging.Message;
+import messaging.Message.ENT;
+import messaging.Message.ENT_Param;
+import messaging.Message.M_TYPE;
+import messaging.Messenger;
+
+import org.lwjgl.util.vector.Vector2f;
+
+import particles.ParticleCreator;
+import particles.ParticleSettings;
+import util.DenseList;
+import util.Ref;
+import util.SimpleLogger;
+import components.ComponentContainer;
+
+public class ScenarioRunner {
+
+  private class Population{
+    private Scenario.Rule rule;
+    private ComponentContainer pattern;
+    private DenseList<ComponentContainer> alive = new DenseList<>();
+  }
+
+  private class Emitter{
+    private Scenario.Rule rule;
+    private LinkedList<ParticleSettings> effect;
+    private long nextFire;
+  }
+
+  private Scenario scenario;
+  private PhysicsManager phm;
+  private Random rand;
+
+  private LinkedList<Population> populations;
+  private LinkedList<Emitter> emitters;
+  private IdentityHashMap<ComponentContainer, Population> owners;
+
+  private int level;
+  private long levelStart;
+  private boolean finished;
+
+  //samples of the current level
+  private long lastFrame;
+  private int frames;
+  private double frameSum, frameMax;
+  private double tickSum, tickMax;
+  private int entitySum, entityMax;
+
+  private LinkedList<String> report;
+
+  public ScenarioRunner(Scenario s, HashMap<String, ComponentContainer> patterns, PhysicsManager phm){
+    scenario = s;
+    this.phm = phm;
+    rand = new Random(s.seed);
+
+    populations = new LinkedList<>();
+    emitters = new LinkedList<>();
+    owners = new IdentityHashMap<>();
+    report = new LinkedList<>();
+
+    for(Scenario.Rule r : s.rules){
+      switch(r.type){
+      case SPAWN:
+        Population p = new Population();
+        p.rule = r;
+        p.pattern = patterns.get(r.target);
+        if(p.pattern == null) throw new IllegalArgumentException("Scenario "+s.name+": no ccPattern called "+r.target);
+        populations.add(p);
+        break;
+      case EMIT:
+        ComponentContainer cc = patterns.get(r.pattern);
+        if(cc == null) throw new IllegalArgumentException("Scenario "+s.name+": no ccPattern called "+r.pattern);
+        Emitter e = new Emitter();
+        e.rule = r;
+        e.effect = ParticleCreator.loadEffect(r.target, cc);
+        if(e.effect == null) throw new IllegalArgumentException("Scenario "+s.name+": no particle effect called "+r.target);
+        emitters.add(e);
+        break;
+      }
+    }
+  }
+
+  public void start(long now){
+    level = 0;
+    levelStart = now;
+    lastFrame = now;
+    finished = false;
+    for(Emitter e : emitters){
+      e.nextFire = now;
+    }
+    resetSamples();
+
+    report.add("level;entities avg;entities max;frames;frame avg ms;frame max ms;fps;tick avg ms;tick max ms;tps");
+    SimpleLogger.log("Scenario "+scenario.name+" started, seed "+scenario.seed+", "+scenario.levels+" levels of "+scenario.levelTime+"ms", 0, ScenarioRunner.class, "start");
+  }
+
+  public void update(long now, int entityCount){
+    if(finished) return;
+
+    sample(now, entityCount);
+
+    if(now - levelStart >= scenario.levelTime){
+      finishLevel(now);
+      level++;
+      levelStart = now;
+      if(level >= scenario.levels){
+        finished = true;
+        writeReport();
+        return;
+      }
+    }
+
+    for(Population p : populations){
+      int missing = p.rule.getCount(level) - p.alive.size();
+      for(int i=0;i<missing;i++){
+        spawn(p);
+      }
+    }
+
+    for(Emitter e : emitters){
+      if(now >= e.nextFire){
+        for(int i=0;i<e.rule.getCount(level);i++){
+          emit(e);
+        }
+        //don't try to catch up after a stall, that would only pile up more load
+        e.nextFire = Math.max(e.nextFire + e.rule.interval, now);
+      }
+    }
+  }
+
+  public void removed(ComponentContainer cc){
+    Population p = owners.remove(cc);
+    if(p != null) p.alive.remove(cc);
+  }
+
+  public boolean isFinished(){
+    return finished;
+  }
+
+  public boolean hasPlayer(){
+    return scenario.player;
+  }
+  
+  public int getLevel(){
+    return level;
+  }
+
+  private void spawn(Population p){
+    ComponentContainer cc = p.pattern.copy();
+    PhysicsEntry core = (PhysicsEntry)cc.getComponents("core").iterator().next();
+
+    core.setPosition(new Vector2f(rand.nextFloat()*Ref.xRes, rand.nextFloat()*Ref.yRes));
+
+    //addMovement and rotate are divided by the mass, so scale them up to get the desired speeds
+    float speed = p.rule.speed + (rand.nextFloat()*2-1)*p.rule.speedRand;
+    Vector2f impulse = PhysicsEntry.rotate(new Vector2f(speed*core.getMass(), 0), (float)(rand.nextFloat()*Math.PI*2));
+    core.addMovement(impulse);
+    core.rotate((rand.nextFloat()*2-1)*p.rule.spin*core.getMass());
+
+    p.alive.add(cc);
+    owners.put(cc, p);
+    Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(cc, ENT.ADD)));
+  }
+
+  private void emit(Emitter e){
+    Vector2f pos = new Vector2f(rand.nextFloat()*Ref.xRes, rand.nextFloat()*Ref.yRes);
+    float angle = (float)(rand.nextFloat()*Math.PI*2);
+
+    for(ParticleSettings ps : e.effect){
+      ParticleSettings copy = ps.copy();
+      copy.settings.put("position", pos);
+      copy.settings.put("angle", (float)copy.settings.get("angle")+angle);
+      copy.settings.put("momentum", new Vector2f(0,0));
+      Messenger.send(Message.obtain(M_TYPE.PARTICLE_CRT, copy));
+    }
+  }
+
+  private void sample(long now, int entityCount){
+    double frame = now - lastFrame;
+    lastFrame = now;
+    double tick = phm.getTickCost();
+
+    frames++;
+    frameSum += frame;
+    frameMax = Math.max(frameMax, frame);
+    tickSum += tick;
+    tickMax = Math.max(tickMax, tick);
+    entitySum += entityCount;
+    entityMax = Math.max(entityMax, entityCount);
+  }
+
+  private void finishLevel(long now){
+    int n = Math.max(frames, 1);
+    double secs = (now - levelStart)/1000d;
+
+    String line = String.format(Locale.ROOT, "%d;%d;%d;%d;%.2f;%.2f;%.1f;%.3f;%.3f;%d",
+        level, entitySum/n, entityMax, frames, frameSum/n, frameMax, frames/secs, tickSum/n, tickMax, phm.getTPS());
+    report.add(line);
+    SimpleLogger.log("Scenario "+scenario.name+" level "+line, 0, ScenarioRunner.class, "finishLevel");
+
+    resetSamples();
+  }
+
+  private void resetSamples(){
+    frames = 0;
+    frameSum = frameMax = 0;
+    tickSum = tickMax = 0;
+    entitySum = entityMax = 0;
+  }
+
+  private void writeReport(){
+    File dir = new File("log");
+    dir.mkdirs();
+    String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+    File f = new File(dir, "scenario_"+scenario.name.replaceAll("\\W", "_")+"_"+stamp+".csv");
+
+    try (BufferedWriter wr = new BufferedWriter(new FileWriter(f));){
+      wr.write("#"+scenario.name+" seed="+scenario.seed+" levelTime="+scenario.levelTime);
+      wr.newLine();
+      for(String s : report){
+        wr.write(s);
+        wr.newLine();
+      }
+    } catch (IOException e) {
+      SimpleLogger.log(-1, ScenarioRunner.class, "writeReport", "Couldn't write the report of scenario {}: {}", scenario.name, e.getMessage());
+      return;
+    }
+
+    SimpleLogger.log("Scenario "+scenario.name+" finished, report written to "+f.getPath(), 0, ScenarioRunner.class, "writeReport");
+  }
+}
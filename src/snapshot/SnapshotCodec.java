@@ -0,0 +1,425 @@
+package snapshot;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Binary format of a WorldSnapshot. A snapshot is either written in full, or as delta against a base snapshot:
+ * entities found in the base (same handle) only store how much their quantized position, velocity, spin and
+ * rotation changed, as zigzag varints, and whichever of the rarely changing values differ. Entities not in the base
+ * are written in full, entities missing from the snapshot are simply left out. Between two ticks, most deltas fit
+ * into a byte, so an entity takes about 8 bytes instead of the 60 of a full entry.
+ *
+ *   int     MAGIC
+ *   byte    VERSION
+ *   byte    FULL or DELTA
+ *   long    time, and the base's time for a DELTA
+ *   int     score, byte upgrade stage, long next spawn, long spawn increment
+ *   varint  string count, each string as varint length and utf-8 bytes
+ *   varint  entity count, each entity as
+ *     varint  handle - previous handle - 1
+ *     byte    FULL:  varint pattern, zigzag x y, varint rotation, zigzag vx vy spin, float scale hp lifetime mass
+ *                    vFriction rFriction, zigzag age, byte flags, zigzag color rgba, varint n, n floats of state
+ *             DELTA: zigzag x y rotation vx vy spin, byte changed, then the changed values of scale hp flags
+ *                    mass/friction and state, as above
+ *   varint  particle system count, each as zigzag age, zigzag time since last touch, byte finished, varint setting
+ *           count, each setting as varint key, byte type and the value
+ *
+ * Snapshots are decoded straight from the buffer, e.g. a whole file loaded by SnapshotFile.
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector4f;
+
+import particles.ParticleSettings;
+
+public class SnapshotCodec {
+
+  static final int MAGIC = 0x41534E50;
+  static final byte VERSION = 1;
+
+  private static final byte FULL = 0;
+  private static final byte DELTA = 1;
+
+  //what changed in a delta encoded entity
+  private static final int CH_SCALE = 1;
+  private static final int CH_HP = 2;
+  private static final int CH_FLAGS = 4;
+  private static final int CH_MASS = 8;
+  private static final int CH_PARTS = 16;
+
+  //types of particle settings
+  private static final byte T_FLOAT = 0;
+  private static final byte T_BOOLEAN = 1;
+  private static final byte T_LONG = 2;
+  private static final byte T_VEC2 = 3;
+  private static final byte T_VEC4 = 4;
+  private static final byte T_STRING = 5;
+
+  //throws a BufferOverflowException if dst is too small, the caller may retry with a bigger one
+  public static void encode(WorldSnapshot s, WorldSnapshot base, ByteBuffer dst){
+    dst.putInt(MAGIC);
+    dst.put(VERSION);
+    dst.put(base == null ? FULL : DELTA);
+    dst.putLong(s.time);
+    if(base != null) dst.putLong(base.time);
+
+    dst.putInt(s.score);
+    dst.put((byte)s.upgradeStage);
+    dst.putLong(s.nextSpawn);
+    dst.putLong(s.increment);
+
+    putVarInt(dst, s.strings.size());
+    for(String str : s.strings){
+      byte[] b = str.getBytes(StandardCharsets.UTF_8);
+      putVarInt(dst, b.length);
+      dst.put(b);
+    }
+
+    putVarInt(dst, s.count);
+    int prev = -1;
+    int j = 0;
+    for(int i=0;i<s.count;i++){
+      int h = s.handle[i];
+      putVarInt(dst, h-prev-1);
+      prev = h;
+
+      //both are sorted by handle
+      while(base != null && j < base.count && base.handle[j] < h) j++;
+      if(base != null && j < base.count && base.handle[j] == h){
+        dst.put(DELTA);
+        putDelta(dst, s, i, base, j);
+      }else{
+        dst.put(FULL);
+        putFull(dst, s, i);
+      }
+    }
+
+    putVarInt(dst, s.systems.size());
+    for(ParticleSettings ps : s.systems){
+      putSystem(dst, s, ps);
+    }
+  }
+
+  private static void putFull(ByteBuffer dst, WorldSnapshot s, int i){
+    putVarInt(dst, s.pattern[i]);
+    putZigZag(dst, s.x[i]);
+    putZigZag(dst, s.y[i]);
+    putVarInt(dst, s.rot[i]);
+    putZigZag(dst, s.vx[i]);
+    putZigZag(dst, s.vy[i]);
+    putZigZag(dst, s.spin[i]);
+    dst.putFloat(s.scale[i]);
+    dst.putFloat(s.hp[i]);
+    dst.putFloat(s.life[i]);
+    dst.putFloat(s.mass[i]);
+    dst.putFloat(s.vFriction[i]);
+    dst.putFloat(s.rFriction[i]);
+    putZigZag(dst, s.time-s.birth[i]);
+    dst.put((byte)s.flags[i]);
+    for(int c=0;c<4;c++){
+      putZigZag(dst, s.color[i*4+c]);
+    }
+    putParts(dst, s, i);
+  }
+
+  private static void putDelta(ByteBuffer dst, WorldSnapshot s, int i, WorldSnapshot b, int j){
+    putZigZag(dst, s.x[i]-b.x[j]);
+    putZigZag(dst, s.y[i]-b.y[j]);
+    //the shorter way around
+    putZigZag(dst, (short)(s.rot[i]-b.rot[j]));
+    putZigZag(dst, s.vx[i]-b.vx[j]);
+    putZigZag(dst, s.vy[i]-b.vy[j]);
+    putZigZag(dst, s.spin[i]-b.spin[j]);
+
+    int changed = 0;
+    if(s.scale[i] != b.scale[j]) changed |= CH_SCALE;
+    if(Float.compare(s.hp[i], b.hp[j]) != 0) changed |= CH_HP;
+    if(s.flags[i] != b.flags[j]) changed |= CH_FLAGS;
+    if(s.mass[i] != b.mass[j] || s.vFriction[i] != b.vFriction[j] || s.rFriction[i] != b.rFriction[j]) changed |= CH_MASS;
+    if(!sameParts(s, i, b, j)) changed |= CH_PARTS;
+    dst.put((byte)changed);
+
+    if((changed & CH_SCALE) != 0) dst.putFloat(s.scale[i]);
+    if((changed & CH_HP) != 0) dst.putFloat(s.hp[i]);
+    if((changed & CH_FLAGS) != 0) dst.put((byte)s.flags[i]);
+    if((changed & CH_MASS) != 0){
+      dst.putFloat(s.mass[i]);
+      dst.putFloat(s.vFriction[i]);
+      dst.putFloat(s.rFriction[i]);
+    }
+    if((changed & CH_PARTS) != 0) putParts(dst, s, i);
+  }
+
+  private static boolean sameParts(WorldSnapshot s, int i, WorldSnapshot b, int j){
+    int n = s.partStart[i+1]-s.partStart[i];
+    if(n != b.partStart[j+1]-b.partStart[j]) return false;
+    for(int k=0;k<n;k++){
+      if(s.parts[s.partStart[i]+k] != b.parts[b.partStart[j]+k]) return false;
+    }
+    return true;
+  }
+
+  private static void putParts(ByteBuffer dst, WorldSnapshot s, int i){
+    int n = s.partStart[i+1]-s.partStart[i];
+    putVarInt(dst, n);
+    for(int k=0;k<n;k++){
+      dst.putFloat(s.parts[s.partStart[i]+k]);
+    }
+  }
+
+  private static void putSystem(ByteBuffer dst, WorldSnapshot s, ParticleSettings ps){
+    putZigZag(dst, s.time-ps.timeStarted);
+    putZigZag(dst, s.time-ps.lastTouch);
+    dst.put((byte)(ps.finished ? 1 : 0));
+
+    int n = 0;
+    for(Object v : ps.settings.values()){
+      //every system gets a new id when it is restored
+      if(!(v instanceof UUID)) n++;
+    }
+    putVarInt(dst, n);
+
+    for(Entry<String, Object> e : ps.settings.entrySet()){
+      Object v = e.getValue();
+      if(v instanceof UUID) continue;
+
+      putVarInt(dst, s.stringId(e.getKey()));
+      if(v instanceof Float){
+        dst.put(T_FLOAT);
+        dst.putFloat((Float)v);
+      }else if(v instanceof Boolean){
+        dst.put(T_BOOLEAN);
+        dst.put((byte)((Boolean)v ? 1 : 0));
+      }else if(v instanceof Long){
+        dst.put(T_LONG);
+        putZigZag(dst, (Long)v);
+      }else if(v instanceof Vector2f){
+        Vector2f v2 = (Vector2f)v;
+        dst.put(T_VEC2);
+        dst.putFloat(v2.x);
+        dst.putFloat(v2.y);
+      }else if(v instanceof Vector4f){
+        Vector4f v4 = (Vector4f)v;
+        dst.put(T_VEC4);
+        dst.putFloat(v4.x);
+        dst.putFloat(v4.y);
+        dst.putFloat(v4.z);
+        dst.putFloat(v4.w);
+      }else if(v instanceof String){
+        dst.put(T_STRING);
+        putVarInt(dst, s.stringId((String)v));
+      }else{
+        throw new IllegalArgumentException("Particle setting "+e.getKey()+" of unknown type "+v.getClass().getName());
+      }
+    }
+  }
+
+  //the time of the base the snapshot in src was encoded against, or -1 for a FULL one. Doesn't move src
+  public static long getBaseTime(ByteBuffer src){
+    int p = src.position();
+    if(src.getInt(p) != MAGIC) throw new IllegalArgumentException("Not a world snapshot");
+    return src.get(p+5) == DELTA ? src.getLong(p+14) : -1;
+  }
+
+  //base must be the snapshot a DELTA was encoded against, it is ignored for a FULL one
+  public static WorldSnapshot decode(ByteBuffer src, WorldSnapshot base){
+    if(src.getInt() != MAGIC) throw new IllegalArgumentException("Not a world snapshot");
+    byte version = src.get();
+    if(version != VERSION) throw new IllegalArgumentException("Unsupported snapshot version "+version);
+    byte kind = src.get();
+    long time = src.getLong();
+
+    if(kind == DELTA){
+      long baseTime = src.getLong();
+      if(base == null) throw new IllegalArgumentException("Delta snapshot without its base");
+      if(base.time != baseTime) throw new IllegalArgumentException("Delta snapshot of base "+baseTime+", got "+base.time);
+    }else{
+      base = null;
+    }
+
+    WorldSnapshot s = new WorldSnapshot(time, 0);
+    s.score = src.getInt();
+    s.upgradeStage = src.get();
+    s.nextSpawn = src.getLong();
+    s.increment = src.getLong();
+
+    int strings = getVarInt(src);
+    for(int i=0;i<strings;i++){
+      byte[] b = new byte[getVarInt(src)];
+      src.get(b);
+      s.stringId(new String(b, StandardCharsets.UTF_8));
+    }
+
+    int count = getVarInt(src);
+    int prev = -1;
+    int j = 0;
+    for(int n=0;n<count;n++){
+      int i = s.next();
+      int h = prev+1+getVarInt(src);
+      s.handle[i] = h;
+      prev = h;
+
+      if(src.get() == DELTA){
+        if(base == null) throw new IllegalArgumentException("Delta encoded entity in a full snapshot");
+        while(j < base.count && base.handle[j] < h) j++;
+        if(j == base.count || base.handle[j] != h) throw new IllegalArgumentException("Entity "+h+" isn't part of the base");
+        getDelta(src, s, i, base, j);
+      }else{
+        getFull(src, s, i);
+      }
+      s.count++;
+    }
+
+    int systems = getVarInt(src);
+    for(int n=0;n<systems;n++){
+      s.systems.add(getSystem(src, s));
+    }
+    return s;
+  }
+
+  private static void getFull(ByteBuffer src, WorldSnapshot s, int i){
+    s.pattern[i] = getVarInt(src);
+    s.x[i] = getZigZagInt(src);
+    s.y[i] = getZigZagInt(src);
+    s.rot[i] = getVarInt(src);
+    s.vx[i] = getZigZagInt(src);
+    s.vy[i] = getZigZagInt(src);
+    s.spin[i] = getZigZagInt(src);
+    s.scale[i] = src.getFloat();
+    s.hp[i] = src.getFloat();
+    s.life[i] = src.getFloat();
+    s.mass[i] = src.getFloat();
+    s.vFriction[i] = src.getFloat();
+    s.rFriction[i] = src.getFloat();
+    s.birth[i] = s.time-getZigZag(src);
+    s.flags[i] = src.get();
+    for(int c=0;c<4;c++){
+      s.color[i*4+c] = getZigZagInt(src);
+    }
+    getParts(src, s, i);
+  }
+
+  private static void getDelta(ByteBuffer src, WorldSnapshot s, int i, WorldSnapshot b, int j){
+    s.pattern[i] = s.stringId(b.strings.get(b.pattern[j]));
+    s.x[i] = b.x[j]+getZigZagInt(src);
+    s.y[i] = b.y[j]+getZigZagInt(src);
+    s.rot[i] = (b.rot[j]+getZigZagInt(src)) & (WorldSnapshot.ANGLE_STEPS-1);
+    s.vx[i] = b.vx[j]+getZigZagInt(src);
+    s.vy[i] = b.vy[j]+getZigZagInt(src);
+    s.spin[i] = b.spin[j]+getZigZagInt(src);
+
+    //the rest stays the same, unless marked as changed
+    s.scale[i] = b.scale[j];
+    s.hp[i] = b.hp[j];
+    s.life[i] = b.life[j];
+    s.mass[i] = b.mass[j];
+    s.vFriction[i] = b.vFriction[j];
+    s.rFriction[i] = b.rFriction[j];
+    s.birth[i] = b.birth[j];
+    s.flags[i] = b.flags[j];
+    System.arraycopy(b.color, j*4, s.color, i*4, 4);
+
+    int changed = src.get();
+    if((changed & CH_SCALE) != 0) s.scale[i] = src.getFloat();
+    if((changed & CH_HP) != 0) s.hp[i] = src.getFloat();
+    if((changed & CH_FLAGS) != 0) s.flags[i] = src.get();
+    if((changed & CH_MASS) != 0){
+      s.mass[i] = src.getFloat();
+      s.vFriction[i] = src.getFloat();
+      s.rFriction[i] = src.getFloat();
+    }
+    if((changed & CH_PARTS) != 0){
+      getParts(src, s, i);
+    }else{
+      int from = b.partStart[j];
+      int n = b.partStart[j+1]-from;
+      s.partStart[i] = s.partCount;
+      s.ensureParts(s.partCount+n);
+      System.arraycopy(b.parts, from, s.parts, s.partCount, n);
+      s.partCount += n;
+      s.partStart[i+1] = s.partCount;
+    }
+  }
+
+  private static void getParts(ByteBuffer src, WorldSnapshot s, int i){
+    int n = getVarInt(src);
+    s.partStart[i] = s.partCount;
+    s.ensureParts(s.partCount+n);
+    for(int k=0;k<n;k++){
+      s.parts[s.partCount++] = src.getFloat();
+    }
+    s.partStart[i+1] = s.partCount;
+  }
+
+  private static ParticleSettings getSystem(ByteBuffer src, WorldSnapshot s){
+    ParticleSettings ps = new ParticleSettings();
+    ps.timeStarted = s.time-getZigZag(src);
+    ps.lastTouch = s.time-getZigZag(src);
+    ps.finished = src.get() != 0;
+
+    int n = getVarInt(src);
+    for(int k=0;k<n;k++){
+      String key = s.strings.get(getVarInt(src));
+      byte type = src.get();
+      switch(type){
+      case T_FLOAT:   ps.settings.put(key, src.getFloat()); break;
+      case T_BOOLEAN: ps.settings.put(key, src.get() != 0); break;
+      case T_LONG:    ps.settings.put(key, getZigZag(src)); break;
+      case T_VEC2:    ps.settings.put(key, new Vector2f(src.getFloat(), src.getFloat())); break;
+      case T_VEC4:    ps.settings.put(key, new Vector4f(src.getFloat(), src.getFloat(), src.getFloat(), src.getFloat())); break;
+      case T_STRING:  ps.settings.put(key, s.strings.get(getVarInt(src))); break;
+      default: throw new IllegalArgumentException("Particle setting "+key+" of unknown type "+type);
+      }
+    }
+    return ps;
+  }
+
+  static void putVarInt(ByteBuffer dst, int v){
+    while((v & ~0x7F) != 0){
+      dst.put((byte)((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    dst.put((byte)v);
+  }
+
+  static void putVarLong(ByteBuffer dst, long v){
+    while((v & ~0x7FL) != 0){
+      dst.put((byte)((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    dst.put((byte)v);
+  }
+
+  static void putZigZag(ByteBuffer dst, long v){
+    putVarLong(dst, (v << 1) ^ (v >> 63));
+  }
+
+  static int getVarInt(ByteBuffer src){
+    return (int)getVarLong(src);
+  }
+
+  static long getVarLong(ByteBuffer src){
+    long v = 0;
+    for(int shift=0;shift<64;shift+=7){
+      byte b = src.get();
+      v |= (long)(b & 0x7F) << shift;
+      if((b & 0x80) == 0) return v;
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  static long getZigZag(ByteBuffer src){
+    long v = getVarLong(src);
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  static int getZigZagInt(ByteBuffer src){
+    return (int)getZigZag(src);
+  }
+}
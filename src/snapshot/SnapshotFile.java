@@ -0,0 +1,100 @@
+package snapshot;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Writes and reads WorldSnapshot files. A snapshot is encoded into a direct buffer that is kept between writes, then
+ * written to the file in one go; reading loads the whole file into a buffer and decodes from it. Files are written
+ * next to their final name, forced to the disk and moved over it afterwards, so a crash while writing, even of the
+ * system, leaves the previous file intact.
+ *
+ * The files aren't memory mapped: a mapping is only released by the garbage collector, and on Windows a file that
+ * is still mapped can't be replaced, while quick-saves and checkpoints are written under the same name each time.
+ *
+ * A file starts with the name of the file holding its base, empty for a full snapshot, followed by the encoded
+ * snapshot (see SnapshotCodec). The base has to lie in the same directory and is read along with the delta.
+ *
+ * Writing isn't synchronized, a SnapshotFile belongs to the thread writing the snapshots.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public class SnapshotFile {
+
+  private ByteBuffer buffer;
+
+  public SnapshotFile(){
+    buffer = ByteBuffer.allocateDirect(1 << 16);
+  }
+
+  public void write(File f, WorldSnapshot s) throws IOException{
+    write(f, s, null, null);
+  }
+
+  //writes s as delta against base, which has to be written to baseFile already
+  public void write(File f, WorldSnapshot s, WorldSnapshot base, File baseFile) throws IOException{
+    byte[] name = base == null ? new byte[0] : baseFile.getName().getBytes(StandardCharsets.UTF_8);
+
+    while(true){
+      buffer.clear();
+      try {
+        buffer.putShort((short)name.length);
+        buffer.put(name);
+        SnapshotCodec.encode(s, base, buffer);
+        break;
+      } catch (BufferOverflowException e) {
+        buffer = ByteBuffer.allocateDirect(buffer.capacity()*2);
+      }
+    }
+    buffer.flip();
+
+    File parent = f.getAbsoluteFile().getParentFile();
+    parent.mkdirs();
+    File tmp = new File(parent, f.getName()+".tmp");
+    try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                           StandardOpenOption.WRITE);){
+      while(buffer.hasRemaining()){
+        ch.write(buffer);
+      }
+      //on the disk before it replaces the previous file, not just in the system's cache
+      ch.force(true);
+    }
+    Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  //size of the last written file in bytes
+  public int getLastSize(){
+    return buffer.limit();
+  }
+
+  public static WorldSnapshot read(File f) throws IOException{
+    try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);){
+      ByteBuffer data = ByteBuffer.allocate((int)ch.size());
+      while(data.hasRemaining()){
+        if(ch.read(data) < 0) break;
+      }
+      data.flip();
+
+      byte[] name = new byte[data.getShort() & 0xFFFF];
+      data.get(name);
+      WorldSnapshot base = null;
+      if(name.length > 0){
+        base = read(new File(f.getAbsoluteFile().getParentFile(), new String(name, StandardCharsets.UTF_8)));
+      }
+
+      return SnapshotCodec.decode(data, base);
+    } catch (IllegalArgumentException | BufferUnderflowException e) {
+      throw new IOException("Broken snapshot "+f+": "+e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,394 @@
+package snapshot;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Everything needed to rebuild the world at one tick: every entity the physics know about, the running particle
+ * systems, and the score and spawning progress of the Game. The PhysicsManager's Worker captures it at the end of a
+ * tick, which only copies numbers into arrays, and hands it over to the Game as a WORLD_SNAPSHOT message. Encoding
+ * and writing it happens there, so the physics don't wait for the disk.
+ *
+ * An entity is stored as the name of the pattern it was copied from, its handle and the state of its "core"
+ * PhysicsEntry, followed by the state of its "stateful"-tagged components in registration order. Positions,
+ * velocities, spin, rotation and color are quantized here already, so delta encoding against another snapshot
+ * works on exact integers and doesn't drift:
+ *
+ *   position, velocity   1/16 px (per second)
+ *   spin                 1/4096 rad per second
+ *   rotation             1/65536 of a turn
+ *   color                1/256
+ *
+ * The entities are kept sorted by handle, so two snapshots can be compared in one pass. Entities without a pattern
+ * can't be rebuilt and are left out.
+ *
+ * Times are absolute SimClock times. Restoring moves them by an offset, the time between taking and restoring the
+ * snapshot, so lifetimes, particle systems and spawning continue where they left off.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import logics.PhysicsEntry;
+
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector4f;
+
+import particles.ParticleSettings;
+import components.Component;
+import components.ComponentContainer;
+import components.StatefulComponent;
+
+public class WorldSnapshot {
+
+  public static final float POS_SCALE = 16;
+  public static final float VEL_SCALE = 16;
+  public static final float SPIN_SCALE = 4096;
+  public static final int ANGLE_STEPS = 1 << 16;
+  public static final float COLOR_SCALE = 256;
+
+  static final int VECTOR_ROTATION = 1;
+  static final int COLLIDES = 2;
+
+  //the particle setting holding the container to spawn, stored as its pattern name
+  private static final String SPAWN_OBJ = "spawnObj";
+
+  long time;
+
+  int score;
+  int upgradeStage;
+  long nextSpawn;
+  long increment;
+
+  int count;
+  int[] handle;
+  int[] pattern;
+  int[] x, y, rot;
+  int[] vx, vy, spin;
+  int[] flags;
+  int[] color;
+  float[] scale, hp, life;
+  float[] mass, vFriction, rFriction;
+  long[] birth;
+
+  //the stateful components' floats of entity i are parts[partStart[i]] up to parts[partStart[i+1]]
+  int[] partStart;
+  float[] parts;
+  int partCount;
+
+  ArrayList<ParticleSettings> systems;
+
+  //pattern names, setting keys and string settings are stored once and referred to by index
+  ArrayList<String> strings;
+  private HashMap<String, Integer> stringIds;
+
+  public WorldSnapshot(long t, int capacity){
+    time = t;
+    capacity = Math.max(capacity, 16);
+
+    handle = new int[capacity];
+    pattern = new int[capacity];
+    x = new int[capacity];
+    y = new int[capacity];
+    rot = new int[capacity];
+    vx = new int[capacity];
+    vy = new int[capacity];
+    spin = new int[capacity];
+    flags = new int[capacity];
+    color = new int[capacity*4];
+    scale = new float[capacity];
+    hp = new float[capacity];
+    life = new float[capacity];
+    mass = new float[capacity];
+    vFriction = new float[capacity];
+    rFriction = new float[capacity];
+    birth = new long[capacity];
+    partStart = new int[capacity+1];
+    parts = new float[64];
+
+    systems = new ArrayList<>();
+    strings = new ArrayList<>();
+    stringIds = new HashMap<>();
+  }
+
+  //called on the physics Worker, between two ticks. Returns false if the entity has no pattern to be rebuilt from
+  public boolean add(ComponentContainer cc, PhysicsEntry core){
+    if(cc.getPattern() == null) return false;
+    int i = next();
+
+    handle[i] = cc.getHandle();
+    pattern[i] = stringId(cc.getPattern());
+
+    Vector2f v = core.getPosition();
+    x[i] = Math.round(v.x*POS_SCALE);
+    y[i] = Math.round(v.y*POS_SCALE);
+    rot[i] = quantizeAngle(core.getRotation());
+    v = core.getV_Impulse();
+    vx[i] = Math.round(v.x*VEL_SCALE);
+    vy[i] = Math.round(v.y*VEL_SCALE);
+    spin[i] = Math.round(core.getR_Impulse()*SPIN_SCALE);
+
+    flags[i] = (core.vectorRotation ? VECTOR_ROTATION : 0) | (core.hasTag("collisions") ? COLLIDES : 0);
+    Vector4f c = core.getBaseColorMod();
+    color[i*4+0] = Math.round(c.x*COLOR_SCALE);
+    color[i*4+1] = Math.round(c.y*COLOR_SCALE);
+    color[i*4+2] = Math.round(c.z*COLOR_SCALE);
+    color[i*4+3] = Math.round(c.w*COLOR_SCALE);
+
+    scale[i] = core.getScale().x;
+    hp[i] = core.getLife();
+    life[i] = (float)core.lifeTime;
+    mass[i] = core.getMass();
+    vFriction[i] = core.getV_Friction();
+    rFriction[i] = core.getR_Friction();
+    birth[i] = core.getBirth();
+
+    partStart[i] = partCount;
+    for(Component co : cc.getComponentsOrdered("stateful")){
+      StatefulComponent sc = (StatefulComponent)co;
+      ensureParts(partCount+sc.getStateSize());
+      sc.writeState(parts, partCount);
+      partCount += sc.getStateSize();
+    }
+    partStart[i+1] = partCount;
+
+    count++;
+    return true;
+  }
+
+  public void addSystem(ParticleSettings ps){
+    ParticleSettings copy = new ParticleSettings();
+    copy.timeStarted = ps.timeStarted;
+    copy.lastTouch = ps.lastTouch;
+    copy.finished = ps.finished;
+
+    for(Entry<String, Object> e : ps.settings.entrySet()){
+      Object v = e.getValue();
+      if(v instanceof ComponentContainer) v = ((ComponentContainer)v).getPattern();
+      if(v == null) continue;
+
+      stringId(e.getKey());
+      if(v instanceof String) stringId((String)v);
+      copy.settings.put(e.getKey(), v);
+    }
+    systems.add(copy);
+  }
+
+  //sorts the entities by handle, once all are added
+  public void finish(){
+    boolean sorted = true;
+    for(int i=1;i<count && sorted;i++){
+      if(handle[i-1] > handle[i]) sorted = false;
+    }
+    if(sorted) return;
+
+    long[] keys = new long[count];
+    for(int i=0;i<count;i++){
+      keys[i] = ((long)handle[i] << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] order = new int[count];
+    for(int i=0;i<count;i++){
+      order[i] = (int)keys[i];
+    }
+
+    handle = permute(handle, order, 1);
+    pattern = permute(pattern, order, 1);
+    x = permute(x, order, 1);
+    y = permute(y, order, 1);
+    rot = permute(rot, order, 1);
+    vx = permute(vx, order, 1);
+    vy = permute(vy, order, 1);
+    spin = permute(spin, order, 1);
+    flags = permute(flags, order, 1);
+    color = permute(color, order, 4);
+    scale = permute(scale, order);
+    hp = permute(hp, order);
+    life = permute(life, order);
+    mass = permute(mass, order);
+    vFriction = permute(vFriction, order);
+    rFriction = permute(rFriction, order);
+
+    long[] b = new long[birth.length];
+    for(int i=0;i<count;i++){
+      b[i] = birth[order[i]];
+    }
+    birth = b;
+
+    float[] p = new float[parts.length];
+    int[] ps = new int[partStart.length];
+    int n = 0;
+    for(int i=0;i<count;i++){
+      int from = partStart[order[i]];
+      int len = partStart[order[i]+1]-from;
+      System.arraycopy(parts, from, p, n, len);
+      ps[i] = n;
+      n += len;
+    }
+    ps[count] = n;
+    parts = p;
+    partStart = ps;
+  }
+
+  public void setGameState(int sc, int stage, long spawn, long inc){
+    score = sc;
+    upgradeStage = stage;
+    nextSpawn = spawn;
+    increment = inc;
+  }
+
+  public long getTime(){
+    return time;
+  }
+
+  public int getScore(){
+    return score;
+  }
+
+  public int getUpgradeStage(){
+    return upgradeStage;
+  }
+
+  public long getNextSpawn(){
+    return nextSpawn;
+  }
+
+  public long getIncrement(){
+    return increment;
+  }
+
+  public int size(){
+    return count;
+  }
+
+  public int getSystemCount(){
+    return systems.size();
+  }
+
+  public int getHandle(int i){
+    return handle[i];
+  }
+
+  public String getPattern(int i){
+    return strings.get(pattern[i]);
+  }
+
+  //sets the stored state of entity i on a fresh copy of its pattern. Times are moved by offset
+  public void apply(int i, ComponentContainer cc, long offset){
+    PhysicsEntry core = (PhysicsEntry)cc.getComponents("core").iterator().next();
+
+    core.setPosition(new Vector2f(x[i]/POS_SCALE, y[i]/POS_SCALE));
+    core.setRotation((float)(rot[i]*Math.PI*2/ANGLE_STEPS));
+    core.setV_Impulse(new Vector2f(vx[i]/VEL_SCALE, vy[i]/VEL_SCALE));
+    core.setR_Impulse(spin[i]/SPIN_SCALE);
+
+    core.vectorRotation = (flags[i] & VECTOR_ROTATION) != 0;
+    if((flags[i] & COLLIDES) != 0) core.addTag("collisions");
+    else core.removeTag("collisions");
+    core.setColorMod(new Vector4f(color[i*4]/COLOR_SCALE, color[i*4+1]/COLOR_SCALE,
+                                  color[i*4+2]/COLOR_SCALE, color[i*4+3]/COLOR_SCALE));
+
+    core.setScale(scale[i]);
+    core.setLife(hp[i]);
+    core.lifeTime = life[i];
+    core.setMass(mass[i]);
+    core.setV_Friction(vFriction[i]);
+    core.setR_Friction(rFriction[i]);
+    core.setBirth(birth[i]+offset);
+
+    int off = partStart[i];
+    for(Component co : cc.getComponentsOrdered("stateful")){
+      StatefulComponent sc = (StatefulComponent)co;
+      //a pattern that changed since the snapshot was taken only gets what fits
+      if(off+sc.getStateSize() > partStart[i+1]) break;
+      sc.readState(parts, off);
+      off += sc.getStateSize();
+    }
+  }
+
+  //fresh copies of the particle systems, ready to be sent to the PhysicsManager. Times are moved by offset
+  public LinkedList<ParticleSettings> createSystems(Map<String, ComponentContainer> patterns, long offset){
+    LinkedList<ParticleSettings> ll = new LinkedList<>();
+    for(ParticleSettings stored : systems){
+      ParticleSettings ps = new ParticleSettings();
+      ps.timeStarted = stored.timeStarted+offset;
+      ps.lastTouch = stored.lastTouch+offset;
+      ps.finished = stored.finished;
+
+      for(Entry<String, Object> e : stored.settings.entrySet()){
+        //the copy already got a new id
+        if(!ps.settings.containsKey(e.getKey())) ps.settings.put(e.getKey(), e.getValue());
+      }
+      ComponentContainer spawn = patterns.get(ps.settings.get(SPAWN_OBJ));
+      if(spawn == null) continue;
+      ps.settings.put(SPAWN_OBJ, spawn);
+      ll.add(ps);
+    }
+    return ll;
+  }
+
+  int stringId(String s){
+    Integer id = stringIds.get(s);
+    if(id == null){
+      id = strings.size();
+      strings.add(s);
+      stringIds.put(s, id);
+    }
+    return id;
+  }
+
+  //the next free entity slot, growing the arrays if needed
+  int next(){
+    if(count == handle.length){
+      int n = handle.length*2;
+      handle = Arrays.copyOf(handle, n);
+      pattern = Arrays.copyOf(pattern, n);
+      x = Arrays.copyOf(x, n);
+      y = Arrays.copyOf(y, n);
+      rot = Arrays.copyOf(rot, n);
+      vx = Arrays.copyOf(vx, n);
+      vy = Arrays.copyOf(vy, n);
+      spin = Arrays.copyOf(spin, n);
+      flags = Arrays.copyOf(flags, n);
+      color = Arrays.copyOf(color, n*4);
+      scale = Arrays.copyOf(scale, n);
+      hp = Arrays.copyOf(hp, n);
+      life = Arrays.copyOf(life, n);
+      mass = Arrays.copyOf(mass, n);
+      vFriction = Arrays.copyOf(vFriction, n);
+      rFriction = Arrays.copyOf(rFriction, n);
+      birth = Arrays.copyOf(birth, n);
+      partStart = Arrays.copyOf(partStart, n+1);
+    }
+    return count;
+  }
+
+  void ensureParts(int n){
+    if(n > parts.length) parts = Arrays.copyOf(parts, Math.max(n, parts.length*2));
+  }
+
+  static int quantizeAngle(float r){
+    long q = Math.round(r/(Math.PI*2)*ANGLE_STEPS);
+    return (int)(((q % ANGLE_STEPS) + ANGLE_STEPS) % ANGLE_STEPS);
+  }
+
+  private int[] permute(int[] a, int[] order, int stride){
+    int[] p = new int[a.length];
+    for(int i=0;i<count;i++){
+      System.arraycopy(a, order[i]*stride, p, i*stride, stride);
+    }
+    return p;
+  }
+
+  private float[] permute(float[] a, int[] order){
+    float[] p = new float[a.length];
+    for(int i=0;i<count;i++){
+      p[i] = a[order[i]];
+    }
+    return p;
+  }
+}
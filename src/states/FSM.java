@@ -28,9 +28,21 @@ public class FSM extends State {
   @Override
   public void handleMessage(Message m){
     if((states.get(currentState)).containsKey(m.getParam())){
+      StateTransitionEvent event = new StateTransitionEvent();
+      event.begin();
+      State from = currentState;
+      
       currentState.deactivate();
       currentState = states.get(currentState).get(m.getParam());
       currentState.activate();
+      
+      event.end();
+      if(event.shouldCommit()){
+        event.from = from.getClass().getSimpleName();
+        event.to = currentState.getClass().getSimpleName();
+        event.transition = String.valueOf(m.getParam());
+        event.commit();
+      }
     }
   }
 
@@ -11,14 +11,47 @@ package states;
  * component creation, however, there wasn't enough time.
  * 
  * The Game then renders all GraphicsComponents received by the
- * Messaging system. Upgrades are also handled manually, because
+ * Messaging system, which a RenderExtractor keeps track of, so
+ * there is no need to search all entities each frame. Upgrades are also handled manually, because
  * of a lack of time sadly. At 12.000 points, the player ComponentContainer
  * gets modified to receive a new engine, and at 20.000 points to receive
  * new weapons.
  * 
  * When the player dies, highscores are written to a file. Sending the message
  * to change the state in the FSM is delayed 3.5 seconds, so that the player
- * has a chance to recognize, that he died.
+ * has a chance to recognize, that he died. Delayed actions like this one are
+ * registered in a TimerWheel, that is advanced each update.
+ * 
+ * F3 toggles a PerformanceOverlay with the timings of the physics phases.
+ * 
+ * F5 asks the PhysicsManager for a WorldSnapshot and writes it to the quick-save, F9 restarts the game from it. The
+ * world is also saved as a checkpoint every Ref.CHECKPOINT_TIME, mostly as delta against the last full one, and a
+ * game can be started from any of those files with -Dasteroids.restore. Restoring rebuilds every entity from its
+ * pattern, then puts back the upgrades of the player and the stored state. Birth triggers fire again for the
+ * restored entities, and a scenario starts over, as its progress isn't part of the snapshot.
+ * 
+ * If a scenario is given with -Dasteroids.scenario, a ScenarioRunner
+ * populates the world instead of the usual asteroid spawning, and the
+ * application is closed once the scenario is done.
+ * 
+ * With -Dasteroids.record, the game runs in lockstep on a simulated SimClock: each frame runs as many fixed ticks
+ * as real time has passed, and every tick delivers the pending messages, runs the game logic and steps the
+ * PhysicsManager, all on this thread. The delivered CONTROL_CMDs are written to a Recording with their tick, together
+ * with the seed of the RandomStreams. A Recording given with -Dasteroids.replay, or by the headless Replayer, is
+ * played back through the same ticks, with its commands sent instead of the player's.
+ * 
+ * net.GameServer hosts a game for several players: it runs in lockstep as well, without a player of its own. Every
+ * player who joins gets a ship, driven by the CONTROL_CMDs sent to the player's number, which is back NET_RESPAWN ms
+ * after being destroyed, and whose shots are tested against the world the player saw when firing them (see
+ * setViewTime()). Upgrades are shared and there is no game over. With -Dasteroids.connect, the game joins
+ * such a server instead: a GameClient then takes the place of the physics, and the score is the server's.
+ * 
+ * With -Dasteroids.spectate.port, a SpectatorServer streams the game to viewers, from snapshots requested every
+ * Ref.NET_SEND_TICKS ticks, or from those net.GameServer requests anyway.
+ * 
+ * Left over nondeterminism: a replay needs the same res/ files and Ref constants, and the same java version and cpu
+ * architecture, as Math's intrinsics may round differently elsewhere. Only the simulation is covered; rendering,
+ * timing and profiling still run on the wall clock and don't feed back into it.
  * 
  */
 
@@ -28,20 +61,28 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Locale;
 import java.util.Random;
 import java.util.TreeSet;
 import java.util.UUID;
 
+import org.lwjgl.input.Keyboard;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Vector4f;
 
 import particles.ParticleCreator;
 import particles.ParticleSettings;
+import replay.Recorder;
+import replay.Recording;
+import snapshot.SnapshotFile;
+import snapshot.WorldSnapshot;
+import components.BasicComponent;
 import components.Component;
 import components.ComponentContainer;
 import components.GraphicsComponent;
@@ -50,7 +91,9 @@ import components.StatusComponent;
 import components.TriggerComponent;
 import glGraphics.AppWindow;
 import glGraphics.Construct;
+import glGraphics.RenderProfiler;
 import glGraphics.glGraphics;
+import gui.PerformanceOverlay;
 import logics.AsteroidSpawner;
 import logics.Engine;
 import logics.LifeWatcher;
@@ -58,27 +101,43 @@ import logics.ParticleAnnounce;
 import logics.PhysicsEntry;
 import logics.PhysicsManager;
 import logics.PlayerController;
+import logics.RenderExtractor;
+import logics.TimerWheel;
 import logics.ValueComponentImpl;
 import logics.Weapon;
+import net.GameClient;
+import net.SpectatorServer;
 import messaging.Message;
 import messaging.Message.CCMD;
 import messaging.Message.CCMD_Param;
 import messaging.Message.ENT;
 import messaging.Message.ENT_Param;
 import messaging.Message.M_TYPE;
+import messaging.Message.RW_IPT_Param;
 import messaging.Message.UPD_Param;
 import messaging.Messenger;
+import scenario.Scenario;
+import scenario.ScenarioRunner;
+import util.DenseList;
+import util.RandomStreams;
 import util.Ref;
+import util.SimClock;
+import util.SimpleLogger;
 
 public class Game extends State {
+  
+  //ticks run in one frame at most, after a stall the simulation rather slows down than catching up in one burst
+  private static final int MAX_CATCH_UP = 10;
 
   private glGraphics glx;
   private PhysicsManager phm;
+  private TimerWheel timers;
   private HashMap<String, UUID> constructs;
   private HashMap<String, Component> components;
   private HashMap<String, ComponentContainer> ccPatterns;
   
-  private LinkedList<ComponentContainer> entities;
+  private DenseList<ComponentContainer> entities;
+  private RenderExtractor renderer;
   private LinkedList<StatusComponent> stati;
   
   private int score;
@@ -87,9 +146,40 @@ public class Game extends State {
   
   private PhysicsComponent player;
   
+  private ScenarioRunner runner;
+  private PerformanceOverlay overlay;
+  
   private long nextSpawn;
   private long increment;
   private float incrementScale;
+  private Random rand;
+  
+  //lockstep only
+  private long accumulator;
+  private long lastFrame;
+  private Recorder recorder;
+  private Recording replay;
+  private int replayPos;
+  private int lastScore;
+  private long lastHash;
+  
+  //snapshots
+  private SnapshotFile snapshots;
+  private WorldSnapshot restore;
+  private boolean restartRequested;
+  private boolean quickSave;
+  private boolean checkpoint;
+  private WorldSnapshot keyframe;
+  private File keyframeFile;
+  private int keyframeSlot;
+  private int checkpoints;
+  
+  //multiplayer
+  private boolean hosting;
+  private HashSet<Integer> players;
+  private HashMap<Integer, PhysicsComponent> ships;
+  private GameClient client;
+  private SpectatorServer spectators;
   
   public Game(boolean activated) {
     super(activated);
@@ -114,8 +204,7 @@ public class Game extends State {
     LinkedList<Vector2f> ll = new LinkedList<>();
     Construct c = new Construct();
     UUID u;
-    Random r = new Random();
-    r.setSeed(System.currentTimeMillis());
+    Random r = RandomStreams.get("asteroidShape");
     
     for(int i=0; i<seg; i++){
       
@@ -143,7 +232,27 @@ public class Game extends State {
     createUpgradeComponents();
     createMiscComponents();
     createMainCC();
-    spawn();
+    createScenario();
+    if(client != null) client.start(ccPatterns);
+    else if(restore != null) restoreWorld();
+    else spawn();
+  }
+  
+  private void putPattern(String name, ComponentContainer cc){
+    cc.setPattern(name);
+    ccPatterns.put(name, cc);
+  }
+  
+  private void createScenario(){
+    runner = null;
+    String name = replay != null ? replay.getScenario() : Ref.SCENARIO;
+    if(name == null || hosting || client != null) return;
+    
+    try {
+      runner = new ScenarioRunner(Scenario.load(name), ccPatterns, phm);
+    } catch (IOException e) {
+      SimpleLogger.log("Couldn't load scenario "+name+": "+e.getMessage(), -1, Game.class, "createScenario");
+    }
   }
   
   private void createPE_Components(){
@@ -192,17 +301,17 @@ public class Game extends State {
     cc = new ComponentContainer();
     cc.registerComponent(components.get("pe_spark"));
     cc.linkComponents();
-    ccPatterns.put("cc_spark", cc);
+    putPattern("cc_spark", cc);
     
     cc = new ComponentContainer();
     cc.registerComponent(components.get("pe_exhaust"));
     cc.linkComponents();
-    ccPatterns.put("cc_exhaust", cc);
+    putPattern("cc_exhaust", cc);
     
     cc = new ComponentContainer();
     cc.registerComponent(components.get("pe_debris"));
     cc.linkComponents();
-    ccPatterns.put("cc_debris", cc);
+    putPattern("cc_debris", cc);
   }
   
   private void createPA_Components(){
@@ -272,14 +381,14 @@ public class Game extends State {
     cc.registerComponent(components.get("pA_bBulletCollide"));
     cc.registerComponent(components.get("pe_bBullet"));
     cc.linkComponents();
-    ccPatterns.put("cc_bBullet", cc);
+    putPattern("cc_bBullet", cc);
     
     cc = new ComponentContainer();
     cc.registerComponent(components.get("pA_aBulletSpawn"));
     cc.registerComponent(components.get("pA_aBulletCollide"));
     cc.registerComponent(components.get("pe_aBullet"));
     cc.linkComponents();
-    ccPatterns.put("cc_aBullet", cc);
+    putPattern("cc_aBullet", cc);
   }
   
   private void createUpgradeComponents(){
@@ -345,14 +454,23 @@ public class Game extends State {
     cc.registerComponent(components.get("playerHealth"));
     cc.registerComponent(components.get("pA_playerUpgrade"));
     cc.linkComponents();
-    ccPatterns.put("cc_player_ship", cc);
+    putPattern("cc_player_ship", cc);
+    
+    //the ship after each upgrade, for clients that only get to know the pattern and the upgrade stage
+    cc = ccPatterns.get("cc_player_ship").copy();
+    applyUpgrades(cc, 1);
+    putPattern("cc_player_ship1", cc);
+    
+    cc = ccPatterns.get("cc_player_ship").copy();
+    applyUpgrades(cc, 2);
+    putPattern("cc_player_ship2", cc);
     
     cc = new ComponentContainer();
     cc.registerComponent(components.get("pe_asteroid_small"));
     cc.registerComponent(components.get("pA_asteroidDeath").copy(false));
     cc.registerComponent(components.get("value_asteroid_small"));
     cc.linkComponents();
-    ccPatterns.put("cc_asteroid_small", cc);
+    putPattern("cc_asteroid_small", cc);
     
     AsteroidSpawner as;
     as = new AsteroidSpawner(ccPatterns.get("cc_asteroid_small"), 3, 50, 100);
@@ -364,7 +482,7 @@ public class Game extends State {
     cc.registerComponent(components.get("value_asteroid_medium"));
     cc.registerComponent(components.get("as_asteroid_small"));
     cc.linkComponents();
-    ccPatterns.put("cc_asteroid_medium", cc);
+    putPattern("cc_asteroid_medium", cc);
     
     as = new AsteroidSpawner(ccPatterns.get("cc_asteroid_medium"), 3, 50, 100);
     components.put("as_asteroid_medium", as);
@@ -375,79 +493,411 @@ public class Game extends State {
     cc.registerComponent(components.get("value_asteroid_big"));
     cc.registerComponent(components.get("as_asteroid_medium"));
     cc.linkComponents();
-    ccPatterns.put("cc_asteroid_big", cc);
+    putPattern("cc_asteroid_big", cc);
 
   }
   
   private void spawn(){
-    ComponentContainer p = ccPatterns.get("cc_player_ship").copy();
-    player = (PhysicsComponent)p.getComponents("core").iterator().next();
-    Messenger.send(new Message(M_TYPE.ENTITY_MGR, new ENT_Param(p,ENT.ADD)));
-    
     score = 0;
     upgradeStage = 0;
+    
+    player = null;
+    if(!hosting && (runner == null || runner.hasPlayer())){
+      ComponentContainer p = createShip(0);
+      player = (PhysicsComponent)p.getComponents("core").iterator().next();
+      Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(p,ENT.ADD)));
+    }
+    
     increment = 60000;
     incrementScale = 0.94f;
-    nextSpawn = System.currentTimeMillis();
+    nextSpawn = SimClock.now();
+    rand = RandomStreams.get("spawning");
+    
+    if(runner != null) runner.start(nextSpawn);
+  }
+  
+  //like spawn(), but with the entities and progress of a snapshot
+  private void restoreWorld(){
+    WorldSnapshot s = restore;
+    restore = null;
+    long now = SimClock.now();
+    long offset = now - s.getTime();
+    
+    player = null;
+    score = s.getScore();
+    upgradeStage = s.getUpgradeStage();
+    increment = s.getIncrement();
+    incrementScale = 0.94f;
+    nextSpawn = s.getNextSpawn() + offset;
+    rand = RandomStreams.get("spawning");
+    
+    for(int i=0;i<s.size();i++){
+      ComponentContainer pattern = ccPatterns.get(s.getPattern(i));
+      if(pattern == null){
+        SimpleLogger.log(-1, Game.class, "restoreWorld", "Unknown pattern {}, entity skipped", s.getPattern(i));
+        continue;
+      }
+      
+      ComponentContainer cc = pattern.copy();
+      if(!cc.getComponents("player0").isEmpty()){
+        applyUpgrades(cc, upgradeStage);
+        player = (PhysicsComponent)cc.getComponents("core").iterator().next();
+      }
+      s.apply(i, cc, offset);
+      Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(cc, ENT.ADD)));
+    }
+    
+    for(ParticleSettings ps : s.createSystems(ccPatterns, offset)){
+      Messenger.send(Message.obtain(M_TYPE.PARTICLE_CRT, ps));
+    }
+    
+    if(runner != null) runner.start(nextSpawn);
+    //taken while the game was already over
+    else if(player == null) prepareGameOver();
+    
+    SimpleLogger.log(0, Game.class, "restoreWorld", "Restored {} entities and {} particle systems, score {}",
+        s.size(), s.getSystemCount(), score);
+  }
+  
+  //a ship for the given player number, with the upgrades of the stage reached
+  private ComponentContainer createShip(int number){
+    ComponentContainer cc = ccPatterns.get("cc_player_ship").copy();
+    applyUpgrades(cc, upgradeStage);
+    for(Component c : cc.getComponents("player0")){
+      ((PlayerController)c).playerNumber = number;
+    }
+    return cc;
+  }
+  
+  //the container must not be added yet, so the components can be swapped without telling anyone
+  private void applyUpgrades(ComponentContainer cc, int stage){
+    if(stage >= 1) upgradeEngine(cc, new HashSet<Component>(), new HashSet<Component>());
+    if(stage >= 2) upgradeWeapons(cc, new HashSet<Component>(), new HashSet<Component>());
+  }
+  
+  /**
+   * Hosts the game for net.GameServer from the next activate() on: it runs in lockstep, without a player, until
+   * players join().
+   */
+  public void host(){
+    hosting = true;
+  }
+  
+  //adds a ship for a new player, and returns the player's number to send CONTROL_CMDs to
+  public int join(){
+    int number = 0;
+    while(players.contains(number)) number++;
+    players.add(number);
+    spawnShip(number);
+    return number;
+  }
+  
+  public void leave(int number){
+    players.remove(number);
+    PhysicsComponent pc = ships.remove(number);
+    if(pc != null){
+      Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(pc.getComponentContainer(), ENT.REMOVE)));
+    }
+  }
+  
+  //the time of the world the player sees, which the shots of the player's ship are tested against
+  public void setViewTime(int number, long t){
+    PhysicsComponent pc = ships.get(number);
+    if(pc == null) return;
+    for(Component w : pc.getComponentContainer().getComponents("weapon")){
+      ((Weapon)w).setViewTime(t);
+    }
+  }
+  
+  //handle of the player's ship, -1 while it waits for respawning
+  public int getShipHandle(int number){
+    PhysicsComponent pc = ships.get(number);
+    return pc == null ? -1 : pc.getComponentContainer().getHandle();
+  }
+  
+  public int getScore(){
+    return score;
+  }
+  
+  //the next tick ends with sending a WORLD_SNAPSHOT
+  public void requestSnapshot(){
+    phm.requestSnapshot();
+  }
+  
+  private void spawnShip(int number){
+    ComponentContainer cc = createShip(number);
+    PhysicsComponent core = (PhysicsComponent)cc.getComponents("core").iterator().next();
+    //a grid around the center, so players joining don't sit on top of each other
+    core.setPosition(new Vector2f(Ref.xRes/2 + (number%5-2)*120, Ref.yRes/2 + (number/5%3-1)*120));
+    ships.put(number, core);
+    Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, ENT_Param.obtain(cc, ENT.ADD)));
+  }
+  
+  //a destroyed ship of a hosted game comes back after a while, if its player is still there
+  private void shipLost(ComponentContainer cc){
+    Iterator<Integer> it = ships.keySet().iterator();
+    while(it.hasNext()){
+      final int number = it.next();
+      if(ships.get(number).getComponentContainer() != cc) continue;
+      it.remove();
+      
+      timers.scheduleDelay(SimClock.now(), Ref.NET_RESPAWN, new Runnable(){
+        @Override
+        public void run() {
+          if(players.contains(number) && !ships.containsKey(number)) spawnShip(number);
+        }
+      });
+      return;
+    }
+  }
+  
+  //every ship in the game, all players' when hosting: new asteroids spawn away from them, and upgrades apply to them
+  private Collection<PhysicsComponent> getShips(){
+    if(hosting) return ships.values();
+    LinkedList<PhysicsComponent> ll = new LinkedList<>();
+    if(player != null) ll.add(player);
+    return ll;
   }
   
   @Override
   public void activate(){
+    this.activated = true;
     gameOver = false;
+    players = new HashSet<>();
+    ships = new HashMap<>();
+    startClient();
+    startClock();
+    startSnapshots();
     phm = new PhysicsManager();
+    timers = new TimerWheel(Ref.PHYS_T_STEP, SimClock.now());
     
-    entities = new LinkedList<>();
+    entities = new DenseList<>(1024);
+    renderer = new RenderExtractor();
     stati = new LinkedList<>();
 
     Messenger.subscribe(this, Message.M_TYPE.ENTITY_MGR);
     Messenger.subscribe(this, Message.M_TYPE.ENTITY_UPD);
     Messenger.subscribe(this, Message.M_TYPE.CONTROL_CMD);
-    phm.start();
+    Messenger.subscribe(this, Message.M_TYPE.RAW_INPT);
+    Messenger.subscribe(this, Message.M_TYPE.WORLD_SNAPSHOT);
+    overlay = new PerformanceOverlay(phm);
+    Messenger.subscribe(overlay, Message.M_TYPE.RAW_INPT);
+    //a client only shows what the server sends, its physics stay off. Nobody watches the server's particles
+    phm.setParticles(!hosting);
+    phm.setLagCompensation(hosting);
+    if(client == null) phm.start();
     createAssets();
     createComponents();
+    if(replay == null && !hosting && client == null) scheduleCheckpoint();
+    startSpectators();
+  }
+  
+  //subscribed after this, so the snapshots carry the score once they arrive
+  private void startSpectators(){
+    if(Ref.SPECTATE_PORT < 0 || client != null) return;
+    try {
+      spectators = new SpectatorServer(Ref.SPECTATE_PORT);
+    } catch (IOException e) {
+      SimpleLogger.log(-1, Game.class, "startSpectators", "Couldn't stream on port {}: {}", Ref.SPECTATE_PORT, e.getMessage());
+      return;
+    }
+    if(!hosting) scheduleSpectating();
+  }
+  
+  private void scheduleSpectating(){
+    timers.scheduleDelay(SimClock.now(), Ref.NET_SEND_TICKS*Ref.PHYS_T_STEP, new Runnable(){
+      @Override
+      public void run() {
+        phm.requestSnapshot();
+        scheduleSpectating();
+      }
+    });
+  }
+  
+  private void startClient(){
+    if(client != null || hosting || Ref.CONNECT == null) return;
+    try {
+      client = GameClient.connect(Ref.CONNECT);
+    } catch (IOException e) {
+      SimpleLogger.log(-1, Game.class, "startClient", "Couldn't join {}, playing alone: {}", Ref.CONNECT, e.getMessage());
+    }
+  }
+  
+  private void startSnapshots(){
+    if(snapshots == null) snapshots = new SnapshotFile();
+    quickSave = false;
+    checkpoint = false;
+    keyframe = null;
+    checkpoints = 0;
+    
+    if(restore == null && Ref.RESTORE != null) restore = load(new File(Ref.RESTORE));
+    //a recording, replay or hosted game has to start from a fresh game, and a client gets its world from the server
+    if(restore != null && (SimClock.isSimulated() || client != null)){
+      SimpleLogger.log("Can't restore a snapshot while recording, replaying or playing online", -1, Game.class, "startSnapshots");
+      restore = null;
+    }
+  }
+  
+  private WorldSnapshot load(File f){
+    try {
+      return SnapshotFile.read(f);
+    } catch (IOException e) {
+      SimpleLogger.log(-1, Game.class, "load", "Couldn't load snapshot {}: {}", f.getPath(), e.getMessage());
+      return null;
+    }
+  }
+  
+  private void scheduleCheckpoint(){
+    timers.scheduleDelay(SimClock.now(), Ref.CHECKPOINT_TIME, new Runnable(){
+      @Override
+      public void run() {
+        checkpoint = true;
+        phm.requestSnapshot();
+        scheduleCheckpoint();
+      }
+    });
+  }
+  
+  //called with the snapshot the PhysicsManager took, the score is up to date with it, as its messages came first
+  private void handleSnapshot(WorldSnapshot s){
+    s.setGameState(score, upgradeStage, nextSpawn, increment);
+    if(!quickSave && !checkpoint) return;
+    File dir = new File(Ref.SAVE_DIR);
+    long start = System.nanoTime();
+    
+    try {
+      if(quickSave){
+        quickSave = false;
+        snapshots.write(new File(dir, Ref.QUICKSAVE), s);
+        SimpleLogger.log(0, Game.class, "handleSnapshot", "Quick-saved {} entities, {} bytes", s.size(), snapshots.getLastSize());
+      }
+      if(checkpoint){
+        checkpoint = false;
+        //full snapshots alternate between two files, so the last checkpoint's base is intact until the new one is written
+        if(keyframe == null || checkpoints % Ref.CHECKPOINT_KEYFRAME == 0){
+          keyframeSlot ^= 1;
+          keyframe = s;
+          keyframeFile = new File(dir, "checkpoint.key"+keyframeSlot+".snap");
+          snapshots.write(keyframeFile, s);
+        }
+        snapshots.write(new File(dir, Ref.CHECKPOINT), s, keyframe, keyframeFile);
+        checkpoints++;
+      }
+    } catch (IOException e) {
+      SimpleLogger.log(-1, Game.class, "handleSnapshot", "Couldn't write snapshot: {}", e.getMessage());
+    }
+    
+    if(SimpleLogger.isEnabled(1)){
+      SimpleLogger.log(1, Game.class, "handleSnapshot", "Snapshot of {} entities written in {}ms", s.size(),
+          String.format(Locale.ROOT, "%.2f", (System.nanoTime()-start)/1000000d));
+    }
+  }
+  
+  //recording and replaying switch to the simulated clock, everything random is seeded before anything is created
+  private void startClock(){
+    recorder = null;
+    if(replay == null && Ref.REPLAY != null){
+      try {
+        replay = Recording.read(new File(Ref.REPLAY));
+      } catch (IOException e) {
+        SimpleLogger.log(-1, Game.class, "startClock", "Couldn't read recording {}: {}", Ref.REPLAY, e.getMessage());
+      }
+    }
+    
+    if(replay != null){
+      startLockstep(replay.getSeed(), replay.getEpoch());
+      replayPos = 0;
+    }else if(hosting){
+      startLockstep(new Random().nextLong(), System.currentTimeMillis());
+    }else if(client != null){
+      SimClock.realTime();
+    }else if(Ref.RECORD != null){
+      long seed = new Random().nextLong();
+      long epoch = System.currentTimeMillis();
+      startLockstep(seed, epoch);
+      try {
+        recorder = new Recorder(new File(Ref.RECORD), seed, epoch, Ref.SCENARIO);
+      } catch (IOException e) {
+        SimpleLogger.log(-1, Game.class, "startClock", "Couldn't record to {}: {}", Ref.RECORD, e.getMessage());
+      }
+    }else{
+      SimClock.realTime();
+    }
+  }
+  
+  private void startLockstep(long seed, long epoch){
+    RandomStreams.setSeed(seed);
+    BasicComponent.resetIds();
+    SimClock.simulate(epoch);
+    accumulator = 0;
+    lastFrame = System.currentTimeMillis();
+    lastScore = 0;
+    lastHash = 0;
   }
   
   @Override
   public void deactivate(){
+    if(recorder != null){
+      recorder.finish(SimClock.getTick(), lastScore, lastHash);
+      recorder = null;
+    }
     phm.stop();
+    if(client != null){
+      client.close();
+      client = null;
+    }
+    if(spectators != null){
+      spectators.close();
+      spectators = null;
+    }
     
-    glx.waitForRelease();
     for(UUID u : constructs.values()){
       glx.releaseConstruct(u);
     }
     for(ComponentContainer cc : entities){
       cc.strip();
+      cc.releaseHandle();
     }
     
     entities.clear();
+    renderer.clear();
+    timers.clear();
+    runner = null;
+    Messenger.unsubscribe(overlay);
     Messenger.unsubscribe(this);
+    this.activated = false;
+    SimClock.realTime();
   }
 
   @Override
   public void update(){
-
-    handleSpawning();
-    
-    LinkedList<Component> cl = new LinkedList<>();
-    for(ComponentContainer cc : entities){
-      cl.addAll(cc.getComponents("graphics"));
+    if(restartRequested){
+      restartRequested = false;
+      deactivate();
+      //whatever the old world still had in flight must not reach the new one
+      Messenger.update();
+      activate();
     }
     
-    GraphicsComponent gc;
-    Construct c;
-    for(Component comp : cl){
-      gc = (GraphicsComponent)comp;
-      c = glx.getConstruct(gc.getConstructID());
-      c.position = gc.getPosition();
-      c.scale = new Vector3f(gc.getScale());
-      c.rotation = gc.getRotation();
-
-      glx.drawConstruct(gc.getConstructID(), gc.getColorMod());
+    long now;
+    if(client != null){
+      now = client.update(System.currentTimeMillis());
+      score = client.getScore();
+    }else if(SimClock.isSimulated()){
+      now = runTicks();
+      //one of the ticks may have ended the game
+      if(!activated) return;
+    }else{
+      now = System.currentTimeMillis();
+      updateLogic(now);
     }
     
-    //glx.drawText(0, 0, "TPS: "+phm.getTPS(), new Vector4f(0.6f, 0.1f, 1.1f, 1));
-    
-    
+    glx.startStage(RenderProfiler.STAGE.EXTRACT);
+    renderer.extract(now);
+    glx.stopStage(RenderProfiler.STAGE.EXTRACT);
+    glx.startStage(RenderProfiler.STAGE.SUBMIT);
+    renderer.submit(glx);
+    glx.stopStage(RenderProfiler.STAGE.SUBMIT);
     
     Vector2f anchor = new Vector2f(20, Ref.yRes-40);
     Construct bar = glx.getConstruct(constructs.get("status_bar"));
@@ -468,11 +918,89 @@ public class Game extends State {
     
     String scoreText = "Score: "+score;
     glx.drawText(Ref.xRes-glx.getTextWidth(scoreText)-20, anchor.y, scoreText, new Vector4f(0.6f, 0.1f, 1.1f, 1));
+    
+    //F3 shows tick and frame timings
+    overlay.update();
+    overlay.render();
+  }
+  
+  private void updateLogic(long now){
+    timers.advance(now);
+    
+    if(runner == null){
+      handleSpawning(now);
+    }else if(!runner.isFinished()){
+      runner.update(now, entities.size());
+      if(runner.isFinished()) Messenger.send(new Message(M_TYPE.CHANGE_STATE, Message.STATE.CLOSE_GAME));
+    }
+  }
+  
+  //runs the ticks that are due by the wall clock, and returns the simulated time to render at
+  private long runTicks(){
+    long wall = System.currentTimeMillis();
+    accumulator = Math.min(accumulator + wall - lastFrame, Ref.PHYS_T_STEP*MAX_CATCH_UP);
+    lastFrame = wall;
+    
+    while(accumulator >= Ref.PHYS_T_STEP && activated){
+      tick();
+      accumulator -= Ref.PHYS_T_STEP;
+    }
+    //the last tick happened at now()-PHYS_T_STEP, the renderer interpolates from there like it does with the Worker
+    return SimClock.now() - Ref.PHYS_T_STEP + accumulator;
   }
   
-  private void handleSpawning(){
-    long now = System.currentTimeMillis();
+  /**
+   * One lockstep tick: the replayed commands of this tick are sent, every pending message is delivered, then the
+   * game logic and the physics run at the SimClock's time, and the clock advances.
+   */
+  public void tick(){
+    if(!SimClock.isSimulated()) throw new IllegalStateException("Game isn't running in lockstep");
+    
+    if(replay != null){
+      while(replayPos < replay.size() && replay.getTick(replayPos) <= SimClock.getTick()){
+        Messenger.send(new Message(M_TYPE.CONTROL_CMD, replay.getCommand(replayPos++)));
+      }
+    }
     
+    Messenger.update();
+    //a delivered message may have ended the game
+    if(!activated) return;
+    
+    updateLogic(SimClock.now());
+    phm.step();
+    SimClock.advance();
+    
+    if(recorder != null || replay != null){
+      lastScore = score;
+      lastHash = phm.hashState() * 31 + score;
+    }
+    if(replay != null && SimClock.getTick() == replay.getEndTick()) finishReplay();
+  }
+  
+  //plays the given recording instead of taking input, from the next activate() on
+  public void replay(Recording r){
+    replay = r;
+  }
+  
+  public boolean isReplayDone(){
+    return replay != null && SimClock.getTick() >= replay.getEndTick();
+  }
+  
+  public boolean replayMatches(){
+    return isReplayDone() && lastScore == replay.getScore() && lastHash == replay.getHash();
+  }
+  
+  private void finishReplay(){
+    if(replayMatches()){
+      SimpleLogger.log(0, Game.class, "finishReplay", "Replay of {} ticks matches the recording, score {}", SimClock.getTick(), lastScore);
+    }else{
+      SimpleLogger.log(-1, Game.class, "finishReplay", "Replay diverged: score {}, expected {}, hash {}",
+          lastScore, replay.getScore(), String.format(Locale.ROOT, "%016x, expected %016x", lastHash, replay.getHash()));
+    }
+    Messenger.send(new Message(M_TYPE.CHANGE_STATE, Message.STATE.GAME_OVER));
+  }
+  
+  private void handleSpawning(long now){
     if(now > nextSpawn){
       
       //SimpleLogger.log("new asteroid should appear", 1, this.getClass(), "handleSpawning");
@@ -485,30 +1013,30 @@ public class Game extends State {
       boolean found=false;
       
       while(!found){
-        x = (float)(Ref.xRes*Math.random());
-        y = (float)(Ref.yRes*Math.random());
+        x = Ref.xRes*rand.nextFloat();
+        y = Ref.yRes*rand.nextFloat();
         
         Vector2f asteroidPosition = new Vector2f(x, y);
         
-        Vector2f distanceToPlayer = new Vector2f();
-        Vector2f.sub(asteroidPosition, player.getPosition(), distanceToPlayer);
-        
-        if(distanceToPlayer.lengthSquared()*1.5 > newCore.getRadius2()){
-          found=true;
-          newCore.setPosition(asteroidPosition);
+        found = true;
+        for(PhysicsComponent ship : getShips()){
+          Vector2f distanceToPlayer = new Vector2f();
+          Vector2f.sub(asteroidPosition, ((GraphicsComponent)ship).getRenderPosition(now), distanceToPlayer);
+          if(distanceToPlayer.lengthSquared()*1.5 <= newCore.getRadius2()) found = false;
         }
+        if(found) newCore.setPosition(asteroidPosition);
       }
 
 
       
-      Vector2f impulse = PhysicsEntry.rotate(new Vector2f(10000, 0), (float)(Math.random()*Math.PI/2));
+      Vector2f impulse = PhysicsEntry.rotate(new Vector2f(10000, 0), (float)(rand.nextDouble()*Math.PI/2));
       newCore.addMovement(impulse);
       
-      float rotation = (float)(Math.random()-0.5);
+      float rotation = (float)(rand.nextDouble()-0.5);
       
       newCore.rotate(rotation*500);
       
-      Messenger.send(new Message(M_TYPE.ENTITY_MGR, new Message.ENT_Param(newAsteroid, ENT.ADD)));
+      Messenger.send(Message.obtain(M_TYPE.ENTITY_MGR, Message.ENT_Param.obtain(newAsteroid, ENT.ADD)));
       
 
       increment *= incrementScale;
@@ -520,7 +1048,7 @@ public class Game extends State {
   @Override
   public void handleMessage(Message m){
     if(m.getMsgType() == M_TYPE.ENTITY_MGR){
-      ENT_Param ep = (ENT_Param)m.getParam();
+      ENT_Param ep = m.getParam(ENT_Param.class);
       
       switch(ep.mode){
       case ADD:
@@ -531,15 +1059,30 @@ public class Game extends State {
         break;
       }
     }else if(m.getMsgType() == M_TYPE.ENTITY_UPD){
-      UPD_Param up = (UPD_Param)m.getParam();
+      UPD_Param up = m.getParam(UPD_Param.class);
+      renderer.update(up.removed, up.added);
       for(Component c : up.removed){
         if(c.getTags().contains("status")) stati.remove(c);
       }
       for(Component c : up.added){
         if(c.getTags().contains("status")) stati.add((StatusComponent)c);
       }
+    }else if(m.getMsgType() == M_TYPE.WORLD_SNAPSHOT){
+      handleSnapshot(m.getParam(WorldSnapshot.class));
+    }else if(m.getMsgType() == M_TYPE.RAW_INPT){
+      RW_IPT_Param p = m.getParam(RW_IPT_Param.class);
+      //the server owns the world of an online game
+      if(!p.pressed || client != null) return;
+      if(p.key == Keyboard.getKeyIndex("F5")){
+        quickSave = true;
+        phm.requestSnapshot();
+      }else if(p.key == Keyboard.getKeyIndex("F9") && !SimClock.isSimulated()){
+        restore = load(new File(Ref.SAVE_DIR, Ref.QUICKSAVE));
+        restartRequested = restore != null;
+      }
     }else{
-      CCMD_Param cp = (CCMD_Param)m.getParam();
+      CCMD_Param cp = m.getParam(CCMD_Param.class);
+      if(recorder != null) recorder.command(SimClock.getTick(), cp);
       
       if(cp.cmd == CCMD.MENU && cp.pressed==false){
         updateScoreFile();
@@ -551,6 +1094,7 @@ public class Game extends State {
   
   private void handleAddition(ENT_Param ep){
     entities.add(ep.cc);
+    renderer.add(ep.cc);
     for(Component c : ep.cc.getComponents("status")){
       stati.add((StatusComponent)c);
     }
@@ -560,17 +1104,27 @@ public class Game extends State {
   private void handleRemoval(ENT_Param ep){
 
     entities.remove(ep.cc);
+    renderer.remove(ep.cc);
+    if(runner != null) runner.removed(ep.cc);
     for(Component c : ep.cc.getComponents("status")){
       stati.remove(c);
     }
     
+    //the server keeps the score of an online game, and the containers never reached the physics
+    if(client != null){
+      ep.cc.strip();
+      ep.cc.releaseHandle();
+      return;
+    }
+    
     for(Component c : ep.cc.getComponents("value")){
       score += ((ValueComponentImpl)c).getValue("score");
       upgradeCheck();
     }
     
-    if(!ep.cc.getComponents("player0").isEmpty() && !gameOver){
-      prepareGameOver();
+    if(!ep.cc.getComponents("player0").isEmpty()){
+      if(hosting) shipLost(ep.cc);
+      else if(!gameOver) prepareGameOver();
     }
     
     
@@ -586,6 +1140,8 @@ public class Game extends State {
   
   
   private void upgradeCheck(){
+    //scenarios may run without a player, a hosted game upgrades the ships joining later as well
+    if(player == null && !hosting) return;
     if(upgradeStage == 0 && score >= 12000) upgrade1();
       
     if(upgradeStage == 1 && score >= 20000) upgrade2();
@@ -594,7 +1150,24 @@ public class Game extends State {
   private void upgrade1(){
     HashSet<Component> old = new HashSet<>();
     HashSet<Component> neww = new HashSet<>();
-    ComponentContainer cc = player.getComponentContainer();
+    
+    for(PhysicsComponent ship : getShips()){
+      ComponentContainer cc = ship.getComponentContainer();
+      upgradeEngine(cc, old, neww);
+      
+      HashSet<Component> trgLst = cc.getComponents("upgradeTrigger");
+      for(Component c : trgLst){
+        ((TriggerComponent)c).trigger(SimClock.now());
+      }
+    }
+
+    Messenger.send(new Message(M_TYPE.ENTITY_UPD, new UPD_Param(old, neww)));
+    
+    upgradeStage = 1;
+  }
+  
+  //swaps the player's engine, the components taken out and put in are added to old and neww
+  private void upgradeEngine(ComponentContainer cc, HashSet<Component> old, HashSet<Component> neww){
     HashSet<String> tags = new HashSet<>();
     
     tags.add("motor");
@@ -624,22 +1197,29 @@ public class Game extends State {
     neww.add(engine);
     neww.add(eff1);
     neww.add(eff2);
-    
-    HashSet<Component> trgLst = cc.getComponents("upgradeTrigger");
-    for(Component c : trgLst){
-      ((TriggerComponent)c).trigger(System.currentTimeMillis());
-    }
-
-    Messenger.send(new Message(M_TYPE.ENTITY_UPD, new UPD_Param(old, neww)));
-    
-    upgradeStage = 1;
   }
   
   private void upgrade2(){
     HashSet<Component> old = new HashSet<>();
     HashSet<Component> neww = new HashSet<>();
-    ComponentContainer cc = player.getComponentContainer();
     
+    for(PhysicsComponent ship : getShips()){
+      upgradeWeapons(ship.getComponentContainer(), old, neww);
+    }
+    
+    Messenger.send(new Message(M_TYPE.ENTITY_UPD, new UPD_Param(old, neww)));
+    
+    for(PhysicsComponent ship : getShips()){
+      HashSet<Component> trgLst = ship.getComponentContainer().getComponents("upgradeTrigger");
+      for(Component comp : trgLst){
+        ((TriggerComponent)comp).trigger(SimClock.now());
+      }
+    }
+    
+    upgradeStage = 2;
+  }
+  
+  private void upgradeWeapons(ComponentContainer cc, HashSet<Component> old, HashSet<Component> neww){
     for(Component w : cc.getComponents("weapon")){
       cc.removeComponent(w);
       old.add(w);
@@ -647,50 +1227,32 @@ public class Game extends State {
     
     Component c;
     
-    c = components.get("advancedWeaponL");
+    //copies, as every ship needs guns of its own
+    c = components.get("advancedWeaponL").copy(false);
     cc.registerComponent(c);
     c.link(cc);
     neww.add(c);
     
-    c = components.get("advancedWeaponR");
+    c = components.get("advancedWeaponR").copy(false);
     cc.registerComponent(c);
     c.link(cc);
     neww.add(c);
-    
-    Messenger.send(new Message(M_TYPE.ENTITY_UPD, new UPD_Param(old, neww)));
-    
-    HashSet<Component> trgLst = cc.getComponents("upgradeTrigger");
-    for(Component comp : trgLst){
-      ((TriggerComponent)comp).trigger(System.currentTimeMillis());
-    }
-    
-    upgradeStage = 2;
   }
   
   private void prepareGameOver(){
-    Thread t = new Thread(new Runnable(){
+    updateScoreFile();
+    
+    timers.scheduleDelay(SimClock.now(), 3500, new Runnable(){
       @Override
       public void run() {
-        long now = System.currentTimeMillis();
-        
-        updateScoreFile();
-        
-        long gap = System.currentTimeMillis() - now;
-        if(gap > 0){
-          try {
-            Thread.sleep(3500);
-          } catch (InterruptedException e) {
-            //face it. no-one cares
-          }
-        }
-        Messenger.send(new Message(M_TYPE.CHANGE_STATE, Message.STATE.GAME_OVER));  
+        Messenger.send(new Message(M_TYPE.CHANGE_STATE, Message.STATE.GAME_OVER));
       }
     });
-    t.start();
   }
   
   private void updateScoreFile(){
-    if(!gameOver){
+    //only a game played alone earns a highscore
+    if(!gameOver && replay == null && !hosting && client == null){
 
       try (BufferedReader br = new BufferedReader(new FileReader("res/savings/highscore"));
            BufferedWriter wr = new BufferedWriter(new FileWriter("res/savings/highscore"));){
@@ -67,11 +67,10 @@ public class Menu extends State {
   
   @Override
   public void handleMessage(Message m){
-    //System.out.println((RW_IPT_Param)m.getParam());
     switch(m.getMsgType()){
     case CONTROL_CHANGE:
       
-      switch((CC)m.getParam()){
+      switch(m.getParam(CC.class)){
       case NEW_ACCELERATION:
         activeButton.value = "Press any key";
         row = 0;
@@ -345,24 +344,25 @@ public class Menu extends State {
   }
   
   private void handleRAWinput(Message m){
+    RW_IPT_Param ip = m.getParam(RW_IPT_Param.class);
     if  (listening &&
-        ((RW_IPT_Param)m.getParam()).pressed == true &&
-        ((RW_IPT_Param)m.getParam()).key != Keyboard.getKeyIndex("UP")&&
-        ((RW_IPT_Param)m.getParam()).key != Keyboard.getKeyIndex("DOWN")&&
-        ((RW_IPT_Param)m.getParam()).key != Keyboard.getKeyIndex("LEFT")&&
-        ((RW_IPT_Param)m.getParam()).key != Keyboard.getKeyIndex("RIGHT")&&
-        ((RW_IPT_Param)m.getParam()).key != Keyboard.getKeyIndex("ESCAPE")&&
-        ((RW_IPT_Param)m.getParam()).key != Keyboard.getKeyIndex("RETURN")) {
+        ip.pressed == true &&
+        ip.key != Keyboard.getKeyIndex("UP")&&
+        ip.key != Keyboard.getKeyIndex("DOWN")&&
+        ip.key != Keyboard.getKeyIndex("LEFT")&&
+        ip.key != Keyboard.getKeyIndex("RIGHT")&&
+        ip.key != Keyboard.getKeyIndex("ESCAPE")&&
+        ip.key != Keyboard.getKeyIndex("RETURN")) {
           getKeys();
-          int newKey = ((RW_IPT_Param)m.getParam()).key;
+          int newKey = ip.key;
           listening = false;
           changeKeyBinding(newKey);
     }
     else if (!listening){
       int current = headerButton.children.indexOf(activeButton);
-      if(((RW_IPT_Param)m.getParam()).pressed == true){
-        if(    ((RW_IPT_Param)m.getParam()).key == Integer.parseInt(keys[0]) ||
-            ((RW_IPT_Param)m.getParam()).key == Keyboard.getKeyIndex("UP")){
+      if(ip.pressed == true){
+        if(    ip.key == Integer.parseInt(keys[0]) ||
+            ip.key == Keyboard.getKeyIndex("UP")){
           while(current >= 0){
             if(current <= 0) current = headerButton.children.size();
             current--;
@@ -370,15 +370,15 @@ public class Menu extends State {
           }
           setNewActiveButton(headerButton.children.get(current));
           
-        }else if(  ((RW_IPT_Param)m.getParam()).key == Integer.parseInt(keys[1]) ||
-              ((RW_IPT_Param)m.getParam()).key == Keyboard.getKeyIndex("LEFT")){
+        }else if(  ip.key == Integer.parseInt(keys[1]) ||
+              ip.key == Keyboard.getKeyIndex("LEFT")){
               if(activeButton.parent.parent != null) {
                 header = activeButton.parent.parent;
                 setNewActiveButton(activeButton.parent);
               }
           
-        }else if(  ((RW_IPT_Param)m.getParam()).key == Integer.parseInt(keys[2]) ||
-              ((RW_IPT_Param)m.getParam()).key == Keyboard.getKeyIndex("DOWN")){
+        }else if(  ip.key == Integer.parseInt(keys[2]) ||
+              ip.key == Keyboard.getKeyIndex("DOWN")){
           while(current <= headerButton.children.size()){
             current++;
             if(current >= headerButton.children.size()) current = 0;
@@ -386,8 +386,8 @@ public class Menu extends State {
           }
           setNewActiveButton(headerButton.children.get(current));
           
-        }else if(  ((RW_IPT_Param)m.getParam()).key == Integer.parseInt(keys[3]) ||
-              ((RW_IPT_Param)m.getParam()).key == Keyboard.getKeyIndex("RIGHT")){
+        }else if(  ip.key == Integer.parseInt(keys[3]) ||
+              ip.key == Keyboard.getKeyIndex("RIGHT")){
               if(activeButton.children.isEmpty() == false){
                 for(GuiElement ui: activeButton.children){
                   if(ui.interactable){
@@ -398,11 +398,11 @@ public class Menu extends State {
                 }  
               }
           
-        }else if(  ((RW_IPT_Param)m.getParam()).key == Keyboard.getKeyIndex("RETURN")){
+        }else if(  ip.key == Keyboard.getKeyIndex("RETURN")){
           if(w.active || a.active || s.active || d.active || shoot.active){
             listening = true;
           }
-        }else if(  ((RW_IPT_Param)m.getParam()).key == Keyboard.getKeyIndex("ESCAPE")){
+        }else if(  ip.key == Keyboard.getKeyIndex("ESCAPE")){
           Messenger.send(new Message(Message.M_TYPE.CHANGE_STATE, Message.STATE.QUIT_SCREEN));
         }
 
@@ -411,7 +411,7 @@ public class Menu extends State {
           
         }
       }
-      if(((RW_IPT_Param)m.getParam()).pressed == true){
+      if(ip.pressed == true){
         activeButton.handleMessage(m);
       }
       
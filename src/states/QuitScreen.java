@@ -38,9 +38,9 @@ public class QuitScreen extends State {
   
   @Override
     public void handleMessage(Message m){
-    if(((RW_IPT_Param)m.getParam()).pressed == true){
-      if(((RW_IPT_Param)m.getParam()).key == Keyboard.getKeyIndex("RETURN")) messaging.Messenger.send(new Message(Message.M_TYPE.CHANGE_STATE, Message.STATE.CLOSE_GAME));
-      if(((RW_IPT_Param)m.getParam()).key == Keyboard.getKeyIndex("ESCAPE")) messaging.Messenger.send(new Message(Message.M_TYPE.CHANGE_STATE, Message.STATE.MENU));
+    if(m.getParam(RW_IPT_Param.class).pressed == true){
+      if(m.getParam(RW_IPT_Param.class).key == Keyboard.getKeyIndex("RETURN")) messaging.Messenger.send(new Message(Message.M_TYPE.CHANGE_STATE, Message.STATE.CLOSE_GAME));
+      if(m.getParam(RW_IPT_Param.class).key == Keyboard.getKeyIndex("ESCAPE")) messaging.Messenger.send(new Message(Message.M_TYPE.CHANGE_STATE, Message.STATE.MENU));
     }
   }
   
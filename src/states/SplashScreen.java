@@ -9,6 +9,7 @@ import org.lwjgl.util.vector.Vector4f;
 
 import messaging.Message;
 import messaging.Messenger;
+import util.Ref;
 import util.SimpleLogger;
 
 
@@ -46,6 +47,8 @@ public class SplashScreen extends State{
     
     header = new GuiButton(new Vector2f(440,200), new Vector2f(1f, 1f), "Asteroids", false, null);
     
+    if(Ref.SCENARIO != null) messaging.Messenger.send(new Message(Message.M_TYPE.CHANGE_STATE, Message.STATE.GAME));
+    
     
     this.activated = true;
     SimpleLogger.log("State activated", 1, this.getClass(), "activate");
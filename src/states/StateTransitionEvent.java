@@ -0,0 +1,33 @@
+package states;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Flight recorder event for a transition of the FSM, lasting from deactivating the old state to activating the new
+ * one. Loading a level happens in there, so this explains most hitches between states. Off unless enabled.
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("asteroids.StateTransition")
+@Label("State Transition")
+@Category({"Asteroids", "States"})
+@Description("The FSM switching from one state to another")
+@Enabled(false)
+public class StateTransitionEvent extends Event{
+
+  @Label("From")
+  String from;
+
+  @Label("To")
+  String to;
+
+  @Label("Transition")
+  String transition;
+}
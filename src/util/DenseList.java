@@ -0,0 +1,113 @@
+package util;
+
+/**
+ *
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Unordered list of distinct elements, stored in a dense array. Each element remembers its position in an
+ * IdentityHashMap, so contains() and remove() are O(1): the removed element's slot is filled with the last
+ * element of the array (swap-remove). Removing many elements at once therefore costs linear time, instead of
+ * shifting the array for every single element like ArrayList.removeAll() does.
+ *
+ * The price is that the order of the elements changes on removal. Iteration is meant to be done with get(i)
+ * from 0 to size(), the iterator is only offered for convenience. Neither must be used while elements are
+ * removed.
+ *
+ */
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class DenseList<T> implements Iterable<T>{
+
+  private Object[] elements;
+  private int size;
+  private IdentityHashMap<T, Integer> index;
+
+  public DenseList(){
+    this(64);
+  }
+
+  public DenseList(int capacity){
+    elements = new Object[Math.max(capacity, 4)];
+    index = new IdentityHashMap<>(Math.max(capacity, 4));
+    size = 0;
+  }
+
+  public boolean add(T e){
+    if(e == null) throw new IllegalArgumentException("Can't store null elements");
+    if(index.containsKey(e)) return false;
+
+    if(size == elements.length){
+      Object[] grown = new Object[size*2];
+      System.arraycopy(elements, 0, grown, 0, size);
+      elements = grown;
+    }
+    elements[size] = e;
+    index.put(e, size);
+    size++;
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  public boolean remove(Object e){
+    Integer pos = index.remove(e);
+    if(pos == null) return false;
+
+    int i = pos;
+    size--;
+    if(i != size){
+      //move the last element into the gap
+      T last = (T)elements[size];
+      elements[i] = last;
+      index.put(last, i);
+    }
+    elements[size] = null;
+    return true;
+  }
+
+  public boolean contains(Object e){
+    return index.containsKey(e);
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(int i){
+    if(i < 0 || i >= size) throw new IndexOutOfBoundsException("Index "+i+", size "+size);
+    return (T)elements[i];
+  }
+
+  public int size(){
+    return size;
+  }
+
+  public boolean isEmpty(){
+    return size == 0;
+  }
+
+  public void clear(){
+    for(int i=0;i<size;i++){
+      elements[i] = null;
+    }
+    size = 0;
+    index.clear();
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>(){
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      @Override
+      public T next() {
+        if(next >= size) throw new NoSuchElementException();
+        return get(next++);
+      }
+    };
+  }
+}
@@ -0,0 +1,122 @@
+package util;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Histogram of durations in nanoseconds, cheap enough to record every single tick. Values are sorted into
+ * logarithmic buckets: each power of two is split into 16 linear sub-buckets, so any value is known with an error
+ * of at most 1/16th (about 6%), no matter if it is a microsecond or a second. Recording is an array increment,
+ * nothing is allocated.
+ *
+ * A histogram isn't thread safe. The intended use is one writer filling a histogram, and handing it over with
+ * copyInto() at a point where it is synchronized with the reader anyways.
+ *
+ */
+
+import java.util.Arrays;
+
+public class LatencyHistogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int BUCKETS = (64-SUB_BITS)*SUB_COUNT;
+
+  private long[] counts;
+  private long total;
+  private long sum;
+  private long min;
+  private long max;
+
+  public LatencyHistogram(){
+    counts = new long[BUCKETS];
+    reset();
+  }
+
+  public void record(long ns){
+    if(ns < 0) ns = 0;
+    counts[index(ns)]++;
+    total++;
+    sum += ns;
+    if(ns < min) min = ns;
+    if(ns > max) max = ns;
+  }
+
+  public void reset(){
+    Arrays.fill(counts, 0);
+    total = 0;
+    sum = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+  }
+
+  public void copyInto(LatencyHistogram dst){
+    System.arraycopy(counts, 0, dst.counts, 0, BUCKETS);
+    dst.total = total;
+    dst.sum = sum;
+    dst.min = min;
+    dst.max = max;
+  }
+
+  public void add(LatencyHistogram other){
+    for(int i=0;i<BUCKETS;i++){
+      counts[i] += other.counts[i];
+    }
+    total += other.total;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  //p in [0,1], e.g. 0.99 for the 99th percentile. Returns the middle of the bucket the percentile falls into
+  public long getPercentile(double p){
+    if(total == 0) return 0;
+    long rank = (long)Math.ceil(p*total);
+    if(rank < 1) rank = 1;
+
+    long seen = 0;
+    for(int i=0;i<BUCKETS;i++){
+      seen += counts[i];
+      if(seen >= rank){
+        //never report more than actually was measured
+        return Math.min(Math.max(middle(i), min), max);
+      }
+    }
+    return max;
+  }
+
+  public long getCount(){
+    return total;
+  }
+
+  public long getMax(){
+    return max;
+  }
+
+  public long getMin(){
+    return total == 0 ? 0 : min;
+  }
+
+  public double getMean(){
+    return total == 0 ? 0 : sum/(double)total;
+  }
+
+  private static int index(long v){
+    if(v < SUB_COUNT) return (int)v;
+    int exp = 63 - Long.numberOfLeadingZeros(v);
+    int sub = (int)(v >>> (exp-SUB_BITS)) & (SUB_COUNT-1);
+    return (exp-SUB_BITS+1)*SUB_COUNT + sub;
+  }
+
+  private static long lowerBound(int idx){
+    if(idx < SUB_COUNT) return idx;
+    int exp = idx/SUB_COUNT + SUB_BITS - 1;
+    int sub = idx % SUB_COUNT;
+    return (1L << exp) + ((long)sub << (exp-SUB_BITS));
+  }
+
+  private static long middle(int idx){
+    if(idx < SUB_COUNT) return idx;
+    int exp = idx/SUB_COUNT + SUB_BITS - 1;
+    return lowerBound(idx) + (1L << (exp-SUB_BITS))/2;
+  }
+}
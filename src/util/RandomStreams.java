@@ -0,0 +1,50 @@
+package util;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Hands out Randoms derived from one seed. Every user asks for a stream by name, e.g. "weapon", and the n-th stream
+ * of a name always gets the same seed. So a session is reproduced by its seed alone, and one part of the game
+ * drawing more numbers doesn't shift the numbers of any other part.
+ *
+ * Without setSeed(), the seed is random, like the plain Randoms used before.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Random;
+
+public class RandomStreams {
+
+  private static long seed = new Random().nextLong();
+  private static HashMap<String, Integer> handedOut = new HashMap<>();
+
+  //also restarts the numbering of the streams
+  public static synchronized void setSeed(long s){
+    seed = s;
+    handedOut.clear();
+  }
+
+  public static synchronized long getSeed(){
+    return seed;
+  }
+
+  public static Random get(String name){
+    return new Random(nextSeed(name));
+  }
+
+  //seed of the next stream of that name, for users that reseed on their own
+  public static synchronized long nextSeed(String name){
+    Integer n = handedOut.get(name);
+    int i = n == null ? 0 : n;
+    handedOut.put(name, i+1);
+    return mix(seed ^ mix(name.hashCode() * 0x9E3779B97F4A7C15L + i));
+  }
+
+  //finalizer of splitmix64, so neighbouring inputs give unrelated seeds
+  private static long mix(long z){
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
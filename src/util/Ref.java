@@ -14,6 +14,75 @@ public class Ref {
   
   public static final int LOG_LEVEL = -1;
   
+  //logs waiting for the SimpleLogger's writer thread, which checks for new ones every LOG_POLL ms
+  public static final int LOG_BUFFER = 4096;
+  public static final long LOG_POLL = 5;
+  
+  //log files are rotated after LOG_FILE_SIZE bytes, keeping LOG_FILES old ones
+  public static final String LOG_DIR = "log";
+  public static final long LOG_FILE_SIZE = 1 << 20;
+  public static final int LOG_FILES = 5;
+  
+  //track leased messages to find leaks, enabled with -Dasteroids.debugPools=true
+  public static final boolean DEBUG_POOLS = Boolean.getBoolean("asteroids.debugPools");
+  
+  //update and render one after the other on one thread, instead of the game thread recording ahead of the render
+  //thread, enabled with -Dasteroids.singleThreaded=true
+  public static final boolean SINGLE_THREADED = Boolean.getBoolean("asteroids.singleThreaded");
+  
+  //name of a scenario in res/scenarios to run instead of a normal game, set with -Dasteroids.scenario=name
+  public static final String SCENARIO = System.getProperty("asteroids.scenario");
+  
+  //file to record the next game to, set with -Dasteroids.record=file. Games are then played in lockstep (see SimClock)
+  public static final String RECORD = System.getProperty("asteroids.record");
+  
+  //recording to play back in every game instead of taking input, set with -Dasteroids.replay=file
+  public static final String REPLAY = System.getProperty("asteroids.replay");
+  
+  //world snapshot to start every game from, set with -Dasteroids.restore=file. Quick-saves and checkpoints work
+  public static final String RESTORE = System.getProperty("asteroids.restore");
+  
+  //F5 saves the world to SAVE_DIR/QUICKSAVE, F9 loads it again
+  public static final String SAVE_DIR = "res/savings";
+  public static final String QUICKSAVE = "quicksave.snap";
+  
+  //every CHECKPOINT_TIME ms, the world is saved to SAVE_DIR/CHECKPOINT, as delta against a full snapshot taken
+  //every CHECKPOINT_KEYFRAME checkpoints
+  public static final String CHECKPOINT = "checkpoint.snap";
+  public static final long CHECKPOINT_TIME = 10000;
+  public static final int CHECKPOINT_KEYFRAME = 6;
+  
+  //server to join instead of playing alone, set with -Dasteroids.connect=host:port (see net.GameServer)
+  public static final String CONNECT = System.getProperty("asteroids.connect");
+  
+  //multiplayer: the server sends a snapshot every NET_SEND_TICKS ticks, and drops clients not heard of for
+  //NET_TIMEOUT ms. Snapshots are kept for NET_HISTORY sends, to encode deltas against what a client acknowledged
+  public static final int NET_PORT = 7777;
+  public static final int NET_MAX_PLAYERS = 32;
+  public static final int NET_SEND_TICKS = 3;
+  public static final int NET_HISTORY = 32;
+  public static final long NET_TIMEOUT = 5000;
+  public static final long NET_RESPAWN = 3000;
+  public static final long NET_REPORT = 5000;
+  
+  //port to stream the game to spectators on, set with -Dasteroids.spectate.port=port. Off if not given. Every
+  //SPECTATE_KEYFRAME-th frame is sent in full, viewers with more than SPECTATE_BACKLOG bytes queued skip to the next
+  public static final int SPECTATE_PORT = Integer.getInteger("asteroids.spectate.port", -1);
+  //the stream is only open to this machine, unless -Dasteroids.spectate.host=address names another interface to
+  //listen on, e.g. 0.0.0.0 for all of them
+  public static final String SPECTATE_HOST = System.getProperty("asteroids.spectate.host");
+  public static final int SPECTATE_KEYFRAME = 30;
+  public static final int SPECTATE_BACKLOG = 1 << 20;
+  
+  //lag compensation of a hosted game: the colliders of the last LAG_HISTORY ticks are kept, in grids of LAG_CELL
+  //sized cells, and shots are tested against the world the shooter saw, up to LAG_MAX ms back
+  public static final int LAG_HISTORY = 32;
+  public static final int LAG_CELL = 64;
+  public static final long LAG_MAX = 250;
+  
+  //localhost port to serve metrics on for scraping, set with -Dasteroids.metrics.port=port. Off if not given
+  public static final int METRICS_PORT = Integer.getInteger("asteroids.metrics.port", -1);
+  
   //how long, in ms, it takes for a Construct to be discarded if it isn't drawn
   public static final long renderPause = 10000;
   
@@ -22,6 +91,14 @@ public class Ref {
   public static final int MAX_FBO = 8;
   
   public static final float lineW = 2;
+  //vertices of loose lines the LineStream's ring holds at first, it grows if a frame needs more
+  public static final int LINE_STREAM = 1 << 14;
+  //draw orders of a frame from which the DrawList radix sorts them, below Arrays.sort() is faster
+  public static final int DRAW_RADIX_MIN = 2048;
+  //command buffers between game and render thread, the game records at most RENDER_FRAMES-1 frames ahead
+  public static final int RENDER_FRAMES = 2;
+  //ms the render thread waits for a frame before it looks after the window
+  public static final long RENDER_WAIT = 100;
   public static final float fadeTime=0.15f;
   
   //Display, FBOs, Shader
@@ -0,0 +1,102 @@
+package util;
+
+/**
+ *
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * Bounded, lock-free queue backed by a pre-allocated array. Any number of threads may offer and poll at the
+ * same time. Each slot carries a sequence number, telling producers and consumers whose turn it is to use that
+ * slot. Claiming a slot is a single CAS on the head or tail counter, so neither side ever blocks or allocates.
+ *
+ * The capacity is rounded up to the next power of 2. If the buffer is full, offer() returns false and it is up
+ * to the caller to decide what to do with the element.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class RingBuffer<T> {
+
+  private Object[] buffer;
+  private AtomicLongArray sequences;
+  private int mask;
+
+  private AtomicLong tail; //next position to write
+  private AtomicLong head; //next position to read
+
+  public RingBuffer(int capacity){
+    if(capacity < 2) throw new IllegalArgumentException("Capacity must be at least 2 ("+capacity+" given)");
+
+    int size = Integer.highestOneBit(capacity-1) << 1;
+    buffer = new Object[size];
+    sequences = new AtomicLongArray(size);
+    mask = size-1;
+
+    for(int i=0;i<size;i++){
+      sequences.set(i, i);
+    }
+
+    tail = new AtomicLong(0);
+    head = new AtomicLong(0);
+  }
+
+  public boolean offer(T e){
+    if(e == null) throw new IllegalArgumentException("Can't store null elements");
+
+    while(true){
+      long pos = tail.get();
+      int idx = (int)(pos & mask);
+      long dif = sequences.get(idx) - pos;
+
+      if(dif == 0){
+        if(tail.compareAndSet(pos, pos+1)){
+          buffer[idx] = e;
+          //publish, the slot may now be read
+          sequences.set(idx, pos+1);
+          return true;
+        }
+      }else if(dif < 0){
+        //consumer hasn't freed this slot yet: full
+        return false;
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public T poll(){
+    while(true){
+      long pos = head.get();
+      int idx = (int)(pos & mask);
+      long dif = sequences.get(idx) - (pos+1);
+
+      if(dif == 0){
+        if(head.compareAndSet(pos, pos+1)){
+          T e = (T)buffer[idx];
+          buffer[idx] = null;
+          //hand the slot back to producers for the next round
+          sequences.set(idx, pos+mask+1);
+          return e;
+        }
+      }else if(dif < 0){
+        //nothing published yet: empty
+        return null;
+      }
+    }
+  }
+
+  //approximation, as other threads may work on the buffer at the same time
+  public int size(){
+    long s = tail.get() - head.get();
+    if(s < 0) return 0;
+    return (int)Math.min(s, buffer.length);
+  }
+
+  public boolean isEmpty(){
+    return size() == 0;
+  }
+
+  public int capacity(){
+    return buffer.length;
+  }
+}
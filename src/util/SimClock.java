@@ -0,0 +1,54 @@
+package util;
+
+/**
+ * @author David-Peter Desch, Dominik Lisowski
+ *
+ * The time the simulation runs on. Normally it's just the wall clock, and the PhysicsManager ticks in its own thread
+ * whenever Ref.PHYS_T_STEP has passed, so no two sessions are alike.
+ *
+ * To record or replay a session, the clock is switched to simulate(). From then on it only moves when advance() is
+ * called after a tick, by exactly Ref.PHYS_T_STEP, and the Game steps the PhysicsManager itself, in lockstep with its
+ * own logic and the Messenger. Together with the RandomStreams, the same inputs then always lead to the same ticks.
+ *
+ * Anything deciding about the simulation must ask now() instead of System.currentTimeMillis(). Rendering, profiling
+ * and the like may keep using the wall clock, as long as nothing of it feeds back into the game.
+ *
+ */
+
+public class SimClock {
+
+  private static volatile boolean simulated = false;
+  private static volatile long time;
+  private static volatile long tick;
+
+  public static long now(){
+    return simulated ? time : System.currentTimeMillis();
+  }
+
+  //starts the simulated time at epoch, with tick 0
+  public static void simulate(long epoch){
+    time = epoch;
+    tick = 0;
+    simulated = true;
+  }
+
+  public static void realTime(){
+    simulated = false;
+  }
+
+  //called once a tick is done, only by the thread running the ticks
+  public static void advance(){
+    if(!simulated) throw new IllegalStateException("The clock only advances when simulated");
+    time += Ref.PHYS_T_STEP;
+    tick++;
+  }
+
+  public static boolean isSimulated(){
+    return simulated;
+  }
+
+  //ticks done since simulate() was called
+  public static long getTick(){
+    return tick;
+  }
+}
@@ -1,30 +1,325 @@
 package util;
 
 /**
- * 
+ *
  * @author David-Peter Desh, Dominik Lisowski
  *
  * Very curde implementation of a logger. It's only purpose is to control globally, which logs get
  * printed. This was done because the java utility Logger had too mush overhead to be time efficient
  * ont this project. Each log has a abriatary level. Is the configured level equal or equal or greater
  * than that of the log, it gets printed.
- * 
+ *
  * Logs of level less than 0 are considered severe errors and are always printed.
  *
+ * Logging doesn't print anything on the calling thread. A log is put into a ring of preallocated entries, and a
+ * background thread formats and prints it, and appends it to log/asteroids.log. The file is rotated once it grows
+ * over Ref.LOG_FILE_SIZE, keeping Ref.LOG_FILES old ones. If the ring is full, logs are dropped and counted instead
+ * of blocking the caller, severe errors are printed right away in that case.
+ *
+ * To keep disabled logs free, use isEnabled() or the variants taking a pattern: "{}" in the pattern is replaced by
+ * the arguments, in order, but only on the background thread. The arguments are kept until then, so they must not
+ * be changed after logging them; pass Strings, numbers or enums, not mutable objects.
+ *
  */
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 public class SimpleLogger {
   public static boolean log = true;
   public static int level = Ref.LOG_LEVEL; // only things <= level get logged. values <0 are severe errors
-  
+
+  private static class Entry{
+    //the position in the ring this entry is free for (seq == pos) or filled at (seq == pos+1)
+    private volatile long seq;
+    private long time;
+    private int lvl;
+    private String thread;
+    private Class<?> c;
+    private String method;
+    private Object msg;
+    private int args;
+    private Object a0;
+    private Object a1;
+    private Object a2;
+  }
+
+  private static final int CAPACITY = Integer.highestOneBit(Ref.LOG_BUFFER);
+  private static final Entry[] ring = createRing();
+  private static final AtomicLong head = new AtomicLong(0);
+  private static final AtomicLong dropped = new AtomicLong(0);
+
+  private static final Writer writer = new Writer();
+
+  static{
+    writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread("SimpleLogger shutdown"){
+      @Override
+      public void run(){
+        shutdown();
+      }
+    });
+  }
+
+  private static Entry[] createRing(){
+    Entry[] r = new Entry[CAPACITY];
+    for(int i=0;i<r.length;i++){
+      r[i] = new Entry();
+      r[i].seq = i;
+    }
+    return r;
+  }
+
+  public static boolean isEnabled(int lvl){
+    return log && (lvl < 0 || lvl <= level);
+  }
+
   @SuppressWarnings("rawtypes")
   public static void log(Object msg, int lvl, java.lang.Class c, String methodName){
-    if(log){
-      if(lvl < 0){
-        System.err.println("["+lvl+"]["+c.getName()+":"+methodName+"]: "+msg);
-      }else if(lvl <= level){
-        System.out.println("["+lvl+"]["+c.getName()+":"+methodName+"]: "+msg);
+    if(isEnabled(lvl)) post(lvl, c, methodName, msg, 0, null, null, null);
+  }
+
+  public static void log(int lvl, Class<?> c, String methodName, String pattern, Object a0){
+    if(isEnabled(lvl)) post(lvl, c, methodName, pattern, 1, a0, null, null);
+  }
+
+  public static void log(int lvl, Class<?> c, String methodName, String pattern, Object a0, Object a1){
+    if(isEnabled(lvl)) post(lvl, c, methodName, pattern, 2, a0, a1, null);
+  }
+
+  public static void log(int lvl, Class<?> c, String methodName, String pattern, Object a0, Object a1, Object a2){
+    if(isEnabled(lvl)) post(lvl, c, methodName, pattern, 3, a0, a1, a2);
+  }
+
+  public static long getDropped(){
+    return dropped.get();
+  }
+
+  //prints everything logged so far and stops the background thread. Logs after this are printed right away
+  public static void shutdown(){
+    writer.finish();
+  }
+
+  private static void post(int lvl, Class<?> c, String method, Object msg, int args, Object a0, Object a1, Object a2){
+    if(!writer.running){
+      writer.printDirect(System.currentTimeMillis(), lvl, Thread.currentThread().getName(), c, method, msg, args, a0, a1, a2);
+      return;
+    }
+
+    Entry e;
+    long pos = head.get();
+    while(true){
+      e = ring[(int)pos & (CAPACITY-1)];
+      long seq = e.seq;
+      if(seq == pos){
+        if(head.compareAndSet(pos, pos+1)) break;
+        pos = head.get();
+      }else if(seq < pos){
+        //the writer hasn't freed this entry yet, the ring is full
+        dropped.incrementAndGet();
+        if(lvl < 0) writer.printDirect(System.currentTimeMillis(), lvl, Thread.currentThread().getName(), c, method, msg, args, a0, a1, a2);
+        return;
+      }else{
+        pos = head.get();
       }
     }
+
+    e.time = System.currentTimeMillis();
+    e.lvl = lvl;
+    e.thread = Thread.currentThread().getName();
+    e.c = c;
+    e.method = method;
+    e.msg = msg;
+    e.args = args;
+    e.a0 = a0;
+    e.a1 = a1;
+    e.a2 = a2;
+    e.seq = pos+1;
+  }
+
+  private static class Writer extends Thread{
+
+    private volatile boolean running;
+    private long tail;
+    private long reportedDrops;
+
+    private StringBuilder sb;
+    private Calendar cal;
+    private BufferedWriter file;
+    private long fileSize;
+
+    private Writer(){
+      super("SimpleLogger writer");
+      setDaemon(true);
+      running = true;
+      tail = 0;
+      sb = new StringBuilder(256);
+      cal = Calendar.getInstance();
+    }
+
+    @Override
+    public void run(){
+      openFile();
+      while(running){
+        if(drain() == 0) LockSupport.parkNanos(Ref.LOG_POLL*1000000);
+      }
+      drain();
+      closeFile();
+    }
+
+    private void finish(){
+      if(!running) return;
+      running = false;
+      LockSupport.unpark(this);
+      try {
+        join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private int drain(){
+      int n = 0;
+      while(true){
+        Entry e = ring[(int)tail & (CAPACITY-1)];
+        if(e.seq != tail+1) break;
+
+        print(e.time, e.lvl, e.thread, e.c, e.method, e.msg, e.args, e.a0, e.a1, e.a2);
+        e.thread = null;
+        e.c = null;
+        e.msg = null;
+        e.a0 = null;
+        e.a1 = null;
+        e.a2 = null;
+        e.seq = tail+CAPACITY;
+        tail++;
+        n++;
+      }
+
+      long d = dropped.get();
+      if(d != reportedDrops){
+        print(System.currentTimeMillis(), 0, getName(), SimpleLogger.class, "log", "{} logs dropped, the ring was full", 1, d-reportedDrops, null, null);
+        reportedDrops = d;
+        n++;
+      }
+
+      if(n > 0) flushFile();
+      return n;
+    }
+
+    //used before the writer started, after it stopped and for severe errors when the ring is full
+    private synchronized void printDirect(long time, int lvl, String thread, Class<?> c, String method, Object msg, int args, Object a0, Object a1, Object a2){
+      sb.setLength(0);
+      format(time, lvl, thread, c, method, msg, args, a0, a1, a2);
+      if(lvl < 0) System.err.println(sb);
+      else System.out.println(sb);
+    }
+
+    private synchronized void print(long time, int lvl, String thread, Class<?> c, String method, Object msg, int args, Object a0, Object a1, Object a2){
+      sb.setLength(0);
+      format(time, lvl, thread, c, method, msg, args, a0, a1, a2);
+      if(lvl < 0) System.err.println(sb);
+      else System.out.println(sb);
+
+      if(file == null) return;
+      try {
+        file.append(sb);
+        file.newLine();
+        fileSize += sb.length()+1;
+        if(fileSize > Ref.LOG_FILE_SIZE){
+          closeFile();
+          openFile();
+        }
+      } catch (IOException ex) {
+        failed(ex);
+      }
+    }
+
+    private void format(long time, int lvl, String thread, Class<?> c, String method, Object msg, int args, Object a0, Object a1, Object a2){
+      cal.setTimeInMillis(time);
+      sb.append('[');
+      pad(cal.get(Calendar.HOUR_OF_DAY), 2).append(':');
+      pad(cal.get(Calendar.MINUTE), 2).append(':');
+      pad(cal.get(Calendar.SECOND), 2).append('.');
+      pad(cal.get(Calendar.MILLISECOND), 3).append("][");
+      sb.append(lvl).append("][").append(thread).append("][").append(c.getName()).append(':').append(method).append("]: ");
+
+      if(args == 0){
+        sb.append(msg);
+        return;
+      }
+
+      String pattern = String.valueOf(msg);
+      int from = 0;
+      for(int i=0;i<args;i++){
+        int at = pattern.indexOf("{}", from);
+        if(at < 0) break;
+        sb.append(pattern, from, at);
+        sb.append(i == 0 ? a0 : i == 1 ? a1 : a2);
+        from = at+2;
+      }
+      sb.append(pattern, from, pattern.length());
+    }
+
+    private StringBuilder pad(int v, int digits){
+      for(int d=digits-1, lim=10;d>0;d--, lim*=10){
+        if(v < lim) sb.append('0');
+      }
+      return sb.append(v);
+    }
+
+    //log/asteroids.log is always the current file, older ones are shifted to asteroids.1.log, asteroids.2.log, ...
+    private void openFile(){
+      File dir = new File(Ref.LOG_DIR);
+      dir.mkdirs();
+
+      File current = new File(dir, "asteroids.log");
+      if(current.length() > 0){
+        new File(dir, "asteroids."+Ref.LOG_FILES+".log").delete();
+        for(int i=Ref.LOG_FILES-1;i>0;i--){
+          new File(dir, "asteroids."+i+".log").renameTo(new File(dir, "asteroids."+(i+1)+".log"));
+        }
+        current.renameTo(new File(dir, "asteroids.1.log"));
+      }
+
+      try {
+        file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(current), StandardCharsets.UTF_8));
+        fileSize = 0;
+      } catch (IOException ex) {
+        failed(ex);
+      }
+    }
+
+    private void flushFile(){
+      if(file == null) return;
+      try {
+        file.flush();
+      } catch (IOException ex) {
+        failed(ex);
+      }
+    }
+
+    private void closeFile(){
+      if(file == null) return;
+      try {
+        file.close();
+      } catch (IOException ex) {
+        //nothing left to do with it
+      }
+      file = null;
+    }
+
+    //logs still go to the console if the file can't be written
+    private void failed(IOException ex){
+      System.err.println("[-1][util.SimpleLogger:writer]: log file disabled: "+ex.getMessage());
+      file = null;
+    }
   }
 }